@@ -26,4 +26,20 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 对账线程池
+     * 全量对账可能持续数十分钟，不能占用定时任务线程，否则发件箱中继和租约回收任务在对账期间无法执行；
+     * 单线程保证全量对账和增量对账不会并发执行
+     */
+    @Bean(name = "reconcileExecutor")
+    public ThreadPoolTaskExecutor reconcileExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(2);
+        executor.setThreadNamePrefix("reconcile-");
+        executor.initialize();
+        return executor;
+    }
 }
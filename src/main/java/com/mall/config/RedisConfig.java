@@ -3,10 +3,15 @@ package com.mall.config;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mall.service.ProductCatalogCache;
+import com.mall.service.SkuAdmissionGate;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -18,6 +23,10 @@ import org.springframework.data.redis.serializer.StringRedisSerializer;
 @Configuration
 public class RedisConfig {
 
+    /**
+     * 对象RedisTemplate，值以JSON存储，仅用于缓存对象
+     * 库存和余额等计数器使用 {@link #counterRedisTemplate}
+     */
     @SuppressWarnings("deprecation")
     @Bean
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
@@ -40,4 +49,35 @@ public class RedisConfig {
         template.afterPropertiesSet();
         return template;
     }
+
+    /**
+     * 计数器RedisTemplate，用于库存和余额
+     * 值以十进制整数字符串存储（如 10050），可直接执行 INCRBY/DECRBY，Lua脚本中 tonumber 即可读取，
+     * 读写不经过ObjectMapper
+     */
+    @Bean
+    public RedisTemplate<String, Long> counterRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, Long> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericToStringSerializer<>(Long.class));
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * Redis消息监听容器，订阅商品目录缓存失效通知
+     * 商品变更时同时失效本地商品目录缓存和商品售罄标记
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       ProductCatalogCache productCatalogCache,
+                                                                       SkuAdmissionGate skuAdmissionGate) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        ChannelTopic topic = new ChannelTopic(ProductCatalogCache.INVALIDATION_CHANNEL);
+        container.addMessageListener(productCatalogCache, topic);
+        container.addMessageListener(skuAdmissionGate, topic);
+        return container;
+    }
 }
@@ -1,10 +1,18 @@
 package com.mall.controller;
 
+import com.mall.dto.RedisScriptStats;
+import com.mall.service.RedisScriptRegistry;
+import com.mall.service.RedisWarmUpService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import com.mall.dto.ApiResponse;
 
+import java.util.List;
+
 
 /**
  * 健康检查控制器
@@ -13,11 +21,43 @@ import com.mall.dto.ApiResponse;
  */
 @RestController
 @RequestMapping("/health")
+@RequiredArgsConstructor
 public class HealthController {
 
+    private final RedisScriptRegistry redisScriptRegistry;
+    private final RedisWarmUpService redisWarmUpService;
+
     @GetMapping
     public ApiResponse<?> health() {
         return ApiResponse.success("商城交易系统运行正常",null);
     }
 
+    /**
+     * 就绪检查，供负载均衡判断是否转发流量
+     * GET /health/readiness
+     * 关键数据预热完成前返回503
+     */
+    @GetMapping("/readiness")
+    public ResponseEntity<ApiResponse<RedisWarmUpService.WarmUpState>> readiness() {
+        RedisWarmUpService.WarmUpState state = redisWarmUpService.getState();
+        if (redisWarmUpService.isReady()) {
+            return ResponseEntity.ok(ApiResponse.success("节点就绪", state));
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(ApiResponse.<RedisWarmUpService.WarmUpState>builder()
+                        .code(HttpStatus.SERVICE_UNAVAILABLE.value())
+                        .message("Redis预热中，节点未就绪")
+                        .data(state)
+                        .build());
+    }
+
+    /**
+     * 查询Lua脚本调用统计
+     * GET /health/redis-scripts
+     */
+    @GetMapping("/redis-scripts")
+    public ApiResponse<List<RedisScriptStats>> redisScripts() {
+        return ApiResponse.success(redisScriptRegistry.getStats());
+    }
+
 }
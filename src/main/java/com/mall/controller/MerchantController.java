@@ -3,13 +3,19 @@ package com.mall.controller;
 import com.mall.dto.ApiResponse;
 import com.mall.dto.ProductInventoryAddRequest;
 import com.mall.dto.ProductInventoryCreateRequest;
+import com.mall.domain.merchant.MerchantDailySales;
 import com.mall.domain.merchant.ProductInventory;
+import com.mall.service.MerchantDailySalesService;
 import com.mall.service.MerchantService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.util.List;
+
 /**
  * 商家控制器
  * 提供商家相关的REST API
@@ -23,6 +29,7 @@ import org.springframework.web.bind.annotation.*;
 public class MerchantController {
 
     private final MerchantService merchantService;
+    private final MerchantDailySalesService merchantDailySalesService;
 
     /**
      * 创建商品库存
@@ -99,4 +106,52 @@ public class MerchantController {
             return ApiResponse.fail("查询库存失败：" + e.getMessage());
         }
     }
+
+    /**
+     * 查询商家每日销售汇总
+     * GET /api/merchants/{merchantId}/daily-sales?startDate=2024-01-01&endDate=2024-01-31
+     *
+     * @param merchantId 商家ID
+     * @param startDate  开始日期（含）
+     * @param endDate    结束日期（含）
+     * @return 有已支付订单的日期的汇总，按日期排序
+     */
+    @GetMapping("/{merchantId}/daily-sales")
+    public ApiResponse<List<MerchantDailySales>> getDailySales(
+            @PathVariable Long merchantId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        try {
+            return ApiResponse.success(merchantDailySalesService.getDailySales(merchantId, startDate, endDate));
+        } catch (IllegalArgumentException e) {
+            log.warn("查询每日销售汇总失败：{}", e.getMessage());
+            return ApiResponse.fail(e.getMessage());
+        } catch (Exception e) {
+            log.error("查询每日销售汇总异常", e);
+            return ApiResponse.fail("查询每日销售汇总失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 从订单表重建每日销售汇总，用于补数
+     * POST /api/merchants/daily-sales/rebuild?startDate=2024-01-01&endDate=2024-01-31
+     *
+     * @param startDate 开始日期（含）
+     * @param endDate   结束日期（含）
+     * @return 重建的汇总行数
+     */
+    @PostMapping("/daily-sales/rebuild")
+    public ApiResponse<Integer> rebuildDailySales(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        try {
+            return ApiResponse.success("重建每日销售汇总成功", merchantDailySalesService.rebuild(startDate, endDate));
+        } catch (IllegalArgumentException e) {
+            log.warn("重建每日销售汇总失败：{}", e.getMessage());
+            return ApiResponse.fail(e.getMessage());
+        } catch (Exception e) {
+            log.error("重建每日销售汇总异常", e);
+            return ApiResponse.fail("重建每日销售汇总失败：" + e.getMessage());
+        }
+    }
 }
@@ -1,14 +1,24 @@
 package com.mall.controller;
 
 import com.mall.dto.ApiResponse;
+import com.mall.dto.CartOrderCreateRequest;
+import com.mall.dto.OrderBatchCreateRequest;
+import com.mall.dto.OrderBatchCreateResult;
 import com.mall.dto.OrderCreateRequest;
 import com.mall.domain.transaction.Order;
+import com.mall.exception.AdmissionRejectedException;
+import com.mall.exception.IdempotencyKeyReusedException;
+import com.mall.exception.RequestInProgressException;
+import com.mall.service.IdempotencyService;
 import com.mall.service.OrderService;
+import com.mall.service.SkuAdmissionGate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.stream.Collectors;
+
 /**
  * 订单控制器
  * 提供订单相关的REST API
@@ -22,19 +32,37 @@ import org.springframework.web.bind.annotation.*;
 public class OrderController {
 
     private final OrderService orderService;
+    private final IdempotencyService idempotencyService;
+    private final SkuAdmissionGate skuAdmissionGate;
 
     /**
      * 创建订单
      * POST /api/orders
+     * 携带 Idempotency-Key 请求头时，相同幂等键的重试返回首次创建的订单，请求内容不同时返回422
+     * 进入下单事务前按商品进行准入控制，已售罄或超过准入速率时直接拒绝
      *
-     * @param request 订单创建请求
+     * @param idempotencyKey 幂等键（可选）
+     * @param request        订单创建请求
      * @return 创建的订单
      */
     @PostMapping
-    public ApiResponse<Order> createOrder(@Validated @RequestBody OrderCreateRequest request) {
+    public ApiResponse<Order> createOrder(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Validated @RequestBody OrderCreateRequest request) {
         try {
-            Order order = orderService.createOrder(request);
+            Order order = idempotencyService.execute(request.getUserId(), idempotencyKey, request,
+                    () -> skuAdmissionGate.execute(request.getMerchantId(), request.getSku(),
+                            () -> orderService.createOrder(request)));
             return ApiResponse.success("订单创建成功", order);
+        } catch (RequestInProgressException e) {
+            log.warn("订单请求处理中：{}", e.getMessage());
+            return ApiResponse.fail(409, e.getMessage());
+        } catch (IdempotencyKeyReusedException e) {
+            log.warn("订单幂等键重用：{}", e.getMessage());
+            return ApiResponse.fail(422, e.getMessage());
+        } catch (AdmissionRejectedException e) {
+            log.debug("订单准入拒绝：{}", e.getMessage());
+            return ApiResponse.fail(429, e.getMessage());
         } catch (IllegalArgumentException e) {
             log.warn("订单创建失败：{}", e.getMessage());
             return ApiResponse.fail(e.getMessage());
@@ -44,6 +72,66 @@ public class OrderController {
         }
     }
 
+    /**
+     * 批量创建订单
+     * POST /api/orders/batch
+     * 每个订单单独进行准入控制，已售罄或超过准入速率的订单作为失败项返回
+     *
+     * @param request 批量订单创建请求
+     * @return 逐项创建结果
+     */
+    @PostMapping("/batch")
+    public ApiResponse<OrderBatchCreateResult> createOrders(@Validated @RequestBody OrderBatchCreateRequest request) {
+        try {
+            OrderBatchCreateResult result = skuAdmissionGate.executeBatch(request.getItems(), orderService::createOrders);
+            return ApiResponse.success("批量订单处理完成", result);
+        } catch (IllegalArgumentException e) {
+            log.warn("批量订单创建失败：{}", e.getMessage());
+            return ApiResponse.fail(e.getMessage());
+        } catch (Exception e) {
+            log.error("批量订单创建异常", e);
+            return ApiResponse.fail("批量订单创建失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 创建购物车订单
+     * POST /api/orders/cart
+     * 携带 Idempotency-Key 请求头时，相同幂等键的重试返回首次创建的订单，请求内容不同时返回422
+     * 全部商品通过准入控制后才进入下单事务，任一商品已售罄或超过准入速率时直接拒绝
+     *
+     * @param idempotencyKey 幂等键（可选）
+     * @param request        购物车订单创建请求
+     * @return 创建的订单
+     */
+    @PostMapping("/cart")
+    public ApiResponse<Order> createCartOrder(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Validated @RequestBody CartOrderCreateRequest request) {
+        try {
+            Order order = idempotencyService.execute(request.getUserId(), idempotencyKey, request,
+                    () -> skuAdmissionGate.executeAll(request.getMerchantId(),
+                            request.getItems().stream().map(CartOrderCreateRequest.Item::getSku).collect(Collectors.toList()),
+                            () -> orderService.createCartOrder(request)));
+            return ApiResponse.success("订单创建成功", order);
+        } catch (RequestInProgressException e) {
+            log.warn("购物车订单请求处理中：{}", e.getMessage());
+            return ApiResponse.fail(409, e.getMessage());
+        } catch (IdempotencyKeyReusedException e) {
+            log.warn("购物车订单幂等键重用：{}", e.getMessage());
+            return ApiResponse.fail(422, e.getMessage());
+        } catch (AdmissionRejectedException e) {
+            log.debug("购物车订单准入拒绝：{}", e.getMessage());
+            return ApiResponse.fail(429, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            log.warn("购物车订单创建失败：{}", e.getMessage());
+            return ApiResponse.fail(e.getMessage());
+        } catch (Exception e) {
+            log.error("购物车订单创建异常", e);
+            return ApiResponse.fail("购物车订单创建失败：" + e.getMessage());
+        }
+    }
+
     /**
      * 查询订单
      * GET /api/orders/{orderNo}
@@ -0,0 +1,59 @@
+package com.mall.controller;
+
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.dto.ApiResponse;
+import com.mall.service.OrderOutboxRelay;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * 订单发件箱控制器
+ * 提供失败事件的查询和重新应用，供人工排查使用
+ *
+ * @author mall
+ */
+@RestController
+@RequestMapping("/outbox")
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxController {
+
+    private final OrderOutboxRelay orderOutboxRelay;
+
+    /**
+     * 查询应用失败的事件
+     * GET /api/outbox/failed?limit=100
+     *
+     * @param limit 最多返回的事件数
+     * @return 按ID排序的失败事件，lastError为最后一次失败原因
+     */
+    @GetMapping("/failed")
+    public ApiResponse<List<OrderOutboxEvent>> getFailedEvents(@RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ApiResponse.success(orderOutboxRelay.getFailedEvents(limit));
+        } catch (Exception e) {
+            log.error("查询失败的发件箱事件异常", e);
+            return ApiResponse.fail("查询失败的发件箱事件失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 排查失败原因后重新应用失败事件
+     * POST /api/outbox/failed/retry
+     *
+     * @param ids 失败事件ID
+     * @return 重置为待应用的事件数
+     */
+    @PostMapping("/failed/retry")
+    public ApiResponse<Integer> retryFailed(@RequestBody List<Long> ids) {
+        try {
+            return ApiResponse.success("失败事件已重新提交", orderOutboxRelay.retryFailed(ids));
+        } catch (Exception e) {
+            log.error("重新应用发件箱事件异常", e);
+            return ApiResponse.fail("重新应用发件箱事件失败：" + e.getMessage());
+        }
+    }
+}
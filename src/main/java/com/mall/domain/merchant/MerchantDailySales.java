@@ -0,0 +1,60 @@
+package com.mall.domain.merchant;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 商家每日销售汇总
+ * 每个商家每天一行，记录当天已支付订单的金额、订单数和商品件数，由发件箱中继应用事件时按增量维护
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MerchantDailySales {
+
+    private Long id;
+
+    /**
+     * 商家ID
+     */
+    private Long merchantId;
+
+    /**
+     * 销售日期（订单创建时间所在的日期）
+     */
+    private LocalDate salesDate;
+
+    /**
+     * 已支付订单总金额
+     */
+    private BigDecimal paidAmount;
+
+    /**
+     * 已支付订单数
+     */
+    private Long orderCount;
+
+    /**
+     * 售出商品件数
+     */
+    private Long units;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
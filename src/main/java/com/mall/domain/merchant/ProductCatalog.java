@@ -0,0 +1,75 @@
+package com.mall.domain.merchant;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * 商品目录信息
+ * 下单时需要的商品名称、价格等不随库存变化的字段，用于本地缓存
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductCatalog {
+
+    /**
+     * 商家ID
+     */
+    private Long merchantId;
+
+    /**
+     * 商品SKU
+     */
+    private String sku;
+
+    /**
+     * 商品名称
+     */
+    private String productName;
+
+    /**
+     * 商品价格
+     */
+    private BigDecimal price;
+
+    /**
+     * 货币类型
+     */
+    private String currency;
+
+    /**
+     * 从商品库存中提取目录信息
+     *
+     * @param inventory 商品库存
+     * @return 商品目录信息
+     */
+    public static ProductCatalog from(ProductInventory inventory) {
+        return ProductCatalog.builder()
+                .merchantId(inventory.getMerchantId())
+                .sku(inventory.getSku())
+                .productName(inventory.getProductName())
+                .price(inventory.getPrice())
+                .currency(inventory.getCurrency())
+                .build();
+    }
+
+    /**
+     * 计算指定数量的商品总价
+     *
+     * @param quantity 商品数量
+     * @return 总价
+     */
+    public BigDecimal calculateTotalPrice(Integer quantity) {
+        if (quantity == null || quantity <= 0) {
+            throw new IllegalArgumentException("商品数量必须大于0");
+        }
+        return this.price.multiply(BigDecimal.valueOf(quantity));
+    }
+}
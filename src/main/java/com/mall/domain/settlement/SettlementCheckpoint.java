@@ -0,0 +1,106 @@
+package com.mall.domain.settlement;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 结算检查点
+ * 一个结算日的商家按商家ID划分为连续的分块，每个分块一行，覆盖 (startMerchantId, endMerchantId] 范围内的商家，
+ * 分块的结果与完成标记在同一事务中提交，重跑时跳过已完成的分块
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SettlementCheckpoint {
+
+    private Long id;
+
+    /**
+     * 结算日期
+     */
+    private LocalDate settlementDate;
+
+    /**
+     * 分块序号，从0开始
+     */
+    private Integer chunkNo;
+
+    /**
+     * 该计划的分块总数，多个节点同时制定计划时只采用先提交的计划
+     */
+    private Integer chunkCount;
+
+    /**
+     * 分块起始商家ID（不含）
+     */
+    private Long startMerchantId;
+
+    /**
+     * 分块结束商家ID（含）
+     */
+    private Long endMerchantId;
+
+    /**
+     * 分块状态
+     */
+    private Status status;
+
+    /**
+     * 已结算的商家数
+     */
+    private Integer merchantCount;
+
+    /**
+     * 不匹配的商家数
+     */
+    private Integer mismatchedCount;
+
+    /**
+     * 有订单但没有商家账户的商家数
+     */
+    private Integer missingAccountCount;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+    /**
+     * 创建待处理的分块
+     */
+    public static SettlementCheckpoint pending(LocalDate settlementDate, int chunkNo, int chunkCount,
+                                               Long startMerchantId, Long endMerchantId) {
+        return SettlementCheckpoint.builder()
+                .settlementDate(settlementDate)
+                .chunkNo(chunkNo)
+                .chunkCount(chunkCount)
+                .startMerchantId(startMerchantId)
+                .endMerchantId(endMerchantId)
+                .status(Status.PENDING)
+                .merchantCount(0)
+                .mismatchedCount(0)
+                .missingAccountCount(0)
+                .build();
+    }
+
+    /**
+     * 分块状态枚举
+     */
+    public enum Status {
+        PENDING,    // 待处理
+        DONE        // 已完成
+    }
+}
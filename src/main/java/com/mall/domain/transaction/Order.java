@@ -7,6 +7,7 @@ import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 订单聚合根
@@ -23,7 +24,7 @@ public class Order {
     private Long id;
 
     /**
-     * 订单号
+     * 订单号，由构建订单的服务使用雪花算法ID生成器生成
      */
     private String orderNo;
 
@@ -38,25 +39,35 @@ public class Order {
     private Long merchantId;
 
     /**
-     * 商品SKU
+     * 商品SKU（购物车订单为空，见订单明细）
      */
     private String sku;
 
     /**
-     * 商品名称
+     * 商品名称（购物车订单为商品摘要）
      */
     private String productName;
 
     /**
-     * 商品单价
+     * 商品单价（购物车订单为空，见订单明细）
      */
     private BigDecimal unitPrice;
 
     /**
-     * 购买数量
+     * 购买数量（购物车订单为商品总件数）
      */
     private Integer quantity;
 
+    /**
+     * 商品种数，单商品订单为1
+     */
+    private Integer itemCount;
+
+    /**
+     * 订单明细，仅购物车订单有值，不对应数据库字段
+     */
+    private List<OrderItem> items;
+
     /**
      * 订单总金额
      */
@@ -137,19 +148,12 @@ public class Order {
         if (status == null) {
             status = OrderStatus.PENDING;
         }
+        if (itemCount == null) {
+            itemCount = 1;
+        }
         if (currency == null || currency.isEmpty()) {
             currency = "CNY";
         }
-        if (orderNo == null || orderNo.isEmpty()) {
-            orderNo = generateOrderNo();
-        }
-    }
-
-    /**
-     * 生成订单号
-     */
-    private String generateOrderNo() {
-        return "ORD" + System.currentTimeMillis() + (int)(Math.random() * 1000);
     }
 
     /**
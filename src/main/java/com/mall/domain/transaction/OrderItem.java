@@ -0,0 +1,69 @@
+package com.mall.domain.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 订单明细
+ * 购物车订单中的一个商品行
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderItem {
+
+    private Long id;
+
+    /**
+     * 订单ID
+     */
+    private Long orderId;
+
+    /**
+     * 订单号
+     */
+    private String orderNo;
+
+    /**
+     * 商家ID
+     */
+    private Long merchantId;
+
+    /**
+     * 商品SKU
+     */
+    private String sku;
+
+    /**
+     * 商品名称
+     */
+    private String productName;
+
+    /**
+     * 商品单价
+     */
+    private BigDecimal unitPrice;
+
+    /**
+     * 购买数量
+     */
+    private Integer quantity;
+
+    /**
+     * 明细金额
+     */
+    private BigDecimal amount;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+}
@@ -0,0 +1,149 @@
+package com.mall.domain.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 订单发件箱事件
+ * 与订单在同一事务中写入，由发件箱中继按顺序应用到数据库库存和账户余额
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderOutboxEvent {
+
+    private Long id;
+
+    /**
+     * 事件类型
+     */
+    private EventType eventType;
+
+    /**
+     * 订单号
+     */
+    private String orderNo;
+
+    /**
+     * 用户ID（转账事件）
+     */
+    private Long userId;
+
+    /**
+     * 商家ID
+     */
+    private Long merchantId;
+
+    /**
+     * 商品SKU（库存事件）
+     */
+    private String sku;
+
+    /**
+     * 扣减数量（库存事件）
+     */
+    private Integer quantity;
+
+    /**
+     * 转账金额（转账事件）
+     */
+    private BigDecimal amount;
+
+    /**
+     * 事件状态
+     */
+    private EventStatus status;
+
+    /**
+     * 已重试次数
+     */
+    private Integer retryCount;
+
+    /**
+     * 最近一次失败原因
+     */
+    private String lastError;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+    /**
+     * 创建库存扣减事件
+     */
+    public static OrderOutboxEvent inventoryDecrease(String orderNo, Long merchantId, String sku, Integer quantity) {
+        OrderOutboxEvent event = OrderOutboxEvent.builder()
+                .eventType(EventType.INVENTORY_DECREASE)
+                .orderNo(orderNo)
+                .merchantId(merchantId)
+                .sku(sku)
+                .quantity(quantity)
+                .build();
+        event.initDefaults();
+        return event;
+    }
+
+    /**
+     * 创建账户转账事件
+     */
+    public static OrderOutboxEvent accountTransfer(String orderNo, Long userId, Long merchantId, BigDecimal amount) {
+        OrderOutboxEvent event = OrderOutboxEvent.builder()
+                .eventType(EventType.ACCOUNT_TRANSFER)
+                .orderNo(orderNo)
+                .userId(userId)
+                .merchantId(merchantId)
+                .amount(amount)
+                .build();
+        event.initDefaults();
+        return event;
+    }
+
+    /**
+     * 初始化默认值
+     */
+    public void initDefaults() {
+        if (status == null) {
+            status = EventStatus.PENDING;
+        }
+        if (retryCount == null) {
+            retryCount = 0;
+        }
+        if (createTime == null) {
+            createTime = LocalDateTime.now();
+        }
+        if (updateTime == null) {
+            updateTime = LocalDateTime.now();
+        }
+    }
+
+    /**
+     * 事件类型枚举
+     */
+    public enum EventType {
+        INVENTORY_DECREASE,     // 扣减数据库库存
+        ACCOUNT_TRANSFER        // 用户向商家转账
+    }
+
+    /**
+     * 事件状态枚举
+     */
+    public enum EventStatus {
+        PENDING,    // 待应用
+        DONE,       // 已应用
+        FAILED      // 超过重试次数，需人工处理
+    }
+}
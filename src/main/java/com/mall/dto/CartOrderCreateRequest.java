@@ -0,0 +1,69 @@
+package com.mall.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * 购物车订单创建请求DTO
+ * 同一商家的多个商品合并为一个订单
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartOrderCreateRequest {
+
+    /**
+     * 用户ID
+     */
+    @NotNull(message = "用户ID不能为空")
+    private Long userId;
+
+    /**
+     * 商家ID
+     */
+    @NotNull(message = "商家ID不能为空")
+    private Long merchantId;
+
+    /**
+     * 商品列表
+     */
+    @Valid
+    @NotEmpty(message = "商品列表不能为空")
+    @Size(max = 50, message = "单个订单最多包含50种商品")
+    private List<Item> items;
+
+    /**
+     * 购物车商品
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+
+        /**
+         * 商品SKU
+         */
+        @NotNull(message = "商品SKU不能为空")
+        private String sku;
+
+        /**
+         * 购买数量
+         */
+        @NotNull(message = "购买数量不能为空")
+        @Min(value = 1, message = "购买数量必须大于0")
+        private Integer quantity;
+    }
+}
@@ -0,0 +1,31 @@
+package com.mall.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * 批量订单创建请求DTO
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderBatchCreateRequest {
+
+    /**
+     * 订单列表
+     */
+    @Valid
+    @NotEmpty(message = "订单列表不能为空")
+    @Size(max = 500, message = "单次最多提交500个订单")
+    private List<OrderCreateRequest> items;
+}
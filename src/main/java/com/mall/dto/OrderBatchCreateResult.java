@@ -0,0 +1,76 @@
+package com.mall.dto;
+
+import com.mall.domain.transaction.Order;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量订单创建结果DTO
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderBatchCreateResult {
+
+    /**
+     * 成功数量
+     */
+    private Integer successCount;
+
+    /**
+     * 失败数量
+     */
+    private Integer failureCount;
+
+    /**
+     * 处理耗时（毫秒）
+     */
+    private Long elapsedMillis;
+
+    /**
+     * 吞吐量（订单数/秒）
+     */
+    private Double ordersPerSecond;
+
+    /**
+     * 每个订单的处理结果，顺序与请求一致
+     */
+    private List<Item> items;
+
+    /**
+     * 单个订单的处理结果
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+
+        /**
+         * 请求中的序号
+         */
+        private Integer index;
+
+        /**
+         * 是否成功
+         */
+        private Boolean success;
+
+        /**
+         * 创建的订单，失败时为空
+         */
+        private Order order;
+
+        /**
+         * 失败原因，成功时为空
+         */
+        private String message;
+    }
+}
@@ -0,0 +1,53 @@
+package com.mall.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Redis与数据库对账结果DTO
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationReport {
+
+    /**
+     * 对账方式：FULL（全量扫描）或 INCREMENTAL（检查点之后变更的key）
+     */
+    private String mode;
+
+    /**
+     * 检查的key数量
+     */
+    private long checked;
+
+    /**
+     * 两次检查差异相同、确认存在偏差的key数量
+     */
+    private long drifted;
+
+    /**
+     * 已自动修复的key数量
+     */
+    private long repaired;
+
+    /**
+     * 两次检查差异不同的key数量，视为在途订单造成的暂时差异
+     */
+    private long unstable;
+
+    /**
+     * 未对账的key数量（本地租借库存的商品、无法解析的key）
+     */
+    private long skipped;
+
+    /**
+     * 对账耗时（毫秒）
+     */
+    private long elapsedMillis;
+}
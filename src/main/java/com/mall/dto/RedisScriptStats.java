@@ -0,0 +1,53 @@
+package com.mall.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Lua脚本调用统计DTO
+ *
+ * @author mall
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RedisScriptStats {
+
+    /**
+     * 脚本名称
+     */
+    private String name;
+
+    /**
+     * 脚本SHA1
+     */
+    private String sha;
+
+    /**
+     * 调用次数
+     */
+    private long calls;
+
+    /**
+     * 失败次数
+     */
+    private long errors;
+
+    /**
+     * 因NOSCRIPT重新加载的次数
+     */
+    private long reloads;
+
+    /**
+     * 平均耗时（微秒）
+     */
+    private long avgMicros;
+
+    /**
+     * 最大耗时（微秒）
+     */
+    private long maxMicros;
+}
@@ -0,0 +1,39 @@
+package com.mall.exception;
+
+/**
+ * 下单准入拒绝异常
+ * 商品已售罄或请求超过商品的准入速率时抛出
+ *
+ * @author mall
+ */
+public class AdmissionRejectedException extends BaseBusinessException {
+
+    public AdmissionRejectedException(String message) {
+        super(message);
+    }
+
+    public AdmissionRejectedException(String message, String errorCode) {
+        super(message, errorCode);
+    }
+
+    public AdmissionRejectedException(String message, String errorCode, Object... params) {
+        super(message, errorCode, params);
+    }
+
+    public AdmissionRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public AdmissionRejectedException(String message, Throwable cause, String errorCode) {
+        super(message, cause, errorCode);
+    }
+
+    public AdmissionRejectedException(String message, Throwable cause, String errorCode, Object... params) {
+        super(message, cause, errorCode, params);
+    }
+
+    @Override
+    protected String getDefaultErrorCode() {
+        return "ADMISSION_REJECTED";
+    }
+}
\ No newline at end of file
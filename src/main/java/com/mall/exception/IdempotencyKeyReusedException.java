@@ -0,0 +1,39 @@
+package com.mall.exception;
+
+/**
+ * 幂等键重用异常
+ * 相同幂等键再次提交了与首次请求内容不同的请求
+ *
+ * @author mall
+ */
+public class IdempotencyKeyReusedException extends BaseBusinessException {
+
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+
+    public IdempotencyKeyReusedException(String message, String errorCode) {
+        super(message, errorCode);
+    }
+
+    public IdempotencyKeyReusedException(String message, String errorCode, Object... params) {
+        super(message, errorCode, params);
+    }
+
+    public IdempotencyKeyReusedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public IdempotencyKeyReusedException(String message, Throwable cause, String errorCode) {
+        super(message, cause, errorCode);
+    }
+
+    public IdempotencyKeyReusedException(String message, Throwable cause, String errorCode, Object... params) {
+        super(message, cause, errorCode, params);
+    }
+
+    @Override
+    protected String getDefaultErrorCode() {
+        return "IDEMPOTENCY_KEY_REUSED";
+    }
+}
\ No newline at end of file
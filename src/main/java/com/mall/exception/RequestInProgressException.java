@@ -0,0 +1,39 @@
+package com.mall.exception;
+
+/**
+ * 请求处理中异常
+ * 相同幂等键的请求正在处理且等待超时
+ *
+ * @author mall
+ */
+public class RequestInProgressException extends BaseBusinessException {
+
+    public RequestInProgressException(String message) {
+        super(message);
+    }
+
+    public RequestInProgressException(String message, String errorCode) {
+        super(message, errorCode);
+    }
+
+    public RequestInProgressException(String message, String errorCode, Object... params) {
+        super(message, errorCode, params);
+    }
+
+    public RequestInProgressException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RequestInProgressException(String message, Throwable cause, String errorCode) {
+        super(message, cause, errorCode);
+    }
+
+    public RequestInProgressException(String message, Throwable cause, String errorCode, Object... params) {
+        super(message, cause, errorCode, params);
+    }
+
+    @Override
+    protected String getDefaultErrorCode() {
+        return "REQUEST_IN_PROGRESS";
+    }
+}
\ No newline at end of file
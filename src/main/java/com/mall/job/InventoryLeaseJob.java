@@ -0,0 +1,30 @@
+package com.mall.job;
+
+import com.mall.service.InventoryLeaseService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地租借库存回收定时任务
+ * 定期将过期租约中未用完的库存归还Redis
+ *
+ * @author mall
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class InventoryLeaseJob {
+
+    private final InventoryLeaseService inventoryLeaseService;
+
+    @Scheduled(fixedDelayString = "${inventory.lease.check-interval-millis:5000}")
+    public void returnExpiredLeases() {
+        try {
+            inventoryLeaseService.returnExpiredLeases();
+        } catch (Exception e) {
+            log.error("回收本地租借库存失败", e);
+        }
+    }
+}
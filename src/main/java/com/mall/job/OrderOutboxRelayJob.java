@@ -0,0 +1,60 @@
+package com.mall.job;
+
+import com.mall.service.OrderOutboxRelay;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 订单发件箱中继定时任务
+ * 定期将发件箱事件应用到数据库，积压时连续处理直到取不满一批；
+ * 定期清理超过保留时间的已应用事件，存在失败事件时持续告警
+ *
+ * @author mall
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderOutboxRelayJob {
+
+    private final OrderOutboxRelay orderOutboxRelay;
+
+    @Scheduled(fixedDelayString = "${order.outbox.relay-interval-millis:200}")
+    public void relay() {
+        try {
+            while (orderOutboxRelay.relayBatch() >= orderOutboxRelay.getBatchSize()) {
+                log.debug("发件箱存在积压，继续中继");
+            }
+        } catch (Exception e) {
+            log.error("发件箱中继失败", e);
+        }
+    }
+
+    /**
+     * 清理已应用的事件，默认每小时执行
+     */
+    @Scheduled(cron = "${order.outbox.purge-cron:0 15 * * * ?}")
+    public void purgeDone() {
+        try {
+            orderOutboxRelay.purgeDone();
+        } catch (Exception e) {
+            log.error("清理发件箱事件失败", e);
+        }
+    }
+
+    /**
+     * 失败事件的增量没有应用到数据库，需人工排查后通过 POST /api/outbox/failed/retry 重新应用
+     */
+    @Scheduled(fixedDelayString = "${order.outbox.failed-check-interval-millis:60000}")
+    public void checkFailed() {
+        try {
+            long failed = orderOutboxRelay.countFailed();
+            if (failed > 0) {
+                log.error("存在应用失败的发件箱事件，库存和余额增量未写入数据库：failed={}", failed);
+            }
+        } catch (Exception e) {
+            log.error("检查失败的发件箱事件失败", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mall.job;
+
+import com.mall.service.ReconciliationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Redis与数据库对账定时任务
+ * 每天低峰期执行一次全量对账，其余时间定期执行增量对账
+ * 对账检查点保存在Redis中，只需在一个节点开启
+ * <p>
+ * 对账在独立的对账线程池中执行，定时任务线程只负责提交。全量对账可能持续数十分钟，
+ * 发件箱中继和租约回收任务绝不能与对账共用线程：租约回收停顿期间租约记录过期，
+ * 对账会把节点本地仍在售卖的库存确认为偏差并写回Redis，造成超卖
+ *
+ * @author mall
+ */
+@Component
+@Slf4j
+public class ReconciliationJob {
+
+    private final ReconciliationService reconciliationService;
+    private final TaskExecutor reconcileExecutor;
+
+    /**
+     * 已提交或正在执行的对账，同类对账未完成时跳过本次调度
+     */
+    private final AtomicBoolean fullPending = new AtomicBoolean();
+    private final AtomicBoolean incrementalPending = new AtomicBoolean();
+
+    @Value("${reconcile.enabled:false}")
+    private boolean enabled;
+
+    public ReconciliationJob(ReconciliationService reconciliationService,
+                             @Qualifier("reconcileExecutor") TaskExecutor reconcileExecutor) {
+        this.reconciliationService = reconciliationService;
+        this.reconcileExecutor = reconcileExecutor;
+    }
+
+    /**
+     * 全量对账，默认每天凌晨3点30分执行
+     */
+    @Scheduled(cron = "${reconcile.full-cron:0 30 3 * * ?}")
+    public void reconcileAll() {
+        if (!enabled) {
+            return;
+        }
+        submit("全量对账", fullPending, reconciliationService::reconcileAll);
+    }
+
+    @Scheduled(fixedDelayString = "${reconcile.incremental-interval-millis:60000}",
+            initialDelayString = "${reconcile.incremental-interval-millis:60000}")
+    public void reconcileIncremental() {
+        if (!enabled) {
+            return;
+        }
+        submit("增量对账", incrementalPending, reconciliationService::reconcileIncremental);
+    }
+
+    /**
+     * 提交到对账线程池，同类对账尚未完成时跳过
+     */
+    private void submit(String name, AtomicBoolean pending, Runnable task) {
+        if (!pending.compareAndSet(false, true)) {
+            log.info("上一次{}尚未完成，跳过本次调度", name);
+            return;
+        }
+        try {
+            reconcileExecutor.execute(() -> {
+                log.info("开始执行{}", name);
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("{}失败", name, e);
+                } finally {
+                    pending.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            pending.set(false);
+            log.error("提交{}失败", name, e);
+        }
+    }
+}
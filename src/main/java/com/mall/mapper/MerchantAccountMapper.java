@@ -3,7 +3,9 @@ package com.mall.mapper;
 import com.mall.domain.merchant.MerchantAccount;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 /**
@@ -24,6 +26,15 @@ public interface MerchantAccountMapper {
      */
     int updateById(MerchantAccount merchantAccount);
 
+    /**
+     * 按增量调整余额（单条条件UPDATE，不读取整行），扣款时增量为负数，仅在调整后余额不为负时更新
+     *
+     * @param expectedVersion 期望的版本号，为null时不校验版本
+     * @return 更新行数，0表示账户不存在、余额不足或版本不匹配
+     */
+    int addBalance(@Param("merchantId") Long merchantId, @Param("delta") BigDecimal delta,
+                   @Param("expectedVersion") Long expectedVersion);
+
     /**
      * 根据ID查找商家账户
      */
@@ -34,6 +45,11 @@ public interface MerchantAccountMapper {
      */
     MerchantAccount selectByMerchantId(Long merchantId);
 
+    /**
+     * 根据商家ID批量查找账户
+     */
+    List<MerchantAccount> selectByMerchantIds(@Param("merchantIds") List<Long> merchantIds);
+
     /**
      * 根据商家ID查找账户（加悲观锁 FOR UPDATE）
      */
@@ -43,4 +59,20 @@ public interface MerchantAccountMapper {
      * 查找所有商家账户
      */
     List<MerchantAccount> selectAll();
+
+    /**
+     * 按商家ID顺序查找指定ID之后的商家ID（键集分页，只读索引），用于划分结算分块
+     */
+    List<Long> selectMerchantIdsAfter(@Param("afterMerchantId") Long afterMerchantId, @Param("limit") int limit);
+
+    /**
+     * 查找商家ID在 (startMerchantId, endMerchantId] 范围内的账户
+     */
+    List<MerchantAccount> selectByMerchantIdRange(@Param("startMerchantId") Long startMerchantId,
+                                                  @Param("endMerchantId") Long endMerchantId);
+
+    /**
+     * 流式读取所有商家账户，逐行回调而不在内存中保留完整结果集，用于Redis预热
+     */
+    void streamAll(ResultHandler<MerchantAccount> handler);
 }
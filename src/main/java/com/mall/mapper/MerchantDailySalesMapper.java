@@ -0,0 +1,54 @@
+package com.mall.mapper;
+
+import com.mall.domain.merchant.MerchantDailySales;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 商家每日销售汇总Mapper
+ *
+ * @author mall
+ */
+@Mapper
+public interface MerchantDailySalesMapper {
+
+    /**
+     * 按增量累加汇总（单条多值 INSERT ... ON DUPLICATE KEY UPDATE），当天尚无汇总行时插入
+     *
+     * @param increments 每个商家每天一条增量，按商家ID和日期排序以避免并发累加时相互死锁
+     */
+    int upsertIncrements(@Param("increments") List<MerchantDailySales> increments);
+
+    /**
+     * 查找商家指定日期的汇总
+     */
+    MerchantDailySales selectByMerchantIdAndSalesDate(@Param("merchantId") Long merchantId,
+                                                       @Param("salesDate") LocalDate salesDate);
+
+    /**
+     * 查找商家指定日期范围内（含首尾）的汇总，按日期排序
+     */
+    List<MerchantDailySales> selectByMerchantIdAndDateRange(@Param("merchantId") Long merchantId,
+                                                             @Param("startDate") LocalDate startDate,
+                                                             @Param("endDate") LocalDate endDate);
+
+    /**
+     * 查找指定日期商家ID在 (startMerchantId, endMerchantId] 范围内的汇总
+     */
+    List<MerchantDailySales> selectBySalesDateAndMerchantRange(@Param("salesDate") LocalDate salesDate,
+                                                               @Param("startMerchantId") Long startMerchantId,
+                                                               @Param("endMerchantId") Long endMerchantId);
+
+    /**
+     * 删除指定日期范围内（含首尾）的汇总
+     */
+    int deleteByDateRange(@Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate);
+
+    /**
+     * 从订单表重新汇总指定日期范围内（含首尾）的已支付订单并插入，需先删除该范围内的汇总
+     */
+    int insertFromOrders(@Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate);
+}
@@ -0,0 +1,26 @@
+package com.mall.mapper;
+
+import com.mall.domain.transaction.OrderItem;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 订单明细Mapper
+ *
+ * @author mall
+ */
+@Mapper
+public interface OrderItemMapper {
+
+    /**
+     * 批量插入订单明细
+     */
+    int batchInsert(@Param("items") List<OrderItem> items);
+
+    /**
+     * 根据订单ID查找订单明细
+     */
+    List<OrderItem> selectByOrderId(Long orderId);
+}
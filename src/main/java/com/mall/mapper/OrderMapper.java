@@ -1,5 +1,6 @@
 package com.mall.mapper;
 
+import com.mall.domain.merchant.ProductInventory;
 import com.mall.domain.transaction.Order;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
@@ -21,6 +22,11 @@ public interface OrderMapper {
      */
     int insert(Order order);
 
+    /**
+     * 批量插入订单（单条多值INSERT），自动回填ID
+     */
+    int batchInsert(@Param("orders") List<Order> orders);
+
     /**
      * 根据ID更新订单
      */
@@ -36,6 +42,11 @@ public interface OrderMapper {
      */
     Order selectByOrderNo(String orderNo);
 
+    /**
+     * 查找已存在的订单号，用于订单日志重复投递时去重
+     */
+    List<String> selectExistingOrderNos(@Param("orderNos") List<String> orderNos);
+
     /**
      * 根据用户ID查找订单列表
      */
@@ -59,4 +70,21 @@ public interface OrderMapper {
      * 查找所有订单
      */
     List<Order> selectAll();
+
+    /**
+     * 查找指定时间之后下过单的用户ID，最近下单的在前，用于优先预热
+     */
+    List<Long> selectActiveUserIds(@Param("since") LocalDateTime since, @Param("limit") int limit);
+
+    /**
+     * 查找指定时间之后有订单的商家ID，最近有订单的在前，用于优先预热
+     */
+    List<Long> selectActiveMerchantIds(@Param("since") LocalDateTime since, @Param("limit") int limit);
+
+    /**
+     * 查找指定时间之后销量最高的商品（含购物车订单明细），用于优先预热
+     *
+     * @return 只设置了merchantId和sku的库存key
+     */
+    List<ProductInventory> selectHotSkus(@Param("since") LocalDateTime since, @Param("limit") int limit);
 }
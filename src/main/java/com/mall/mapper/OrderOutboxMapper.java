@@ -0,0 +1,98 @@
+package com.mall.mapper;
+
+import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 订单发件箱Mapper
+ *
+ * @author mall
+ */
+@Mapper
+public interface OrderOutboxMapper {
+
+    /**
+     * 批量插入发件箱事件
+     */
+    int batchInsert(@Param("events") List<OrderOutboxEvent> events);
+
+    /**
+     * 按ID顺序查找待应用的事件
+     */
+    List<OrderOutboxEvent> selectPending(@Param("limit") int limit);
+
+    /**
+     * 按ID顺序查找指定ID之后的事件，用于增量对账
+     */
+    List<OrderOutboxEvent> selectAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 汇总指定商品尚未应用到数据库（待应用或失败）的库存扣减数量
+     *
+     * @param keys 只需设置merchantId和sku
+     * @return 每个商品一条，quantity为扣减数量合计
+     */
+    List<OrderOutboxEvent> sumUnappliedInventory(@Param("keys") List<ProductInventory> keys);
+
+    /**
+     * 汇总指定用户尚未应用到数据库（待应用或失败）的转账金额
+     *
+     * @return 每个用户一条，amount为转账金额合计
+     */
+    List<OrderOutboxEvent> sumUnappliedUserAmounts(@Param("userIds") List<Long> userIds);
+
+    /**
+     * 汇总指定商家尚未应用到数据库（待应用或失败）的转账金额
+     *
+     * @return 每个商家一条，amount为转账金额合计
+     */
+    List<OrderOutboxEvent> sumUnappliedMerchantAmounts(@Param("merchantIds") List<Long> merchantIds);
+
+    /**
+     * 标记事件已应用，仅当事件仍为待应用状态时成功
+     *
+     * @return 更新行数，0表示事件已被其他节点应用
+     */
+    int markDone(@Param("id") Long id);
+
+    /**
+     * 批量标记事件已应用，仅更新仍为待应用状态的事件
+     *
+     * @return 更新行数，小于事件数表示部分事件已被其他节点应用
+     */
+    int markDoneBatch(@Param("ids") List<Long> ids);
+
+    /**
+     * 记录应用失败，重试次数达到上限时标记为失败
+     */
+    int markRetry(@Param("id") Long id, @Param("error") String error, @Param("maxRetries") int maxRetries);
+
+    /**
+     * 按ID顺序查找应用失败、等待人工处理的事件
+     */
+    List<OrderOutboxEvent> selectFailed(@Param("limit") int limit);
+
+    /**
+     * 统计应用失败的事件数
+     */
+    long countFailed();
+
+    /**
+     * 将失败事件重置为待应用，由中继重新应用
+     *
+     * @return 更新行数，只更新仍为失败状态的事件
+     */
+    int resetFailed(@Param("ids") List<Long> ids);
+
+    /**
+     * 按ID顺序删除一批在指定时间之前已应用的事件
+     *
+     * @return 删除行数
+     */
+    int deleteDoneBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
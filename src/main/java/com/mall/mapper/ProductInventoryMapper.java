@@ -3,6 +3,7 @@ package com.mall.mapper;
 import com.mall.domain.merchant.ProductInventory;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
 
@@ -24,6 +25,24 @@ public interface ProductInventoryMapper {
      */
     int updateById(ProductInventory productInventory);
 
+    /**
+     * 按增量扣减库存（单条条件UPDATE，不读取整行），仅在库存足够时扣减
+     *
+     * @param expectedVersion 期望的版本号，为null时不校验版本
+     * @return 更新行数，0表示商品不存在、库存不足或版本不匹配
+     */
+    int decreaseQuantity(@Param("merchantId") Long merchantId, @Param("sku") String sku,
+                         @Param("quantity") Integer quantity, @Param("expectedVersion") Long expectedVersion);
+
+    /**
+     * 按增量增加库存（单条条件UPDATE，不读取整行）
+     *
+     * @param expectedVersion 期望的版本号，为null时不校验版本
+     * @return 更新行数，0表示商品不存在或版本不匹配
+     */
+    int increaseQuantity(@Param("merchantId") Long merchantId, @Param("sku") String sku,
+                         @Param("quantity") Integer quantity, @Param("expectedVersion") Long expectedVersion);
+
     /**
      * 根据ID查找商品库存
      */
@@ -34,6 +53,13 @@ public interface ProductInventoryMapper {
      */
     ProductInventory selectByMerchantIdAndSku(@Param("merchantId") Long merchantId, @Param("sku") String sku);
 
+    /**
+     * 按商家ID和SKU批量查找商品库存
+     *
+     * @param keys 只需设置merchantId和sku
+     */
+    List<ProductInventory> selectByKeys(@Param("keys") List<ProductInventory> keys);
+
     /**
      * 根据商家ID和SKU查找商品库存（加悲观锁 FOR UPDATE）
      */
@@ -48,4 +74,9 @@ public interface ProductInventoryMapper {
      * 查找所有商品库存
      */
     List<ProductInventory> selectAll();
+
+    /**
+     * 流式读取所有商品库存，逐行回调而不在内存中保留完整结果集，用于Redis预热
+     */
+    void streamAll(ResultHandler<ProductInventory> handler);
 }
@@ -0,0 +1,41 @@
+package com.mall.mapper;
+
+import com.mall.domain.settlement.SettlementCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 结算检查点Mapper
+ *
+ * @author mall
+ */
+@Mapper
+public interface SettlementCheckpointMapper {
+
+    /**
+     * 批量插入分块计划（单条多值 INSERT IGNORE），已存在的分块保持不变
+     */
+    int insertIgnoreBatch(@Param("checkpoints") List<SettlementCheckpoint> checkpoints);
+
+    /**
+     * 查找结算日的全部分块，按分块序号排序
+     */
+    List<SettlementCheckpoint> selectBySettlementDate(@Param("settlementDate") LocalDate settlementDate);
+
+    /**
+     * 标记分块已完成，仅当分块仍为待处理状态时成功
+     * 在分块事务中首先执行，行锁使其他节点处理同一分块时等待本事务结束
+     */
+    int markDone(@Param("id") Long id);
+
+    /**
+     * 记录分块的结算统计
+     */
+    int updateCounts(@Param("id") Long id,
+                     @Param("merchantCount") int merchantCount,
+                     @Param("mismatchedCount") int mismatchedCount,
+                     @Param("missingAccountCount") int missingAccountCount);
+}
@@ -0,0 +1,21 @@
+package com.mall.mapper;
+
+import com.mall.service.SettlementService.SettlementResult;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 结算结果Mapper
+ *
+ * @author mall
+ */
+@Mapper
+public interface SettlementResultMapper {
+
+    /**
+     * 批量写入结算结果（单条多值 INSERT ... ON DUPLICATE KEY UPDATE），同一结算日重跑时覆盖已有结果
+     */
+    int batchUpsert(@Param("results") List<SettlementResult> results);
+}
@@ -3,7 +3,9 @@ package com.mall.mapper;
 import com.mall.domain.user.UserAccount;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 /**
@@ -24,6 +26,15 @@ public interface UserAccountMapper {
      */
     int updateById(UserAccount userAccount);
 
+    /**
+     * 按增量调整余额（单条条件UPDATE，不读取整行），扣款时增量为负数，仅在调整后余额不为负时更新
+     *
+     * @param expectedVersion 期望的版本号，为null时不校验版本
+     * @return 更新行数，0表示账户不存在、余额不足或版本不匹配
+     */
+    int addBalance(@Param("userId") Long userId, @Param("delta") BigDecimal delta,
+                   @Param("expectedVersion") Long expectedVersion);
+
     /**
      * 根据ID查找用户账户
      */
@@ -34,6 +45,11 @@ public interface UserAccountMapper {
      */
     UserAccount selectByUserId(Long userId);
 
+    /**
+     * 根据用户ID批量查找账户
+     */
+    List<UserAccount> selectByUserIds(@Param("userIds") List<Long> userIds);
+
     /**
      * 根据用户ID查找账户（加悲观锁 FOR UPDATE）
      */
@@ -43,4 +59,9 @@ public interface UserAccountMapper {
      * 查找所有用户账户
      */
     List<UserAccount> selectAll();
+
+    /**
+     * 流式读取所有用户账户，逐行回调而不在内存中保留完整结果集，用于Redis预热
+     */
+    void streamAll(ResultHandler<UserAccount> handler);
 }
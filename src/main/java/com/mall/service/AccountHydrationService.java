@@ -0,0 +1,185 @@
+package com.mall.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mall.domain.merchant.MerchantAccount;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.domain.user.UserAccount;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.UserAccountMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 账户加载服务
+ * 下单脚本报告账户不在Redis中时，先转换旧版本的小数余额，没有旧余额时从数据库加载账户并写入Redis
+ * 数据库余额落后于Redis未应用的发件箱转账，账户行和未应用的转账在同一读事务中读取（同一快照）：
+ * Redis用户余额 = 数据库余额 - 未应用转出，Redis商家余额 = 数据库余额 + 未应用转入
+ * 同一账户的并发加载合并为一次数据库查询和一次SETNX，不存在的用户账户短暂缓存，防止缓存清空后击穿数据库
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AccountHydrationService {
+
+    private final UserAccountMapper userAccountMapper;
+    private final MerchantAccountMapper merchantAccountMapper;
+    private final OrderOutboxMapper orderOutboxMapper;
+    private final RedisAccountService redisAccountService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${account.hydration.negative-cache-seconds:5}")
+    private long negativeCacheSeconds;
+
+    private final ConcurrentMap<Long, CompletableFuture<Void>> userLoads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, CompletableFuture<Void>> merchantLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 数据库中不存在的用户ID
+     */
+    private Cache<Long, Boolean> missingUsers;
+
+    @PostConstruct
+    public void init() {
+        missingUsers = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(negativeCacheSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 加载用户账户到Redis
+     *
+     * @param userId 用户ID
+     * @throws IllegalArgumentException 如果用户账户不存在
+     */
+    public void hydrateUserAccount(Long userId) {
+        if (missingUsers.getIfPresent(userId) != null) {
+            throw new IllegalArgumentException("用户账户不存在：userId=" + userId);
+        }
+        singleFlight(userLoads, userId, () -> {
+            if (redisAccountService.convertLegacyUserAccount(userId)) {
+                return;
+            }
+            BigDecimal balance = transactionTemplate.execute(status -> {
+                UserAccount userAccount = userAccountMapper.selectByUserId(userId);
+                if (userAccount == null) {
+                    return null;
+                }
+                return userAccount.getBalance().subtract(
+                        unapplied(orderOutboxMapper.sumUnappliedUserAmounts(Collections.singletonList(userId))));
+            });
+            if (balance == null) {
+                missingUsers.put(userId, Boolean.TRUE);
+                throw new IllegalArgumentException("用户账户不存在：userId=" + userId);
+            }
+            redisAccountService.initUserAccountIfAbsent(userId, balance);
+        });
+    }
+
+    /**
+     * 加载商家账户到Redis，数据库中不存在时创建新账户
+     *
+     * @param merchantId 商家ID
+     */
+    public void hydrateMerchantAccount(Long merchantId) {
+        singleFlight(merchantLoads, merchantId, () -> {
+            if (redisAccountService.convertLegacyMerchantAccount(merchantId)) {
+                return;
+            }
+            BigDecimal balance = loadMerchantBalance(merchantId);
+            if (balance == null) {
+                createMerchantAccount(merchantId);
+                balance = loadMerchantBalance(merchantId);
+            }
+            redisAccountService.initMerchantAccountIfAbsent(merchantId, balance);
+        });
+    }
+
+    /**
+     * 在一个读事务中读取商家账户和未应用的转入，返回Redis中应有的余额
+     *
+     * @return 商家账户不存在时返回null
+     */
+    private BigDecimal loadMerchantBalance(Long merchantId) {
+        return transactionTemplate.execute(status -> {
+            MerchantAccount merchantAccount = merchantAccountMapper.selectByMerchantId(merchantId);
+            if (merchantAccount == null) {
+                return null;
+            }
+            return merchantAccount.getBalance().add(
+                    unapplied(orderOutboxMapper.sumUnappliedMerchantAmounts(Collections.singletonList(merchantId))));
+        });
+    }
+
+    /**
+     * 创建商家账户，其他节点已创建时忽略
+     */
+    private void createMerchantAccount(Long merchantId) {
+        log.info("商家账户不存在，创建新账户：merchantId={}", merchantId);
+        MerchantAccount merchantAccount = MerchantAccount.builder()
+                .merchantId(merchantId)
+                .balance(BigDecimal.ZERO)
+                .version(0L)
+                .build();
+        merchantAccount.initDefaults();
+        try {
+            merchantAccountMapper.insert(merchantAccount);
+        } catch (DuplicateKeyException e) {
+            log.info("商家账户已由其他节点创建：merchantId={}", merchantId);
+        }
+    }
+
+    /**
+     * 单个账户的未应用转账合计，没有时为0
+     */
+    private BigDecimal unapplied(List<OrderOutboxEvent> sums) {
+        return sums.isEmpty() || sums.get(0).getAmount() == null ? BigDecimal.ZERO : sums.get(0).getAmount();
+    }
+
+    /**
+     * 同一key的并发调用只执行一次加载，其余调用等待并共享结果
+     */
+    private void singleFlight(ConcurrentMap<Long, CompletableFuture<Void>> inFlight, Long key, Runnable loader) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                existing.join();
+                return;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            loader.run();
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+}
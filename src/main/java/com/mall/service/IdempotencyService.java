@@ -0,0 +1,225 @@
+package com.mall.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mall.domain.transaction.Order;
+import com.mall.exception.IdempotencyKeyReusedException;
+import com.mall.exception.RequestInProgressException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 下单幂等服务
+ * 首次请求执行下单并将订单结果保存到Redis，相同幂等键的重试直接返回已保存的订单，
+ * 并发重试等待首次请求完成，不会再次扣减库存和账户余额
+ * 占位值和订单结果前保存请求内容的SHA-256摘要，相同幂等键提交不同内容的请求时拒绝，而不是返回其他请求的订单
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IdempotencyService {
+
+    /**
+     * 请求处理中的占位值
+     */
+    static final String PROCESSING = "PROCESSING";
+
+    private static final int MAX_KEY_LENGTH = 64;
+    private static final int HASH_LENGTH = 64;
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    /**
+     * Lua脚本：占位值仍是本请求的占位值时删除
+     * 占位值过期后其他请求可能已重新抢占，不能删除其他请求的占位值
+     * KEYS[1]: 幂等key
+     * ARGV[1]: 本请求的占位值
+     * 返回: 1表示已删除，0表示占位值已不属于本请求
+     */
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then\n" +
+            "    return redis.call('del', KEYS[1])\n" +
+            "end\n" +
+            "return 0";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    @Value("${order.idempotency.processing-ttl-seconds:30}")
+    private long processingTtlSeconds;
+
+    @Value("${order.idempotency.result-ttl-seconds:86400}")
+    private long resultTtlSeconds;
+
+    @Value("${order.idempotency.wait-timeout-millis:5000}")
+    private long waitTimeoutMillis;
+
+    private RedisScriptRegistry.RegisteredScript<Long> releaseScript;
+
+    @PostConstruct
+    public void init() {
+        releaseScript = redisScriptRegistry.register("idempotency.release", RELEASE_SCRIPT, Long.class);
+    }
+
+    /**
+     * 按幂等键执行下单
+     *
+     * @param userId         用户ID，幂等键按用户隔离
+     * @param idempotencyKey 幂等键，为空时直接执行
+     * @param request        请求内容，重复请求的内容必须与首次请求一致
+     * @param action         下单操作
+     * @return 订单，重复请求返回首次请求创建的订单
+     * @throws RequestInProgressException    如果相同幂等键的请求仍在处理且等待超时
+     * @throws IdempotencyKeyReusedException 如果相同幂等键的首次请求内容不同
+     */
+    public Order execute(Long userId, String idempotencyKey, Object request, Supplier<Order> action) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            return action.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("幂等键长度不能超过" + MAX_KEY_LENGTH + "个字符");
+        }
+
+        String key = getIdempotencyKey(userId, idempotencyKey);
+        String requestHash = hash(request);
+        long deadline = System.currentTimeMillis() + waitTimeoutMillis;
+        while (true) {
+            Boolean acquired = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(key, requestHash + ":" + PROCESSING, processingTtlSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                return executeFirst(key, requestHash, action);
+            }
+
+            String value = stringRedisTemplate.opsForValue().get(key);
+            if (value != null) {
+                checkRequestHash(value, requestHash, idempotencyKey);
+                String payload = getPayload(value);
+                if (!PROCESSING.equals(payload)) {
+                    log.info("重复下单请求，返回已保存的订单：key={}", key);
+                    return readOrder(payload);
+                }
+            }
+            // 首次请求仍在处理；占位值已删除（首次请求失败）时在下一轮重新抢占
+            if (System.currentTimeMillis() >= deadline) {
+                throw new RequestInProgressException("请求正在处理中，请稍后重试：idempotencyKey=" + idempotencyKey);
+            }
+            sleep();
+        }
+    }
+
+    /**
+     * 执行首次请求，成功时保存订单结果，失败时删除本请求的占位值以允许重试
+     */
+    private Order executeFirst(String key, String requestHash, Supplier<Order> action) {
+        Order order;
+        try {
+            order = action.get();
+        } catch (RuntimeException e) {
+            release(key, requestHash + ":" + PROCESSING);
+            throw e;
+        }
+
+        try {
+            stringRedisTemplate.opsForValue().set(key, requestHash + ":" + objectMapper.writeValueAsString(order),
+                    resultTtlSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // 订单已创建，保存结果失败时保留占位值直到过期，避免重试重复下单
+            log.error("保存幂等结果失败：key={}, orderNo={}, error={}", key, order.getOrderNo(), e.getMessage(), e);
+        }
+        return order;
+    }
+
+    /**
+     * 删除占位值，占位值已过期并被其他请求抢占时保留
+     */
+    private void release(String key, String placeholder) {
+        try {
+            Long deleted = redisScriptRegistry.execute(releaseScript, Collections.singletonList(key), placeholder);
+            if (deleted == null || deleted == 0) {
+                log.warn("幂等占位值已过期并被其他请求抢占，不删除：key={}", key);
+            }
+        } catch (Exception e) {
+            // 占位值过期后允许重试
+            log.error("删除幂等占位值失败：key={}, error={}", key, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 校验重复请求的内容与首次请求一致
+     */
+    private void checkRequestHash(String value, String requestHash, String idempotencyKey) {
+        if (!getStoredHash(value).equals(requestHash)) {
+            throw new IdempotencyKeyReusedException("幂等键已用于内容不同的请求：idempotencyKey=" + idempotencyKey);
+        }
+    }
+
+    /**
+     * 读取保存值中的请求摘要
+     *
+     * @throws IllegalStateException 如果保存值缺少请求摘要
+     */
+    private String getStoredHash(String value) {
+        if (value.length() <= HASH_LENGTH || value.charAt(HASH_LENGTH) != ':') {
+            throw new IllegalStateException("幂等记录格式无效，缺少请求摘要");
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                throw new IllegalStateException("幂等记录格式无效，请求摘要不是十六进制");
+            }
+        }
+        return value.substring(0, HASH_LENGTH);
+    }
+
+    private String getPayload(String value) {
+        return value.substring(HASH_LENGTH + 1);
+    }
+
+    /**
+     * 计算请求内容JSON的SHA-256摘要（十六进制）
+     */
+    private String hash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            StringBuilder hex = new StringBuilder(HASH_LENGTH);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("计算请求摘要失败：" + e.getMessage(), e);
+        }
+    }
+
+    private Order readOrder(String value) {
+        try {
+            return objectMapper.readValue(value, Order.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("幂等结果解析失败：" + e.getMessage(), e);
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestInProgressException("等待幂等请求结果被中断");
+        }
+    }
+
+    private String getIdempotencyKey(Long userId, String idempotencyKey) {
+        return "idempotency:order:" + userId + ":" + idempotencyKey;
+    }
+}
@@ -0,0 +1,285 @@
+package com.mall.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 节点本地库存租借服务
+ * 热点商品由每个节点从Redis库存中批量租借一段库存（例如200件），下单时在JVM内无锁扣减，
+ * Redis只承担周期性的租借和归还流量
+ * 未用完的库存在租约过期、节点关闭或全局库存不足时归还Redis；
+ * 全局库存不足时各节点停止租借，直接扣减Redis库存，避免库存滞留在某个节点上导致其他节点误判售罄
+ * 节点异常退出时已租借的库存会从Redis中丢失：租借前在Redis中记录本节点的租约及过期时间，库存归还后删除记录；
+ * 节点异常退出后记录不再续期，过期后对账不再跳过该商品，丢失的库存作为确认的偏差报告，开启自动修复时写回Redis
+ * 本地库存只在租约有效期内扣减，租约过期后先归还Redis再重新租借，保证被扣减的本地库存始终有未过期的租约记录
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class InventoryLeaseService {
+
+    private final RedisInventoryService redisInventoryService;
+
+    /**
+     * 启用本地租借的商品及每次租借数量（merchantId:sku -> 租借数量）
+     */
+    @Value("#{${inventory.lease.skus:{:}}}")
+    private Map<String, Integer> leaseSizes;
+
+    /**
+     * 租约有效期，过期后未用完的库存归还Redis
+     */
+    @Value("${inventory.lease.ttl-seconds:30}")
+    private long leaseTtlSeconds;
+
+    /**
+     * 本节点ID，作为Redis中租约记录的持有者
+     */
+    @Value("${order.id.node-id}")
+    private long nodeId;
+
+    private final ConcurrentMap<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * 商品是否启用本地租借
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return true if 启用
+     */
+    public boolean isLeased(Long merchantId, String sku) {
+        return getLeaseSize(merchantId, sku) > 0;
+    }
+
+    /**
+     * 扣减库存：优先从本地租借的库存中扣减，本地库存不足时租借新的一段
+     * 未启用租借或全局库存不足时直接扣减Redis库存
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @param quantity   扣减数量
+     * @return 扣减后的库存数量（本地或Redis），如果库存不足返回-1
+     */
+    public Long decreaseInventory(Long merchantId, String sku, Integer quantity) {
+        int leaseSize = getLeaseSize(merchantId, sku);
+        if (leaseSize <= 0) {
+            return redisInventoryService.decreaseInventory(merchantId, sku, quantity);
+        }
+
+        String segmentKey = getSegmentKey(merchantId, sku);
+        Segment segment = segments.computeIfAbsent(segmentKey, key -> new Segment());
+        int remaining;
+        if (!segment.isExpired(System.currentTimeMillis() - leaseTtlSeconds * 1000)) {
+            remaining = segment.tryTake(quantity);
+            if (remaining >= 0) {
+                return (long) remaining;
+            }
+        }
+
+        // 本地库存不足或租约已过期，同一商品只由一个线程租借
+        synchronized (segment) {
+            long now = System.currentTimeMillis();
+            if (segment.isExpired(now - leaseTtlSeconds * 1000)) {
+                // 回收任务延迟时租约记录随时可能过期，对账会把仍在本地的库存当作节点宕机丢失的库存，
+                // 先归还Redis再重新租借，重新租借时续期租约记录
+                returnUnits(segmentKey, segment);
+            } else {
+                remaining = segment.tryTake(quantity);
+                if (remaining >= 0) {
+                    return (long) remaining;
+                }
+            }
+            if (!segment.isDraining(now)) {
+                lease(merchantId, sku, segment, Math.max(leaseSize, quantity), now);
+                remaining = segment.tryTake(quantity);
+                if (remaining >= 0) {
+                    return (long) remaining;
+                }
+            }
+        }
+        return redisInventoryService.decreaseInventory(merchantId, sku, quantity);
+    }
+
+    /**
+     * 商品是否有节点持有未过期的租约，租借的库存不在Redis中，对账时需跳过
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return true if 启用租借且存在未过期的租约记录
+     */
+    public boolean hasActiveLease(Long merchantId, String sku) {
+        return isLeased(merchantId, sku)
+                && redisInventoryService.hasActiveLease(merchantId, sku, System.currentTimeMillis());
+    }
+
+    /**
+     * 归还库存（订单失败回滚），租约未过期时归还本地，否则归还Redis
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @param quantity   归还数量
+     */
+    public void increaseInventory(Long merchantId, String sku, Integer quantity) {
+        Segment segment = segments.get(getSegmentKey(merchantId, sku));
+        long now = System.currentTimeMillis();
+        if (segment != null && !segment.isDraining(now) && segment.leasedAt >= now - leaseTtlSeconds * 1000) {
+            segment.add(quantity);
+            return;
+        }
+        redisInventoryService.increaseInventory(merchantId, sku, quantity);
+    }
+
+    /**
+     * 获取本节点持有的租借库存
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return 本地剩余库存
+     */
+    public int getLocalInventory(Long merchantId, String sku) {
+        Segment segment = segments.get(getSegmentKey(merchantId, sku));
+        return segment != null ? segment.units.get() : 0;
+    }
+
+    /**
+     * 归还过期租约中未用完的库存
+     */
+    public void returnExpiredLeases() {
+        long expireBefore = System.currentTimeMillis() - leaseTtlSeconds * 1000;
+        segments.forEach((key, segment) -> {
+            synchronized (segment) {
+                if (segment.isExpired(expireBefore)) {
+                    returnUnits(key, segment);
+                }
+            }
+        });
+    }
+
+    /**
+     * 节点关闭时归还全部租借库存
+     */
+    @PreDestroy
+    public void returnAllLeases() {
+        segments.forEach((key, segment) -> {
+            synchronized (segment) {
+                returnUnits(key, segment);
+            }
+        });
+        log.info("已归还全部本地租借库存：segments={}", segments.size());
+    }
+
+    /**
+     * 从Redis租借一段库存；租借数量不足或剩余全局库存低于一次租借数量时，
+     * 归还本地库存并在租约有效期内改为直接扣减Redis
+     */
+    private void lease(Long merchantId, String sku, Segment segment, int leaseSize, long now) {
+        // 先记录租约再扣减Redis库存，对账看到库存减少时一定能看到租约；
+        // 记录保留两倍有效期，覆盖过期租约等待回收任务归还的时间
+        redisInventoryService.recordLease(merchantId, sku, nodeId, now + leaseTtlSeconds * 2000);
+        segment.leaseRecorded = true;
+        int granted = redisInventoryService.leaseInventory(merchantId, sku, leaseSize);
+        segment.add(granted);
+        segment.leasedAt = now;
+
+        Integer globalRemaining = granted < leaseSize ? Integer.valueOf(0)
+                : redisInventoryService.getInventory(merchantId, sku);
+        if (globalRemaining == null || globalRemaining < leaseSize) {
+            segment.drainingUntil = now + leaseTtlSeconds * 1000;
+            returnUnits(getSegmentKey(merchantId, sku), segment);
+            log.info("全局库存不足，停止本地租借：merchantId={}, sku={}, globalRemaining={}",
+                    merchantId, sku, globalRemaining);
+        }
+    }
+
+    /**
+     * 归还本地库存并删除租约记录，归还失败时放回本地并保留记录，下次检查时重试
+     */
+    private void returnUnits(String segmentKey, Segment segment) {
+        int units = segment.units.getAndSet(0);
+        int separator = segmentKey.indexOf(':');
+        Long merchantId = Long.valueOf(segmentKey.substring(0, separator));
+        String sku = segmentKey.substring(separator + 1);
+        if (units > 0) {
+            try {
+                redisInventoryService.increaseInventory(merchantId, sku, units);
+                log.info("归还本地租借库存：merchantId={}, sku={}, quantity={}", merchantId, sku, units);
+            } catch (Exception e) {
+                segment.add(units);
+                log.error("归还本地租借库存失败：merchantId={}, sku={}, quantity={}, error={}",
+                        merchantId, sku, units, e.getMessage(), e);
+                return;
+            }
+        }
+        if (segment.leaseRecorded) {
+            try {
+                redisInventoryService.removeLease(merchantId, sku, nodeId);
+                segment.leaseRecorded = false;
+            } catch (Exception e) {
+                // 记录过期后自然失效
+                log.warn("删除库存租约记录失败：merchantId={}, sku={}, error={}", merchantId, sku, e.getMessage());
+            }
+        }
+    }
+
+    private int getLeaseSize(Long merchantId, String sku) {
+        Integer size = leaseSizes != null ? leaseSizes.get(getSegmentKey(merchantId, sku)) : null;
+        return size != null ? size : 0;
+    }
+
+    private String getSegmentKey(Long merchantId, String sku) {
+        return merchantId + ":" + sku;
+    }
+
+    /**
+     * 单个商品的本地租借库存
+     */
+    static class Segment {
+
+        private final AtomicInteger units = new AtomicInteger();
+        private volatile long leasedAt;
+        private volatile long drainingUntil;
+        private volatile boolean leaseRecorded;
+
+        /**
+         * 无锁扣减本地库存
+         *
+         * @return 扣减后的剩余数量，本地库存不足返回-1
+         */
+        int tryTake(int quantity) {
+            while (true) {
+                int current = units.get();
+                if (current < quantity) {
+                    return -1;
+                }
+                if (units.compareAndSet(current, current - quantity)) {
+                    return current - quantity;
+                }
+            }
+        }
+
+        void add(int quantity) {
+            units.addAndGet(quantity);
+        }
+
+        boolean isDraining(long now) {
+            return drainingUntil > now;
+        }
+
+        /**
+         * 租约是否在给定时间之前租借，过期租约中的库存不能继续扣减
+         */
+        boolean isExpired(long expireBefore) {
+            return leasedAt < expireBefore;
+        }
+    }
+}
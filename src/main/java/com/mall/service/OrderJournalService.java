@@ -0,0 +1,472 @@
+package com.mall.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mall.domain.transaction.Order;
+import com.mall.mapper.OrderMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 订单日志服务（日志优先下单模式）
+ * 下单脚本在扣减库存和转账的同时将订单追加到Redis Stream，下单请求不再等待MySQL
+ * 消费组中的持久化线程批量读取订单日志，在一个事务中写入订单和发件箱事件（库存和余额由发件箱中继更新），
+ * 提交后XACK并删除日志条目；未确认的条目空闲超过指定时间后由其他线程认领重新处理（至少一次投递）
+ * 重复投递按订单号去重，Stream长度即为尚未持久化的订单积压，可用XLEN/XPENDING查看
+ * 下单脚本已扣减库存并转账，日志条目不能直接删除：内容无法解析或投递次数超过上限的条目移入死信Stream，
+ * 保留原始内容等待人工处理，死信未处理前对账不确认偏差
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OrderJournalService {
+
+    private static final String ORDER_FIELD = "order";
+    private static final String ENTRY_ID_FIELD = "entryId";
+    private static final String REASON_FIELD = "reason";
+
+    /**
+     * Lua脚本：认领空闲超时的未确认条目
+     * KEYS[1]: 订单日志Stream key
+     * ARGV[1]: 消费组
+     * ARGV[2]: 认领的消费者
+     * ARGV[3]: 最小空闲时间（毫秒）
+     * ARGV[4]: 最多检查的条目数
+     * 返回: 认领的条目列表，每项为 {条目ID, 字段列表, 认领前的投递次数}，已删除的条目字段列表为nil
+     */
+    private static final String RECLAIM_SCRIPT =
+            "local pending = redis.call('xpending', KEYS[1], ARGV[1], '-', '+', tonumber(ARGV[4]))\n" +
+            "local ids = {}\n" +
+            "local deliveries = {}\n" +
+            "for _, entry in ipairs(pending) do\n" +
+            "    if entry[3] >= tonumber(ARGV[3]) then\n" +
+            "        ids[#ids + 1] = entry[1]\n" +
+            "        deliveries[entry[1]] = entry[4]\n" +
+            "    end\n" +
+            "end\n" +
+            "if #ids == 0 then\n" +
+            "    return {}\n" +
+            "end\n" +
+            "local claimed = redis.call('xclaim', KEYS[1], ARGV[1], ARGV[2], ARGV[3], unpack(ids))\n" +
+            "local result = {}\n" +
+            "for i, entry in ipairs(claimed) do\n" +
+            "    if entry then\n" +
+            "        result[#result + 1] = {entry[1], entry[2], deliveries[entry[1]]}\n" +
+            "    else\n" +
+            "        result[#result + 1] = {ids[i], false, deliveries[ids[i]]}\n" +
+            "    end\n" +
+            "end\n" +
+            "return result";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+    private final OrderMapper orderMapper;
+    private final OrderPersistenceService orderPersistenceService;
+    private final TransactionTemplate transactionTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * 是否启用日志优先下单模式
+     */
+    @Value("${order.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${order.journal.stream-key:order:journal}")
+    private String streamKey;
+
+    /**
+     * 死信Stream key，保存无法解析或投递次数超过上限的条目
+     */
+    @Value("${order.journal.dead-letter-stream-key:order:journal:dead}")
+    private String deadLetterStreamKey;
+
+    @Value("${order.journal.consumer-group:order-persisters}")
+    private String consumerGroup;
+
+    /**
+     * 持久化线程数
+     */
+    @Value("${order.journal.workers:2}")
+    private int workers;
+
+    /**
+     * 每批读取的日志条目数
+     */
+    @Value("${order.journal.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 没有新日志时的轮询间隔（毫秒）
+     */
+    @Value("${order.journal.poll-interval-millis:50}")
+    private long pollIntervalMillis;
+
+    /**
+     * 未确认条目空闲超过该时间（毫秒）后由其他线程认领
+     */
+    @Value("${order.journal.claim-idle-millis:30000}")
+    private long claimIdleMillis;
+
+    /**
+     * 单个条目最大投递次数，持久化仍失败时移入死信Stream
+     */
+    @Value("${order.journal.max-deliveries:10}")
+    private int maxDeliveries;
+
+    /**
+     * 本节点ID，作为持久化线程的消费者名称前缀
+     */
+    @Value("${order.id.node-id}")
+    private long nodeId;
+
+    private RedisScriptRegistry.RegisteredScript<List> reclaimScript;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+    private volatile long nextReclaimMillis;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        reclaimScript = redisScriptRegistry.register("journal.reclaim", RECLAIM_SCRIPT, List.class);
+
+        createConsumerGroup();
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            String consumer = "node-" + nodeId + "-" + i;
+            Thread thread = new Thread(() -> consumeLoop(consumer), "order-journal-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        log.info("订单日志持久化已启动：streamKey={}, group={}, workers={}", streamKey, consumerGroup, workers);
+    }
+
+    /**
+     * 节点关闭时停止持久化线程，未确认的条目由其他节点认领
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(pollIntervalMillis * 10);
+        }
+        threads.clear();
+    }
+
+    /**
+     * 是否启用日志优先下单模式
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取订单日志Stream key
+     */
+    public String getStreamKey() {
+        return streamKey;
+    }
+
+    /**
+     * 获取尚未写入数据库的日志条目数（包括死信），已写入的条目会从Stream中删除
+     *
+     * @return 未启用时返回0
+     */
+    public long getBacklog() {
+        if (!enabled) {
+            return 0;
+        }
+        Long size = stringRedisTemplate.opsForStream().size(streamKey);
+        Long deadLetters = stringRedisTemplate.opsForStream().size(deadLetterStreamKey);
+        return (size != null ? size : 0) + (deadLetters != null ? deadLetters : 0);
+    }
+
+    /**
+     * 序列化订单日志内容
+     *
+     * @param order 已支付的订单
+     * @return JSON
+     */
+    public String serialize(Order order) {
+        try {
+            return objectMapper.writeValueAsString(order);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("订单日志序列化失败：orderNo=" + order.getOrderNo(), e);
+        }
+    }
+
+    /**
+     * 读取并持久化一批订单日志：优先认领空闲超时的未确认条目，没有时读取新条目
+     *
+     * @param consumer 消费者名称
+     * @return 本批次读取的条目数
+     */
+    public int persistBatch(String consumer) {
+        // 未确认条目只需按空闲时间周期性检查，认领到条目时继续认领直到清空
+        Map<String, String> entries = Collections.emptyMap();
+        Map<String, Long> deliveries = new HashMap<>();
+        long now = System.currentTimeMillis();
+        if (now >= nextReclaimMillis) {
+            entries = reclaim(consumer, deliveries);
+            if (entries.isEmpty()) {
+                nextReclaimMillis = now + Math.max(claimIdleMillis / 2, pollIntervalMillis);
+            }
+        }
+        if (entries.isEmpty()) {
+            entries = read(consumer);
+        }
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        // 解析订单并按订单号去重，无法解析的条目移入死信Stream，避免反复投递
+        Map<String, Order> orders = new LinkedHashMap<>();
+        Map<String, String> entryIdsByOrderNo = new LinkedHashMap<>();
+        List<String> ackIds = new ArrayList<>();
+        Map<String, String> deadLetters = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            Order order = parse(entry.getKey(), entry.getValue());
+            if (order == null) {
+                deadLetters.put(entry.getKey(), entry.getValue() == null ? "日志内容为空" : "日志解析失败");
+                continue;
+            }
+            if (orders.containsKey(order.getOrderNo())) {
+                ackIds.add(entry.getKey());
+                continue;
+            }
+            orders.put(order.getOrderNo(), order);
+            entryIdsByOrderNo.put(order.getOrderNo(), entry.getKey());
+        }
+
+        // 重复投递的订单已写入数据库，直接确认
+        if (!orders.isEmpty()) {
+            Set<String> existing = new HashSet<>(orderMapper.selectExistingOrderNos(new ArrayList<>(orders.keySet())));
+            for (String orderNo : existing) {
+                orders.remove(orderNo);
+                ackIds.add(entryIdsByOrderNo.get(orderNo));
+            }
+        }
+
+        if (!orders.isEmpty()) {
+            List<Order> batch = new ArrayList<>(orders.values());
+            try {
+                transactionTemplate.execute(status -> {
+                    orderPersistenceService.insertOrders(batch);
+                    return null;
+                });
+                orders.keySet().forEach(orderNo -> ackIds.add(entryIdsByOrderNo.get(orderNo)));
+            } catch (Exception e) {
+                log.warn("订单日志批量持久化失败，改为逐个持久化：count={}, error={}", batch.size(), e.getMessage());
+                for (Order order : batch) {
+                    String entryId = entryIdsByOrderNo.get(order.getOrderNo());
+                    if (persistOne(order)) {
+                        ackIds.add(entryId);
+                        continue;
+                    }
+                    long delivered = deliveries.getOrDefault(entryId, 1L);
+                    if (delivered >= maxDeliveries) {
+                        deadLetters.put(entryId, "投递" + delivered + "次仍持久化失败");
+                    }
+                }
+            }
+        }
+
+        deadLetter(deadLetters, entries);
+        ackIds.addAll(deadLetters.keySet());
+        acknowledge(ackIds);
+        log.debug("订单日志持久化完成：consumer={}, entries={}, acked={}", consumer, entries.size(), ackIds.size());
+        return entries.size();
+    }
+
+    /**
+     * 单独持久化一个订单，失败的条目保持未确认，空闲超时后重新处理，超过最大投递次数后移入死信Stream
+     *
+     * @return true if 已持久化或订单已存在
+     */
+    private boolean persistOne(Order order) {
+        try {
+            transactionTemplate.execute(status -> {
+                orderPersistenceService.insertOrders(Collections.singletonList(order));
+                return null;
+            });
+            return true;
+        } catch (DuplicateKeyException e) {
+            return true;
+        } catch (Exception e) {
+            log.error("订单日志持久化失败，等待重新投递：orderNo={}, error={}", order.getOrderNo(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private void consumeLoop(String consumer) {
+        while (running) {
+            try {
+                if (persistBatch(consumer) == 0) {
+                    Thread.sleep(pollIntervalMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("订单日志持久化线程异常：consumer={}, error={}", consumer, e.getMessage(), e);
+                try {
+                    Thread.sleep(pollIntervalMillis * 10);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取新的日志条目（不阻塞，避免占用共享连接）
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, String> read(String consumer) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(consumerGroup, consumer),
+                StreamReadOptions.empty().count(batchSize),
+                StreamOffset.create(streamKey, ReadOffset.lastConsumed()));
+        Map<String, String> entries = new LinkedHashMap<>();
+        if (records != null) {
+            for (MapRecord<String, Object, Object> record : records) {
+                Object payload = record.getValue().get(ORDER_FIELD);
+                entries.put(record.getId().getValue(), payload != null ? payload.toString() : null);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 认领空闲超时的未确认条目，条目已被删除时内容为null
+     *
+     * @param deliveries 填入各条目认领前的投递次数
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, String> reclaim(String consumer, Map<String, Long> deliveries) {
+        List<Object> claimed = redisScriptRegistry.execute(reclaimScript, Collections.singletonList(streamKey),
+                consumerGroup, consumer, claimIdleMillis, batchSize);
+        Map<String, String> entries = new LinkedHashMap<>();
+        if (claimed == null) {
+            return entries;
+        }
+        for (Object item : claimed) {
+            if (!(item instanceof List) || ((List<Object>) item).isEmpty()) {
+                continue;
+            }
+            List<Object> entry = (List<Object>) item;
+            String payload = null;
+            if (entry.size() > 1 && entry.get(1) instanceof List) {
+                List<Object> fields = (List<Object>) entry.get(1);
+                for (int i = 0; i + 1 < fields.size(); i += 2) {
+                    if (ORDER_FIELD.equals(String.valueOf(fields.get(i)))) {
+                        payload = String.valueOf(fields.get(i + 1));
+                    }
+                }
+            }
+            String entryId = String.valueOf(entry.get(0));
+            entries.put(entryId, payload);
+            if (entry.size() > 2 && entry.get(2) instanceof Number) {
+                deliveries.put(entryId, ((Number) entry.get(2)).longValue());
+            }
+        }
+        if (!entries.isEmpty()) {
+            log.warn("认领未确认的订单日志：consumer={}, count={}", consumer, entries.size());
+        }
+        return entries;
+    }
+
+    private Order parse(String entryId, String payload) {
+        if (payload == null) {
+            log.error("订单日志内容为空：entryId={}", entryId);
+            return null;
+        }
+        try {
+            return objectMapper.readValue(payload, Order.class);
+        } catch (JsonProcessingException e) {
+            log.error("订单日志解析失败：entryId={}, payload={}, error={}", entryId, payload, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 将条目连同原始内容和原因写入死信Stream，写入成功后才确认删除，写入失败时条目保持未确认
+     */
+    private void deadLetter(Map<String, String> reasons, Map<String, String> entries) {
+        for (Map.Entry<String, String> reason : reasons.entrySet()) {
+            String payload = entries.get(reason.getKey());
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put(ENTRY_ID_FIELD, reason.getKey());
+            fields.put(ORDER_FIELD, payload != null ? payload : "");
+            fields.put(REASON_FIELD, reason.getValue());
+            stringRedisTemplate.opsForStream().add(deadLetterStreamKey, fields);
+            log.error("订单日志移入死信Stream，库存和余额已在Redis中扣减，需人工补录订单：entryId={}, reason={}, payload={}",
+                    reason.getKey(), reason.getValue(), payload);
+        }
+    }
+
+    /**
+     * 确认并删除已持久化的条目，Stream中只保留尚未持久化的订单
+     */
+    private void acknowledge(List<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String[] recordIds = ids.toArray(new String[0]);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, consumerGroup, recordIds);
+        stringRedisTemplate.opsForStream().delete(streamKey, recordIds);
+    }
+
+    /**
+     * 创建消费组（Stream不存在时一并创建），消费组已存在时忽略
+     */
+    private void createConsumerGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> execute(connection,
+                    "XGROUP", "CREATE", streamKey, consumerGroup, "0", "MKSTREAM"));
+        } catch (Exception e) {
+            String message = String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+            if (!message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private Object execute(RedisConnection connection, String command, String... args) {
+        byte[][] bytes = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            bytes[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return connection.execute(command, bytes);
+    }
+}
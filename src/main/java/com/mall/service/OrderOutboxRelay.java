@@ -0,0 +1,271 @@
+package com.mall.service;
+
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.UserAccountMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * 订单发件箱中继
+ * 按ID顺序批量读取待应用的发件箱事件，将库存扣减和账户转账应用到数据库
+ * 同一批次内的事件按商品、用户、商家合并为增量，每个key只执行一条
+ * {@code SET quantity = quantity - ?} 或 {@code SET balance = balance + ?}，大幅减少热点行的锁竞争和写入次数；
+ * 商家每日销售汇总在同一事务中按商家和日期合并累加（见 {@link MerchantDailySalesService}）
+ * 增量应用与标记已应用在同一事务中完成，多个节点同时中继时同一事件只会应用一次；
+ * 合并应用失败时改为逐条应用，定位失败事件：失败事件之后的事件等待下一轮，超过重试次数的事件标记为失败
+ * 事务提交后将涉及的Redis计数器版本+1，与数据库行版本保持一致（见 {@link RedisCounterVersionService}）
+ * 已应用的事件保留一段时间后分批删除；失败的事件在排查原因后重置为待应用，由中继重新应用
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OrderOutboxRelay {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final OrderOutboxMapper orderOutboxMapper;
+    private final ProductInventoryMapper productInventoryMapper;
+    private final UserAccountMapper userAccountMapper;
+    private final MerchantAccountMapper merchantAccountMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final RedisInventoryService redisInventoryService;
+    private final RedisCounterVersionService redisCounterVersionService;
+    private final MerchantDailySalesService merchantDailySalesService;
+
+    @Value("${order.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${order.outbox.max-retries:10}")
+    private int maxRetries;
+
+    /**
+     * 已应用事件的保留时间（小时），需远大于增量对账间隔
+     */
+    @Value("${order.outbox.done-retention-hours:72}")
+    private long doneRetentionHours;
+
+    /**
+     * 每条DELETE删除的已应用事件数
+     */
+    @Value("${order.outbox.purge-batch-size:5000}")
+    private int purgeBatchSize;
+
+    /**
+     * 应用一批待处理的发件箱事件
+     *
+     * @return 本批次成功处理的事件数，发生失败时小于读取的事件数
+     */
+    public int relayBatch() {
+        List<OrderOutboxEvent> events = orderOutboxMapper.selectPending(batchSize);
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            Integer statements = transactionTemplate.execute(status -> applyCoalesced(events));
+            log.info("发件箱中继完成：events={}, statements={}", events.size(), statements);
+            redisCounterVersionService.advance(getCounterKeys(events));
+            return events.size();
+        } catch (Exception e) {
+            log.warn("发件箱事件合并应用失败，改为逐条应用：events={}, error={}", events.size(), e.getMessage());
+        }
+        return relayOneByOne(events);
+    }
+
+    /**
+     * 分批删除超过保留时间的已应用事件，每批单独提交，避免长时间持有大量行锁
+     *
+     * @return 删除的事件数
+     */
+    public long purgeDone() {
+        LocalDateTime before = LocalDateTime.now().minusHours(doneRetentionHours);
+        long startTime = System.currentTimeMillis();
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = orderOutboxMapper.deleteDoneBefore(before, purgeBatchSize);
+            purged += deleted;
+        } while (deleted >= purgeBatchSize);
+        log.info("清理已应用的发件箱事件：before={}, purged={}, 耗时 {} ms",
+                before, purged, System.currentTimeMillis() - startTime);
+        return purged;
+    }
+
+    /**
+     * 统计应用失败、等待人工处理的事件数
+     */
+    public long countFailed() {
+        return orderOutboxMapper.countFailed();
+    }
+
+    /**
+     * 查询应用失败的事件
+     *
+     * @param limit 最多返回的事件数
+     */
+    public List<OrderOutboxEvent> getFailedEvents(int limit) {
+        return orderOutboxMapper.selectFailed(limit);
+    }
+
+    /**
+     * 将失败事件重置为待应用并清零重试次数，由下一轮中继按ID顺序重新应用
+     *
+     * @param ids 失败事件ID
+     * @return 重置的事件数
+     */
+    public int retryFailed(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+        int reset = orderOutboxMapper.resetFailed(ids);
+        log.info("重新应用失败的发件箱事件：requested={}, reset={}", ids.size(), reset);
+        return reset;
+    }
+
+    /**
+     * 获取每批读取的事件数
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 标记整批事件已应用并按key合并应用增量
+     *
+     * @return 执行的增量UPDATE条数
+     */
+    private int applyCoalesced(List<OrderOutboxEvent> events) {
+        List<Long> ids = events.stream().map(OrderOutboxEvent::getId).collect(Collectors.toList());
+        if (orderOutboxMapper.markDoneBatch(ids) != ids.size()) {
+            throw new IllegalStateException("部分发件箱事件已被其他节点应用");
+        }
+        return applyDeltas(events);
+    }
+
+    /**
+     * 逐条应用事件，遇到失败事件时停止，保证应用顺序
+     */
+    private int relayOneByOne(List<OrderOutboxEvent> events) {
+        int applied = 0;
+        for (OrderOutboxEvent event : events) {
+            try {
+                Boolean done = transactionTemplate.execute(status -> {
+                    if (orderOutboxMapper.markDone(event.getId()) == 1) {
+                        applyDeltas(Collections.singletonList(event));
+                        return true;
+                    }
+                    return false;
+                });
+                if (Boolean.TRUE.equals(done)) {
+                    redisCounterVersionService.advance(getCounterKeys(Collections.singletonList(event)));
+                }
+                applied++;
+            } catch (Exception e) {
+                log.error("应用发件箱事件失败：id={}, type={}, orderNo={}, retryCount={}, error={}",
+                        event.getId(), event.getEventType(), event.getOrderNo(), event.getRetryCount(),
+                        e.getMessage(), e);
+                orderOutboxMapper.markRetry(event.getId(), truncate(e.getMessage()), maxRetries);
+                break;
+            }
+        }
+        log.info("发件箱逐条中继完成：fetched={}, applied={}", events.size(), applied);
+        return applied;
+    }
+
+    /**
+     * 按商品、用户、商家合并增量后执行UPDATE，并累加商家每日销售汇总
+     * key按固定顺序更新，避免多个节点同时中继时相互死锁
+     *
+     * @return 执行的增量UPDATE条数（不含销售汇总）
+     */
+    private int applyDeltas(List<OrderOutboxEvent> events) {
+        Map<String, OrderOutboxEvent> inventoryDeltas = new TreeMap<>();
+        Map<Long, BigDecimal> userDeltas = new TreeMap<>();
+        Map<Long, BigDecimal> merchantDeltas = new TreeMap<>();
+        for (OrderOutboxEvent event : events) {
+            switch (event.getEventType()) {
+                case INVENTORY_DECREASE:
+                    inventoryDeltas.merge(event.getMerchantId() + ":" + event.getSku(),
+                            OrderOutboxEvent.inventoryDecrease(null, event.getMerchantId(), event.getSku(),
+                                    event.getQuantity()),
+                            (sum, delta) -> {
+                                sum.setQuantity(sum.getQuantity() + delta.getQuantity());
+                                return sum;
+                            });
+                    break;
+                case ACCOUNT_TRANSFER:
+                    userDeltas.merge(event.getUserId(), event.getAmount().negate(), BigDecimal::add);
+                    merchantDeltas.merge(event.getMerchantId(), event.getAmount(), BigDecimal::add);
+                    break;
+                default:
+                    throw new IllegalStateException("未知的发件箱事件类型：" + event.getEventType());
+            }
+        }
+
+        for (OrderOutboxEvent delta : inventoryDeltas.values()) {
+            if (productInventoryMapper.decreaseQuantity(
+                    delta.getMerchantId(), delta.getSku(), delta.getQuantity(), null) == 0) {
+                throw new IllegalStateException(
+                        "商品库存不存在或库存不足：merchantId=" + delta.getMerchantId() + ", sku=" + delta.getSku());
+            }
+        }
+        for (Map.Entry<Long, BigDecimal> delta : userDeltas.entrySet()) {
+            if (userAccountMapper.addBalance(delta.getKey(), delta.getValue(), null) == 0) {
+                throw new IllegalStateException("用户账户不存在或余额不足：userId=" + delta.getKey());
+            }
+        }
+        for (Map.Entry<Long, BigDecimal> delta : merchantDeltas.entrySet()) {
+            if (merchantAccountMapper.addBalance(delta.getKey(), delta.getValue(), null) == 0) {
+                throw new IllegalStateException("商家账户不存在或余额不足：merchantId=" + delta.getKey());
+            }
+        }
+        merchantDailySalesService.recordOutboxEvents(events);
+        return inventoryDeltas.size() + userDeltas.size() + merchantDeltas.size();
+    }
+
+    /**
+     * 获取事件涉及的Redis计数器key，合并应用时每个key只执行一条UPDATE，数据库行版本恰好+1
+     */
+    private Set<String> getCounterKeys(List<OrderOutboxEvent> events) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (OrderOutboxEvent event : events) {
+            switch (event.getEventType()) {
+                case INVENTORY_DECREASE:
+                    keys.add(redisInventoryService.getInventoryKey(event.getMerchantId(), event.getSku()));
+                    break;
+                case ACCOUNT_TRANSFER:
+                    keys.add(RedisAccountService.getUserAccountKey(event.getUserId()));
+                    keys.add(RedisAccountService.getMerchantAccountKey(event.getMerchantId()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return keys;
+    }
+
+    private String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
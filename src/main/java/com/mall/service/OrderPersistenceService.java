@@ -0,0 +1,276 @@
+package com.mall.service;
+
+import com.mall.domain.transaction.Order;
+import com.mall.domain.transaction.OrderItem;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.mapper.OrderItemMapper;
+import com.mall.mapper.OrderMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 订单持久化服务（组提交）
+ * 并发的下单请求将订单放入队列，由写入线程将队列中积累的订单合并为一个事务：
+ * 订单、订单明细和发件箱事件各用一条多值INSERT写入，一次提交只刷一次redo log；
+ * 事务中只追加新行，不更新热点行，商家每日销售汇总由发件箱中继应用事件时累加
+ * 调用方阻塞等待所在批次提交，提交后订单ID已回填
+ * 批次写入失败时逐个订单单独提交，只有出错的订单失败
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OrderPersistenceService {
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final OrderMapper orderMapper;
+    private final OrderItemMapper orderItemMapper;
+    private final OrderOutboxMapper orderOutboxMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 是否启用组提交，关闭时每个订单单独提交
+     */
+    @Value("${order.persistence.group-commit-enabled:true}")
+    private boolean groupCommitEnabled;
+
+    /**
+     * 每个批次最多合并的订单数
+     */
+    @Value("${order.persistence.max-batch-size:200}")
+    private int maxBatchSize;
+
+    /**
+     * 等待写入的订单队列容量，队列满时拒绝下单
+     */
+    @Value("${order.persistence.queue-capacity:10000}")
+    private int queueCapacity;
+
+    /**
+     * 调用方等待订单提交的最长时间（毫秒）
+     */
+    @Value("${order.persistence.timeout-millis:5000}")
+    private long timeoutMillis;
+
+    private BlockingQueue<PendingOrder> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (!groupCommitEnabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        writer = new Thread(this::writeLoop, "order-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("订单组提交已启动：maxBatchSize={}, queueCapacity={}", maxBatchSize, queueCapacity);
+    }
+
+    /**
+     * 节点关闭时写完队列中剩余的订单
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(timeoutMillis);
+        log.info("订单组提交已停止：remaining={}", queue.size());
+    }
+
+    /**
+     * 保存订单（含订单明细和发件箱事件），返回时订单已提交且ID已回填
+     *
+     * @param order 已支付的订单
+     * @return 已保存的订单
+     * @throws IllegalStateException 如果写入队列已满或等待提交超时
+     */
+    public Order save(Order order) {
+        if (!groupCommitEnabled) {
+            transactionTemplate.execute(status -> {
+                insertOrders(Collections.singletonList(order));
+                return null;
+            });
+            return order;
+        }
+
+        PendingOrder pending = new PendingOrder(order);
+        if (!running || !queue.offer(pending)) {
+            throw new IllegalStateException("订单写入队列已满：orderNo=" + order.getOrderNo());
+        }
+        try {
+            return pending.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 订单尚未被写入线程取出时放弃写入；已在写入中则等待该批次结束，保证调用方得到确定的结果
+            if (pending.claimed.compareAndSet(false, true)) {
+                throw new IllegalStateException("订单保存超时：orderNo=" + order.getOrderNo());
+            }
+            return awaitInFlight(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (pending.claimed.compareAndSet(false, true)) {
+                throw new IllegalStateException("订单保存被中断：orderNo=" + order.getOrderNo());
+            }
+            return awaitInFlight(pending);
+        } catch (ExecutionException e) {
+            throw propagate(e);
+        }
+    }
+
+    /**
+     * 在当前事务中写入订单、订单明细和发件箱事件
+     * 每个商品一条库存扣减事件，每个订单一条转账事件，订单提交后事件由中继应用到数据库；
+     * 事件创建时间取订单创建时间，中继按该时间累加商家每日销售汇总
+     *
+     * @param orders 已支付的订单
+     */
+    public void insertOrders(List<Order> orders) {
+        orderMapper.batchInsert(orders);
+
+        List<OrderItem> items = new ArrayList<>();
+        List<OrderOutboxEvent> events = new ArrayList<>();
+        for (Order order : orders) {
+            int firstEvent = events.size();
+            if (order.getItems() != null && !order.getItems().isEmpty()) {
+                for (OrderItem item : order.getItems()) {
+                    item.setOrderId(order.getId());
+                    item.setOrderNo(order.getOrderNo());
+                    item.setCreateTime(order.getCreateTime());
+                    items.add(item);
+                    events.add(OrderOutboxEvent.inventoryDecrease(
+                            order.getOrderNo(), order.getMerchantId(), item.getSku(), item.getQuantity()));
+                }
+            } else {
+                events.add(OrderOutboxEvent.inventoryDecrease(
+                        order.getOrderNo(), order.getMerchantId(), order.getSku(), order.getQuantity()));
+            }
+            events.add(OrderOutboxEvent.accountTransfer(
+                    order.getOrderNo(), order.getUserId(), order.getMerchantId(), order.getTotalAmount()));
+            if (order.getCreateTime() != null) {
+                for (OrderOutboxEvent event : events.subList(firstEvent, events.size())) {
+                    event.setCreateTime(order.getCreateTime());
+                }
+            }
+        }
+        if (!items.isEmpty()) {
+            orderItemMapper.batchInsert(items);
+        }
+        orderOutboxMapper.batchInsert(events);
+    }
+
+    /**
+     * 写入线程：取出队列中已积累的订单合并提交，提交期间到达的订单进入下一批次
+     */
+    private void writeLoop() {
+        List<PendingOrder> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingOrder first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                batch.removeIf(pending -> !pending.claimed.compareAndSet(false, true));
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("订单组提交失败：count={}, error={}", batch.size(), e.getMessage(), e);
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中提交整个批次，失败时逐个订单单独提交
+     */
+    private void commit(List<PendingOrder> batch) {
+        List<Order> orders = new ArrayList<>(batch.size());
+        batch.forEach(pending -> orders.add(pending.order));
+        try {
+            long startTime = System.nanoTime();
+            transactionTemplate.execute(status -> {
+                insertOrders(orders);
+                return null;
+            });
+            batch.forEach(pending -> pending.future.complete(pending.order));
+            log.debug("订单组提交完成：count={}, elapsedMicros={}", orders.size(),
+                    (System.nanoTime() - startTime) / 1000);
+        } catch (Exception e) {
+            log.warn("订单组提交失败，改为逐个提交：count={}, error={}", orders.size(), e.getMessage());
+            for (PendingOrder pending : batch) {
+                try {
+                    transactionTemplate.execute(status -> {
+                        insertOrders(Collections.singletonList(pending.order));
+                        return null;
+                    });
+                    pending.future.complete(pending.order);
+                } catch (Exception ex) {
+                    pending.future.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    private Order awaitInFlight(PendingOrder pending) {
+        try {
+            return pending.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("订单保存被中断：orderNo=" + pending.order.getOrderNo());
+        } catch (ExecutionException e) {
+            throw propagate(e);
+        }
+    }
+
+    private RuntimeException propagate(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException("订单保存失败：" + cause.getMessage(), cause);
+    }
+
+    /**
+     * 等待写入的订单；claimed由写入线程或超时的调用方抢占，保证超时放弃的订单不会再被写入
+     */
+    private static class PendingOrder {
+
+        private final Order order;
+        private final CompletableFuture<Order> future = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        PendingOrder(Order order) {
+            this.order = order;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.mall.service;
 
 import com.mall.domain.transaction.Order;
+import com.mall.dto.CartOrderCreateRequest;
+import com.mall.dto.OrderBatchCreateResult;
 import com.mall.dto.OrderCreateRequest;
 
+import java.util.List;
+
 /**
  * 订单服务接口
  *
@@ -18,6 +22,24 @@ public interface OrderService {
      */
     Order createOrder(OrderCreateRequest request);
 
+    /**
+     * 批量创建订单并完成支付
+     * 每个订单独立成功或失败，返回逐项结果
+     *
+     * @param requests 订单创建请求列表
+     * @return 批量创建结果
+     */
+    OrderBatchCreateResult createOrders(List<OrderCreateRequest> requests);
+
+    /**
+     * 创建购物车订单并完成支付
+     * 同一商家的多个商品合并为一个订单，全部商品库存预留成功才下单
+     *
+     * @param request 购物车订单创建请求
+     * @return 创建的订单（包含订单明细）
+     */
+    Order createCartOrder(CartOrderCreateRequest request);
+
     /**
      * 根据订单号查询订单
      *
@@ -0,0 +1,121 @@
+package com.mall.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.mall.domain.merchant.ProductCatalog;
+import com.mall.domain.merchant.ProductInventory;
+import com.mall.mapper.ProductInventoryMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品目录本地缓存
+ * 按 (merchantId, sku) 缓存商品名称、价格和货币，避免每次下单都查询数据库
+ * 商品变更时通过Redis发布订阅通知集群内所有节点失效本地缓存
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductCatalogCache implements MessageListener {
+
+    /**
+     * 缓存失效通知频道
+     */
+    public static final String INVALIDATION_CHANNEL = "product:catalog:invalidate";
+
+    private final ProductInventoryMapper productInventoryMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${product.catalog.cache.max-size:100000}")
+    private long maxSize;
+
+    @Value("${product.catalog.cache.expire-after-write-seconds:300}")
+    private long expireAfterWriteSeconds;
+
+    private LoadingCache<String, ProductCatalog> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .build(this::load);
+    }
+
+    /**
+     * 获取商品目录信息
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return 商品目录信息，如果商品不存在返回null
+     */
+    public ProductCatalog get(Long merchantId, String sku) {
+        return cache.get(getCacheKey(merchantId, sku));
+    }
+
+    /**
+     * 通知集群内所有节点失效指定商品的本地缓存
+     * 存在事务时在事务提交后发布，避免其他节点在提交前重新加载到旧数据
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     */
+    public void publishInvalidation(Long merchantId, String sku) {
+        String cacheKey = getCacheKey(merchantId, sku);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(cacheKey);
+                }
+            });
+        } else {
+            publish(cacheKey);
+        }
+    }
+
+    /**
+     * 接收失效通知，失效本地缓存
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String cacheKey = new String(message.getBody(), StandardCharsets.UTF_8);
+        cache.invalidate(cacheKey);
+        log.debug("商品目录本地缓存已失效：key={}", cacheKey);
+    }
+
+    private void publish(String cacheKey) {
+        // 先失效本节点，发布失败时其他节点依赖过期时间兜底
+        cache.invalidate(cacheKey);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, cacheKey);
+        } catch (Exception e) {
+            log.error("发布商品目录缓存失效通知失败：key={}, error={}", cacheKey, e.getMessage(), e);
+        }
+    }
+
+    private ProductCatalog load(String cacheKey) {
+        int separator = cacheKey.indexOf(':');
+        Long merchantId = Long.valueOf(cacheKey.substring(0, separator));
+        String sku = cacheKey.substring(separator + 1);
+        ProductInventory inventory = productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku);
+        return inventory != null ? ProductCatalog.from(inventory) : null;
+    }
+
+    private String getCacheKey(Long merchantId, String sku) {
+        return merchantId + ":" + sku;
+    }
+}
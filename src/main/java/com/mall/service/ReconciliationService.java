@@ -0,0 +1,521 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.MerchantAccount;
+import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.domain.user.UserAccount;
+import com.mall.dto.ReconciliationReport;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.UserAccountMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Redis与数据库对账服务
+ * 全量对账用SCAN游标遍历inventory:*和account:cents:*，每批key一次MGET读取Redis值，
+ * 在一个事务中批量读取数据库行和尚未应用的发件箱事件（同一快照），得到Redis应有的值：
+ * 库存 = 数据库库存 - 未应用扣减，用户余额 = 数据库余额 - 未应用转账，商家余额 = 数据库余额 + 未应用转账
+ * 不一致的key间隔一段时间后再检查一次，两次差异相同才确认为偏差，差异变化说明有在途订单，只计为不稳定；
+ * 日志优先模式下存在尚未写入数据库的订单日志时，偏差同样只计为不稳定
+ * 确认的偏差记录告警，开启自动修复时用CAS脚本写回应有的值（Redis值在检查后被修改则放弃）
+ * 增量对账只检查检查点之后发件箱事件涉及的key；充值、补货不经过发件箱，由全量对账覆盖
+ * 有节点持有未过期租约的商品（租借部分不在Redis中）不对账，租约过期后照常对账，找回异常退出的节点租借的库存；
+ * 分片库存只汇总比较、不自动修复
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ReconciliationService {
+
+    static final String CHECKPOINT_KEY = "reconcile:checkpoint";
+
+    private static final String INVENTORY_PREFIX = "inventory:";
+    private static final String USER_PREFIX = "account:cents:user:";
+    private static final String MERCHANT_PREFIX = "account:cents:merchant:";
+    private static final Pattern SHARD_SUFFIX = Pattern.compile("^(.+):s\\d+$");
+
+    /**
+     * Lua脚本：Redis值仍为检查时读到的值时才写入修复值
+     * KEYS[1]: 库存或账户key
+     * ARGV[1]: 检查时读到的值
+     * ARGV[2]: 修复值
+     * 返回: 1表示已修复，0表示值已被修改
+     */
+    private static final String REPAIR_SCRIPT =
+            "if redis.call('get', KEYS[1]) ~= ARGV[1] then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('set', KEYS[1], ARGV[2])\n" +
+            "return 1";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ProductInventoryMapper productInventoryMapper;
+    private final UserAccountMapper userAccountMapper;
+    private final MerchantAccountMapper merchantAccountMapper;
+    private final OrderOutboxMapper orderOutboxMapper;
+    private final RedisInventoryService redisInventoryService;
+    private final InventoryLeaseService inventoryLeaseService;
+    private final OrderJournalService orderJournalService;
+    private final TransactionTemplate transactionTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * 是否自动修复确认的偏差，关闭时只记录告警
+     */
+    @Value("${reconcile.auto-repair:false}")
+    private boolean autoRepair;
+
+    /**
+     * 每批对账的key数量
+     */
+    @Value("${reconcile.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * SCAN每次返回的key数量提示
+     */
+    @Value("${reconcile.scan-count:1000}")
+    private int scanCount;
+
+    /**
+     * 每秒最多对账的key数量，0表示不限速
+     */
+    @Value("${reconcile.max-keys-per-second:5000}")
+    private int maxKeysPerSecond;
+
+    /**
+     * 两次检查的间隔（毫秒），需大于订单从Redis扣减到写入发件箱的最长时间
+     */
+    @Value("${reconcile.confirm-delay-millis:6000}")
+    private long confirmDelayMillis;
+
+    /**
+     * 下单请求等待订单提交的最长时间（毫秒），即订单从Redis扣减到写入发件箱的最长时间
+     */
+    @Value("${order.persistence.timeout-millis:5000}")
+    private long persistenceTimeoutMillis;
+
+    private RedisScriptRegistry.RegisteredScript<Long> repairScript;
+
+    @PostConstruct
+    public void init() {
+        // 间隔不大于组提交等待时间时，仍在队列中的订单会被确认为偏差，自动修复后重复计算
+        if (confirmDelayMillis <= persistenceTimeoutMillis) {
+            throw new IllegalStateException("reconcile.confirm-delay-millis(" + confirmDelayMillis
+                    + ")必须大于order.persistence.timeout-millis(" + persistenceTimeoutMillis + ")");
+        }
+        repairScript = redisScriptRegistry.register("reconcile.repair", REPAIR_SCRIPT, Long.class);
+    }
+
+    /**
+     * 全量对账：SCAN遍历全部库存和账户key
+     *
+     * @return 对账结果
+     */
+    public ReconciliationReport reconcileAll() {
+        long startTime = System.currentTimeMillis();
+        ReconciliationReport report = ReconciliationReport.builder().mode("FULL").build();
+        Set<String> shardedSkus = new HashSet<>();
+        for (String pattern : new String[]{INVENTORY_PREFIX + "*", USER_PREFIX + "*", MERCHANT_PREFIX + "*"}) {
+            ScanOptions options = ScanOptions.scanOptions().match(pattern).count(scanCount).build();
+            try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                    connection -> connection.scan(options))) {
+                List<Target> batch = new ArrayList<>(batchSize);
+                while (cursor.hasNext()) {
+                    Target target = parse(new String(cursor.next(), StandardCharsets.UTF_8), shardedSkus, report);
+                    if (target == null) {
+                        continue;
+                    }
+                    batch.add(target);
+                    if (batch.size() >= batchSize) {
+                        reconcileBatch(batch, report, startTime);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    reconcileBatch(batch, report, startTime);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("关闭SCAN游标失败：" + e.getMessage(), e);
+            }
+        }
+        return finish(report, startTime);
+    }
+
+    /**
+     * 增量对账：只检查检查点之后的发件箱事件涉及的商品和账户，完成后推进检查点
+     * 自增ID乱序提交可能使少量事件落在检查点之前，由全量对账兜底
+     *
+     * @return 对账结果
+     */
+    public ReconciliationReport reconcileIncremental() {
+        long startTime = System.currentTimeMillis();
+        ReconciliationReport report = ReconciliationReport.builder().mode("INCREMENTAL").build();
+        String stored = stringRedisTemplate.opsForValue().get(CHECKPOINT_KEY);
+        long checkpoint = stored != null ? Long.parseLong(stored) : 0L;
+
+        List<OrderOutboxEvent> events;
+        do {
+            events = orderOutboxMapper.selectAfterId(checkpoint, batchSize);
+            if (events.isEmpty()) {
+                break;
+            }
+            Map<String, Target> targets = new LinkedHashMap<>();
+            for (OrderOutboxEvent event : events) {
+                if (event.getEventType() == OrderOutboxEvent.EventType.INVENTORY_DECREASE) {
+                    String key = inventoryKey(event.getMerchantId(), event.getSku());
+                    if (!targets.containsKey(key)) {
+                        Target target = inventoryTarget(event.getMerchantId(), event.getSku(), report);
+                        if (target != null) {
+                            targets.put(key, target);
+                        }
+                    }
+                } else {
+                    Target user = Target.user(event.getUserId());
+                    Target merchant = Target.merchant(event.getMerchantId());
+                    targets.putIfAbsent(user.key, user);
+                    targets.putIfAbsent(merchant.key, merchant);
+                }
+            }
+            reconcileBatch(new ArrayList<>(targets.values()), report, startTime);
+            checkpoint = events.get(events.size() - 1).getId();
+            stringRedisTemplate.opsForValue().set(CHECKPOINT_KEY, String.valueOf(checkpoint));
+        } while (events.size() >= batchSize);
+        return finish(report, startTime);
+    }
+
+    /**
+     * 对账一批key：第一次检查不一致的key在确认间隔后再检查一次
+     */
+    private void reconcileBatch(List<Target> targets, ReconciliationReport report, long startTime) {
+        Map<String, Observation> first = observe(targets);
+        List<Target> suspects = new ArrayList<>();
+        for (Target target : targets) {
+            Observation observation = first.get(target.key);
+            if (observation == null) {
+                // 检查期间key已过期或被删除，之后由账户加载或库存预热重新写入
+                report.setSkipped(report.getSkipped() + 1);
+                continue;
+            }
+            report.setChecked(report.getChecked() + 1);
+            if (!observation.matches()) {
+                suspects.add(target);
+            }
+        }
+
+        if (!suspects.isEmpty()) {
+            sleep(confirmDelayMillis);
+            boolean journalBacklog = orderJournalService.getBacklog() > 0;
+            Map<String, Observation> second = observe(suspects);
+            for (Target target : suspects) {
+                confirm(target, first.get(target.key), second.get(target.key), journalBacklog, report);
+            }
+        }
+        throttle(report.getChecked() + report.getSkipped(), startTime);
+    }
+
+    /**
+     * 比较两次检查的差异，相同则确认为偏差并按配置修复
+     */
+    private void confirm(Target target, Observation first, Observation second, boolean journalBacklog,
+                         ReconciliationReport report) {
+        if (second == null || second.matches()) {
+            return;
+        }
+        if (journalBacklog || first.expected == null != (second.expected == null)
+                || (first.expected != null && first.diff().compareTo(second.diff()) != 0)) {
+            report.setUnstable(report.getUnstable() + 1);
+            log.debug("对账差异变化，视为在途订单：key={}, first={}, second={}", target.key, first, second);
+            return;
+        }
+
+        report.setDrifted(report.getDrifted() + 1);
+        log.warn("Redis与数据库不一致：key={}, redis={}, expected={}", target.key, second.actual, second.expected);
+        if (!autoRepair || second.raw == null || second.expected == null) {
+            return;
+        }
+        String value = target.type == TargetType.INVENTORY
+                ? second.expected.toBigInteger().toString()
+                : String.valueOf(RedisAccountService.toCents(second.expected));
+        Long result = redisScriptRegistry.execute(repairScript, Collections.singletonList(target.key),
+                second.raw, value);
+        if (result != null && result == 1) {
+            report.setRepaired(report.getRepaired() + 1);
+            log.warn("已修复Redis值：key={}, from={}, to={}", target.key, second.raw, value);
+        } else {
+            log.info("Redis值在检查后已被修改，放弃修复：key={}", target.key);
+        }
+    }
+
+    /**
+     * 读取一批key的Redis值和数据库应有的值
+     *
+     * @return key -> 检查结果，Redis中不存在的key不包含在内
+     */
+    private Map<String, Observation> observe(List<Target> targets) {
+        List<String> plainKeys = new ArrayList<>();
+        for (Target target : targets) {
+            if (target.type != TargetType.SHARDED_INVENTORY) {
+                plainKeys.add(target.key);
+            }
+        }
+        List<String> values = plainKeys.isEmpty()
+                ? Collections.emptyList()
+                : stringRedisTemplate.opsForValue().multiGet(plainKeys);
+        Map<String, String> rawValues = new HashMap<>();
+        for (int i = 0; i < plainKeys.size() && values != null; i++) {
+            rawValues.put(plainKeys.get(i), values.get(i));
+        }
+
+        Map<String, BigDecimal> expected = transactionTemplate.execute(status -> loadExpected(targets));
+
+        Map<String, Observation> observations = new HashMap<>();
+        for (Target target : targets) {
+            BigDecimal actual;
+            String raw = null;
+            if (target.type == TargetType.SHARDED_INVENTORY) {
+                Integer total = redisInventoryService.getInventory(target.merchantId, target.sku);
+                actual = total != null ? BigDecimal.valueOf(total) : null;
+            } else {
+                raw = rawValues.get(target.key);
+                actual = raw != null ? parseValue(target, raw) : null;
+            }
+            if (actual != null) {
+                observations.put(target.key, new Observation(raw, actual, expected.get(target.key)));
+            }
+        }
+        return observations;
+    }
+
+    /**
+     * 解析Redis原始值，库存为整数，余额为整数分
+     */
+    private BigDecimal parseValue(Target target, String raw) {
+        long value = Long.parseLong(raw);
+        return target.type == TargetType.USER || target.type == TargetType.MERCHANT
+                ? RedisAccountService.fromCents(value)
+                : BigDecimal.valueOf(value);
+    }
+
+    /**
+     * 在同一事务中读取数据库行和未应用的发件箱事件，计算Redis应有的值
+     *
+     * @return key -> 应有的值，数据库中不存在的行不包含在内
+     */
+    private Map<String, BigDecimal> loadExpected(List<Target> targets) {
+        List<ProductInventory> inventoryKeys = new ArrayList<>();
+        List<Long> userIds = new ArrayList<>();
+        List<Long> merchantIds = new ArrayList<>();
+        for (Target target : targets) {
+            if (target.type == TargetType.USER) {
+                userIds.add(target.accountId);
+            } else if (target.type == TargetType.MERCHANT) {
+                merchantIds.add(target.accountId);
+            } else {
+                inventoryKeys.add(ProductInventory.builder().merchantId(target.merchantId).sku(target.sku).build());
+            }
+        }
+
+        Map<String, BigDecimal> expected = new HashMap<>();
+        if (!inventoryKeys.isEmpty()) {
+            for (ProductInventory inventory : productInventoryMapper.selectByKeys(inventoryKeys)) {
+                expected.put(inventoryKey(inventory.getMerchantId(), inventory.getSku()),
+                        BigDecimal.valueOf(inventory.getQuantity()));
+            }
+            for (OrderOutboxEvent sum : orderOutboxMapper.sumUnappliedInventory(inventoryKeys)) {
+                expected.computeIfPresent(inventoryKey(sum.getMerchantId(), sum.getSku()),
+                        (key, quantity) -> quantity.subtract(BigDecimal.valueOf(sum.getQuantity())));
+            }
+        }
+        if (!userIds.isEmpty()) {
+            for (UserAccount account : userAccountMapper.selectByUserIds(userIds)) {
+                expected.put(USER_PREFIX + account.getUserId(), account.getBalance());
+            }
+            for (OrderOutboxEvent sum : orderOutboxMapper.sumUnappliedUserAmounts(userIds)) {
+                expected.computeIfPresent(USER_PREFIX + sum.getUserId(),
+                        (key, balance) -> balance.subtract(sum.getAmount()));
+            }
+        }
+        if (!merchantIds.isEmpty()) {
+            for (MerchantAccount account : merchantAccountMapper.selectByMerchantIds(merchantIds)) {
+                expected.put(MERCHANT_PREFIX + account.getMerchantId(), account.getBalance());
+            }
+            for (OrderOutboxEvent sum : orderOutboxMapper.sumUnappliedMerchantAmounts(merchantIds)) {
+                expected.computeIfPresent(MERCHANT_PREFIX + sum.getMerchantId(),
+                        (key, balance) -> balance.add(sum.getAmount()));
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * 解析SCAN得到的key，分片库存的子key合并为一个商品，同一商品只返回一次
+     *
+     * @return 对账目标，无需对账的key返回null
+     */
+    private Target parse(String key, Set<String> shardedSkus, ReconciliationReport report) {
+        Long merchantId;
+        String sku;
+        try {
+            if (key.startsWith(USER_PREFIX)) {
+                return Target.user(Long.valueOf(key.substring(USER_PREFIX.length())));
+            }
+            if (key.startsWith(MERCHANT_PREFIX)) {
+                return Target.merchant(Long.valueOf(key.substring(MERCHANT_PREFIX.length())));
+            }
+            String rest = key.substring(INVENTORY_PREFIX.length());
+            int separator = rest.indexOf(':');
+            merchantId = Long.valueOf(rest.substring(0, separator));
+            sku = rest.substring(separator + 1);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            log.debug("无法解析的key，跳过对账：key={}", key);
+            report.setSkipped(report.getSkipped() + 1);
+            return null;
+        }
+
+        Matcher matcher = SHARD_SUFFIX.matcher(sku);
+        if (matcher.matches() && redisInventoryService.getShardCount(merchantId, matcher.group(1)) > 1) {
+            sku = matcher.group(1);
+            if (!shardedSkus.add(merchantId + ":" + sku)) {
+                return null;
+            }
+        } else if (redisInventoryService.getShardCount(merchantId, sku) > 1) {
+            // 改为分片前遗留的key，不再参与扣减
+            report.setSkipped(report.getSkipped() + 1);
+            return null;
+        }
+        return inventoryTarget(merchantId, sku, report);
+    }
+
+    /**
+     * 商品库存对账目标，有节点持有未过期租约的商品返回null
+     */
+    private Target inventoryTarget(Long merchantId, String sku, ReconciliationReport report) {
+        if (inventoryLeaseService.hasActiveLease(merchantId, sku)) {
+            report.setSkipped(report.getSkipped() + 1);
+            return null;
+        }
+        TargetType type = redisInventoryService.getShardCount(merchantId, sku) > 1
+                ? TargetType.SHARDED_INVENTORY : TargetType.INVENTORY;
+        return new Target(type, inventoryKey(merchantId, sku), merchantId, sku, null);
+    }
+
+    /**
+     * 按每秒最多对账的key数量限速
+     */
+    private void throttle(long processed, long startTime) {
+        if (maxKeysPerSecond <= 0) {
+            return;
+        }
+        long expectedElapsed = processed * 1000 / maxKeysPerSecond;
+        sleep(expectedElapsed - (System.currentTimeMillis() - startTime));
+    }
+
+    private void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("对账被中断", e);
+        }
+    }
+
+    private ReconciliationReport finish(ReconciliationReport report, long startTime) {
+        report.setElapsedMillis(System.currentTimeMillis() - startTime);
+        log.info("对账完成：{}", report);
+        return report;
+    }
+
+    private static String inventoryKey(Long merchantId, String sku) {
+        return INVENTORY_PREFIX + merchantId + ":" + sku;
+    }
+
+    private enum TargetType {
+        INVENTORY, SHARDED_INVENTORY, USER, MERCHANT
+    }
+
+    /**
+     * 对账目标；分片库存的key为不带分片后缀的商品库存key
+     */
+    private static class Target {
+
+        private final TargetType type;
+        private final String key;
+        private final Long merchantId;
+        private final String sku;
+        private final Long accountId;
+
+        Target(TargetType type, String key, Long merchantId, String sku, Long accountId) {
+            this.type = type;
+            this.key = key;
+            this.merchantId = merchantId;
+            this.sku = sku;
+            this.accountId = accountId;
+        }
+
+        static Target user(Long userId) {
+            return new Target(TargetType.USER, USER_PREFIX + userId, null, null, userId);
+        }
+
+        static Target merchant(Long merchantId) {
+            return new Target(TargetType.MERCHANT, MERCHANT_PREFIX + merchantId, merchantId, null, merchantId);
+        }
+    }
+
+    /**
+     * 一次检查的结果；raw为Redis原始值（分片库存为null），expected为null表示数据库中不存在
+     */
+    private static class Observation {
+
+        private final String raw;
+        private final BigDecimal actual;
+        private final BigDecimal expected;
+
+        Observation(String raw, BigDecimal actual, BigDecimal expected) {
+            this.raw = raw;
+            this.actual = actual;
+            this.expected = expected;
+        }
+
+        boolean matches() {
+            return expected != null && actual.compareTo(expected) == 0;
+        }
+
+        BigDecimal diff() {
+            return actual.subtract(expected);
+        }
+
+        @Override
+        public String toString() {
+            return "redis=" + actual + ", expected=" + expected;
+        }
+    }
+}
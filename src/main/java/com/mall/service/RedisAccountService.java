@@ -2,10 +2,14 @@ package com.mall.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.Collections;
@@ -14,6 +18,10 @@ import java.util.List;
 /**
  * Redis账户服务
  * 使用Lua脚本保证账户余额操作的原子性
+ * 余额在Redis中以整数分存储 (account:cents:user:{userId} / account:cents:merchant:{merchantId})，
+ * 转账和充值使用 DECRBY/INCRBY，元与分的转换只在本服务的方法边界进行
+ * 旧版本以元为单位的小数余额 (account:user:{userId} / account:merchant:{merchantId}) 在账户加载时按需转换，
+ * 启动时由预热服务扫描转换其余旧key
  *
  * @author mall
  */
@@ -22,13 +30,19 @@ import java.util.List;
 @Slf4j
 public class RedisAccountService {
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    private static final String USER_KEY_PREFIX = "account:cents:user:";
+    private static final String MERCHANT_KEY_PREFIX = "account:cents:merchant:";
+    private static final String LEGACY_USER_KEY_PREFIX = "account:user:";
+    private static final String LEGACY_MERCHANT_KEY_PREFIX = "account:merchant:";
+
+    private final RedisTemplate<String, Long> redisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
 
     /**
      * Lua脚本：扣减用户余额并增加商家余额（原子操作）
-     * KEYS[1]: 用户账户key (account:user:{userId})
-     * KEYS[2]: 商家账户key (account:merchant:{merchantId})
-     * ARGV[1]: 扣减金额
+     * KEYS[1]: 用户账户key (account:cents:user:{userId})
+     * KEYS[2]: 商家账户key (account:cents:merchant:{merchantId})
+     * ARGV[1]: 扣减金额（分）
      * 返回: 1表示成功，-1表示用户余额不足，-2表示用户账户不存在，-3表示商家账户不存在
      */
     private static final String TRANSFER_AMOUNT_SCRIPT =
@@ -41,25 +55,23 @@ public class RedisAccountService {
             "    return -2\n" +
             "end\n" +
             "\n" +
-            "local userBalanceNum = tonumber(userBalance)\n" +
-            "if userBalanceNum < amount then\n" +
+            "if tonumber(userBalance) < amount then\n" +
             "    return -1\n" +
             "end\n" +
             "\n" +
-            "local merchantBalance = redis.call('get', merchantKey)\n" +
-            "if merchantBalance == false then\n" +
+            "if redis.call('exists', merchantKey) == 0 then\n" +
             "    return -3\n" +
             "end\n" +
             "\n" +
-            "redis.call('decrbyfloat', userKey, amount)\n" +
-            "redis.call('incrbyfloat', merchantKey, amount)\n" +
+            "redis.call('decrby', userKey, amount)\n" +
+            "redis.call('incrby', merchantKey, amount)\n" +
             "return 1";
 
     /**
      * Lua脚本：扣减用户余额
-     * KEYS[1]: 用户账户key (account:user:{userId})
-     * ARGV[1]: 扣减金额
-     * 返回: 扣减后的余额，如果余额不足返回-1，如果账户不存在返回-2
+     * KEYS[1]: 用户账户key (account:cents:user:{userId})
+     * ARGV[1]: 扣减金额（分）
+     * 返回: 扣减后的余额（分），如果余额不足返回-1，如果账户不存在返回-2
      */
     private static final String DECREASE_USER_BALANCE_SCRIPT =
             "local userKey = KEYS[1]\n" +
@@ -70,63 +82,95 @@ public class RedisAccountService {
             "    return -2\n" +
             "end\n" +
             "\n" +
-            "local userBalanceNum = tonumber(userBalance)\n" +
-            "if userBalanceNum < amount then\n" +
+            "if tonumber(userBalance) < amount then\n" +
             "    return -1\n" +
             "end\n" +
             "\n" +
-            "local result = userBalanceNum - amount\n" +
-            "redis.call('set', userKey, result)\n" +
-            "return result";
+            "return redis.call('decrby', userKey, amount)";
 
     /**
      * Lua脚本：增加用户余额
-     * KEYS[1]: 用户账户key (account:user:{userId})
-     * ARGV[1]: 增加金额
+     * KEYS[1]: 用户账户key (account:cents:user:{userId})
+     * ARGV[1]: 增加金额（分）
+     * 返回: 增加后的余额（分）
      */
     private static final String INCREASE_USER_BALANCE_SCRIPT =
-            "local userKey = KEYS[1]\n" +
-            "local amount = tonumber(ARGV[1])\n" +
-            "redis.call('incrbyfloat', userKey, amount)\n" +
-            "return redis.call('get', userKey)";
+            "return redis.call('incrby', KEYS[1], ARGV[1])";
 
     /**
      * Lua脚本：增加商家余额
-     * KEYS[1]: 商家账户key (account:merchant:{merchantId})
-     * ARGV[1]: 增加金额
+     * KEYS[1]: 商家账户key (account:cents:merchant:{merchantId})
+     * ARGV[1]: 增加金额（分）
+     * 返回: 增加后的余额（分）
      */
     private static final String INCREASE_MERCHANT_BALANCE_SCRIPT =
-            "local merchantKey = KEYS[1]\n" +
-            "local amount = tonumber(ARGV[1])\n" +
-            "redis.call('incrbyfloat', merchantKey, amount)\n" +
-            "return redis.call('get', merchantKey)";
+            "return redis.call('incrby', KEYS[1], ARGV[1])";
 
-    private DefaultRedisScript<Long> transferAmountScript;
-    private DefaultRedisScript<Double> decreaseUserBalanceScript;
-    private DefaultRedisScript<Double> increaseUserBalanceScript;
-    private DefaultRedisScript<Double> increaseMerchantBalanceScript;
+    /**
+     * Lua脚本：账户已加载到Redis时按增量增加余额，未加载时不写入，由账户加载从数据库读取最新余额
+     * KEYS[1]: 账户key
+     * ARGV[1]: 增加金额（分）
+     * 返回: 1表示已增加，0表示账户未加载
+     */
+    private static final String INCREASE_BALANCE_IF_PRESENT_SCRIPT =
+            "if redis.call('exists', KEYS[1]) == 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('incrby', KEYS[1], ARGV[1])\n" +
+            "return 1";
 
-    @org.springframework.beans.factory.annotation.Autowired
-    public void init() {
-        // 初始化转账脚本
-        transferAmountScript = new DefaultRedisScript<>();
-        transferAmountScript.setScriptText(TRANSFER_AMOUNT_SCRIPT);
-        transferAmountScript.setResultType(Long.class);
+    /**
+     * Lua脚本：将旧版本以元为单位的小数余额转换为整数分
+     * 新key已存在时保留新key（以新格式写入的余额更新），只删除旧key
+     * KEYS[1]: 旧账户key (account:user:{userId} / account:merchant:{merchantId})
+     * KEYS[2]: 新账户key (account:cents:user:{userId} / account:cents:merchant:{merchantId})
+     * 返回: 1表示已转换，0表示新key已存在，-1表示旧key不存在，-2表示旧余额不是有效数字（不转换，保留旧key）
+     */
+    private static final String CONVERT_LEGACY_BALANCE_SCRIPT =
+            "local legacy = redis.call('get', KEYS[1])\n" +
+            "if legacy == false then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "if redis.call('exists', KEYS[2]) == 1 then\n" +
+            "    redis.call('del', KEYS[1])\n" +
+            "    return 0\n" +
+            "end\n" +
+            "local yuan = tonumber((string.gsub(legacy, '\"', '')))\n" +
+            "if yuan == nil or yuan ~= yuan or yuan == math.huge or yuan == -math.huge then\n" +
+            "    return -2\n" +
+            "end\n" +
+            "local cents\n" +
+            "if yuan < 0 then\n" +
+            "    cents = -math.floor(-yuan * 100 + 0.5)\n" +
+            "else\n" +
+            "    cents = math.floor(yuan * 100 + 0.5)\n" +
+            "end\n" +
+            "redis.call('set', KEYS[2], string.format('%d', cents))\n" +
+            "redis.call('del', KEYS[1])\n" +
+            "return 1";
 
-        // 初始化扣减用户余额脚本
-        decreaseUserBalanceScript = new DefaultRedisScript<>();
-        decreaseUserBalanceScript.setScriptText(DECREASE_USER_BALANCE_SCRIPT);
-        decreaseUserBalanceScript.setResultType(Double.class);
+    private final StringRedisSerializer argsSerializer = new StringRedisSerializer();
 
-        // 初始化增加用户余额脚本
-        increaseUserBalanceScript = new DefaultRedisScript<>();
-        increaseUserBalanceScript.setScriptText(INCREASE_USER_BALANCE_SCRIPT);
-        increaseUserBalanceScript.setResultType(Double.class);
+    private RedisScriptRegistry.RegisteredScript<Long> transferAmountScript;
+    private RedisScriptRegistry.RegisteredScript<Long> decreaseUserBalanceScript;
+    private RedisScriptRegistry.RegisteredScript<Long> increaseUserBalanceScript;
+    private RedisScriptRegistry.RegisteredScript<Long> increaseMerchantBalanceScript;
+    private RedisScriptRegistry.RegisteredScript<Long> increaseBalanceIfPresentScript;
+    private RedisScriptRegistry.RegisteredScript<Long> convertLegacyBalanceScript;
 
-        // 初始化增加商家余额脚本
-        increaseMerchantBalanceScript = new DefaultRedisScript<>();
-        increaseMerchantBalanceScript.setScriptText(INCREASE_MERCHANT_BALANCE_SCRIPT);
-        increaseMerchantBalanceScript.setResultType(Double.class);
+    @PostConstruct
+    public void init() {
+        transferAmountScript = redisScriptRegistry.register("account.transfer", TRANSFER_AMOUNT_SCRIPT, Long.class);
+        decreaseUserBalanceScript = redisScriptRegistry.register("account.decrease-user",
+                DECREASE_USER_BALANCE_SCRIPT, Long.class);
+        increaseUserBalanceScript = redisScriptRegistry.register("account.increase-user",
+                INCREASE_USER_BALANCE_SCRIPT, Long.class);
+        increaseMerchantBalanceScript = redisScriptRegistry.register("account.increase-merchant",
+                INCREASE_MERCHANT_BALANCE_SCRIPT, Long.class);
+        increaseBalanceIfPresentScript = redisScriptRegistry.register("account.increase-if-present",
+                INCREASE_BALANCE_IF_PRESENT_SCRIPT, Long.class);
+        convertLegacyBalanceScript = redisScriptRegistry.register("account.convert-legacy",
+                CONVERT_LEGACY_BALANCE_SCRIPT, Long.class);
     }
 
     /**
@@ -139,11 +183,21 @@ public class RedisAccountService {
      * @throws IllegalArgumentException 如果账户不存在或余额不足
      */
     public boolean transferAmount(Long userId, Long merchantId, BigDecimal amount) {
-        String userKey = getUserAccountKey(userId);
-        String merchantKey = getMerchantAccountKey(merchantId);
-        List<String> keys = Arrays.asList(userKey, merchantKey);
-        Long result = redisTemplate.execute(transferAmountScript, keys, amount.toString());
-        
+        Long result = tryTransferAmount(userId, merchantId, amount);
+        checkTransferResult(result, userId, merchantId, amount);
+        return true;
+    }
+
+    /**
+     * 校验转账脚本结果码，失败时抛出异常
+     *
+     * @param result     转账脚本结果码
+     * @param userId     用户ID
+     * @param merchantId 商家ID
+     * @param amount     转账金额
+     * @throws IllegalArgumentException 如果账户不存在或余额不足
+     */
+    public void checkTransferResult(Long result, Long userId, Long merchantId, BigDecimal amount) {
         if (result == null || result <= 0) {
             if (result != null && result == -1) {
                 throw new IllegalArgumentException("用户账户余额不足：userId=" + userId);
@@ -157,7 +211,19 @@ public class RedisAccountService {
         }
         
         log.info("Redis转账成功：userId={}, merchantId={}, amount={}", userId, merchantId, amount);
-        return true;
+    }
+
+    /**
+     * 原子性转账，返回脚本结果码而不抛出异常
+     *
+     * @param userId     用户ID
+     * @param merchantId 商家ID
+     * @param amount     转账金额
+     * @return 1表示成功，-1表示用户余额不足，-2表示用户账户不存在，-3表示商家账户不存在
+     */
+    public Long tryTransferAmount(Long userId, Long merchantId, BigDecimal amount) {
+        List<String> keys = Arrays.asList(getUserAccountKey(userId), getMerchantAccountKey(merchantId));
+        return redisScriptRegistry.execute(transferAmountScript, keys, toCents(amount));
     }
 
     /**
@@ -168,7 +234,7 @@ public class RedisAccountService {
      */
     public void initUserAccount(Long userId, BigDecimal balance) {
         String key = getUserAccountKey(userId);
-        redisTemplate.opsForValue().set(key, balance.toString());
+        redisTemplate.opsForValue().set(key, toCents(balance));
         log.info("初始化Redis用户账户：key={}, balance={}", key, balance);
     }
 
@@ -180,10 +246,55 @@ public class RedisAccountService {
      */
     public void initMerchantAccount(Long merchantId, BigDecimal balance) {
         String key = getMerchantAccountKey(merchantId);
-        redisTemplate.opsForValue().set(key, balance.toString());
+        redisTemplate.opsForValue().set(key, toCents(balance));
         log.info("初始化Redis商家账户：key={}, balance={}", key, balance);
     }
 
+    /**
+     * 用户账户在Redis中不存在时才写入余额（SETNX），避免覆盖并发写入的新值
+     *
+     * @param userId  用户ID
+     * @param balance 余额
+     * @return true if 写入成功
+     */
+    public boolean initUserAccountIfAbsent(Long userId, BigDecimal balance) {
+        String key = getUserAccountKey(userId);
+        Boolean created = redisTemplate.opsForValue().setIfAbsent(key, toCents(balance));
+        log.info("加载Redis用户账户：key={}, balance={}, created={}", key, balance, created);
+        return Boolean.TRUE.equals(created);
+    }
+
+    /**
+     * 商家账户在Redis中不存在时才写入余额（SETNX），避免覆盖并发写入的新值
+     *
+     * @param merchantId 商家ID
+     * @param balance    余额
+     * @return true if 写入成功
+     */
+    public boolean initMerchantAccountIfAbsent(Long merchantId, BigDecimal balance) {
+        String key = getMerchantAccountKey(merchantId);
+        Boolean created = redisTemplate.opsForValue().setIfAbsent(key, toCents(balance));
+        log.info("加载Redis商家账户：key={}, balance={}, created={}", key, balance, created);
+        return Boolean.TRUE.equals(created);
+    }
+
+    /**
+     * 按增量增加Redis中的用户余额（充值），不覆盖订单扣款等并发写入
+     * 账户未加载到Redis时不写入，之后由账户加载从数据库读取包含本次充值的余额
+     *
+     * @param userId 用户ID
+     * @param amount 增加金额
+     * @return true if Redis中的余额已增加
+     */
+    public boolean increaseUserBalanceIfPresent(Long userId, BigDecimal amount) {
+        String key = getUserAccountKey(userId);
+        Long result = redisScriptRegistry.execute(increaseBalanceIfPresentScript,
+                Collections.singletonList(key), toCents(amount));
+        boolean increased = result != null && result == 1;
+        log.info("增加Redis用户余额：key={}, amount={}, increased={}", key, amount, increased);
+        return increased;
+    }
+
     /**
      * 获取用户账户余额
      *
@@ -191,12 +302,8 @@ public class RedisAccountService {
      * @return 余额，如果不存在返回null
      */
     public BigDecimal getUserBalance(Long userId) {
-        String key = getUserAccountKey(userId);
-        Object value = redisTemplate.opsForValue().get(key);
-        if (value == null) {
-            return null;
-        }
-        return new BigDecimal(value.toString());
+        Long cents = redisTemplate.opsForValue().get(getUserAccountKey(userId));
+        return cents != null ? fromCents(cents) : null;
     }
 
     /**
@@ -206,12 +313,8 @@ public class RedisAccountService {
      * @return 余额，如果不存在返回null
      */
     public BigDecimal getMerchantBalance(Long merchantId) {
-        String key = getMerchantAccountKey(merchantId);
-        Object value = redisTemplate.opsForValue().get(key);
-        if (value == null) {
-            return null;
-        }
-        return new BigDecimal(value.toString());
+        Long cents = redisTemplate.opsForValue().get(getMerchantAccountKey(merchantId));
+        return cents != null ? fromCents(cents) : null;
     }
 
     /**
@@ -223,14 +326,12 @@ public class RedisAccountService {
      */
     public void rollbackTransfer(Long userId, Long merchantId, BigDecimal amount) {
         try {
-            String userKey = getUserAccountKey(userId);
-            String merchantKey = getMerchantAccountKey(merchantId);
-            
-            List<String> userKeys = Collections.singletonList(userKey);
-            redisTemplate.execute(increaseUserBalanceScript, userKeys, amount.toString());
+            long cents = toCents(amount);
+            redisScriptRegistry.execute(increaseUserBalanceScript,
+                    Collections.singletonList(getUserAccountKey(userId)), cents);
             // 注意：这里需要确保商家余额足够回滚，实际场景中可能需要先检查
-            redisTemplate.opsForValue().increment(merchantKey, amount.negate().doubleValue());
-            
+            redisTemplate.opsForValue().decrement(getMerchantAccountKey(merchantId), cents);
+
             log.info("回滚Redis转账：userId={}, merchantId={}, amount={}", userId, merchantId, amount);
         } catch (Exception e) {
             log.error("回滚Redis转账失败：userId={}, merchantId={}, amount={}, error={}",
@@ -238,17 +339,107 @@ public class RedisAccountService {
         }
     }
 
+    /**
+     * 将用户账户的旧版本小数余额转换为整数分，账户加载时在读取数据库之前调用
+     *
+     * @param userId 用户ID
+     * @return true if 转换后账户已在Redis中
+     */
+    public boolean convertLegacyUserAccount(Long userId) {
+        return convertLegacyAccount(LEGACY_USER_KEY_PREFIX + userId, getUserAccountKey(userId)) >= 0;
+    }
+
+    /**
+     * 将商家账户的旧版本小数余额转换为整数分，账户加载时在读取数据库之前调用
+     *
+     * @param merchantId 商家ID
+     * @return true if 转换后账户已在Redis中
+     */
+    public boolean convertLegacyMerchantAccount(Long merchantId) {
+        return convertLegacyAccount(LEGACY_MERCHANT_KEY_PREFIX + merchantId, getMerchantAccountKey(merchantId)) >= 0;
+    }
+
+    /**
+     * 扫描并转换全部旧版本小数余额，每个key在一个脚本中原子转换，转换期间下单不受影响
+     *
+     * @return 转换的key数量
+     */
+    public int convertLegacyAccounts() {
+        int converted = 0;
+        for (String prefix : new String[]{LEGACY_USER_KEY_PREFIX, LEGACY_MERCHANT_KEY_PREFIX}) {
+            String newPrefix = LEGACY_USER_KEY_PREFIX.equals(prefix) ? USER_KEY_PREFIX : MERCHANT_KEY_PREFIX;
+            ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(1000).build();
+            try (Cursor<byte[]> cursor = redisTemplate.executeWithStickyConnection(
+                    connection -> connection.scan(options))) {
+                while (cursor.hasNext()) {
+                    String legacyKey = argsSerializer.deserialize(cursor.next());
+                    if (convertLegacyAccount(legacyKey, newPrefix + legacyKey.substring(prefix.length())) == 1) {
+                        converted++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("关闭SCAN游标失败：" + e.getMessage(), e);
+            }
+        }
+        log.info("旧版本账户余额转换完成：converted={}", converted);
+        return converted;
+    }
+
     /**
      * 获取用户账户key
+     *
+     * @param userId 用户ID
+     * @return account:cents:user:{userId}
      */
-    private String getUserAccountKey(Long userId) {
-        return "account:user:" + userId;
+    public static String getUserAccountKey(Long userId) {
+        return USER_KEY_PREFIX + userId;
     }
 
     /**
      * 获取商家账户key
+     *
+     * @param merchantId 商家ID
+     * @return account:cents:merchant:{merchantId}
+     */
+    public static String getMerchantAccountKey(Long merchantId) {
+        return MERCHANT_KEY_PREFIX + merchantId;
+    }
+
+    /**
+     * 金额（元）转换为Redis中存储的整数分
+     *
+     * @param amount 金额，最多两位小数
+     * @return 分
+     * @throws IllegalArgumentException 如果金额超过两位小数
      */
-    private String getMerchantAccountKey(Long merchantId) {
-        return "account:merchant:" + merchantId;
+    public static long toCents(BigDecimal amount) {
+        try {
+            return amount.movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("金额最多两位小数：" + amount);
+        }
+    }
+
+    /**
+     * Redis中存储的整数分转换为金额（元）
+     *
+     * @param cents 分
+     * @return 两位小数的金额
+     */
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * 转换单个旧版本余额，旧余额不是有效数字时记录后跳过，账户加载从数据库读取余额
+     */
+    private long convertLegacyAccount(String legacyKey, String key) {
+        Long result = redisScriptRegistry.execute(convertLegacyBalanceScript, Arrays.asList(legacyKey, key));
+        if (result != null && result == 1) {
+            log.info("旧版本账户余额已转换为分：legacyKey={}, key={}", legacyKey, key);
+        } else if (result != null && result == -2) {
+            log.error("旧版本账户余额不是有效数字，跳过转换，需人工清理：legacyKey={}", legacyKey);
+        }
+        return result != null ? result : -1;
     }
 }
@@ -0,0 +1,565 @@
+package com.mall.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis下单服务
+ * 使用一个Lua脚本在一次往返内完成库存扣减和账户转账，余额以整数分存储，转账使用 DECRBY/INCRBY
+ * 分片库存的商品在当前子key库存不足时，换用其他子key重新执行脚本；
+ * 扣减成功的子key记录在下单指令或购物车下单结果中，回滚时归还到原子key，避免库存向某个子key堆积
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RedisCheckoutService {
+
+    private final RedisTemplate<String, Long> redisTemplate;
+    private final RedisInventoryService redisInventoryService;
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * Lua脚本：校验并扣减库存、校验并转账（原子操作）
+     * 先完成全部校验再统一写入，任何一项校验失败都不会修改数据
+     * KEYS[1]: 库存key (inventory:{merchantId}:{sku})
+     * KEYS[2]: 用户账户key (account:cents:user:{userId})
+     * KEYS[3]: 商家账户key (account:cents:merchant:{merchantId})
+     * KEYS[4]: 订单日志Stream key（可选），下单成功时在同一脚本中追加订单
+     * ARGV[1]: 扣减数量
+     * ARGV[2]: 转账金额（分）
+     * ARGV[3]: 订单日志内容（可选，JSON）
+     * 返回: 见 {@link CheckoutResult}
+     */
+    private static final String CHECKOUT_SCRIPT =
+            "local function toNumber(value)\n" +
+            "    if value == false then\n" +
+            "        return nil\n" +
+            "    end\n" +
+            "    return tonumber(value)\n" +
+            "end\n" +
+            "\n" +
+            "local stock = toNumber(redis.call('get', KEYS[1]))\n" +
+            "if stock == nil then\n" +
+            "    return -2\n" +
+            "end\n" +
+            "local quantity = tonumber(ARGV[1])\n" +
+            "if stock < quantity then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "\n" +
+            "local userBalance = toNumber(redis.call('get', KEYS[2]))\n" +
+            "if userBalance == nil then\n" +
+            "    return -3\n" +
+            "end\n" +
+            "local amount = tonumber(ARGV[2])\n" +
+            "if userBalance < amount then\n" +
+            "    return -4\n" +
+            "end\n" +
+            "\n" +
+            "if redis.call('exists', KEYS[3]) == 0 then\n" +
+            "    return -5\n" +
+            "end\n" +
+            "\n" +
+            "redis.call('set', KEYS[1], stock - quantity)\n" +
+            "redis.call('decrby', KEYS[2], amount)\n" +
+            "redis.call('incrby', KEYS[3], amount)\n" +
+            "if KEYS[4] then\n" +
+            "    redis.call('xadd', KEYS[4], '*', 'order', ARGV[3])\n" +
+            "end\n" +
+            "return 1";
+
+    /**
+     * Lua脚本：回滚下单（归还库存、退回转账）
+     * KEYS/ARGV 与下单脚本一致
+     */
+    private static final String ROLLBACK_CHECKOUT_SCRIPT =
+            "local function toNumber(value)\n" +
+            "    if value == false then\n" +
+            "        return nil\n" +
+            "    end\n" +
+            "    return tonumber(value)\n" +
+            "end\n" +
+            "\n" +
+            "local quantity = tonumber(ARGV[1])\n" +
+            "local amount = tonumber(ARGV[2])\n" +
+            "local stock = toNumber(redis.call('get', KEYS[1]))\n" +
+            "if stock ~= nil then\n" +
+            "    redis.call('set', KEYS[1], stock + quantity)\n" +
+            "end\n" +
+            "if redis.call('exists', KEYS[2]) == 1 then\n" +
+            "    redis.call('incrby', KEYS[2], amount)\n" +
+            "end\n" +
+            "if redis.call('exists', KEYS[3]) == 1 then\n" +
+            "    redis.call('decrby', KEYS[3], amount)\n" +
+            "end\n" +
+            "return 1";
+
+    /**
+     * Lua脚本：购物车下单，校验并扣减全部商品库存、校验并转账（原子操作）
+     * 任意商品库存不足或账户校验失败时不修改任何数据
+     * KEYS[1]: 用户账户key (account:cents:user:{userId})
+     * KEYS[2]: 商家账户key (account:cents:merchant:{merchantId})
+     * KEYS[3..n]: 各商品库存key (inventory:{merchantId}:{sku})
+     * ARGV[1]: 转账金额（分）
+     * ARGV[2..n]: 各商品扣减数量，顺序与库存key一致
+     * 返回: {结果码, 失败商品序号（从1开始，非库存失败为0）}
+     */
+    private static final String CART_CHECKOUT_SCRIPT =
+            "local function toNumber(value)\n" +
+            "    if value == false then\n" +
+            "        return nil\n" +
+            "    end\n" +
+            "    return tonumber(value)\n" +
+            "end\n" +
+            "\n" +
+            "local lineCount = #KEYS - 2\n" +
+            "local stocks = {}\n" +
+            "for i = 1, lineCount do\n" +
+            "    local stock = toNumber(redis.call('get', KEYS[i + 2]))\n" +
+            "    if stock == nil then\n" +
+            "        return {-2, i}\n" +
+            "    end\n" +
+            "    if stock < tonumber(ARGV[i + 1]) then\n" +
+            "        return {-1, i}\n" +
+            "    end\n" +
+            "    stocks[i] = stock\n" +
+            "end\n" +
+            "\n" +
+            "local userBalance = toNumber(redis.call('get', KEYS[1]))\n" +
+            "if userBalance == nil then\n" +
+            "    return {-3, 0}\n" +
+            "end\n" +
+            "local amount = tonumber(ARGV[1])\n" +
+            "if userBalance < amount then\n" +
+            "    return {-4, 0}\n" +
+            "end\n" +
+            "\n" +
+            "if redis.call('exists', KEYS[2]) == 0 then\n" +
+            "    return {-5, 0}\n" +
+            "end\n" +
+            "\n" +
+            "for i = 1, lineCount do\n" +
+            "    redis.call('set', KEYS[i + 2], stocks[i] - tonumber(ARGV[i + 1]))\n" +
+            "end\n" +
+            "redis.call('decrby', KEYS[1], amount)\n" +
+            "redis.call('incrby', KEYS[2], amount)\n" +
+            "return {1, 0}";
+
+    /**
+     * Lua脚本：回滚购物车下单（归还全部商品库存、退回转账）
+     * KEYS/ARGV 与购物车下单脚本一致
+     */
+    private static final String ROLLBACK_CART_CHECKOUT_SCRIPT =
+            "local function toNumber(value)\n" +
+            "    if value == false then\n" +
+            "        return nil\n" +
+            "    end\n" +
+            "    return tonumber(value)\n" +
+            "end\n" +
+            "\n" +
+            "for i = 1, #KEYS - 2 do\n" +
+            "    local stock = toNumber(redis.call('get', KEYS[i + 2]))\n" +
+            "    if stock ~= nil then\n" +
+            "        redis.call('set', KEYS[i + 2], stock + tonumber(ARGV[i + 1]))\n" +
+            "    end\n" +
+            "end\n" +
+            "if redis.call('exists', KEYS[1]) == 1 then\n" +
+            "    redis.call('incrby', KEYS[1], ARGV[1])\n" +
+            "end\n" +
+            "if redis.call('exists', KEYS[2]) == 1 then\n" +
+            "    redis.call('decrby', KEYS[2], ARGV[1])\n" +
+            "end\n" +
+            "return 1";
+
+    private final StringRedisSerializer argsSerializer = new StringRedisSerializer();
+    private final GenericToStringSerializer<Long> resultSerializer = new GenericToStringSerializer<>(Long.class);
+
+    private RedisScriptRegistry.RegisteredScript<Long> checkoutScript;
+    private RedisScriptRegistry.RegisteredScript<Long> rollbackCheckoutScript;
+    private RedisScriptRegistry.RegisteredScript<List> cartCheckoutScript;
+    private RedisScriptRegistry.RegisteredScript<Long> rollbackCartCheckoutScript;
+
+    @PostConstruct
+    public void init() {
+        checkoutScript = redisScriptRegistry.register("checkout.single", CHECKOUT_SCRIPT, Long.class);
+        rollbackCheckoutScript = redisScriptRegistry.register("checkout.rollback", ROLLBACK_CHECKOUT_SCRIPT, Long.class);
+        cartCheckoutScript = redisScriptRegistry.register("checkout.cart", CART_CHECKOUT_SCRIPT, List.class);
+        rollbackCartCheckoutScript = redisScriptRegistry.register("checkout.rollback-cart",
+                ROLLBACK_CART_CHECKOUT_SCRIPT, Long.class);
+    }
+
+    /**
+     * 下单：一次脚本调用完成库存扣减和账户转账
+     * 成功时将扣减的库存key记录到下单指令中，供回滚使用
+     *
+     * @param command 下单指令
+     * @return 下单结果
+     */
+    public CheckoutResult checkout(CheckoutCommand command) {
+        return checkoutAndJournal(command, null, null);
+    }
+
+    /**
+     * 下单并写订单日志：一次脚本调用完成库存扣减、账户转账，成功时向Stream追加订单
+     * 扣减和追加在同一脚本中执行，Redis中不会出现已扣减但没有订单日志的状态
+     *
+     * @param command   下单指令，成功时记录扣减的库存key
+     * @param streamKey 订单日志Stream key，为null时不写日志
+     * @param journal   订单日志内容
+     * @return 下单结果
+     */
+    public CheckoutResult checkoutAndJournal(CheckoutCommand command, String streamKey, String journal) {
+        CheckoutResult result = CheckoutResult.UNKNOWN;
+        String cents = String.valueOf(RedisAccountService.toCents(command.getAmount()));
+        for (String inventoryKey : redisInventoryService.getInventoryKeys(command.getMerchantId(), command.getSku())) {
+            List<String> keys = getCheckoutKeys(inventoryKey, command.getUserId(), command.getMerchantId());
+            Object[] args = {command.getQuantity().toString(), cents};
+            if (streamKey != null) {
+                keys = new ArrayList<>(keys);
+                keys.add(streamKey);
+                args = new Object[]{command.getQuantity().toString(), cents, journal};
+            }
+            Long code = redisScriptRegistry.execute(checkoutScript, keys, args);
+            result = CheckoutResult.of(code);
+            log.info("Redis下单脚本执行：userId={}, merchantId={}, key={}, quantity={}, amount={}, result={}",
+                    command.getUserId(), command.getMerchantId(), inventoryKey, command.getQuantity(),
+                    command.getAmount(), result);
+            if (result == CheckoutResult.SUCCESS) {
+                command.setInventoryKey(inventoryKey);
+            }
+            if (!result.isInventoryFailure()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 回滚下单：将库存归还到扣减时的库存key并退回转账
+     *
+     * @param command 下单成功的指令
+     */
+    public void rollbackCheckout(CheckoutCommand command) {
+        redisScriptRegistry.execute(rollbackCheckoutScript, getRollbackKeys(command),
+                command.getQuantity().toString(), String.valueOf(RedisAccountService.toCents(command.getAmount())));
+        log.info("回滚Redis下单：userId={}, merchantId={}, key={}, quantity={}, amount={}",
+                command.getUserId(), command.getMerchantId(), command.getInventoryKey(), command.getQuantity(),
+                command.getAmount());
+    }
+
+    /**
+     * 购物车下单：一次脚本调用预留全部商品库存并完成转账，要么全部成功，要么不修改任何数据
+     *
+     * @param userId     用户ID
+     * @param merchantId 商家ID
+     * @param quantities 各商品扣减数量（SKU -> 数量），SKU不可重复
+     * @param amount     转账金额
+     * @return 下单结果
+     */
+    @SuppressWarnings("unchecked")
+    public CartCheckoutResult checkoutCart(Long userId, Long merchantId, Map<String, Integer> quantities,
+                                           BigDecimal amount) {
+        List<String> keys = getCartCheckoutKeys(userId, merchantId, quantities);
+        Object[] args = getCartCheckoutArgs(quantities, amount);
+
+        // 分片库存的商品库存不足时，换用该商品的下一个子key重新执行
+        List<List<String>> lineKeys = new ArrayList<>(quantities.size());
+        for (String sku : quantities.keySet()) {
+            lineKeys.add(redisInventoryService.getInventoryKeys(merchantId, sku));
+        }
+        int[] probes = new int[lineKeys.size()];
+
+        while (true) {
+            List<Long> reply = (List<Long>) redisScriptRegistry.execute(cartCheckoutScript, keys, args);
+            CartCheckoutResult result = reply == null || reply.size() < 2
+                    ? new CartCheckoutResult(CheckoutResult.UNKNOWN, -1, null)
+                    : new CartCheckoutResult(CheckoutResult.of(reply.get(0)), reply.get(1).intValue() - 1, null);
+            if (result.getResult() == CheckoutResult.SUCCESS) {
+                result.setInventoryKeys(new ArrayList<>(keys.subList(2, keys.size())));
+            }
+            log.info("Redis购物车下单脚本执行：userId={}, merchantId={}, lines={}, amount={}, result={}",
+                    userId, merchantId, quantities.size(), amount, result);
+
+            int line = result.getFailedIndex();
+            if (!result.getResult().isInventoryFailure() || line < 0 || line >= lineKeys.size()
+                    || probes[line] + 1 >= lineKeys.get(line).size()) {
+                return result;
+            }
+            probes[line]++;
+            keys.set(line + 2, lineKeys.get(line).get(probes[line]));
+        }
+    }
+
+    /**
+     * 回滚购物车下单：将各商品库存归还到扣减时的库存key并退回转账
+     *
+     * @param userId     用户ID
+     * @param merchantId 商家ID
+     * @param quantities 各商品归还数量（SKU -> 数量）
+     * @param amount     退回金额
+     * @param result     下单成功的结果，记录了各商品扣减的库存key
+     */
+    public void rollbackCartCheckout(Long userId, Long merchantId, Map<String, Integer> quantities,
+                                     BigDecimal amount, CartCheckoutResult result) {
+        List<String> keys = getCartCheckoutKeys(userId, merchantId, quantities);
+        if (result.getInventoryKeys() != null && result.getInventoryKeys().size() == quantities.size()) {
+            for (int i = 0; i < quantities.size(); i++) {
+                keys.set(i + 2, result.getInventoryKeys().get(i));
+            }
+        }
+        redisScriptRegistry.execute(rollbackCartCheckoutScript, keys, getCartCheckoutArgs(quantities, amount));
+        log.info("回滚Redis购物车下单：userId={}, merchantId={}, lines={}, amount={}",
+                userId, merchantId, quantities.size(), amount);
+    }
+
+    /**
+     * 获取购物车下单脚本涉及的key，顺序与脚本中KEYS一致
+     */
+    private List<String> getCartCheckoutKeys(Long userId, Long merchantId, Map<String, Integer> quantities) {
+        List<String> keys = new ArrayList<>(quantities.size() + 2);
+        keys.add(RedisAccountService.getUserAccountKey(userId));
+        keys.add(RedisAccountService.getMerchantAccountKey(merchantId));
+        for (String sku : quantities.keySet()) {
+            keys.add(redisInventoryService.getInventoryKeys(merchantId, sku).get(0));
+        }
+        return keys;
+    }
+
+    /**
+     * 获取购物车下单脚本参数，顺序与脚本中ARGV一致
+     */
+    private Object[] getCartCheckoutArgs(Map<String, Integer> quantities, BigDecimal amount) {
+        List<Object> args = new ArrayList<>(quantities.size() + 1);
+        args.add(String.valueOf(RedisAccountService.toCents(amount)));
+        for (Integer quantity : quantities.values()) {
+            args.add(quantity.toString());
+        }
+        return args.toArray();
+    }
+
+    /**
+     * 批量下单：在一个连接上以管道方式执行多次下单脚本
+     * 管道首条命令为 SCRIPT LOAD，保证随后的 EVALSHA 不会因脚本缓存缺失而失败
+     *
+     * @param commands 下单指令列表
+     * @return 与指令顺序一致的下单结果
+     */
+    public List<CheckoutResult> checkoutBatch(List<CheckoutCommand> commands) {
+        List<String> inventoryKeys = new ArrayList<>(commands.size());
+        for (CheckoutCommand command : commands) {
+            inventoryKeys.add(getStartInventoryKey(command));
+        }
+        List<CheckoutResult> results = executePipelined(checkoutScript, commands, inventoryKeys);
+        for (int i = 0; i < commands.size(); i++) {
+            CheckoutCommand command = commands.get(i);
+            if (results.get(i) == CheckoutResult.SUCCESS) {
+                command.setInventoryKey(inventoryKeys.get(i));
+            } else if (results.get(i).isInventoryFailure()
+                    && redisInventoryService.getShardCount(command.getMerchantId(), command.getSku()) > 1) {
+                // 分片库存的商品在首个子key库存不足时，单独执行并尝试其他子key
+                results.set(i, checkout(command));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量回滚下单：以管道方式归还库存并退回转账
+     *
+     * @param commands 需要回滚的下单指令列表
+     */
+    public void rollbackCheckoutBatch(List<CheckoutCommand> commands) {
+        List<String> inventoryKeys = new ArrayList<>(commands.size());
+        for (CheckoutCommand command : commands) {
+            inventoryKeys.add(getRollbackKeys(command).get(0));
+        }
+        executePipelined(rollbackCheckoutScript, commands, inventoryKeys);
+        log.info("批量回滚Redis下单：count={}", commands.size());
+    }
+
+    /**
+     * 以管道方式对每条指令执行指定脚本
+     *
+     * @param inventoryKeys 每条指令使用的库存key
+     */
+    private List<CheckoutResult> executePipelined(RedisScriptRegistry.RegisteredScript<Long> script,
+                                                  List<CheckoutCommand> commands, List<String> inventoryKeys) {
+        if (commands.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Object> replies;
+        try {
+            replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.scriptLoad(script.getBody());
+                for (int i = 0; i < commands.size(); i++) {
+                    redisScriptRegistry.evalShaInPipeline(connection, script, 3,
+                            toKeysAndArgs(commands.get(i), inventoryKeys.get(i)));
+                }
+                return null;
+            }, resultSerializer);
+        } catch (RedisPipelineException e) {
+            // 单条命令失败时保留其他命令的结果，失败项按未知结果处理
+            log.warn("Redis管道执行部分失败：{}", e.getMessage());
+            replies = e.getPipelineResult();
+        }
+
+        List<CheckoutResult> results = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            // 跳过首条 SCRIPT LOAD 的返回值
+            Object reply = i + 1 < replies.size() ? replies.get(i + 1) : null;
+            results.add(reply instanceof Long ? CheckoutResult.of((Long) reply) : CheckoutResult.UNKNOWN);
+        }
+        return results;
+    }
+
+    /**
+     * 将下单指令转换为脚本的 KEYS 和 ARGV
+     */
+    private byte[][] toKeysAndArgs(CheckoutCommand command, String inventoryKey) {
+        List<String> keys = getCheckoutKeys(inventoryKey, command.getUserId(), command.getMerchantId());
+        return new byte[][]{
+                argsSerializer.serialize(keys.get(0)),
+                argsSerializer.serialize(keys.get(1)),
+                argsSerializer.serialize(keys.get(2)),
+                argsSerializer.serialize(command.getQuantity().toString()),
+                argsSerializer.serialize(String.valueOf(RedisAccountService.toCents(command.getAmount())))
+        };
+    }
+
+    /**
+     * 分片库存的商品使用当前线程的起始子key
+     */
+    private String getStartInventoryKey(CheckoutCommand command) {
+        return redisInventoryService.getInventoryKeys(command.getMerchantId(), command.getSku()).get(0);
+    }
+
+    /**
+     * 获取回滚脚本涉及的key，库存归还到扣减时记录的库存key，没有记录时使用当前线程的起始子key
+     */
+    private List<String> getRollbackKeys(CheckoutCommand command) {
+        String inventoryKey = command.getInventoryKey() != null ? command.getInventoryKey()
+                : getStartInventoryKey(command);
+        return getCheckoutKeys(inventoryKey, command.getUserId(), command.getMerchantId());
+    }
+
+    /**
+     * 获取下单脚本涉及的key，顺序与脚本中KEYS一致
+     */
+    private List<String> getCheckoutKeys(String inventoryKey, Long userId, Long merchantId) {
+        return Arrays.asList(
+                inventoryKey,
+                RedisAccountService.getUserAccountKey(userId),
+                RedisAccountService.getMerchantAccountKey(merchantId));
+    }
+
+    /**
+     * 下单指令
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CheckoutCommand {
+        private Long userId;
+        private Long merchantId;
+        private String sku;
+        private Integer quantity;
+        private BigDecimal amount;
+
+        /**
+         * 扣减成功的库存key（分片库存为子key），回滚时归还到该key
+         */
+        private String inventoryKey;
+
+        public CheckoutCommand(Long userId, Long merchantId, String sku, Integer quantity, BigDecimal amount) {
+            this(userId, merchantId, sku, quantity, amount, null);
+        }
+    }
+
+    /**
+     * 购物车下单结果
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CartCheckoutResult {
+
+        /**
+         * 下单结果
+         */
+        private CheckoutResult result;
+
+        /**
+         * 库存不足或不存在的商品序号（从0开始），其他情况为-1
+         */
+        private int failedIndex;
+
+        /**
+         * 下单成功时各商品扣减的库存key，顺序与商品一致，回滚时归还到这些key
+         */
+        private List<String> inventoryKeys;
+    }
+
+    /**
+     * 下单脚本结果
+     */
+    @Getter
+    public enum CheckoutResult {
+        SUCCESS(1),                      // 成功
+        INSUFFICIENT_INVENTORY(-1),      // 库存不足
+        INVENTORY_NOT_FOUND(-2),         // 库存不存在
+        USER_ACCOUNT_NOT_FOUND(-3),      // 用户账户不存在
+        INSUFFICIENT_BALANCE(-4),        // 用户余额不足
+        MERCHANT_ACCOUNT_NOT_FOUND(-5),  // 商家账户不存在
+        UNKNOWN(0);                      // 未知结果
+
+        private final long code;
+
+        CheckoutResult(long code) {
+            this.code = code;
+        }
+
+        public static CheckoutResult of(Long code) {
+            if (code != null) {
+                for (CheckoutResult result : values()) {
+                    if (result.code == code) {
+                        return result;
+                    }
+                }
+            }
+            return UNKNOWN;
+        }
+
+        /**
+         * 是否因账户未加载到Redis而失败
+         */
+        public boolean isAccountMissing() {
+            return this == USER_ACCOUNT_NOT_FOUND || this == MERCHANT_ACCOUNT_NOT_FOUND;
+        }
+
+        /**
+         * 是否因库存不足或库存不存在而失败
+         */
+        public boolean isInventoryFailure() {
+            return this == INSUFFICIENT_INVENTORY || this == INVENTORY_NOT_FOUND;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.mall.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis计数器版本服务
+ * 每个库存、余额计数器附带一个版本key，记录Redis中的值已反映到的数据库行版本（version列）：
+ * 下单只修改Redis、由发件箱中继写入数据库时，数据库版本+1而Redis的值不变；充值、补库存同时修改两边，版本同样+1。
+ * 两种情况下修改数据库后都将Redis版本+1，版本一致即说明Redis的值 = 数据库的值 ± 未应用的发件箱增量。
+ * 预热时版本已是最新的计数器直接跳过，值缺失的计数器才用数据库快照补齐；值存在但版本落后（例如中继提交后同步版本前、
+ * Redis从旧快照恢复）时保留现值只记录版本，因为现值可能包含快照之后的扣减，与数据库的偏差由对账发现和修复
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RedisCounterVersionService {
+
+    /**
+     * 版本key前缀，与计数器key分开，避免被库存、账户key的SCAN匹配
+     */
+    public static final String VERSION_KEY_PREFIX = "counter-version:";
+
+    /**
+     * 数据库行版本+1：计数器已有版本号时同步+1，没有版本号时等待下次预热接管
+     * KEYS[1]: 版本key
+     */
+    private static final String ADVANCE_SCRIPT =
+            "if redis.call('EXISTS', KEYS[1]) == 1 then " +
+            "  return redis.call('INCR', KEYS[1]) " +
+            "end " +
+            "return 0";
+
+    /**
+     * 按数据库快照合并计数器：只写入缺失的值key，已存在的值key保持不变
+     * 预热与下单并发进行，其他节点也在同一Redis上持续扣减，用快照覆盖已存在的值会丢失快照之后的扣减
+     * 以及仍在合并提交队列中、尚未写入发件箱的订单；值存在但版本落后时只记录版本，剩余偏差由对账处理
+     * KEYS[1]: 版本key，KEYS[2..n+1]: 值key，其余KEYS: 值key全部缺失时需删除的key
+     * ARGV[1]: 数据库行版本，ARGV[2]: 值key数量n，ARGV[3..n+2]: 按数据库快照计算的值
+     * 返回：0-值齐全且版本已是最新，跳过；1-有值key缺失，已按快照补齐；2-值齐全但版本落后或没有版本号，保留现值并记录版本
+     */
+    private static final String MERGE_SCRIPT =
+            "local n = tonumber(ARGV[2]) " +
+            "local missing = 0 " +
+            "for i = 2, n + 1 do " +
+            "  if redis.call('SET', KEYS[i], ARGV[i + 1], 'NX') then " +
+            "    missing = missing + 1 " +
+            "  end " +
+            "end " +
+            "if missing == n then " +
+            "  for i = n + 2, #KEYS do " +
+            "    redis.call('DEL', KEYS[i]) " +
+            "  end " +
+            "end " +
+            "local version = redis.call('GET', KEYS[1]) " +
+            "local behind = not version or tonumber(version) < tonumber(ARGV[1]) " +
+            "if behind then " +
+            "  redis.call('SET', KEYS[1], ARGV[1]) " +
+            "end " +
+            "if missing > 0 then " +
+            "  return 1 " +
+            "end " +
+            "if behind then " +
+            "  return 2 " +
+            "end " +
+            "return 0";
+
+    public static final long MERGE_SKIPPED = 0L;
+    public static final long MERGE_REBUILT = 1L;
+    public static final long MERGE_ADOPTED = 2L;
+
+    private final RedisTemplate<String, Long> redisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final StringRedisSerializer serializer = new StringRedisSerializer();
+    private final GenericToStringSerializer<Long> resultSerializer = new GenericToStringSerializer<>(Long.class);
+
+    private RedisScriptRegistry.RegisteredScript<Long> advanceScript;
+    private RedisScriptRegistry.RegisteredScript<Long> mergeScript;
+
+    @PostConstruct
+    public void init() {
+        advanceScript = redisScriptRegistry.register("counter.advance-version", ADVANCE_SCRIPT, Long.class);
+        mergeScript = redisScriptRegistry.register("counter.merge", MERGE_SCRIPT, Long.class);
+    }
+
+    /**
+     * 获取计数器的版本key，分片库存使用分片前的单key
+     */
+    public static String getVersionKey(String counterKey) {
+        return VERSION_KEY_PREFIX + counterKey;
+    }
+
+    /**
+     * 数据库中计数器对应的行版本已+1后调用，以管道方式将Redis版本同步+1
+     * 失败时只记录告警：版本落后只会使下次预热重新读取该计数器的数据库行，预热不会覆盖已存在的值
+     *
+     * @param counterKeys 计数器key，分片库存传分片前的单key
+     */
+    public void advance(Collection<String> counterKeys) {
+        if (counterKeys.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.scriptLoad(advanceScript.getBody());
+                for (String counterKey : counterKeys) {
+                    redisScriptRegistry.evalShaInPipeline(connection, advanceScript, 1,
+                            serializer.serialize(getVersionKey(counterKey)));
+                }
+                return null;
+            }, resultSerializer);
+        } catch (Exception e) {
+            log.warn("同步Redis计数器版本失败，下次预热时重新比较：keys={}, error={}", counterKeys.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 以一次MGET判断计数器在Redis中是否已是最新：版本不低于数据库行版本且首个值key存在
+     * 只用于预热时预先过滤，最终以合并脚本中的判断为准
+     *
+     * @param snapshots 数据库行快照，只使用计数器key、版本和值key
+     * @return 与快照顺序一致，true表示可以跳过
+     */
+    public List<Boolean> isCurrent(List<CounterSnapshot> snapshots) {
+        List<String> keys = new ArrayList<>(snapshots.size() * 2);
+        for (CounterSnapshot snapshot : snapshots) {
+            keys.add(getVersionKey(snapshot.getCounterKey()));
+            keys.add(snapshot.getValues().keySet().iterator().next());
+        }
+        List<Long> values = redisTemplate.opsForValue().multiGet(keys);
+        List<Boolean> current = new ArrayList<>(snapshots.size());
+        for (int i = 0; i < snapshots.size(); i++) {
+            Long version = values != null ? values.get(2 * i) : null;
+            Long value = values != null ? values.get(2 * i + 1) : null;
+            current.add(version != null && value != null && version >= snapshots.get(i).getVersion());
+        }
+        return current;
+    }
+
+    /**
+     * 以管道方式按数据库快照合并一批计数器，见 {@link #MERGE_SCRIPT}
+     *
+     * @param snapshots 按数据库快照和未应用的发件箱增量计算出的计数器
+     * @return 与快照顺序一致的合并结果（{@link #MERGE_SKIPPED}、{@link #MERGE_REBUILT}、{@link #MERGE_ADOPTED}），
+     *         执行失败的项为null
+     */
+    public List<Long> merge(List<CounterSnapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Object> replies;
+        try {
+            replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.scriptLoad(mergeScript.getBody());
+                for (CounterSnapshot snapshot : snapshots) {
+                    redisScriptRegistry.evalShaInPipeline(connection, mergeScript,
+                            1 + snapshot.getValues().size() + snapshot.getDeletes().size(),
+                            toKeysAndArgs(snapshot));
+                }
+                return null;
+            }, resultSerializer);
+        } catch (RedisPipelineException e) {
+            log.warn("Redis计数器合并部分失败：{}", e.getMessage());
+            replies = e.getPipelineResult();
+        }
+
+        List<Long> results = new ArrayList<>(snapshots.size());
+        for (int i = 0; i < snapshots.size(); i++) {
+            // 跳过首条 SCRIPT LOAD 的返回值
+            Object reply = i + 1 < replies.size() ? replies.get(i + 1) : null;
+            results.add(reply instanceof Long ? (Long) reply : null);
+        }
+        return results;
+    }
+
+    private byte[][] toKeysAndArgs(CounterSnapshot snapshot) {
+        List<byte[]> keysAndArgs = new ArrayList<>();
+        keysAndArgs.add(serializer.serialize(getVersionKey(snapshot.getCounterKey())));
+        for (String key : snapshot.getValues().keySet()) {
+            keysAndArgs.add(serializer.serialize(key));
+        }
+        for (String key : snapshot.getDeletes()) {
+            keysAndArgs.add(serializer.serialize(key));
+        }
+        keysAndArgs.add(serializer.serialize(String.valueOf(snapshot.getVersion())));
+        keysAndArgs.add(serializer.serialize(String.valueOf(snapshot.getValues().size())));
+        for (Long value : snapshot.getValues().values()) {
+            keysAndArgs.add(serializer.serialize(String.valueOf(value)));
+        }
+        return keysAndArgs.toArray(new byte[0][]);
+    }
+
+    /**
+     * 一个计数器在数据库快照中的状态
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CounterSnapshot {
+
+        /**
+         * 计数器key，分片库存为分片前的单key，用于定位版本key
+         */
+        private String counterKey;
+
+        /**
+         * 数据库行版本
+         */
+        private long version;
+
+        /**
+         * 值key -> 值，有序
+         */
+        private Map<String, Long> values;
+
+        /**
+         * 值key全部缺失、按快照补齐时需删除的key
+         */
+        private List<String> deletes;
+    }
+}
@@ -2,16 +2,21 @@ package com.mall.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Redis库存服务
  * 使用Lua脚本保证库存扣减的原子性
+ * 热点商品可配置为分片库存：库存平均拆分到多个子key (inventory:{merchantId}:{sku}:s{i})，
+ * 扣减时按线程选择起始子key，库存不足时依次尝试其他子key，查询时汇总全部子key
  *
  * @author mall
  */
@@ -20,7 +25,13 @@ import java.util.List;
 @Slf4j
 public class RedisInventoryService {
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    /**
+     * 库存租约记录key前缀（inventory-lease:{merchantId}:{sku}），不匹配库存key的SCAN
+     */
+    private static final String LEASE_KEY_PREFIX = "inventory-lease:";
+
+    private final RedisTemplate<String, Long> redisTemplate;
+    private final RedisScriptRegistry redisScriptRegistry;
 
     /**
      * Lua脚本：扣减库存
@@ -42,13 +53,44 @@ public class RedisInventoryService {
             "redis.call('set', KEYS[1], result)\n" +
             "return result";
 
-    private DefaultRedisScript<Long> decreaseInventoryScript;
+    /**
+     * Lua脚本：租借库存，最多取走指定数量
+     * KEYS[1]: 库存key
+     * ARGV[1]: 最多租借数量
+     * 返回: 实际租借数量，库存不存在或为0时返回0
+     */
+    private static final String LEASE_INVENTORY_SCRIPT =
+            "local current = redis.call('get', KEYS[1])\n" +
+            "if current == false then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "local num = tonumber(current)\n" +
+            "if num <= 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "local granted = math.min(num, tonumber(ARGV[1]))\n" +
+            "redis.call('set', KEYS[1], num - granted)\n" +
+            "return granted";
+
+    private RedisScriptRegistry.RegisteredScript<Long> decreaseInventoryScript;
+    private RedisScriptRegistry.RegisteredScript<Long> leaseInventoryScript;
+
+    /**
+     * 默认库存分片数，1表示不分片
+     */
+    @Value("${inventory.sharding.default-shards:1}")
+    private int defaultShards;
+
+    /**
+     * 按商品配置的库存分片数（merchantId:sku -> 分片数）
+     */
+    @Value("#{${inventory.sharding.skus:{:}}}")
+    private Map<String, Integer> skuShards;
 
     @PostConstruct
     public void init() {
-        decreaseInventoryScript = new DefaultRedisScript<>();
-        decreaseInventoryScript.setScriptText(DECREASE_INVENTORY_SCRIPT);
-        decreaseInventoryScript.setResultType(Long.class);
+        decreaseInventoryScript = redisScriptRegistry.register("inventory.decrease", DECREASE_INVENTORY_SCRIPT, Long.class);
+        leaseInventoryScript = redisScriptRegistry.register("inventory.lease", LEASE_INVENTORY_SCRIPT, Long.class);
     }
 
     /**
@@ -60,8 +102,8 @@ public class RedisInventoryService {
      */
     public void initInventory(Long merchantId, String sku, Integer quantity) {
         String key = getInventoryKey(merchantId, sku);
-        redisTemplate.opsForValue().set(key, quantity);
-        log.info("初始化Redis库存：key={}, quantity={}", key, quantity);
+        writeInventory(merchantId, sku, quantity);
+        log.info("初始化Redis库存：key={}, quantity={}, shards={}", key, quantity, getShardCount(merchantId, sku));
     }
 
     /**
@@ -73,13 +115,72 @@ public class RedisInventoryService {
      * @return 扣减后的库存数量，如果库存不足返回-1
      */
     public Long decreaseInventory(Long merchantId, String sku, Integer quantity) {
-        String key = getInventoryKey(merchantId, sku);
-        List<String> keys = Collections.singletonList(key);
-        Long result = redisTemplate.execute(decreaseInventoryScript, keys, quantity);
-        log.info("Redis库存扣减：key={}, quantity={}, result={}", key, quantity, result);
+        Long result = -1L;
+        // 分片库存：当前子key库存不足时依次尝试其他子key
+        for (String key : getInventoryKeys(merchantId, sku)) {
+            result = redisScriptRegistry.execute(decreaseInventoryScript, Collections.singletonList(key), quantity);
+            log.info("Redis库存扣减：key={}, quantity={}, result={}", key, quantity, result);
+            if (result != null && result >= 0) {
+                return result;
+            }
+        }
         return result;
     }
 
+    /**
+     * 租借库存（原子操作），库存不足时取走剩余全部库存
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @param quantity   最多租借数量
+     * @return 实际租借数量
+     */
+    public int leaseInventory(Long merchantId, String sku, int quantity) {
+        int granted = 0;
+        for (String key : getInventoryKeys(merchantId, sku)) {
+            Long result = redisScriptRegistry.execute(leaseInventoryScript, Collections.singletonList(key),
+                    quantity - granted);
+            granted += result != null ? result.intValue() : 0;
+            if (granted >= quantity) {
+                break;
+            }
+        }
+        log.info("Redis库存租借：merchantId={}, sku={}, quantity={}, granted={}", merchantId, sku, quantity, granted);
+        return granted;
+    }
+
+    /**
+     * 记录节点持有的库存租约，租约记录是有序集合，成员为节点ID，分数为过期时间
+     *
+     * @param merchantId     商家ID
+     * @param sku            商品SKU
+     * @param owner          节点ID
+     * @param expireAtMillis 租约记录过期时间
+     */
+    public void recordLease(Long merchantId, String sku, long owner, long expireAtMillis) {
+        redisTemplate.opsForZSet().add(getLeaseKey(merchantId, sku), owner, expireAtMillis);
+    }
+
+    /**
+     * 删除节点的库存租约记录，租借的库存已全部归还后调用
+     */
+    public void removeLease(Long merchantId, String sku, long owner) {
+        redisTemplate.opsForZSet().remove(getLeaseKey(merchantId, sku), owner);
+    }
+
+    /**
+     * 是否有节点持有未过期的库存租约
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @param now        当前时间
+     * @return true if 存在过期时间晚于当前时间的租约记录
+     */
+    public boolean hasActiveLease(Long merchantId, String sku, long now) {
+        Long active = redisTemplate.opsForZSet().count(getLeaseKey(merchantId, sku), now, Double.POSITIVE_INFINITY);
+        return active != null && active > 0;
+    }
+
     /**
      * 增加库存
      *
@@ -88,7 +189,7 @@ public class RedisInventoryService {
      * @param quantity   增加数量
      */
     public void increaseInventory(Long merchantId, String sku, Integer quantity) {
-        String key = getInventoryKey(merchantId, sku);
+        String key = getInventoryKeys(merchantId, sku).get(0);
         redisTemplate.opsForValue().increment(key, quantity);
         log.info("Redis库存增加：key={}, quantity={}", key, quantity);
     }
@@ -101,12 +202,23 @@ public class RedisInventoryService {
      * @return 库存数量，如果不存在返回null
      */
     public Integer getInventory(Long merchantId, String sku) {
-        String key = getInventoryKey(merchantId, sku);
-        Object value = redisTemplate.opsForValue().get(key);
-        if (value == null) {
-            return null;
+        int shards = getShardCount(merchantId, sku);
+        if (shards == 1) {
+            Long value = redisTemplate.opsForValue().get(getInventoryKey(merchantId, sku));
+            return value != null ? value.intValue() : null;
+        }
+
+        // 分片库存：汇总全部子key，全部不存在时返回null
+        List<Long> values = redisTemplate.opsForValue().multiGet(getShardKeys(merchantId, sku, shards));
+        Integer total = null;
+        if (values != null) {
+            for (Long value : values) {
+                if (value != null) {
+                    total = (total == null ? 0 : total) + value.intValue();
+                }
+            }
         }
-        return Integer.valueOf(value.toString());
+        return total;
     }
 
     /**
@@ -130,14 +242,105 @@ public class RedisInventoryService {
      * @param quantity   库存数量
      */
     public void setInventory(Long merchantId, String sku, Integer quantity) {
-        String key = getInventoryKey(merchantId, sku);
-        redisTemplate.opsForValue().set(key, quantity);
+        writeInventory(merchantId, sku, quantity);
+    }
+
+    /**
+     * 获取商品的库存分片数
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return 分片数，1表示不分片
+     */
+    public int getShardCount(Long merchantId, String sku) {
+        Integer shards = skuShards != null ? skuShards.get(merchantId + ":" + sku) : null;
+        return Math.max(1, shards != null ? shards : defaultShards);
+    }
+
+    /**
+     * 获取扣减库存时依次尝试的库存key
+     * 不分片时只有一个key；分片时按当前线程选择起始子key，之后依次为其他子key
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return 库存key列表
+     */
+    public List<String> getInventoryKeys(Long merchantId, String sku) {
+        int shards = getShardCount(merchantId, sku);
+        if (shards == 1) {
+            return Collections.singletonList(getInventoryKey(merchantId, sku));
+        }
+        int start = Math.floorMod(Long.hashCode(Thread.currentThread().getId() * 0x9E3779B97F4A7C15L), shards);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(getShardKey(merchantId, sku, (start + i) % shards));
+        }
+        return keys;
+    }
+
+    /**
+     * 计算库存在Redis中的写入值，分片时平均拆分到各子key
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @param quantity   库存数量
+     * @return 库存key -> 数量，分片时为各子key
+     */
+    public Map<String, Long> getInventoryValues(Long merchantId, String sku, Integer quantity) {
+        int shards = getShardCount(merchantId, sku);
+        if (shards == 1) {
+            return Collections.singletonMap(getInventoryKey(merchantId, sku), quantity.longValue());
+        }
+        Map<String, Long> values = new LinkedHashMap<>(shards * 2);
+        for (int i = 0; i < shards; i++) {
+            int shardQuantity = quantity / shards + (i < quantity % shards ? 1 : 0);
+            values.put(getShardKey(merchantId, sku, i), (long) shardQuantity);
+        }
+        return values;
+    }
+
+    /**
+     * 写入库存，分片时平均拆分到各子key
+     */
+    private void writeInventory(Long merchantId, String sku, Integer quantity) {
+        Map<String, Long> values = getInventoryValues(merchantId, sku, quantity);
+        values.forEach((key, value) -> redisTemplate.opsForValue().set(key, value));
+        if (values.size() > 1) {
+            // 清除切换为分片前的单key库存，避免被误读
+            redisTemplate.delete(getInventoryKey(merchantId, sku));
+        }
+    }
+
+    private List<String> getShardKeys(Long merchantId, String sku, int shards) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(getShardKey(merchantId, sku, i));
+        }
+        return keys;
     }
 
     /**
-     * 获取库存key
+     * 获取库存租约记录key
+     */
+    private String getLeaseKey(Long merchantId, String sku) {
+        return LEASE_KEY_PREFIX + merchantId + ":" + sku;
+    }
+
+    /**
+     * 获取库存分片key
+     */
+    private String getShardKey(Long merchantId, String sku, int shard) {
+        return getInventoryKey(merchantId, sku) + ":s" + shard;
+    }
+
+    /**
+     * 获取库存key（分片库存的商品为分片前的单key）
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @return inventory:{merchantId}:{sku}
      */
-    private String getInventoryKey(Long merchantId, String sku) {
+    public String getInventoryKey(Long merchantId, String sku) {
         return "inventory:" + merchantId + ":" + sku;
     }
 }
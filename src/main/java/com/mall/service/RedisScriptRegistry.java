@@ -0,0 +1,244 @@
+package com.mall.service;
+
+import com.mall.dto.RedisScriptStats;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lua脚本注册中心
+ * 各服务在初始化时注册脚本，全部单例创建完成后统一执行 SCRIPT LOAD，之后只用 EVALSHA 调用，不再发送脚本内容
+ * Redis故障切换后新主节点没有脚本缓存，EVALSHA返回NOSCRIPT时在同一连接上重新加载并重试一次
+ * 记录每个脚本的调用次数、失败次数、重新加载次数和耗时
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RedisScriptRegistry implements SmartInitializingSingleton {
+
+    private final RedisTemplate<String, Long> redisTemplate;
+
+    private final StringRedisSerializer serializer = new StringRedisSerializer();
+    private final Map<String, RegisteredScript<?>> scripts = new ConcurrentHashMap<>();
+
+    /**
+     * 注册脚本
+     *
+     * @param name       脚本名称，用于统计
+     * @param scriptText 脚本内容
+     * @param resultType 返回值类型（Long、List、String或Boolean）
+     * @return 脚本句柄
+     * @throws IllegalStateException 如果名称已注册为不同的脚本
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RegisteredScript<T> register(String name, String scriptText, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>(scriptText, resultType);
+        RegisteredScript<T> registered = new RegisteredScript<>(name, script);
+        RegisteredScript<?> existing = scripts.putIfAbsent(name, registered);
+        if (existing == null) {
+            return registered;
+        }
+        if (!existing.getSha1().equals(registered.getSha1())) {
+            throw new IllegalStateException("脚本名称重复：" + name);
+        }
+        return (RegisteredScript<T>) existing;
+    }
+
+    /**
+     * 全部单例创建完成后预加载已注册的脚本
+     * Redis不可用时只记录告警，首次调用时由NOSCRIPT处理加载
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            loadAll();
+        } catch (Exception e) {
+            log.warn("预加载Lua脚本失败，将在首次调用时加载：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 在一个连接上执行 SCRIPT LOAD 加载全部已注册的脚本
+     */
+    public void loadAll() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            for (RegisteredScript<?> script : scripts.values()) {
+                connection.scriptLoad(script.body);
+            }
+            return null;
+        });
+        log.info("Lua脚本已预加载：count={}", scripts.size());
+    }
+
+    /**
+     * 以 EVALSHA 执行脚本，参数按字符串传递
+     *
+     * @param script 脚本句柄
+     * @param keys   KEYS
+     * @param args   ARGV，按 toString 转换为字符串
+     * @return 脚本返回值，列表中的字符串元素已按UTF-8解码
+     */
+    public <T> T execute(RegisteredScript<T> script, List<String> keys, Object... args) {
+        byte[][] keysAndArgs = toKeysAndArgs(keys, args);
+        long startTime = System.nanoTime();
+        try {
+            Object result = redisTemplate.execute(
+                    (RedisCallback<Object>) connection -> evalSha(connection, script, keys.size(), keysAndArgs));
+            return script.resultType.cast(deserialize(result));
+        } catch (RuntimeException e) {
+            script.errors.increment();
+            throw e;
+        } finally {
+            script.record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 在指定连接上执行脚本，用于管道中的批量调用；管道中无法处理NOSCRIPT，调用方需在管道首条命令加载脚本
+     *
+     * @param connection  Redis连接
+     * @param script      脚本句柄
+     * @param keysAndArgs 已序列化的KEYS和ARGV
+     * @param numKeys     KEYS数量
+     */
+    public void evalShaInPipeline(RedisConnection connection, RegisteredScript<?> script, int numKeys,
+                                  byte[]... keysAndArgs) {
+        script.calls.increment();
+        connection.evalSha(script.getSha1(), script.returnType, numKeys, keysAndArgs);
+    }
+
+    /**
+     * 获取全部脚本的调用统计
+     */
+    public List<RedisScriptStats> getStats() {
+        List<RedisScriptStats> stats = new ArrayList<>(scripts.size());
+        for (RegisteredScript<?> script : scripts.values()) {
+            long calls = script.calls.sum();
+            stats.add(RedisScriptStats.builder()
+                    .name(script.name)
+                    .sha(script.getSha1())
+                    .calls(calls)
+                    .errors(script.errors.sum())
+                    .reloads(script.reloads.sum())
+                    .avgMicros(calls > 0 ? script.totalNanos.sum() / calls / 1000 : 0)
+                    .maxMicros(script.maxNanos.get() / 1000)
+                    .build());
+        }
+        return stats;
+    }
+
+    private Object evalSha(RedisConnection connection, RegisteredScript<?> script, int numKeys,
+                           byte[][] keysAndArgs) {
+        try {
+            return connection.evalSha(script.getSha1(), script.returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            log.warn("Lua脚本缓存缺失，重新加载：name={}, sha={}", script.name, script.getSha1());
+            script.reloads.increment();
+            connection.scriptLoad(script.body);
+            return connection.evalSha(script.getSha1(), script.returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    private boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[][] toKeysAndArgs(List<String> keys, Object[] args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = serializer.serialize(keys.get(i));
+        }
+        for (int i = 0; i < args.length; i++) {
+            keysAndArgs[keys.size() + i] = serializer.serialize(String.valueOf(args[i]));
+        }
+        return keysAndArgs;
+    }
+
+    /**
+     * 将返回值中的字节数组解码为字符串，嵌套列表逐层解码
+     */
+    private Object deserialize(Object result) {
+        if (result instanceof byte[]) {
+            return serializer.deserialize((byte[]) result);
+        }
+        if (result instanceof List) {
+            List<?> values = (List<?>) result;
+            List<Object> decoded = new ArrayList<>(values.size());
+            for (Object value : values) {
+                decoded.add(deserialize(value));
+            }
+            return decoded;
+        }
+        return result;
+    }
+
+    /**
+     * 已注册的脚本及其调用统计
+     */
+    public static class RegisteredScript<T> {
+
+        private final String name;
+        private final String sha1;
+        private final byte[] body;
+        private final Class<T> resultType;
+        private final ReturnType returnType;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder reloads = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        RegisteredScript(String name, DefaultRedisScript<T> script) {
+            this.name = name;
+            this.sha1 = script.getSha1();
+            this.body = new StringRedisSerializer().serialize(script.getScriptAsString());
+            this.resultType = script.getResultType();
+            this.returnType = ReturnType.fromJavaType(script.getResultType());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSha1() {
+            return sha1;
+        }
+
+        /**
+         * 脚本内容，用于管道首条命令 SCRIPT LOAD
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        void record(long elapsedNanos) {
+            calls.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+        }
+    }
+}
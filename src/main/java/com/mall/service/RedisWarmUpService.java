@@ -2,20 +2,46 @@ package com.mall.service;
 
 import com.mall.domain.merchant.MerchantAccount;
 import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.transaction.OrderOutboxEvent;
 import com.mall.domain.user.UserAccount;
 import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderMapper;
+import com.mall.mapper.OrderOutboxMapper;
 import com.mall.mapper.ProductInventoryMapper;
 import com.mall.mapper.UserAccountMapper;
+import com.mall.service.RedisCounterVersionService.CounterSnapshot;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Redis预热服务
- * 在项目启动时将数据库中的数据加载到Redis
+ * 启动后在后台线程中按优先级将数据库中的数据加载到Redis，不阻塞应用启动：
+ * 1. 关键数据：最近热销的商品库存和最近下过单的用户、商家账户，加载完成后节点就绪（见 {@link #isReady()}），
+ *    失败时定期重试直到成功
+ * 2. 全量数据：商品库存、用户账户和商家账户三个数据集并行流式读取数据库，按固定行数分块，每块以管道方式合并到Redis，
+ *    期间未加载的账户由下单时的按需加载兜底
+ * 合并按计数器版本进行（见 {@link RedisCounterVersionService}）：版本已是最新的计数器不写入，重启时大部分key只需一次MGET；
+ * 值缺失的计数器按数据库值和未应用的发件箱增量补齐；值存在的计数器无论版本是否落后都保留现值、只记录当前数据库版本，
+ * 预热期间其他节点仍在扣减，覆盖现值会丢失快照之后的扣减，现值与数据库的偏差交给对账处理
  *
  * @author mall
  */
@@ -27,38 +53,156 @@ public class RedisWarmUpService implements CommandLineRunner {
     private final ProductInventoryMapper productInventoryMapper;
     private final UserAccountMapper userAccountMapper;
     private final MerchantAccountMapper merchantAccountMapper;
+    private final OrderMapper orderMapper;
+    private final OrderOutboxMapper orderOutboxMapper;
     private final RedisInventoryService redisInventoryService;
     private final RedisAccountService redisAccountService;
+    private final RedisCounterVersionService redisCounterVersionService;
+    private final TransactionTemplate transactionTemplate;
 
+    /**
+     * 每块行数，每块在一个管道中写入Redis
+     */
+    @Value("${warm-up.chunk-size:5000}")
+    private int chunkSize;
+
+    /**
+     * 每加载多少行输出一次进度
+     */
+    @Value("${warm-up.progress-interval-rows:100000}")
+    private long progressIntervalRows;
+
+    /**
+     * 关键数据统计最近多少小时内的订单
+     */
+    @Value("${warm-up.critical.active-hours:24}")
+    private int activeHours;
+
+    /**
+     * 关键数据最多加载的热销商品数
+     */
+    @Value("${warm-up.critical.max-skus:10000}")
+    private int maxSkus;
+
+    /**
+     * 关键数据最多加载的用户、商家账户数
+     */
+    @Value("${warm-up.critical.max-accounts:100000}")
+    private int maxAccounts;
+
+    /**
+     * 关键数据加载失败后的重试间隔（毫秒）
+     */
+    @Value("${warm-up.critical.retry-interval-millis:5000}")
+    private long retryIntervalMillis;
+
+    private volatile WarmUpState state = WarmUpState.STARTING;
+
+    /**
+     * 启动后台预热线程后立即返回
+     */
     @Override
     public void run(String... args) {
+        Thread thread = new Thread(this::warmUp, "redis-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 节点是否就绪：关键数据已加载到Redis
+     */
+    public boolean isReady() {
+        return state == WarmUpState.READY || state == WarmUpState.COMPLETE;
+    }
+
+    public WarmUpState getState() {
+        return state;
+    }
+
+    /**
+     * 按优先级执行预热
+     */
+    void warmUp() {
         log.info("开始Redis预热...");
+        long startTime = System.currentTimeMillis();
+        state = WarmUpState.LOADING_CRITICAL;
+        while (!warmUpCriticalTier()) {
+            try {
+                Thread.sleep(retryIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        state = WarmUpState.READY;
+        log.info("Redis关键数据预热完成，节点就绪，耗时 {} ms", System.currentTimeMillis() - startTime);
+
+        warmUpFullTier();
+        convertLegacyAccounts();
+        state = WarmUpState.COMPLETE;
+        log.info("Redis预热完成，耗时 {} ms", System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 预热关键数据：最近热销的商品库存和最近下过单的用户、商家账户
+     *
+     * @return true if 加载成功
+     */
+    boolean warmUpCriticalTier() {
         try {
-            warmUpInventory();
-            warmUpUserAccounts();
-            warmUpMerchantAccounts();
-            log.info("Redis预热完成");
+            log.info("开始预热关键数据到Redis...");
+            LocalDateTime since = LocalDateTime.now().minusHours(activeHours);
+            ChunkWriter<ProductInventory> inventoryWriter = inventoryWriter("关键商品库存");
+            for (List<ProductInventory> keys : partition(orderMapper.selectHotSkus(since, maxSkus))) {
+                productInventoryMapper.selectByKeys(keys).forEach(inventoryWriter::add);
+            }
+            inventoryWriter.finish();
+            ChunkWriter<UserAccount> userWriter = userAccountWriter("关键用户账户余额");
+            for (List<Long> userIds : partition(orderMapper.selectActiveUserIds(since, maxAccounts))) {
+                userAccountMapper.selectByUserIds(userIds).forEach(userWriter::add);
+            }
+            userWriter.finish();
+            ChunkWriter<MerchantAccount> merchantWriter = merchantAccountWriter("关键商家账户余额");
+            for (List<Long> merchantIds : partition(orderMapper.selectActiveMerchantIds(since, maxAccounts))) {
+                merchantAccountMapper.selectByMerchantIds(merchantIds).forEach(merchantWriter::add);
+            }
+            merchantWriter.finish();
+            return true;
         } catch (Exception e) {
-            log.error("Redis预热失败", e);
+            log.error("预热关键数据失败，{} ms后重试", retryIntervalMillis, e);
+            return false;
+        }
+    }
+
+    /**
+     * 预热全量数据，三个数据集并行加载
+     */
+    void warmUpFullTier() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "redis-warm-up-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture.allOf(
+                    CompletableFuture.runAsync(this::warmUpInventory, executor),
+                    CompletableFuture.runAsync(this::warmUpUserAccounts, executor),
+                    CompletableFuture.runAsync(this::warmUpMerchantAccounts, executor)).join();
+        } finally {
+            executor.shutdown();
         }
     }
 
     /**
      * 预热商品库存
      */
-    private void warmUpInventory() {
+    void warmUpInventory() {
         try {
             log.info("开始预热商品库存到Redis...");
-            List<ProductInventory> inventories = productInventoryMapper.selectAll();
-            int count = 0;
-            for (ProductInventory inventory : inventories) {
-                redisInventoryService.initInventory(
-                        inventory.getMerchantId(),
-                        inventory.getSku(),
-                        inventory.getQuantity());
-                count++;
-            }
-            log.info("商品库存预热完成，共预热 {} 条记录", count);
+            ChunkWriter<ProductInventory> writer = inventoryWriter("商品库存");
+            productInventoryMapper.streamAll(context -> writer.add(context.getResultObject()));
+            writer.finish();
         } catch (Exception e) {
             log.error("预热商品库存失败", e);
         }
@@ -67,16 +211,12 @@ public class RedisWarmUpService implements CommandLineRunner {
     /**
      * 预热用户账户余额
      */
-    private void warmUpUserAccounts() {
+    void warmUpUserAccounts() {
         try {
             log.info("开始预热用户账户余额到Redis...");
-            List<UserAccount> userAccounts = userAccountMapper.selectAll();
-            int count = 0;
-            for (UserAccount account : userAccounts) {
-                redisAccountService.initUserAccount(account.getUserId(), account.getBalance());
-                count++;
-            }
-            log.info("用户账户余额预热完成，共预热 {} 条记录", count);
+            ChunkWriter<UserAccount> writer = userAccountWriter("用户账户余额");
+            userAccountMapper.streamAll(context -> writer.add(context.getResultObject()));
+            writer.finish();
         } catch (Exception e) {
             log.error("预热用户账户余额失败", e);
         }
@@ -85,18 +225,255 @@ public class RedisWarmUpService implements CommandLineRunner {
     /**
      * 预热商家账户余额
      */
-    private void warmUpMerchantAccounts() {
+    void warmUpMerchantAccounts() {
         try {
             log.info("开始预热商家账户余额到Redis...");
-            List<MerchantAccount> merchantAccounts = merchantAccountMapper.selectAll();
-            int count = 0;
-            for (MerchantAccount account : merchantAccounts) {
-                redisAccountService.initMerchantAccount(account.getMerchantId(), account.getBalance());
-                count++;
-            }
-            log.info("商家账户余额预热完成，共预热 {} 条记录", count);
+            ChunkWriter<MerchantAccount> writer = merchantAccountWriter("商家账户余额");
+            merchantAccountMapper.streamAll(context -> writer.add(context.getResultObject()));
+            writer.finish();
         } catch (Exception e) {
             log.error("预热商家账户余额失败", e);
         }
     }
+
+    /**
+     * 转换旧版本以元为单位的小数余额，需在账户预热完成后执行
+     * 已预热的账户保留新余额、删除旧key，数据库中不存在的账户将旧余额转换为分
+     */
+    private void convertLegacyAccounts() {
+        try {
+            redisAccountService.convertLegacyAccounts();
+        } catch (Exception e) {
+            log.error("转换旧版本账户余额失败", e);
+        }
+    }
+
+    /**
+     * 按数据库行计算库存计数器，未扣除未应用的发件箱增量，只用于预先过滤
+     */
+    private CounterSnapshot inventorySnapshot(ProductInventory inventory) {
+        return inventorySnapshot(inventory, 0);
+    }
+
+    private CounterSnapshot inventorySnapshot(ProductInventory inventory, long unapplied) {
+        String key = redisInventoryService.getInventoryKey(inventory.getMerchantId(), inventory.getSku());
+        Map<String, Long> values = redisInventoryService.getInventoryValues(
+                inventory.getMerchantId(), inventory.getSku(), (int) (inventory.getQuantity() - unapplied));
+        // 分片库存全部缺失、按快照补齐时清除切换为分片前的单key库存，避免被误读
+        List<String> deletes = values.size() > 1 ? Collections.singletonList(key) : Collections.emptyList();
+        return new CounterSnapshot(key, versionOf(inventory.getVersion()), values, deletes);
+    }
+
+    private CounterSnapshot userSnapshot(UserAccount account) {
+        return userSnapshot(account, BigDecimal.ZERO);
+    }
+
+    private CounterSnapshot userSnapshot(UserAccount account, BigDecimal unapplied) {
+        String key = RedisAccountService.getUserAccountKey(account.getUserId());
+        return new CounterSnapshot(key, versionOf(account.getVersion()),
+                Collections.singletonMap(key, RedisAccountService.toCents(account.getBalance().subtract(unapplied))),
+                Collections.emptyList());
+    }
+
+    private CounterSnapshot merchantSnapshot(MerchantAccount account) {
+        return merchantSnapshot(account, BigDecimal.ZERO);
+    }
+
+    private CounterSnapshot merchantSnapshot(MerchantAccount account, BigDecimal unapplied) {
+        String key = RedisAccountService.getMerchantAccountKey(account.getMerchantId());
+        return new CounterSnapshot(key, versionOf(account.getVersion()),
+                Collections.singletonMap(key, RedisAccountService.toCents(account.getBalance().add(unapplied))),
+                Collections.emptyList());
+    }
+
+    /**
+     * 重新读取商品库存及其未应用的发件箱增量，Redis中的库存 = 数据库库存 - 未应用的扣减
+     */
+    private List<CounterSnapshot> reloadInventory(List<ProductInventory> rows) {
+        List<ProductInventory> keys = rows.stream()
+                .map(row -> ProductInventory.builder().merchantId(row.getMerchantId()).sku(row.getSku()).build())
+                .collect(Collectors.toList());
+        Map<String, Long> unapplied = new HashMap<>();
+        for (OrderOutboxEvent sum : orderOutboxMapper.sumUnappliedInventory(keys)) {
+            unapplied.put(sum.getMerchantId() + ":" + sum.getSku(), sum.getQuantity().longValue());
+        }
+        List<CounterSnapshot> snapshots = new ArrayList<>(rows.size());
+        for (ProductInventory inventory : productInventoryMapper.selectByKeys(keys)) {
+            snapshots.add(inventorySnapshot(inventory,
+                    unapplied.getOrDefault(inventory.getMerchantId() + ":" + inventory.getSku(), 0L)));
+        }
+        return snapshots;
+    }
+
+    /**
+     * 重新读取用户账户及其未应用的发件箱转账，Redis中的余额 = 数据库余额 - 未应用的转出
+     */
+    private List<CounterSnapshot> reloadUserAccounts(List<UserAccount> rows) {
+        List<Long> userIds = rows.stream().map(UserAccount::getUserId).collect(Collectors.toList());
+        Map<Long, BigDecimal> unapplied = new HashMap<>();
+        for (OrderOutboxEvent sum : orderOutboxMapper.sumUnappliedUserAmounts(userIds)) {
+            unapplied.put(sum.getUserId(), sum.getAmount());
+        }
+        List<CounterSnapshot> snapshots = new ArrayList<>(rows.size());
+        for (UserAccount account : userAccountMapper.selectByUserIds(userIds)) {
+            snapshots.add(userSnapshot(account, unapplied.getOrDefault(account.getUserId(), BigDecimal.ZERO)));
+        }
+        return snapshots;
+    }
+
+    /**
+     * 重新读取商家账户及其未应用的发件箱转账，Redis中的余额 = 数据库余额 + 未应用的转入
+     */
+    private List<CounterSnapshot> reloadMerchantAccounts(List<MerchantAccount> rows) {
+        List<Long> merchantIds = rows.stream().map(MerchantAccount::getMerchantId).collect(Collectors.toList());
+        Map<Long, BigDecimal> unapplied = new HashMap<>();
+        for (OrderOutboxEvent sum : orderOutboxMapper.sumUnappliedMerchantAmounts(merchantIds)) {
+            unapplied.put(sum.getMerchantId(), sum.getAmount());
+        }
+        List<CounterSnapshot> snapshots = new ArrayList<>(rows.size());
+        for (MerchantAccount account : merchantAccountMapper.selectByMerchantIds(merchantIds)) {
+            snapshots.add(merchantSnapshot(account,
+                    unapplied.getOrDefault(account.getMerchantId(), BigDecimal.ZERO)));
+        }
+        return snapshots;
+    }
+
+    private ChunkWriter<ProductInventory> inventoryWriter(String name) {
+        return new ChunkWriter<>(name, this::inventorySnapshot, this::reloadInventory);
+    }
+
+    private ChunkWriter<UserAccount> userAccountWriter(String name) {
+        return new ChunkWriter<>(name, this::userSnapshot, this::reloadUserAccounts);
+    }
+
+    private ChunkWriter<MerchantAccount> merchantAccountWriter(String name) {
+        return new ChunkWriter<>(name, this::merchantSnapshot, this::reloadMerchantAccounts);
+    }
+
+    private static long versionOf(Long version) {
+        return version != null ? version : 0L;
+    }
+
+    private <T> List<List<T>> partition(List<T> values) {
+        List<List<T>> partitions = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += chunkSize) {
+            partitions.add(values.subList(i, Math.min(i + chunkSize, values.size())));
+        }
+        return partitions;
+    }
+
+    /**
+     * 预热状态
+     */
+    public enum WarmUpState {
+        /**
+         * 预热尚未开始
+         */
+        STARTING,
+        /**
+         * 正在加载关键数据，节点未就绪
+         */
+        LOADING_CRITICAL,
+        /**
+         * 关键数据已加载，节点就绪，全量数据在后台加载
+         */
+        READY,
+        /**
+         * 全量数据加载结束
+         */
+        COMPLETE
+    }
+
+    /**
+     * 按块缓冲一个数据集的数据库行，块满时合并到Redis并输出进度：
+     * 1. 一次MGET读取整块的版本号，版本已是最新且值存在的行直接跳过
+     * 2. 其余行在同一事务中重新读取数据库行和未应用的发件箱增量，保证两者来自同一快照
+     * 3. 以管道方式执行合并脚本，由脚本原子地补齐缺失的值或记录版本，不覆盖已存在的值
+     * 只在该数据集的加载线程中使用
+     */
+    private class ChunkWriter<T> {
+
+        private final String name;
+        private final Function<T, CounterSnapshot> snapshot;
+        private final Function<List<T>, List<CounterSnapshot>> reload;
+        private final long startNanos = System.nanoTime();
+        private final List<T> buffer = new ArrayList<>();
+        private long rows;
+        private long skipped;
+        private long rebuilt;
+        private long adopted;
+        private long failed;
+        private long chunks;
+        private long nextProgressRows = progressIntervalRows;
+
+        ChunkWriter(String name, Function<T, CounterSnapshot> snapshot,
+                    Function<List<T>, List<CounterSnapshot>> reload) {
+            this.name = name;
+            this.snapshot = snapshot;
+            this.reload = reload;
+        }
+
+        void add(T row) {
+            buffer.add(row);
+            rows++;
+            if (buffer.size() >= chunkSize) {
+                flush();
+            }
+            if (rows >= nextProgressRows) {
+                log.info("{}预热进度：rows={}, skipped={}, rebuilt={}, adopted={}, rowsPerSecond={}",
+                        name, rows, skipped, rebuilt, adopted, rowsPerSecond());
+                nextProgressRows += progressIntervalRows;
+            }
+        }
+
+        void finish() {
+            flush();
+            log.info("{}预热完成，共 {} 条记录：跳过 {}、补齐 {}、接管 {}、失败 {}，{} 个块，耗时 {} ms，{} 条/秒",
+                    name, rows, skipped, rebuilt, adopted, failed, chunks,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), rowsPerSecond());
+        }
+
+        private void flush() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            List<T> chunk = new ArrayList<>(buffer);
+            buffer.clear();
+            chunks++;
+
+            List<Boolean> current = redisCounterVersionService.isCurrent(
+                    chunk.stream().map(snapshot).collect(Collectors.toList()));
+            List<T> stale = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                if (!Boolean.TRUE.equals(current.get(i))) {
+                    stale.add(chunk.get(i));
+                }
+            }
+            skipped += chunk.size() - stale.size();
+            if (stale.isEmpty()) {
+                return;
+            }
+
+            List<CounterSnapshot> snapshots = transactionTemplate.execute(status -> reload.apply(stale));
+            if (snapshots == null || snapshots.isEmpty()) {
+                return;
+            }
+            for (Long result : redisCounterVersionService.merge(snapshots)) {
+                if (result == null) {
+                    failed++;
+                } else if (result == RedisCounterVersionService.MERGE_REBUILT) {
+                    rebuilt++;
+                } else if (result == RedisCounterVersionService.MERGE_ADOPTED) {
+                    adopted++;
+                } else {
+                    skipped++;
+                }
+            }
+        }
+
+        private long rowsPerSecond() {
+            long elapsedNanos = Math.max(System.nanoTime() - startNanos, 1);
+            return rows * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+    }
 }
@@ -0,0 +1,329 @@
+package com.mall.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.mall.dto.OrderBatchCreateResult;
+import com.mall.dto.OrderCreateRequest;
+import com.mall.exception.AdmissionRejectedException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 商品下单准入控制
+ * 在进入下单事务之前按商品限流：每个商品一个本地令牌桶，桶容量按Redis剩余库存调整；
+ * 商品售罄后在本节点直接拒绝，不再占用数据库连接和Redis
+ * 商品补货时通过商品目录失效通知清除售罄标记，通知丢失时售罄标记按时间过期
+ *
+ * @author mall
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SkuAdmissionGate implements MessageListener {
+
+    static final String SOLD_OUT = "SKU_SOLD_OUT";
+    static final String THROTTLED = "SKU_THROTTLED";
+
+    private final RedisInventoryService redisInventoryService;
+    private final InventoryLeaseService inventoryLeaseService;
+
+    @Value("${order.admission.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每个商品每秒补充的令牌数
+     */
+    @Value("${order.admission.permits-per-second:2000}")
+    private long permitsPerSecond;
+
+    /**
+     * 令牌桶最大容量，剩余库存较少时按库存缩小
+     */
+    @Value("${order.admission.max-burst:2000}")
+    private long maxBurst;
+
+    /**
+     * 刷新令牌桶容量时读取Redis库存的间隔
+     */
+    @Value("${order.admission.stock-refresh-millis:1000}")
+    private long stockRefreshMillis;
+
+    /**
+     * 售罄标记的有效期
+     */
+    @Value("${order.admission.sold-out-ttl-millis:2000}")
+    private long soldOutTtlMillis;
+
+    private LoadingCache<String, SkuBucket> buckets;
+
+    @PostConstruct
+    public void init() {
+        buckets = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build(key -> new SkuBucket(maxBurst));
+    }
+
+    /**
+     * 通过准入检查后执行下单
+     *
+     * @param merchantId 商家ID
+     * @param sku        商品SKU
+     * @param action     下单操作
+     * @return 下单结果
+     * @throws AdmissionRejectedException 如果商品已售罄或超过准入速率
+     */
+    public <T> T execute(Long merchantId, String sku, Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        SkuBucket bucket = acquire(merchantId, sku);
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            // 下单失败时检查是否已售罄，后续请求在本节点直接拒绝
+            refreshStock(merchantId, sku, bucket, true);
+            throw e;
+        }
+    }
+
+    /**
+     * 同一商家的多个商品全部通过准入检查后执行下单（购物车订单）
+     * 任一商品被拒绝时归还已获取的令牌；下单失败时逐个检查商品是否已售罄
+     *
+     * @param merchantId 商家ID
+     * @param skus       商品SKU
+     * @param action     下单操作
+     * @return 下单结果
+     * @throws AdmissionRejectedException 如果任一商品已售罄或超过准入速率
+     */
+    public <T> T executeAll(Long merchantId, Collection<String> skus, Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        Map<String, SkuBucket> acquired = new LinkedHashMap<>();
+        try {
+            for (String sku : skus) {
+                if (!acquired.containsKey(sku)) {
+                    acquired.put(sku, acquire(merchantId, sku));
+                }
+            }
+        } catch (AdmissionRejectedException e) {
+            acquired.values().forEach(SkuBucket::release);
+            throw e;
+        }
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            acquired.forEach((sku, bucket) -> refreshStock(merchantId, sku, bucket, true));
+            throw e;
+        }
+    }
+
+    /**
+     * 批量下单：逐个订单进行准入检查，被拒绝的订单不进入下单流程，按请求序号作为失败项返回
+     * 下单失败的订单检查其商品是否已售罄
+     *
+     * @param requests 订单创建请求
+     * @param action   对通过准入的订单执行批量下单
+     * @return 逐项结果，顺序与请求一致
+     */
+    public OrderBatchCreateResult executeBatch(List<OrderCreateRequest> requests,
+                                               Function<List<OrderCreateRequest>, OrderBatchCreateResult> action) {
+        if (!enabled) {
+            return action.apply(requests);
+        }
+        OrderBatchCreateResult.Item[] items = new OrderBatchCreateResult.Item[requests.size()];
+        List<OrderCreateRequest> admitted = new ArrayList<>(requests.size());
+        List<Integer> admittedIndexes = new ArrayList<>(requests.size());
+        List<SkuBucket> admittedBuckets = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            OrderCreateRequest request = requests.get(i);
+            try {
+                admittedBuckets.add(acquire(request.getMerchantId(), request.getSku()));
+                admitted.add(request);
+                admittedIndexes.add(i);
+            } catch (AdmissionRejectedException e) {
+                items[i] = OrderBatchCreateResult.Item.builder().index(i).success(false).message(e.getMessage()).build();
+            }
+        }
+
+        OrderBatchCreateResult result;
+        try {
+            result = admitted.isEmpty() ? null : action.apply(admitted);
+        } catch (RuntimeException e) {
+            for (int j = 0; j < admitted.size(); j++) {
+                refreshStock(admitted.get(j).getMerchantId(), admitted.get(j).getSku(), admittedBuckets.get(j), true);
+            }
+            throw e;
+        }
+
+        Set<SkuBucket> refreshed = new HashSet<>();
+        if (result != null) {
+            for (OrderBatchCreateResult.Item item : result.getItems()) {
+                int j = item.getIndex();
+                OrderCreateRequest request = admitted.get(j);
+                if (!Boolean.TRUE.equals(item.getSuccess()) && refreshed.add(admittedBuckets.get(j))) {
+                    refreshStock(request.getMerchantId(), request.getSku(), admittedBuckets.get(j), true);
+                }
+                item.setIndex(admittedIndexes.get(j));
+                items[item.getIndex()] = item;
+            }
+        }
+        if (result == null) {
+            result = OrderBatchCreateResult.builder().successCount(0).elapsedMillis(0L).ordersPerSecond(0.0).build();
+        }
+        result.setFailureCount(requests.size() - result.getSuccessCount());
+        result.setItems(Arrays.asList(items));
+        return result;
+    }
+
+    /**
+     * 接收商品目录失效通知（补货、新建商品），清除售罄标记
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        SkuBucket bucket = buckets.getIfPresent(key);
+        if (bucket != null) {
+            bucket.reset(maxBurst);
+            log.debug("商品准入状态已重置：key={}", key);
+        }
+    }
+
+    private SkuBucket acquire(Long merchantId, String sku) {
+        SkuBucket bucket = buckets.get(getBucketKey(merchantId, sku));
+        long now = System.currentTimeMillis();
+        if (bucket.isSoldOut(now)) {
+            throw new AdmissionRejectedException("商品已售罄：merchantId=" + merchantId + ", sku=" + sku, SOLD_OUT);
+        }
+        if (bucket.shouldRefresh(now, stockRefreshMillis)) {
+            refreshStock(merchantId, sku, bucket, false);
+            if (bucket.isSoldOut(now)) {
+                throw new AdmissionRejectedException("商品已售罄：merchantId=" + merchantId + ", sku=" + sku, SOLD_OUT);
+            }
+        }
+        if (!bucket.tryAcquire(now, permitsPerSecond)) {
+            throw new AdmissionRejectedException("商品抢购人数过多，请稍后重试：merchantId=" + merchantId + ", sku=" + sku,
+                    THROTTLED);
+        }
+        return bucket;
+    }
+
+    /**
+     * 读取Redis剩余库存：库存为0时标记售罄，否则按库存调整令牌桶容量
+     */
+    private void refreshStock(Long merchantId, String sku, SkuBucket bucket, boolean afterFailure) {
+        Integer stock;
+        try {
+            stock = redisInventoryService.getInventory(merchantId, sku);
+            // 本节点租借的库存不在Redis中，一并计入
+            int localStock = inventoryLeaseService.getLocalInventory(merchantId, sku);
+            if (localStock > 0) {
+                stock = (stock != null ? stock : 0) + localStock;
+            }
+        } catch (Exception e) {
+            log.warn("读取商品库存失败，跳过准入容量调整：merchantId={}, sku={}, error={}",
+                    merchantId, sku, e.getMessage());
+            return;
+        }
+        if (stock == null) {
+            // 库存尚未加载到Redis，不限制容量
+            bucket.resize(maxBurst);
+            return;
+        }
+        if (stock <= 0) {
+            bucket.markSoldOut(System.currentTimeMillis() + soldOutTtlMillis);
+            log.info("商品已售罄，暂停准入：merchantId={}, sku={}, afterFailure={}", merchantId, sku, afterFailure);
+            return;
+        }
+        bucket.resize(Math.min(maxBurst, stock));
+    }
+
+    private String getBucketKey(Long merchantId, String sku) {
+        return merchantId + ":" + sku;
+    }
+
+    /**
+     * 单个商品的令牌桶和售罄标记
+     */
+    static class SkuBucket {
+
+        private long capacity;
+        private double tokens;
+        private long lastRefillMillis;
+        private long nextRefreshMillis;
+        private volatile long soldOutUntilMillis;
+
+        SkuBucket(long capacity) {
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefillMillis = System.currentTimeMillis();
+        }
+
+        boolean isSoldOut(long now) {
+            return soldOutUntilMillis > now;
+        }
+
+        void markSoldOut(long untilMillis) {
+            soldOutUntilMillis = untilMillis;
+        }
+
+        synchronized boolean shouldRefresh(long now, long refreshMillis) {
+            if (now < nextRefreshMillis) {
+                return false;
+            }
+            nextRefreshMillis = now + refreshMillis;
+            return true;
+        }
+
+        synchronized void resize(long newCapacity) {
+            capacity = Math.max(1, newCapacity);
+            tokens = Math.min(tokens, capacity);
+        }
+
+        synchronized void reset(long newCapacity) {
+            soldOutUntilMillis = 0;
+            nextRefreshMillis = 0;
+            capacity = newCapacity;
+            tokens = newCapacity;
+        }
+
+        /**
+         * 归还未使用的令牌（同一请求中的其他商品被拒绝）
+         */
+        synchronized void release() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        synchronized boolean tryAcquire(long now, long permitsPerSecond) {
+            if (now > lastRefillMillis) {
+                tokens = Math.min(capacity, tokens + (now - lastRefillMillis) * permitsPerSecond / 1000.0);
+                lastRefillMillis = now;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.mall.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法ID生成器
+ * ID由 41位毫秒时间戳 + 10位节点ID + 12位序列号 组成，按时间大致有序，可用于订单号和订单ID
+ * 使用CAS更新时间戳和序列号，无锁且生成过程不分配对象
+ * 时钟小幅回拨时沿用上次的逻辑时间继续递增，超过容忍范围时拒绝生成，避免产生重复ID
+ *
+ * @author mall
+ */
+@Service
+@Slf4j
+public class SnowflakeIdGenerator {
+
+    /**
+     * 起始时间 2024-01-01 00:00:00 UTC
+     */
+    static final long EPOCH = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final String ORDER_NO_PREFIX = "ORD";
+
+    /**
+     * 节点ID，集群内每个节点必须唯一；没有默认值，未配置时启动失败，避免多个节点使用相同ID生成重复订单号
+     */
+    @Value("${order.id.node-id}")
+    private long nodeId;
+
+    /**
+     * 允许的最大时钟回拨（毫秒）
+     */
+    @Value("${order.id.max-backward-millis:1000}")
+    private long maxBackwardMillis;
+
+    /**
+     * 高位为上次生成ID的逻辑时间戳，低12位为该毫秒内的序列号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator() {
+    }
+
+    SnowflakeIdGenerator(long nodeId, long maxBackwardMillis) {
+        this.nodeId = nodeId;
+        this.maxBackwardMillis = maxBackwardMillis;
+        validateNodeId();
+    }
+
+    @PostConstruct
+    public void init() {
+        validateNodeId();
+        log.info("ID生成器初始化完成：nodeId={}", nodeId);
+    }
+
+    /**
+     * 生成ID
+     *
+     * @return 全局唯一、按时间大致递增的ID
+     * @throws IllegalStateException 如果时钟回拨超过容忍范围
+     */
+    public long nextId() {
+        while (true) {
+            long current = state.get();
+            long lastTimestamp = current >>> SEQUENCE_BITS;
+            long now = currentTimeMillis();
+
+            long next;
+            if (now > lastTimestamp) {
+                next = now << SEQUENCE_BITS;
+            } else {
+                // 同一毫秒或时钟回拨：沿用上次的逻辑时间，序列号用尽时借用下一毫秒
+                if (lastTimestamp - now > maxBackwardMillis) {
+                    throw new IllegalStateException("时钟回拨超过" + maxBackwardMillis + "毫秒，拒绝生成ID：nodeId=" + nodeId);
+                }
+                next = (current & SEQUENCE_MASK) < SEQUENCE_MASK ? current + 1 : (lastTimestamp + 1) << SEQUENCE_BITS;
+            }
+
+            if (state.compareAndSet(current, next)) {
+                long timestamp = (next >>> SEQUENCE_BITS) - EPOCH;
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 生成订单号
+     *
+     * @return 订单号，格式为 ORD + ID
+     */
+    public String nextOrderNo() {
+        return ORDER_NO_PREFIX + nextId();
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void validateNodeId() {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("节点ID必须在0到" + MAX_NODE_ID + "之间：nodeId=" + nodeId);
+        }
+    }
+}
@@ -7,11 +7,17 @@ import com.mall.exception.ProductAlreadyExistsException;
 import com.mall.exception.InsufficientInventoryException;
 import com.mall.mapper.ProductInventoryMapper;
 import com.mall.service.MerchantService;
+import com.mall.service.ProductCatalogCache;
+import com.mall.service.RedisCounterVersionService;
 import com.mall.service.RedisInventoryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
 
 /**
  * 商家服务实现类
@@ -25,9 +31,12 @@ public class MerchantServiceImpl implements MerchantService {
 
     private final ProductInventoryMapper productInventoryMapper;
     private final RedisInventoryService redisInventoryService;
+    private final ProductCatalogCache productCatalogCache;
+    private final RedisCounterVersionService redisCounterVersionService;
 
     /**
      * 创建商品库存
+     * Redis库存在事务提交后初始化
      */
     @Override
     @Transactional(rollbackFor = Exception.class)
@@ -57,9 +66,13 @@ public class MerchantServiceImpl implements MerchantService {
         // 保存库存到数据库
         productInventoryMapper.insert(inventory);
         
-        // 同步库存到Redis
-        redisInventoryService.initInventory(
-                inventory.getMerchantId(), inventory.getSku(), inventory.getQuantity());
+        // 事务提交后同步库存到Redis
+        afterCommit("初始化Redis库存merchantId=" + inventory.getMerchantId() + ", sku=" + inventory.getSku(),
+                () -> redisInventoryService.initInventory(
+                        inventory.getMerchantId(), inventory.getSku(), inventory.getQuantity()));
+
+        // 通知所有节点失效商品目录缓存
+        productCatalogCache.publishInvalidation(inventory.getMerchantId(), inventory.getSku());
         
         log.info("创建商品库存成功：merchantId={}, sku={}, quantity={}",
                 inventory.getMerchantId(), inventory.getSku(), inventory.getQuantity());
@@ -69,6 +82,8 @@ public class MerchantServiceImpl implements MerchantService {
 
     /**
      * 增加商品库存
+     * 按增量更新库存（{@code quantity = quantity + ?}），不先读取库存，不会覆盖并发的扣减
+     * Redis库存和版本在事务提交后更新，事务回滚时Redis中不会留下未提交的补货
      */
     @Override
     @Transactional(rollbackFor = Exception.class)
@@ -76,22 +91,30 @@ public class MerchantServiceImpl implements MerchantService {
         log.info("增加商品库存请求：merchantId={}, sku={}, quantity={}",
                 request.getMerchantId(), request.getSku(), request.getQuantity());
 
-        // 查找商品库存
-        ProductInventory inventory = productInventoryMapper
-                .selectByMerchantIdAndSku(request.getMerchantId(), request.getSku());
-        if (inventory == null) {
-            throw new InsufficientInventoryException(
-                    "商品库存不存在：merchantId=" + request.getMerchantId() + ", sku=" + request.getSku());
+        if (request.getQuantity() == null || request.getQuantity() <= 0) {
+            throw new IllegalArgumentException("增加库存数量必须大于0");
         }
 
         // 增加数据库库存
-        inventory.increaseInventory(request.getQuantity());
-        productInventoryMapper.updateById(inventory);
-        
-        // 同步增加Redis库存
-        redisInventoryService.increaseInventory(
-                request.getMerchantId(), request.getSku(), request.getQuantity());
+        if (productInventoryMapper.increaseQuantity(
+                request.getMerchantId(), request.getSku(), request.getQuantity(), null) == 0) {
+            throw new InsufficientInventoryException(
+                    "商品库存不存在：merchantId=" + request.getMerchantId() + ", sku=" + request.getSku());
+        }
         
+        // 事务提交后增加Redis库存，数据库行版本已+1，Redis版本同步+1
+        afterCommit("增加Redis库存merchantId=" + request.getMerchantId() + ", sku=" + request.getSku(), () -> {
+            redisInventoryService.increaseInventory(
+                    request.getMerchantId(), request.getSku(), request.getQuantity());
+            redisCounterVersionService.advance(Collections.singletonList(
+                    redisInventoryService.getInventoryKey(request.getMerchantId(), request.getSku())));
+        });
+
+        // 通知所有节点失效商品目录缓存
+        productCatalogCache.publishInvalidation(request.getMerchantId(), request.getSku());
+
+        ProductInventory inventory = productInventoryMapper
+                .selectByMerchantIdAndSku(request.getMerchantId(), request.getSku());
         log.info("增加商品库存成功：merchantId={}, sku={}, newQuantity={}",
                 inventory.getMerchantId(), inventory.getSku(), inventory.getQuantity());
 
@@ -110,4 +133,29 @@ public class MerchantServiceImpl implements MerchantService {
         }
         return inventory;
     }
+
+    /**
+     * 事务提交后执行Redis写入，事务回滚时不修改Redis；没有事务时立即执行
+     * 提交后写入失败只记录日志，数据库已是正确的值，由对账修复Redis
+     */
+    private void afterCommit(String description, Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    runQuietly(description, action);
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void runQuietly(String description, Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.error("事务提交后{}失败，等待对账修复：error={}", description, e.getMessage(), e);
+        }
+    }
 }
@@ -1,23 +1,35 @@
 package com.mall.service.impl;
 
-import com.mall.domain.merchant.MerchantAccount;
-import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.merchant.ProductCatalog;
 import com.mall.domain.transaction.Order;
-import com.mall.domain.user.UserAccount;
+import com.mall.domain.transaction.OrderItem;
+import com.mall.dto.CartOrderCreateRequest;
+import com.mall.dto.OrderBatchCreateResult;
 import com.mall.dto.OrderCreateRequest;
 import com.mall.mapper.*;
 import com.mall.service.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * 订单服务实现类
  * 负责处理订单创建和支付流程
  * 优化方案：使用Redis + Lua脚本预扣库存，异步更新数据库
+ * 默认使用合并下单脚本，一次Redis往返完成库存扣减和账户转账
  *
  * @author mall
  */
@@ -27,33 +39,161 @@ import java.math.BigDecimal;
 public class OrderServiceImpl implements OrderService {
 
     private final OrderMapper orderMapper;
-    private final UserAccountMapper userAccountMapper;
-    private final MerchantAccountMapper merchantAccountMapper;
-    private final ProductInventoryMapper productInventoryMapper;
-    private final RedisInventoryService redisInventoryService;
-    private final InventoryAsyncService inventoryAsyncService;
+    private final OrderItemMapper orderItemMapper;
     private final RedisAccountService redisAccountService;
-    private final AccountAsyncService accountAsyncService;
+    private final OrderPersistenceService orderPersistenceService;
+    private final OrderJournalService orderJournalService;
+    private final RedisCheckoutService redisCheckoutService;
+    private final ProductCatalogCache productCatalogCache;
+    private final AccountHydrationService accountHydrationService;
+    private final InventoryLeaseService inventoryLeaseService;
+    private final SnowflakeIdGenerator snowflakeIdGenerator;
+
+    /**
+     * 是否使用合并下单脚本（库存扣减和账户转账在同一个Lua脚本中完成）
+     */
+    @Value("${order.checkout.fused-script-enabled:true}")
+    private boolean fusedScriptEnabled;
 
     /**
      * 创建订单并完成支付
+     * 订单通过组提交与其他并发订单合并写入数据库，不在调用线程上开启事务
      */
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public Order createOrder(OrderCreateRequest request) {
         log.info("创建订单请求：userId={}, merchantId={}, sku={}, quantity={}",
                 request.getUserId(), request.getMerchantId(), request.getSku(), request.getQuantity());
 
-        // 1. 从数据库查询商品信息（不加锁，只读操作）
-        ProductInventory inventory = productInventoryMapper
-                .selectByMerchantIdAndSku(request.getMerchantId(), request.getSku());
-        if (inventory == null) {
+        // 1. 从本地缓存获取商品信息，未命中时查询数据库
+        ProductCatalog catalog = productCatalogCache.get(request.getMerchantId(), request.getSku());
+        if (catalog == null) {
             throw new IllegalArgumentException(
                     "商品不存在：merchantId=" + request.getMerchantId() + ", sku=" + request.getSku());
         }
 
-        // 2. 使用Redis + Lua脚本原子性扣减库存（提高并发性能）
-        Long remainingInventory = redisInventoryService.decreaseInventory(
+        // 启用本地租借库存的商品在JVM内扣减库存，只有转账需要访问Redis
+        if (fusedScriptEnabled && !inventoryLeaseService.isLeased(request.getMerchantId(), request.getSku())) {
+            return createOrderWithCheckoutScript(request, catalog);
+        }
+        return createOrderWithSeparateScripts(request, catalog);
+    }
+
+    /**
+     * 使用合并下单脚本创建订单：一次Redis往返完成库存扣减和账户转账
+     */
+    private Order createOrderWithCheckoutScript(OrderCreateRequest request, ProductCatalog catalog) {
+        // 2. 计算订单总金额
+        BigDecimal totalAmount = catalog.calculateTotalPrice(request.getQuantity());
+        if (orderJournalService.isEnabled()) {
+            return createOrderWithJournal(request, catalog, totalAmount);
+        }
+
+        // 3. 乐观执行下单脚本；脚本报告账户不在Redis中时才加载账户并重试
+        RedisCheckoutService.CheckoutCommand command = new RedisCheckoutService.CheckoutCommand(
+                request.getUserId(), request.getMerchantId(), request.getSku(), request.getQuantity(), totalAmount);
+        RedisCheckoutService.CheckoutResult result = redisCheckoutService.checkout(command);
+        result = hydrateAndRetry(command, result);
+        checkCheckoutResult(result, request);
+
+        try {
+            // 4. 创建订单，与发件箱事件一起组提交，由中继更新数据库库存和账户余额
+            Order order = orderPersistenceService.save(buildPaidOrder(request, catalog, totalAmount));
+            log.info("订单创建成功：orderNo={}, status={}", order.getOrderNo(), order.getStatus());
+
+            return order;
+        } catch (Exception e) {
+            // 订单保存失败，在同一个脚本中将库存归还到扣减的key并退回转账
+            try {
+                redisCheckoutService.rollbackCheckout(command);
+            } catch (Exception ex) {
+                log.error("回滚Redis下单失败：userId={}, merchantId={}, sku={}, quantity={}, error={}",
+                        request.getUserId(), request.getMerchantId(), request.getSku(),
+                        request.getQuantity(), ex.getMessage(), ex);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 日志优先模式：下单脚本在扣减库存和转账的同时将订单追加到订单日志，追加成功即返回
+     * 订单由订单日志持久化线程异步写入数据库，返回的订单尚未分配数据库ID
+     */
+    private Order createOrderWithJournal(OrderCreateRequest request, ProductCatalog catalog, BigDecimal totalAmount) {
+        Order order = buildPaidOrder(request, catalog, totalAmount);
+        String journal = orderJournalService.serialize(order);
+        RedisCheckoutService.CheckoutCommand command = new RedisCheckoutService.CheckoutCommand(
+                request.getUserId(), request.getMerchantId(), request.getSku(), request.getQuantity(), totalAmount);
+        Supplier<RedisCheckoutService.CheckoutResult> checkout = () -> redisCheckoutService.checkoutAndJournal(
+                command, orderJournalService.getStreamKey(), journal);
+        RedisCheckoutService.CheckoutResult result =
+                hydrateAndRetry(request.getUserId(), request.getMerchantId(), checkout.get(), checkout);
+        checkCheckoutResult(result, request);
+
+        log.info("订单已写入订单日志：orderNo={}, status={}", order.getOrderNo(), order.getStatus());
+        return order;
+    }
+
+    /**
+     * 下单脚本报告账户不在Redis中时，加载缺失的账户后重试
+     */
+    private RedisCheckoutService.CheckoutResult hydrateAndRetry(RedisCheckoutService.CheckoutCommand command,
+                                                                RedisCheckoutService.CheckoutResult result) {
+        return hydrateAndRetry(command.getUserId(), command.getMerchantId(), result,
+                () -> redisCheckoutService.checkout(command));
+    }
+
+    /**
+     * 下单脚本报告账户不在Redis中时，加载缺失的账户后重试
+     * 用户账户和商家账户可能都未加载，最多重试两次
+     */
+    private RedisCheckoutService.CheckoutResult hydrateAndRetry(Long userId, Long merchantId,
+                                                                RedisCheckoutService.CheckoutResult result,
+                                                                Supplier<RedisCheckoutService.CheckoutResult> retry) {
+        for (int attempt = 0; attempt < 2 && result.isAccountMissing(); attempt++) {
+            if (result == RedisCheckoutService.CheckoutResult.USER_ACCOUNT_NOT_FOUND) {
+                accountHydrationService.hydrateUserAccount(userId);
+            } else {
+                accountHydrationService.hydrateMerchantAccount(merchantId);
+            }
+            result = retry.get();
+        }
+        return result;
+    }
+
+    /**
+     * 下单脚本执行失败时抛出业务异常
+     */
+    private void checkCheckoutResult(RedisCheckoutService.CheckoutResult result, OrderCreateRequest request) {
+        if (result != RedisCheckoutService.CheckoutResult.SUCCESS) {
+            throw new IllegalArgumentException(describeCheckoutFailure(result, request));
+        }
+    }
+
+    /**
+     * 将下单脚本失败结果转换为错误信息
+     */
+    private String describeCheckoutFailure(RedisCheckoutService.CheckoutResult result, OrderCreateRequest request) {
+        switch (result) {
+            case INSUFFICIENT_INVENTORY:
+            case INVENTORY_NOT_FOUND:
+                return "库存不足：merchantId=" + request.getMerchantId() + ", sku=" + request.getSku() + ", quantity=" + request.getQuantity();
+            case USER_ACCOUNT_NOT_FOUND:
+                return "用户账户不存在：userId=" + request.getUserId();
+            case INSUFFICIENT_BALANCE:
+                return "用户账户余额不足：userId=" + request.getUserId();
+            case MERCHANT_ACCOUNT_NOT_FOUND:
+                return "商家账户不存在：merchantId=" + request.getMerchantId();
+            default:
+                return "下单失败：userId=" + request.getUserId() + ", merchantId=" + request.getMerchantId();
+        }
+    }
+
+    /**
+     * 分别调用库存脚本和转账脚本创建订单
+     */
+    private Order createOrderWithSeparateScripts(OrderCreateRequest request, ProductCatalog catalog) {
+        // 2. 使用Redis + Lua脚本原子性扣减库存（提高并发性能），热点商品从本地租借库存中扣减
+        Long remainingInventory = inventoryLeaseService.decreaseInventory(
                 request.getMerchantId(), request.getSku(), request.getQuantity());
         if (remainingInventory == null || remainingInventory < 0) {
             throw new IllegalArgumentException(
@@ -64,62 +204,25 @@ public class OrderServiceImpl implements OrderService {
         boolean redisAccountTransferred = false;
         try {
             // 3. 计算订单总金额
-            BigDecimal totalAmount = inventory.calculateTotalPrice(request.getQuantity());
+            BigDecimal totalAmount = catalog.calculateTotalPrice(request.getQuantity());
 
-            // 4. 确保用户账户和商家账户在Redis中存在
-            ensureAccountInRedis(request.getUserId(), request.getMerchantId());
+            // 4. 使用Redis + Lua脚本原子性转账；脚本报告账户不在Redis中时才加载账户并重试
+            transferWithHydration(request.getUserId(), request.getMerchantId(), totalAmount);
+            redisAccountTransferred = true;
 
-            // 5. 使用Redis + Lua脚本原子性转账（扣减用户余额并增加商家余额）
-            try {
-                redisAccountService.transferAmount(request.getUserId(), request.getMerchantId(), totalAmount);
-                redisAccountTransferred = true;
-                log.info("Redis账户转账成功：userId={}, merchantId={}, amount={}",
-                        request.getUserId(), request.getMerchantId(), totalAmount);
-            } catch (IllegalArgumentException e) {
-                // 账户不存在或余额不足，尝试初始化账户
-                log.warn("Redis转账失败，尝试初始化账户：{}", e.getMessage());
-                ensureAccountInRedis(request.getUserId(), request.getMerchantId());
-                redisAccountService.transferAmount(request.getUserId(), request.getMerchantId(), totalAmount);
-                redisAccountTransferred = true;
-            }
+            // 5. 创建订单，并标记为已支付（Redis转账已成功）
+            Order order = buildPaidOrder(request, catalog, totalAmount);
 
-            // 6. 创建订单
-            Order order = Order.builder()
-                    .userId(request.getUserId())
-                    .merchantId(request.getMerchantId())
-                    .sku(request.getSku())
-                    .productName(inventory.getProductName())
-                    .unitPrice(inventory.getPrice())
-                    .quantity(request.getQuantity())
-                    .totalAmount(totalAmount)
-                    .currency(inventory.getCurrency())
-                    .status(Order.OrderStatus.PENDING)
-                    .version(0L)
-                    .build();
-            order.initDefaults();
-
-            // 7. 标记订单为已支付（Redis转账已成功）
-            order.markAsPaid();
-            log.info("订单支付成功：orderNo={}, totalAmount={}", order.getOrderNo(), totalAmount);
-
-            // 8. 保存订单
-            orderMapper.insert(order);
+            // 6. 保存订单，与发件箱事件一起组提交，由中继更新数据库库存和账户余额
+            orderPersistenceService.save(order);
             log.info("订单创建成功：orderNo={}, status={}", order.getOrderNo(), order.getStatus());
 
-            // 9. 异步更新数据库库存（不阻塞主流程，提高并发性能）
-            inventoryAsyncService.decreaseDatabaseInventory(
-                    request.getMerchantId(), request.getSku(), request.getQuantity());
-
-            // 10. 异步更新数据库账户余额（不阻塞主流程，提高并发性能）
-            accountAsyncService.updateDatabaseAccountBalance(
-                    request.getUserId(), request.getMerchantId(), totalAmount);
-
             return order;
         } catch (Exception e) {
             // 如果Redis库存已扣减但后续流程失败，需要回滚Redis库存
             if (redisInventoryDeducted) {
                 try {
-                    redisInventoryService.increaseInventory(
+                    inventoryLeaseService.increaseInventory(
                             request.getMerchantId(), request.getSku(), request.getQuantity());
                     log.info("已回滚Redis库存：merchantId={}, sku={}, quantity={}",
                             request.getMerchantId(), request.getSku(), request.getQuantity());
@@ -132,7 +235,7 @@ public class OrderServiceImpl implements OrderService {
             // 如果Redis账户已转账但后续流程失败，需要回滚Redis账户
             if (redisAccountTransferred) {
                 try {
-                    BigDecimal totalAmount = inventory.calculateTotalPrice(request.getQuantity());
+                    BigDecimal totalAmount = catalog.calculateTotalPrice(request.getQuantity());
                     redisAccountService.rollbackTransfer(
                             request.getUserId(), request.getMerchantId(), totalAmount);
                     log.info("已回滚Redis账户：userId={}, merchantId={}, amount={}",
@@ -146,6 +249,273 @@ public class OrderServiceImpl implements OrderService {
         }
     }
 
+    /**
+     * 原子性转账，脚本报告账户不在Redis中时加载缺失的账户后重试
+     */
+    private void transferWithHydration(Long userId, Long merchantId, BigDecimal amount) {
+        Long result = redisAccountService.tryTransferAmount(userId, merchantId, amount);
+        for (int attempt = 0; attempt < 2 && result != null && (result == -2 || result == -3); attempt++) {
+            if (result == -2) {
+                accountHydrationService.hydrateUserAccount(userId);
+            } else {
+                accountHydrationService.hydrateMerchantAccount(merchantId);
+            }
+            result = redisAccountService.tryTransferAmount(userId, merchantId, amount);
+        }
+        redisAccountService.checkTransferResult(result, userId, merchantId, amount);
+    }
+
+    /**
+     * 批量创建订单并完成支付
+     * 下单脚本通过管道在一个连接上执行，成功的订单使用一条多值INSERT保存
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public OrderBatchCreateResult createOrders(List<OrderCreateRequest> requests) {
+        long startTime = System.nanoTime();
+        log.info("批量创建订单请求：count={}", requests.size());
+
+        OrderBatchCreateResult.Item[] items = new OrderBatchCreateResult.Item[requests.size()];
+
+        // 1. 获取商品信息并生成下单指令
+        Map<String, ProductCatalog> catalogs = new HashMap<>();
+        List<Integer> commandIndexes = new ArrayList<>();
+        List<RedisCheckoutService.CheckoutCommand> commands = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            OrderCreateRequest request = requests.get(i);
+            ProductCatalog catalog = catalogs.computeIfAbsent(
+                    request.getMerchantId() + ":" + request.getSku(),
+                    key -> productCatalogCache.get(request.getMerchantId(), request.getSku()));
+            if (catalog == null) {
+                items[i] = failedItem(i, "商品不存在：merchantId=" + request.getMerchantId() + ", sku=" + request.getSku());
+                continue;
+            }
+            commandIndexes.add(i);
+            commands.add(new RedisCheckoutService.CheckoutCommand(request.getUserId(), request.getMerchantId(),
+                    request.getSku(), request.getQuantity(), catalog.calculateTotalPrice(request.getQuantity())));
+        }
+
+        // 2. 以管道方式执行全部下单脚本
+        List<RedisCheckoutService.CheckoutResult> results = redisCheckoutService.checkoutBatch(commands);
+
+        // 3. 处理下单结果；账户未加载到Redis的订单加载账户后单独重试
+        List<Order> orders = new ArrayList<>();
+        List<Integer> orderIndexes = new ArrayList<>();
+        List<RedisCheckoutService.CheckoutCommand> reserved = new ArrayList<>();
+        for (int j = 0; j < commands.size(); j++) {
+            int index = commandIndexes.get(j);
+            OrderCreateRequest request = requests.get(index);
+            RedisCheckoutService.CheckoutCommand command = commands.get(j);
+            RedisCheckoutService.CheckoutResult result = results.get(j);
+            if (result.isAccountMissing()) {
+                try {
+                    result = hydrateAndRetry(command, result);
+                } catch (IllegalArgumentException e) {
+                    items[index] = failedItem(index, e.getMessage());
+                    continue;
+                }
+            }
+            if (result != RedisCheckoutService.CheckoutResult.SUCCESS) {
+                items[index] = failedItem(index, describeCheckoutFailure(result, request));
+                continue;
+            }
+            ProductCatalog catalog = catalogs.get(request.getMerchantId() + ":" + request.getSku());
+            orders.add(buildPaidOrder(request, catalog, command.getAmount()));
+            orderIndexes.add(index);
+            reserved.add(command);
+        }
+
+        // 4. 一条多值INSERT保存全部订单，并在同一事务中写入发件箱事件；失败时回滚事务并批量回滚Redis
+        if (!orders.isEmpty()) {
+            try {
+                orderPersistenceService.insertOrders(orders);
+            } catch (Exception e) {
+                log.error("批量保存订单失败：count={}, error={}", orders.size(), e.getMessage(), e);
+                if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                    TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                }
+                try {
+                    redisCheckoutService.rollbackCheckoutBatch(reserved);
+                } catch (Exception ex) {
+                    log.error("批量回滚Redis下单失败：count={}, error={}", reserved.size(), ex.getMessage(), ex);
+                }
+                for (Integer index : orderIndexes) {
+                    items[index] = failedItem(index, "订单保存失败：" + e.getMessage());
+                }
+                orders.clear();
+            }
+        }
+        for (int k = 0; k < orders.size(); k++) {
+            int index = orderIndexes.get(k);
+            items[index] = OrderBatchCreateResult.Item.builder()
+                    .index(index)
+                    .success(true)
+                    .order(orders.get(k))
+                    .build();
+        }
+
+        long elapsedNanos = System.nanoTime() - startTime;
+        long elapsedMillis = elapsedNanos / 1_000_000;
+        double ordersPerSecond = elapsedNanos > 0 ? requests.size() * 1_000_000_000.0 / elapsedNanos : 0;
+        log.info("批量创建订单完成：count={}, success={}, elapsedMillis={}, ordersPerSecond={}",
+                requests.size(), orders.size(), elapsedMillis, String.format("%.1f", ordersPerSecond));
+
+        return OrderBatchCreateResult.builder()
+                .successCount(orders.size())
+                .failureCount(requests.size() - orders.size())
+                .elapsedMillis(elapsedMillis)
+                .ordersPerSecond(ordersPerSecond)
+                .items(Arrays.asList(items))
+                .build();
+    }
+
+    /**
+     * 创建购物车订单并完成支付
+     * 一次下单脚本预留全部商品库存并完成转账，任意商品库存不足时整单失败
+     * 订单头、订单明细和发件箱事件通过组提交写入数据库
+     */
+    @Override
+    public Order createCartOrder(CartOrderCreateRequest request) {
+        Long userId = request.getUserId();
+        Long merchantId = request.getMerchantId();
+        log.info("创建购物车订单请求：userId={}, merchantId={}, lines={}", userId, merchantId, request.getItems().size());
+
+        // 1. 合并重复SKU，保持请求中的商品顺序
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (CartOrderCreateRequest.Item item : request.getItems()) {
+            quantities.merge(item.getSku(), item.getQuantity(), Integer::sum);
+        }
+
+        // 2. 获取商品信息并计算订单明细和总金额
+        List<OrderItem> items = new ArrayList<>(quantities.size());
+        String currency = null;
+        BigDecimal totalAmount = BigDecimal.ZERO;
+        for (Map.Entry<String, Integer> line : quantities.entrySet()) {
+            ProductCatalog catalog = productCatalogCache.get(merchantId, line.getKey());
+            if (catalog == null) {
+                throw new IllegalArgumentException("商品不存在：merchantId=" + merchantId + ", sku=" + line.getKey());
+            }
+            if (currency == null) {
+                currency = catalog.getCurrency();
+            } else if (!currency.equals(catalog.getCurrency())) {
+                throw new IllegalArgumentException("购物车商品货币不一致：merchantId=" + merchantId);
+            }
+            BigDecimal amount = catalog.calculateTotalPrice(line.getValue());
+            totalAmount = totalAmount.add(amount);
+            items.add(OrderItem.builder()
+                    .merchantId(merchantId)
+                    .sku(line.getKey())
+                    .productName(catalog.getProductName())
+                    .unitPrice(catalog.getPrice())
+                    .quantity(line.getValue())
+                    .amount(amount)
+                    .build());
+        }
+
+        // 3. 一次脚本调用预留全部库存并转账；账户不在Redis中时加载账户后重试
+        RedisCheckoutService.CartCheckoutResult result =
+                redisCheckoutService.checkoutCart(userId, merchantId, quantities, totalAmount);
+        for (int attempt = 0; attempt < 2 && result.getResult().isAccountMissing(); attempt++) {
+            if (result.getResult() == RedisCheckoutService.CheckoutResult.USER_ACCOUNT_NOT_FOUND) {
+                accountHydrationService.hydrateUserAccount(userId);
+            } else {
+                accountHydrationService.hydrateMerchantAccount(merchantId);
+            }
+            result = redisCheckoutService.checkoutCart(userId, merchantId, quantities, totalAmount);
+        }
+        checkCartCheckoutResult(result, request, items);
+
+        try {
+            // 4. 保存订单头和订单明细，与发件箱事件一起组提交，由中继更新数据库库存和账户余额
+            Order order = buildPaidCartOrder(request, items, totalAmount, currency);
+            order.setItems(items);
+            orderPersistenceService.save(order);
+            log.info("购物车订单创建成功：orderNo={}, itemCount={}, totalAmount={}",
+                    order.getOrderNo(), items.size(), totalAmount);
+
+            return order;
+        } catch (Exception e) {
+            // 订单保存失败，在同一个脚本中将全部库存归还到扣减的key并退回转账
+            try {
+                redisCheckoutService.rollbackCartCheckout(userId, merchantId, quantities, totalAmount, result);
+            } catch (Exception ex) {
+                log.error("回滚Redis购物车下单失败：userId={}, merchantId={}, lines={}, error={}",
+                        userId, merchantId, quantities.size(), ex.getMessage(), ex);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 购物车下单脚本执行失败时抛出业务异常
+     */
+    private void checkCartCheckoutResult(RedisCheckoutService.CartCheckoutResult result,
+                                         CartOrderCreateRequest request, List<OrderItem> items) {
+        switch (result.getResult()) {
+            case SUCCESS:
+                return;
+            case INSUFFICIENT_INVENTORY:
+            case INVENTORY_NOT_FOUND:
+                int index = result.getFailedIndex();
+                OrderItem item = index >= 0 && index < items.size() ? items.get(index) : null;
+                throw new IllegalArgumentException("库存不足：merchantId=" + request.getMerchantId()
+                        + (item != null ? ", sku=" + item.getSku() + ", quantity=" + item.getQuantity() : ""));
+            case USER_ACCOUNT_NOT_FOUND:
+                throw new IllegalArgumentException("用户账户不存在：userId=" + request.getUserId());
+            case INSUFFICIENT_BALANCE:
+                throw new IllegalArgumentException("用户账户余额不足：userId=" + request.getUserId());
+            case MERCHANT_ACCOUNT_NOT_FOUND:
+                throw new IllegalArgumentException("商家账户不存在：merchantId=" + request.getMerchantId());
+            default:
+                throw new IllegalArgumentException(
+                        "下单失败：userId=" + request.getUserId() + ", merchantId=" + request.getMerchantId());
+        }
+    }
+
+    /**
+     * 构建已支付的购物车订单头，商品明细保存在订单明细表中
+     */
+    private Order buildPaidCartOrder(CartOrderCreateRequest request, List<OrderItem> items,
+                                     BigDecimal totalAmount, String currency) {
+        String productName = items.size() == 1
+                ? items.get(0).getProductName()
+                : items.get(0).getProductName() + " 等" + items.size() + "件商品";
+        if (productName.length() > 200) {
+            productName = productName.substring(0, 200);
+        }
+        boolean singleLine = items.size() == 1;
+        Order order = Order.builder()
+                .orderNo(snowflakeIdGenerator.nextOrderNo())
+                .userId(request.getUserId())
+                .merchantId(request.getMerchantId())
+                .sku(singleLine ? items.get(0).getSku() : null)
+                .productName(productName)
+                .unitPrice(singleLine ? items.get(0).getUnitPrice() : null)
+                .quantity(items.stream().mapToInt(OrderItem::getQuantity).sum())
+                .itemCount(items.size())
+                .totalAmount(totalAmount)
+                .currency(currency)
+                .status(Order.OrderStatus.PENDING)
+                .version(0L)
+                .build();
+        order.initDefaults();
+
+        order.markAsPaid();
+        log.info("订单支付成功：orderNo={}, totalAmount={}", order.getOrderNo(), totalAmount);
+        return order;
+    }
+
+    /**
+     * 构建批量下单的失败结果
+     */
+    private OrderBatchCreateResult.Item failedItem(int index, String message) {
+        return OrderBatchCreateResult.Item.builder()
+                .index(index)
+                .success(false)
+                .message(message)
+                .build();
+    }
+
     /**
      * 根据订单号查询订单
      */
@@ -155,38 +525,33 @@ public class OrderServiceImpl implements OrderService {
         if (order == null) {
             throw new IllegalArgumentException("订单不存在：orderNo=" + orderNo);
         }
+        if (order.getItemCount() != null && order.getItemCount() > 1) {
+            order.setItems(orderItemMapper.selectByOrderId(order.getId()));
+        }
         return order;
     }
 
     /**
-     * 确保账户在Redis中存在，如果不存在则从数据库加载并初始化
+     * 构建已支付订单
      */
-    private void ensureAccountInRedis(Long userId, Long merchantId) {
-        // 检查用户账户
-        BigDecimal userBalance = redisAccountService.getUserBalance(userId);
-        if (userBalance == null) {
-            UserAccount userAccount = userAccountMapper.selectByUserId(userId);
-            if (userAccount == null) {
-                throw new IllegalArgumentException("用户账户不存在：userId=" + userId);
-            }
-            redisAccountService.initUserAccount(userId, userAccount.getBalance());
-        }
-
-        // 检查商家账户
-        BigDecimal merchantBalance = redisAccountService.getMerchantBalance(merchantId);
-        if (merchantBalance == null) {
-            MerchantAccount merchantAccount = merchantAccountMapper.selectByMerchantId(merchantId);
-            if (merchantAccount == null) {
-                log.info("商家账户不存在，创建新账户：merchantId={}", merchantId);
-                merchantAccount = MerchantAccount.builder()
-                        .merchantId(merchantId)
-                        .balance(BigDecimal.ZERO)
-                        .version(0L)
-                        .build();
-                merchantAccount.initDefaults();
-                merchantAccountMapper.insert(merchantAccount);
-            }
-            redisAccountService.initMerchantAccount(merchantId, merchantAccount.getBalance());
-        }
+    private Order buildPaidOrder(OrderCreateRequest request, ProductCatalog catalog, BigDecimal totalAmount) {
+        Order order = Order.builder()
+                .orderNo(snowflakeIdGenerator.nextOrderNo())
+                .userId(request.getUserId())
+                .merchantId(request.getMerchantId())
+                .sku(request.getSku())
+                .productName(catalog.getProductName())
+                .unitPrice(catalog.getPrice())
+                .quantity(request.getQuantity())
+                .totalAmount(totalAmount)
+                .currency(catalog.getCurrency())
+                .status(Order.OrderStatus.PENDING)
+                .version(0L)
+                .build();
+        order.initDefaults();
+
+        order.markAsPaid();
+        log.info("订单支付成功：orderNo={}, totalAmount={}", order.getOrderNo(), totalAmount);
+        return order;
     }
 }
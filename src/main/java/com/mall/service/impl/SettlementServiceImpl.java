@@ -1,26 +1,41 @@
 package com.mall.service.impl;
 
 import com.mall.domain.merchant.MerchantAccount;
-import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.merchant.MerchantDailySales;
+import com.mall.domain.settlement.SettlementCheckpoint;
 import com.mall.exception.MerchantNotFoundException;
 import com.mall.mapper.MerchantAccountMapper;
-import com.mall.mapper.OrderMapper;
-import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.SettlementCheckpointMapper;
+import com.mall.mapper.SettlementResultMapper;
+import com.mall.service.MerchantDailySalesService;
 import com.mall.service.SettlementService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * 商家结算服务实现类
- * 每天定时结算，对库存中卖出的商品价值和商家账户的余额进行匹配
+ * 每天定时结算，对库存中卖出的商品价值和商家账户的余额进行匹配，结算结果写入结算结果表
+ * 批量结算按商家ID将商家划分为连续的分块，分块计划写入检查点表，各分块在有界线程池中并行处理：
+ * 每个分块在一个事务中读取账户和销售汇总、批量写入结算结果并标记分块完成，中断后重跑只处理未完成的分块
  *
  * @author mall
  */
@@ -29,9 +44,29 @@ import java.util.List;
 @Slf4j
 public class SettlementServiceImpl implements SettlementService {
 
-    private final OrderMapper orderMapper;
     private final MerchantAccountMapper merchantAccountMapper;
-    private final ProductInventoryMapper productInventoryMapper;
+    private final MerchantDailySalesService merchantDailySalesService;
+    private final SettlementResultMapper settlementResultMapper;
+    private final SettlementCheckpointMapper settlementCheckpointMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 每个分块的商家数
+     */
+    @Value("${settlement.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * 并行处理分块的线程数
+     */
+    @Value("${settlement.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 每条多值INSERT写入的结算结果数
+     */
+    @Value("${settlement.result-batch-size:500}")
+    private int resultBatchSize;
 
     /**
      * 执行商家结算
@@ -41,13 +76,9 @@ public class SettlementServiceImpl implements SettlementService {
     public SettlementResult settleMerchant(Long merchantId, LocalDate settlementDate) {
         log.info("开始商家结算：merchantId={}, settlementDate={}", merchantId, settlementDate);
 
-        // 计算时间范围（当天的开始和结束时间）
-        LocalDateTime startTime = settlementDate.atStartOfDay();
-        LocalDateTime endTime = settlementDate.atTime(LocalTime.MAX);
-
-        // 查询指定日期内的已支付订单总金额
-        BigDecimal totalOrderAmount = orderMapper.sumPaidOrderAmountByMerchantAndTimeRange(
-                merchantId, startTime, endTime);
+        // 读取商家当天的销售汇总，不再扫描订单表
+        BigDecimal totalOrderAmount = merchantDailySalesService.getDailySales(merchantId, settlementDate)
+                .getPaidAmount();
 
         // 获取商家账户余额
         MerchantAccount merchantAccount = merchantAccountMapper.selectByMerchantId(merchantId);
@@ -55,14 +86,167 @@ public class SettlementServiceImpl implements SettlementService {
             throw new MerchantNotFoundException("商家账户不存在：merchantId=" + merchantId);
         }
 
-        BigDecimal accountBalance = merchantAccount.getBalance();
+        SettlementResult result = toResult(merchantId, settlementDate, totalOrderAmount, merchantAccount.getBalance());
+        settlementResultMapper.batchUpsert(Collections.singletonList(result));
+        log.info("商家结算完成：merchantId={}, 订单总金额={}, 账户余额={}, 差值={}",
+                merchantId, result.getTotalOrderAmount(), result.getAccountBalance(), result.getDifference());
+        return result;
+    }
 
-        // 计算差值
-        BigDecimal difference = accountBalance.subtract(totalOrderAmount);
+    /**
+     * 结算所有商家
+     * 读取或制定当天的分块计划，在有界线程池中并行处理未完成的分块；
+     * 单个分块失败不影响其他分块，失败的分块保持待处理状态，重跑时继续处理
+     */
+    @Override
+    public void settleAllMerchants(LocalDate settlementDate) {
+        log.info("开始结算所有商家：settlementDate={}", settlementDate);
+        long startNanos = System.nanoTime();
 
-        log.info("商家结算完成：merchantId={}, 订单总金额={}, 账户余额={}, 差值={}",
-                merchantId, totalOrderAmount, accountBalance, difference);
+        List<SettlementCheckpoint> chunks = loadOrPlanChunks(settlementDate);
+        List<SettlementCheckpoint> pending = chunks.stream()
+                .filter(chunk -> chunk.getStatus() == SettlementCheckpoint.Status.PENDING)
+                .collect(Collectors.toList());
+        if (pending.isEmpty()) {
+            log.info("所有商家已结算，跳过：settlementDate={}, chunks={}", settlementDate, chunks.size());
+            return;
+        }
+        log.info("结算分块：settlementDate={}, chunks={}, pending={}, parallelism={}",
+                settlementDate, chunks.size(), pending.size(), parallelism);
+
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong merchants = new AtomicLong();
+        AtomicLong mismatched = new AtomicLong();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "settlement-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture.allOf(pending.stream()
+                    .map(chunk -> CompletableFuture.runAsync(() -> {
+                        try {
+                            SettlementCheckpoint done = settleChunk(chunk);
+                            if (done != null) {
+                                completed.incrementAndGet();
+                                merchants.addAndGet(done.getMerchantCount());
+                                mismatched.addAndGet(done.getMismatchedCount());
+                            }
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            log.error("结算分块失败，重跑时继续处理：settlementDate={}, chunkNo={}, error={}",
+                                    settlementDate, chunk.getChunkNo(), e.getMessage(), e);
+                        }
+                    }, executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        log.info("所有商家结算完成：settlementDate={}, chunks={}, failedChunks={}, merchants={}, mismatched={}, 耗时 {} ms",
+                settlementDate, completed.get(), failed.get(), merchants.get(), mismatched.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
 
+    /**
+     * 读取结算日已有的分块计划，没有时按商家ID键集分页制定计划并写入检查点表
+     * 分块覆盖连续的商家ID范围，首块从 Long.MIN_VALUE 开始、末块到 Long.MAX_VALUE 结束，计划之后新增的商家也会被结算；
+     * 多个节点同时制定计划时，INSERT IGNORE 只保留先提交的分块，按首块记录的分块总数忽略其他计划多出的分块
+     */
+    private List<SettlementCheckpoint> loadOrPlanChunks(LocalDate settlementDate) {
+        List<SettlementCheckpoint> chunks = settlementCheckpointMapper.selectBySettlementDate(settlementDate);
+        if (chunks.isEmpty()) {
+            List<Long> endMerchantIds = new ArrayList<>();
+            List<Long> merchantIds = merchantAccountMapper.selectMerchantIdsAfter(Long.MIN_VALUE, chunkSize);
+            while (!merchantIds.isEmpty()) {
+                Long lastMerchantId = merchantIds.get(merchantIds.size() - 1);
+                endMerchantIds.add(lastMerchantId);
+                merchantIds = merchantIds.size() < chunkSize ? Collections.emptyList()
+                        : merchantAccountMapper.selectMerchantIdsAfter(lastMerchantId, chunkSize);
+            }
+            if (endMerchantIds.isEmpty()) {
+                endMerchantIds.add(Long.MAX_VALUE);
+            } else {
+                endMerchantIds.set(endMerchantIds.size() - 1, Long.MAX_VALUE);
+            }
+
+            List<SettlementCheckpoint> plan = new ArrayList<>(endMerchantIds.size());
+            long startMerchantId = Long.MIN_VALUE;
+            for (int i = 0; i < endMerchantIds.size(); i++) {
+                plan.add(SettlementCheckpoint.pending(settlementDate, i, endMerchantIds.size(),
+                        startMerchantId, endMerchantIds.get(i)));
+                startMerchantId = endMerchantIds.get(i);
+            }
+            settlementCheckpointMapper.insertIgnoreBatch(plan);
+            chunks = settlementCheckpointMapper.selectBySettlementDate(settlementDate);
+        }
+        int chunkCount = chunks.get(0).getChunkCount();
+        return chunks.stream()
+                .filter(chunk -> chunk.getChunkNo() < chunkCount)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 在一个事务中结算一个分块：标记完成、读取账户和销售汇总、按商家ID匹配、批量写入结算结果
+     * 先执行标记完成的UPDATE，行锁使其他节点处理同一分块时等待，本事务提交后其他节点发现已完成而跳过
+     *
+     * @return 带统计的分块，分块已被其他节点完成时返回null
+     */
+    private SettlementCheckpoint settleChunk(SettlementCheckpoint chunk) {
+        return transactionTemplate.execute(status -> {
+            if (settlementCheckpointMapper.markDone(chunk.getId()) == 0) {
+                log.info("结算分块已由其他节点完成：settlementDate={}, chunkNo={}",
+                        chunk.getSettlementDate(), chunk.getChunkNo());
+                return null;
+            }
+
+            Map<Long, BigDecimal> totalOrderAmounts = new HashMap<>();
+            for (MerchantDailySales sales : merchantDailySalesService.getDailySalesInRange(
+                    chunk.getSettlementDate(), chunk.getStartMerchantId(), chunk.getEndMerchantId())) {
+                totalOrderAmounts.put(sales.getMerchantId(), sales.getPaidAmount());
+            }
+
+            // 与账户匹配，没有订单的商家订单金额为0
+            List<SettlementResult> results = new ArrayList<>();
+            int mismatched = 0;
+            for (MerchantAccount account : merchantAccountMapper.selectByMerchantIdRange(
+                    chunk.getStartMerchantId(), chunk.getEndMerchantId())) {
+                BigDecimal totalOrderAmount = totalOrderAmounts.remove(account.getMerchantId());
+                SettlementResult result = toResult(account.getMerchantId(), chunk.getSettlementDate(),
+                        totalOrderAmount != null ? totalOrderAmount : BigDecimal.ZERO, account.getBalance());
+                results.add(result);
+                if (!result.getMatched()) {
+                    mismatched++;
+                    log.warn("商家结算不匹配：merchantId={}, 订单总金额={}, 账户余额={}, 差值={}",
+                            result.getMerchantId(), result.getTotalOrderAmount(), result.getAccountBalance(),
+                            result.getDifference());
+                }
+            }
+            for (int i = 0; i < results.size(); i += resultBatchSize) {
+                settlementResultMapper.batchUpsert(results.subList(i, Math.min(i + resultBatchSize, results.size())));
+            }
+
+            // 剩余的是有订单但没有商家账户的商家
+            totalOrderAmounts.forEach((merchantId, totalOrderAmount) ->
+                    log.error("商家结算失败：merchantId={}, error=商家账户不存在, 订单总金额={}",
+                            merchantId, totalOrderAmount));
+
+            settlementCheckpointMapper.updateCounts(chunk.getId(), results.size(), mismatched,
+                    totalOrderAmounts.size());
+            chunk.setStatus(SettlementCheckpoint.Status.DONE);
+            chunk.setMerchantCount(results.size());
+            chunk.setMismatchedCount(mismatched);
+            chunk.setMissingAccountCount(totalOrderAmounts.size());
+            return chunk;
+        });
+    }
+
+    private SettlementResult toResult(Long merchantId, LocalDate settlementDate,
+                                      BigDecimal totalOrderAmount, BigDecimal accountBalance) {
+        // 计算差值
+        BigDecimal difference = accountBalance.subtract(totalOrderAmount);
         return SettlementResult.builder()
                 .merchantId(merchantId)
                 .settlementDate(settlementDate)
@@ -72,27 +256,4 @@ public class SettlementServiceImpl implements SettlementService {
                 .matched(Math.abs(difference.doubleValue()) < 0.01) // 允许0.01的误差
                 .build();
     }
-
-    /**
-     * 结算所有商家
-     */
-    @Override
-    public void settleAllMerchants(LocalDate settlementDate) {
-        log.info("开始结算所有商家：settlementDate={}", settlementDate);
-
-        // 获取所有有商品库存的商家ID
-        List<ProductInventory> inventories = productInventoryMapper.selectAll();
-        inventories.stream()
-                .map(ProductInventory::getMerchantId)
-                .distinct()
-                .forEach(merchantId -> {
-                    try {
-                        settleMerchant(merchantId, settlementDate);
-                    } catch (Exception e) {
-                        log.error("商家结算失败：merchantId={}, error={}", merchantId, e.getMessage(), e);
-                    }
-                });
-
-        log.info("所有商家结算完成：settlementDate={}", settlementDate);
-    }
 }
@@ -5,14 +5,17 @@ import com.mall.dto.UserAccountDepositRequest;
 import com.mall.exception.UserNotFoundException;
 import com.mall.mapper.UserAccountMapper;
 import com.mall.service.RedisAccountService;
+import com.mall.service.RedisCounterVersionService;
 import com.mall.service.UserAccountService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
-import java.util.Optional;
+import java.util.Collections;
 
 /**
  * 用户账户服务实现类
@@ -26,39 +29,50 @@ public class UserAccountServiceImpl implements UserAccountService {
 
     private final UserAccountMapper userAccountMapper;
     private final RedisAccountService redisAccountService;
+    private final RedisCounterVersionService redisCounterVersionService;
 
     /**
      * 用户账户充值
+     * 按增量更新余额（{@code balance = balance + ?}），不先读取账户，不会覆盖并发的扣款
+     * Redis余额和版本在事务提交后更新，事务回滚时Redis中不会留下未提交的充值
      */
     @Override
     @Transactional(rollbackFor = Exception.class)
     public UserAccount deposit(UserAccountDepositRequest request) {
         log.info("用户账户充值请求：userId={}, amount={}", request.getUserId(), request.getAmount());
 
-        // 查找或创建用户账户
-        UserAccount account = Optional.ofNullable(userAccountMapper.selectByUserId(request.getUserId()))
-                .orElseGet(() -> {
-                    log.info("用户账户不存在，创建新账户：userId={}", request.getUserId());
-                    UserAccount newAccount = UserAccount.builder()
-                            .userId(request.getUserId())
-                            .balance(BigDecimal.ZERO)
-                            .currency(request.getCurrency() != null ? request.getCurrency() : "CNY")
-                            .version(0L)
-                            .build();
-                    newAccount.initDefaults();
-                    userAccountMapper.insert(newAccount);
-                    return newAccount;
-                });
+        if (request.getAmount() == null || request.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException("充值金额必须大于0");
+        }
+
+        // 按增量充值
+        if (userAccountMapper.addBalance(request.getUserId(), request.getAmount(), null) == 0) {
+            log.info("用户账户不存在，创建新账户：userId={}", request.getUserId());
+            UserAccount newAccount = UserAccount.builder()
+                    .userId(request.getUserId())
+                    .balance(request.getAmount())
+                    .currency(request.getCurrency() != null ? request.getCurrency() : "CNY")
+                    .version(0L)
+                    .build();
+            newAccount.initDefaults();
+            userAccountMapper.insert(newAccount);
 
-        // 执行充值
-        account.deposit(request.getAmount());
+            // 事务提交后同步新账户余额到Redis
+            afterCommit("初始化Redis用户账户userId=" + newAccount.getUserId(),
+                    () -> redisAccountService.initUserAccount(newAccount.getUserId(), newAccount.getBalance()));
+
+            log.info("用户账户充值成功：userId={}, newBalance={}", newAccount.getUserId(), newAccount.getBalance());
+            return newAccount;
+        }
 
-        // 保存账户到数据库
-        userAccountMapper.updateById(account);
-        
-        // 同步更新Redis账户余额
-        redisAccountService.initUserAccount(account.getUserId(), account.getBalance());
-        
+        // 事务提交后增加Redis账户余额，数据库行版本已+1，Redis版本同步+1
+        afterCommit("增加Redis用户余额userId=" + request.getUserId(), () -> {
+            redisAccountService.increaseUserBalanceIfPresent(request.getUserId(), request.getAmount());
+            redisCounterVersionService.advance(
+                    Collections.singletonList(RedisAccountService.getUserAccountKey(request.getUserId())));
+        });
+
+        UserAccount account = userAccountMapper.selectByUserId(request.getUserId());
         log.info("用户账户充值成功：userId={}, newBalance={}", account.getUserId(), account.getBalance());
 
         return account;
@@ -75,4 +89,29 @@ public class UserAccountServiceImpl implements UserAccountService {
         }
         return account;
     }
+
+    /**
+     * 事务提交后执行Redis写入，事务回滚时不修改Redis；没有事务时立即执行
+     * 提交后写入失败只记录日志，数据库已是正确的值，由对账修复Redis
+     */
+    private void afterCommit(String description, Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    runQuietly(description, action);
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void runQuietly(String description, Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.error("事务提交后{}失败，等待对账修复：error={}", description, e.getMessage(), e);
+        }
+    }
 }
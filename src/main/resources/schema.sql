@@ -41,10 +41,11 @@ CREATE TABLE IF NOT EXISTS order_info (
     order_no VARCHAR(64) NOT NULL UNIQUE,
     user_id BIGINT NOT NULL,
     merchant_id BIGINT NOT NULL,
-    sku VARCHAR(100) NOT NULL,
+    sku VARCHAR(100) NULL,
     product_name VARCHAR(200) NOT NULL,
-    unit_price DECIMAL(19, 2) NOT NULL,
+    unit_price DECIMAL(19, 2) NULL,
     quantity INT NOT NULL,
+    item_count INT NOT NULL DEFAULT 1,
     total_amount DECIMAL(19, 2) NOT NULL,
     status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
     currency VARCHAR(10) NOT NULL DEFAULT 'CNY',
@@ -53,6 +54,81 @@ CREATE TABLE IF NOT EXISTS order_info (
     version BIGINT NOT NULL DEFAULT 0
 );
 
+-- 订单明细表
+CREATE TABLE IF NOT EXISTS order_item (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    order_no VARCHAR(64) NOT NULL,
+    merchant_id BIGINT NOT NULL,
+    sku VARCHAR(100) NOT NULL,
+    product_name VARCHAR(200) NOT NULL,
+    unit_price DECIMAL(19, 2) NOT NULL,
+    quantity INT NOT NULL,
+    amount DECIMAL(19, 2) NOT NULL,
+    create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- 订单发件箱表（与订单在同一事务中写入，由中继按顺序应用到数据库库存和账户余额）
+CREATE TABLE IF NOT EXISTS order_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    event_type VARCHAR(32) NOT NULL,
+    order_no VARCHAR(64) NOT NULL,
+    user_id BIGINT NULL,
+    merchant_id BIGINT NOT NULL,
+    sku VARCHAR(100) NULL,
+    quantity INT NULL,
+    amount DECIMAL(19, 2) NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    retry_count INT NOT NULL DEFAULT 0,
+    last_error VARCHAR(500) NULL,
+    create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+);
+
+-- 商家每日销售汇总表（发件箱中继应用事件时按增量维护，可从订单表重建）
+CREATE TABLE IF NOT EXISTS merchant_daily_sales (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    merchant_id BIGINT NOT NULL,
+    sales_date DATE NOT NULL,
+    paid_amount DECIMAL(19, 2) NOT NULL DEFAULT 0.00,
+    order_count BIGINT NOT NULL DEFAULT 0,
+    units BIGINT NOT NULL DEFAULT 0,
+    create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_merchant_sales_date (merchant_id, sales_date)
+);
+
+-- 结算结果表（每个结算日每个商家一行，重跑时覆盖）
+CREATE TABLE IF NOT EXISTS settlement_result (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    settlement_date DATE NOT NULL,
+    merchant_id BIGINT NOT NULL,
+    total_order_amount DECIMAL(19, 2) NOT NULL,
+    account_balance DECIMAL(19, 2) NOT NULL,
+    difference DECIMAL(19, 2) NOT NULL,
+    matched TINYINT(1) NOT NULL,
+    create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_settlement_date_merchant (settlement_date, merchant_id)
+);
+
+-- 结算检查点表（每个结算日按商家ID划分的分块计划，分块完成后标记为DONE，重跑时只处理未完成的分块）
+CREATE TABLE IF NOT EXISTS settlement_checkpoint (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    settlement_date DATE NOT NULL,
+    chunk_no INT NOT NULL,
+    chunk_count INT NOT NULL,
+    start_merchant_id BIGINT NOT NULL,
+    end_merchant_id BIGINT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    merchant_count INT NOT NULL DEFAULT 0,
+    mismatched_count INT NOT NULL DEFAULT 0,
+    missing_account_count INT NOT NULL DEFAULT 0,
+    create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_settlement_date_chunk (settlement_date, chunk_no)
+);
+
 -- 创建索引
 CREATE INDEX idx_user_account_user_id ON user_account(user_id);
 CREATE INDEX idx_merchant_account_merchant_id ON merchant_account(merchant_id);
@@ -62,3 +138,8 @@ CREATE INDEX idx_order_info_order_no ON order_info(order_no);
 CREATE INDEX idx_order_info_user_id ON order_info(user_id);
 CREATE INDEX idx_order_info_merchant_id ON order_info(merchant_id);
 CREATE INDEX idx_order_info_create_time ON order_info(create_time);
+CREATE INDEX idx_order_info_status_create_time ON order_info(status, create_time, merchant_id, total_amount, quantity);
+CREATE INDEX idx_merchant_daily_sales_date_merchant ON merchant_daily_sales(sales_date, merchant_id);
+CREATE INDEX idx_order_item_order_id ON order_item(order_id);
+CREATE INDEX idx_order_item_create_time ON order_item(create_time);
+CREATE INDEX idx_order_outbox_status_id ON order_outbox(status, id);
@@ -3,7 +3,7 @@ package com.mall;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "order.id.node-id=1")
 class MallTransactionSystemApplicationTests {
 
     @Test
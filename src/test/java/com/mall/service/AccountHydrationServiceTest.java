@@ -0,0 +1,179 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.MerchantAccount;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.domain.user.UserAccount;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.UserAccountMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 账户加载服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class AccountHydrationServiceTest {
+
+    @Mock
+    private UserAccountMapper userAccountMapper;
+
+    @Mock
+    private MerchantAccountMapper merchantAccountMapper;
+
+    @Mock
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Mock
+    private RedisAccountService redisAccountService;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private AccountHydrationService accountHydrationService;
+
+    private Long userId;
+    private Long merchantId;
+
+    @BeforeEach
+    void setUp() {
+        userId = 1001L;
+        merchantId = 2001L;
+        ReflectionTestUtils.setField(accountHydrationService, "negativeCacheSeconds", 60L);
+        accountHydrationService.init();
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+    }
+
+    @Test
+    void testHydrateUserAccount_ConcurrentMissesCoalesce() throws Exception {
+        // Given
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        UserAccount userAccount = UserAccount.builder()
+                .userId(userId)
+                .balance(new BigDecimal("1000.00"))
+                .build();
+        when(userAccountMapper.selectByUserId(userId)).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return userAccount;
+        });
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> accountHydrationService.hydrateUserAccount(userId)));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 7; i++) {
+            futures.add(executor.submit(() -> accountHydrationService.hydrateUserAccount(userId)));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Then
+        verify(userAccountMapper, times(1)).selectByUserId(userId);
+        verify(redisAccountService, times(1)).initUserAccountIfAbsent(userId, new BigDecimal("1000.00"));
+    }
+
+    @Test
+    void testHydrateUserAccount_MissingUserIsNegativelyCached() {
+        // Given
+        when(userAccountMapper.selectByUserId(userId)).thenReturn(null);
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> accountHydrationService.hydrateUserAccount(userId));
+        assertThrows(IllegalArgumentException.class, () -> accountHydrationService.hydrateUserAccount(userId));
+        verify(userAccountMapper, times(1)).selectByUserId(userId);
+        verify(redisAccountService, never()).initUserAccountIfAbsent(any(), any());
+    }
+
+    @Test
+    void testHydrateUserAccount_ConvertsLegacyBalance() {
+        // Given：Redis中存在旧版本的小数余额
+        when(redisAccountService.convertLegacyUserAccount(userId)).thenReturn(true);
+
+        // When
+        accountHydrationService.hydrateUserAccount(userId);
+
+        // Then
+        verifyNoInteractions(userAccountMapper);
+        verify(redisAccountService, never()).initUserAccountIfAbsent(any(), any());
+    }
+
+    @Test
+    void testHydrateMerchantAccount_CreatesMissingAccount() {
+        // Given：创建后重新读取账户
+        when(merchantAccountMapper.selectByMerchantId(merchantId)).thenReturn(null, MerchantAccount.builder()
+                .merchantId(merchantId).balance(BigDecimal.ZERO).build());
+
+        // When
+        accountHydrationService.hydrateMerchantAccount(merchantId);
+
+        // Then
+        verify(merchantAccountMapper).insert(any(MerchantAccount.class));
+        verify(redisAccountService).initMerchantAccountIfAbsent(merchantId, BigDecimal.ZERO);
+    }
+
+    @Test
+    void testHydrateUserAccount_SubtractsUnappliedOutboxTransfers() {
+        // Given：数据库余额100.00，发件箱中有尚未应用的转出30.00
+        when(userAccountMapper.selectByUserId(userId)).thenReturn(UserAccount.builder()
+                .userId(userId).balance(new BigDecimal("100.00")).build());
+        when(orderOutboxMapper.sumUnappliedUserAmounts(Collections.singletonList(userId))).thenReturn(
+                Collections.singletonList(OrderOutboxEvent.builder()
+                        .userId(userId).amount(new BigDecimal("30.00")).build()));
+
+        // When
+        accountHydrationService.hydrateUserAccount(userId);
+
+        // Then：已花出的金额不会被退回
+        verify(transactionTemplate).execute(any());
+        verify(redisAccountService).initUserAccountIfAbsent(userId, new BigDecimal("70.00"));
+    }
+
+    @Test
+    void testHydrateMerchantAccount_AddsUnappliedOutboxTransfers() {
+        // Given：数据库余额100.00，发件箱中有尚未应用的转入30.00
+        when(merchantAccountMapper.selectByMerchantId(merchantId)).thenReturn(MerchantAccount.builder()
+                .merchantId(merchantId).balance(new BigDecimal("100.00")).build());
+        when(orderOutboxMapper.sumUnappliedMerchantAmounts(Collections.singletonList(merchantId))).thenReturn(
+                Collections.singletonList(OrderOutboxEvent.builder()
+                        .merchantId(merchantId).amount(new BigDecimal("30.00")).build()));
+
+        // When
+        accountHydrationService.hydrateMerchantAccount(merchantId);
+
+        // Then
+        verify(redisAccountService).initMerchantAccountIfAbsent(merchantId, new BigDecimal("130.00"));
+    }
+}
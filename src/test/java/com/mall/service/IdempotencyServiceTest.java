@@ -0,0 +1,203 @@
+package com.mall.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mall.domain.transaction.Order;
+import com.mall.dto.OrderCreateRequest;
+import com.mall.exception.IdempotencyKeyReusedException;
+import com.mall.exception.RequestInProgressException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 下单幂等服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class IdempotencyServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Mock
+    private RedisScriptRegistry.RegisteredScript<Long> releaseScript;
+
+    private ObjectMapper objectMapper;
+    private IdempotencyService idempotencyService;
+
+    private Long userId;
+    private String redisKey;
+    private Order order;
+    private OrderCreateRequest request;
+    private String requestHash;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        userId = 1001L;
+        redisKey = "idempotency:order:1001:req-1";
+        order = Order.builder()
+                .id(1L)
+                .orderNo("ORD001")
+                .userId(userId)
+                .merchantId(2001L)
+                .totalAmount(new BigDecimal("199.98"))
+                .status(Order.OrderStatus.PAID)
+                .build();
+
+        request = OrderCreateRequest.builder().userId(userId).merchantId(2001L).sku("PROD001").quantity(2).build();
+
+        objectMapper = new ObjectMapper().findAndRegisterModules();
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request))) {
+            hex.append(String.format("%02x", b));
+        }
+        requestHash = hex.toString();
+        lenient().when(redisScriptRegistry.register(eq("idempotency.release"), anyString(), eq(Long.class)))
+                .thenReturn(releaseScript);
+        idempotencyService = new IdempotencyService(stringRedisTemplate, objectMapper, redisScriptRegistry);
+        idempotencyService.init();
+        ReflectionTestUtils.setField(idempotencyService, "processingTtlSeconds", 30L);
+        ReflectionTestUtils.setField(idempotencyService, "resultTtlSeconds", 60L);
+        ReflectionTestUtils.setField(idempotencyService, "waitTimeoutMillis", 200L);
+    }
+
+    @Test
+    void testExecute_NoKeyRunsAction() {
+        // When
+        Order result = idempotencyService.execute(userId, null, request, () -> order);
+
+        // Then
+        assertSame(order, result);
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void testExecute_FirstRequestStoresResult() throws Exception {
+        // Given
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(redisKey, requestHash + ":" + IdempotencyService.PROCESSING,
+                30L, TimeUnit.SECONDS))
+                .thenReturn(true);
+
+        // When
+        Order result = idempotencyService.execute(userId, "req-1", request, () -> order);
+
+        // Then
+        assertSame(order, result);
+        verify(valueOperations).set(redisKey, requestHash + ":" + objectMapper.writeValueAsString(order),
+                60L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testExecute_DuplicateReturnsStoredOrder() throws Exception {
+        // Given
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        when(valueOperations.get(redisKey)).thenReturn(requestHash + ":" + objectMapper.writeValueAsString(order));
+        AtomicInteger calls = new AtomicInteger();
+
+        // When
+        Order result = idempotencyService.execute(userId, "req-1", request, () -> {
+            calls.incrementAndGet();
+            return order;
+        });
+
+        // Then
+        assertEquals("ORD001", result.getOrderNo());
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void testExecute_WaitsForInFlightRequest() throws Exception {
+        // Given
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        when(valueOperations.get(redisKey))
+                .thenReturn(requestHash + ":" + IdempotencyService.PROCESSING)
+                .thenReturn(requestHash + ":" + objectMapper.writeValueAsString(order));
+
+        // When
+        Order result = idempotencyService.execute(userId, "req-1", request, () -> fail("不应重复执行下单"));
+
+        // Then
+        assertEquals("ORD001", result.getOrderNo());
+    }
+
+    @Test
+    void testExecute_InFlightTimeout() {
+        // Given
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        when(valueOperations.get(redisKey)).thenReturn(requestHash + ":" + IdempotencyService.PROCESSING);
+
+        // When & Then
+        assertThrows(RequestInProgressException.class,
+                () -> idempotencyService.execute(userId, "req-1", request, () -> order));
+    }
+
+    @Test
+    void testExecute_DifferentRequestWithSameKeyRejected() throws Exception {
+        // Given：首次请求购买2件，重试时改为3件
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        when(valueOperations.get(redisKey)).thenReturn(requestHash + ":" + objectMapper.writeValueAsString(order));
+        OrderCreateRequest changed = OrderCreateRequest.builder()
+                .userId(userId).merchantId(2001L).sku("PROD001").quantity(3).build();
+
+        // When & Then：不返回首次请求的订单，也不执行下单
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> idempotencyService.execute(userId, "req-1", changed, () -> fail("不应执行下单")));
+    }
+
+    @Test
+    void testExecute_FailureReleasesKey() {
+        // Given
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(redisKey, requestHash + ":" + IdempotencyService.PROCESSING,
+                30L, TimeUnit.SECONDS))
+                .thenReturn(true);
+
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> idempotencyService.execute(userId, "req-1", request, () -> {
+            throw new IllegalArgumentException("库存不足");
+        }));
+        verify(redisScriptRegistry).execute(releaseScript, Collections.singletonList(redisKey),
+                requestHash + ":" + IdempotencyService.PROCESSING);
+        verify(stringRedisTemplate, never()).delete(anyString());
+        verify(valueOperations, never()).set(eq(redisKey), anyString(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    void testExecute_ValueWithoutHashRejectedAsCorrupt() throws Exception {
+        // Given：保存值缺少请求摘要
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        when(valueOperations.get(redisKey)).thenReturn(objectMapper.writeValueAsString(order));
+
+        // When & Then：不返回其中的订单，也不执行下单
+        assertThrows(IllegalStateException.class,
+                () -> idempotencyService.execute(userId, "req-1", request, () -> fail("不应执行下单")));
+    }
+}
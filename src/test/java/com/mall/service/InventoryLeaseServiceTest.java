@@ -0,0 +1,187 @@
+package com.mall.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 节点本地库存租借服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class InventoryLeaseServiceTest {
+
+    @Mock
+    private RedisInventoryService redisInventoryService;
+
+    @InjectMocks
+    private InventoryLeaseService inventoryLeaseService;
+
+    private Long merchantId;
+    private String sku;
+
+    @BeforeEach
+    void setUp() {
+        merchantId = 2001L;
+        sku = "PROD001";
+        ReflectionTestUtils.setField(inventoryLeaseService, "leaseSizes", Collections.singletonMap("2001:PROD001", 10));
+        ReflectionTestUtils.setField(inventoryLeaseService, "leaseTtlSeconds", 30L);
+        ReflectionTestUtils.setField(inventoryLeaseService, "nodeId", 7L);
+    }
+
+    @Test
+    void testDecreaseInventory_ServedFromLocalLease() {
+        // Given
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(10);
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(500);
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            assertTrue(inventoryLeaseService.decreaseInventory(merchantId, sku, 2) >= 0);
+        }
+
+        // Then
+        verify(redisInventoryService, times(1)).leaseInventory(merchantId, sku, 10);
+        verify(redisInventoryService, never()).decreaseInventory(any(), any(), any());
+        assertEquals(0, inventoryLeaseService.getLocalInventory(merchantId, sku));
+    }
+
+    @Test
+    void testDecreaseInventory_NotLeasedGoesToRedis() {
+        // Given
+        when(redisInventoryService.decreaseInventory(merchantId, "PROD002", 1)).thenReturn(9L);
+
+        // When
+        Long result = inventoryLeaseService.decreaseInventory(merchantId, "PROD002", 1);
+
+        // Then
+        assertEquals(9L, result);
+        verify(redisInventoryService, never()).leaseInventory(any(), any(), anyInt());
+    }
+
+    @Test
+    void testDecreaseInventory_LowGlobalStockReturnsLease() {
+        // Given
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(4);
+        when(redisInventoryService.decreaseInventory(merchantId, sku, 1)).thenReturn(3L);
+
+        // When
+        Long result = inventoryLeaseService.decreaseInventory(merchantId, sku, 1);
+
+        // Then
+        assertEquals(3L, result);
+        verify(redisInventoryService).increaseInventory(merchantId, sku, 4);
+        assertEquals(0, inventoryLeaseService.getLocalInventory(merchantId, sku));
+    }
+
+    @Test
+    void testReturnAllLeases_OnShutdown() {
+        // Given
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(10);
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(500);
+        inventoryLeaseService.decreaseInventory(merchantId, sku, 3);
+
+        // When
+        inventoryLeaseService.returnAllLeases();
+
+        // Then
+        verify(redisInventoryService).increaseInventory(merchantId, sku, 7);
+        assertEquals(0, inventoryLeaseService.getLocalInventory(merchantId, sku));
+    }
+
+    @Test
+    void testReturnExpiredLeases() {
+        // Given
+        ReflectionTestUtils.setField(inventoryLeaseService, "leaseTtlSeconds", -1L);
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(10);
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(500);
+        inventoryLeaseService.decreaseInventory(merchantId, sku, 1);
+
+        // When
+        inventoryLeaseService.returnExpiredLeases();
+
+        // Then
+        verify(redisInventoryService).increaseInventory(merchantId, sku, 9);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testDecreaseInventory_ExpiredLeaseReturnedBeforeReleasing() {
+        // Given：回收任务延迟，本地库存的租约已超过有效期
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(10);
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(500);
+        inventoryLeaseService.decreaseInventory(merchantId, sku, 1);
+        Map<String, InventoryLeaseService.Segment> segments =
+                (Map<String, InventoryLeaseService.Segment>) ReflectionTestUtils.getField(inventoryLeaseService, "segments");
+        ReflectionTestUtils.setField(segments.get("2001:PROD001"), "leasedAt", System.currentTimeMillis() - 31000);
+
+        // When
+        Long result = inventoryLeaseService.decreaseInventory(merchantId, sku, 1);
+
+        // Then：过期的本地库存先归还Redis，重新租借并续期租约记录后再扣减
+        assertEquals(9L, result);
+        InOrder inOrder = inOrder(redisInventoryService);
+        inOrder.verify(redisInventoryService).increaseInventory(merchantId, sku, 9);
+        inOrder.verify(redisInventoryService).removeLease(merchantId, sku, 7L);
+        inOrder.verify(redisInventoryService).recordLease(eq(merchantId), eq(sku), eq(7L), anyLong());
+        inOrder.verify(redisInventoryService).leaseInventory(merchantId, sku, 10);
+    }
+
+    @Test
+    void testLease_RecordedBeforeLeasingAndRemovedAfterReturn() {
+        // Given
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(10);
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(500);
+
+        // When
+        inventoryLeaseService.decreaseInventory(merchantId, sku, 1);
+        inventoryLeaseService.returnAllLeases();
+
+        // Then：先记录租约再扣减Redis库存，归还后删除记录
+        InOrder inOrder = inOrder(redisInventoryService);
+        inOrder.verify(redisInventoryService).recordLease(eq(merchantId), eq(sku), eq(7L), anyLong());
+        inOrder.verify(redisInventoryService).leaseInventory(merchantId, sku, 10);
+        inOrder.verify(redisInventoryService).increaseInventory(merchantId, sku, 9);
+        inOrder.verify(redisInventoryService).removeLease(merchantId, sku, 7L);
+    }
+
+    @Test
+    void testReturnUnits_FailureKeepsLeaseRecord() {
+        // Given：归还Redis失败
+        when(redisInventoryService.leaseInventory(merchantId, sku, 10)).thenReturn(10);
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(500);
+        doThrow(new IllegalStateException("Redis不可用"))
+                .when(redisInventoryService).increaseInventory(merchantId, sku, 9);
+        inventoryLeaseService.decreaseInventory(merchantId, sku, 1);
+
+        // When
+        inventoryLeaseService.returnAllLeases();
+
+        // Then：库存放回本地，租约记录保留，对账继续跳过该商品
+        assertEquals(9, inventoryLeaseService.getLocalInventory(merchantId, sku));
+        verify(redisInventoryService, never()).removeLease(any(), any(), anyLong());
+    }
+
+    @Test
+    void testHasActiveLease_ExpiredRecordIsReconciled() {
+        // Given：异常退出的节点留下的租约记录已过期
+        when(redisInventoryService.hasActiveLease(eq(merchantId), eq(sku), anyLong())).thenReturn(false);
+
+        // When & Then：未启用租借的商品不查询Redis
+        assertFalse(inventoryLeaseService.hasActiveLease(merchantId, sku));
+        assertFalse(inventoryLeaseService.hasActiveLease(merchantId, "PROD002"));
+        verify(redisInventoryService, times(1)).hasActiveLease(any(), any(), anyLong());
+    }
+}
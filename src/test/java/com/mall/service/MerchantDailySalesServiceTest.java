@@ -0,0 +1,121 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.MerchantDailySales;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.mapper.MerchantDailySalesMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商家每日销售汇总服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class MerchantDailySalesServiceTest {
+
+    @Mock
+    private MerchantDailySalesMapper merchantDailySalesMapper;
+
+    @InjectMocks
+    private MerchantDailySalesService merchantDailySalesService;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(merchantDailySalesService, "maxRangeDays", 31);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRecordOutboxEvents_CoalescesPerMerchantAndDaySorted() {
+        // Given：2002的订单先到达；2001有两笔同一天的订单和一笔次日凌晨的订单
+        List<OrderOutboxEvent> events = new ArrayList<>();
+        events.addAll(order(2002L, "2024-01-15T10:00:00", "5.00", 1));
+        events.addAll(order(2001L, "2024-01-15T09:00:00", "199.98", 2));
+        events.addAll(order(2001L, "2024-01-15T23:59:59", "100.00", 3));
+        events.addAll(order(2001L, "2024-01-16T00:00:00", "1.00", 1));
+
+        // When
+        merchantDailySalesService.recordOutboxEvents(events);
+
+        // Then：一条语句累加，按商家ID和日期排序
+        ArgumentCaptor<List<MerchantDailySales>> captor = ArgumentCaptor.forClass(List.class);
+        verify(merchantDailySalesMapper).upsertIncrements(captor.capture());
+        List<MerchantDailySales> increments = captor.getValue();
+        assertEquals(3, increments.size());
+        assertEquals(2001L, increments.get(0).getMerchantId());
+        assertEquals(LocalDate.of(2024, 1, 15), increments.get(0).getSalesDate());
+        assertEquals(new BigDecimal("299.98"), increments.get(0).getPaidAmount());
+        assertEquals(2L, increments.get(0).getOrderCount());
+        assertEquals(5L, increments.get(0).getUnits());
+        assertEquals(LocalDate.of(2024, 1, 16), increments.get(1).getSalesDate());
+        assertEquals(2002L, increments.get(2).getMerchantId());
+    }
+
+    @Test
+    void testGetDailySales_NoOrdersReturnsZero() {
+        // Given
+        LocalDate salesDate = LocalDate.of(2024, 1, 15);
+        when(merchantDailySalesMapper.selectByMerchantIdAndSalesDate(2001L, salesDate)).thenReturn(null);
+
+        // When
+        MerchantDailySales sales = merchantDailySalesService.getDailySales(2001L, salesDate);
+
+        // Then
+        assertEquals(BigDecimal.ZERO, sales.getPaidAmount());
+        assertEquals(0L, sales.getOrderCount());
+    }
+
+    @Test
+    void testRebuild_DeletesThenReaggregatesRange() {
+        // Given
+        LocalDate startDate = LocalDate.of(2024, 1, 1);
+        LocalDate endDate = LocalDate.of(2024, 1, 31);
+        when(merchantDailySalesMapper.insertFromOrders(startDate, endDate)).thenReturn(12);
+
+        // When
+        int rebuilt = merchantDailySalesService.rebuild(startDate, endDate);
+
+        // Then
+        assertEquals(12, rebuilt);
+        verify(merchantDailySalesMapper).deleteByDateRange(startDate, endDate);
+    }
+
+    @Test
+    void testRebuild_RejectsRangeOverLimit() {
+        // When & Then
+        assertThrows(IllegalArgumentException.class, () -> merchantDailySalesService.rebuild(
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 2, 1)));
+        assertThrows(IllegalArgumentException.class, () -> merchantDailySalesService.rebuild(
+                LocalDate.of(2024, 1, 2), LocalDate.of(2024, 1, 1)));
+        verifyNoInteractions(merchantDailySalesMapper);
+    }
+
+    /**
+     * 一个订单的库存扣减事件和转账事件，创建时间为订单创建时间
+     */
+    private List<OrderOutboxEvent> order(Long merchantId, String createTime, String totalAmount, int quantity) {
+        OrderOutboxEvent inventory = OrderOutboxEvent.inventoryDecrease("ORD", merchantId, "PROD001", quantity);
+        OrderOutboxEvent transfer = OrderOutboxEvent.accountTransfer("ORD", 1001L, merchantId,
+                new BigDecimal(totalAmount));
+        inventory.setCreateTime(LocalDateTime.parse(createTime));
+        transfer.setCreateTime(LocalDateTime.parse(createTime));
+        return Arrays.asList(inventory, transfer);
+    }
+}
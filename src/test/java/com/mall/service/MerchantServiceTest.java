@@ -11,7 +11,10 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import java.math.BigDecimal;
+import java.util.Collections;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -30,6 +33,12 @@ class MerchantServiceTest {
     @Mock
     private RedisInventoryService redisInventoryService;
 
+    @Mock
+    private ProductCatalogCache productCatalogCache;
+
+    @Mock
+    private RedisCounterVersionService redisCounterVersionService;
+
     @InjectMocks
     private MerchantServiceImpl merchantService;
 
@@ -61,10 +70,11 @@ class MerchantServiceTest {
                 .quantity(50)
                 .build();
 
+        inventory.setQuantity(150);
+        when(productInventoryMapper.increaseQuantity(merchantId, sku, 50, null)).thenReturn(1);
+        when(redisInventoryService.getInventoryKey(merchantId, sku)).thenReturn("inventory:2001:PROD001");
         when(productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku))
                 .thenReturn(inventory);
-        when(productInventoryMapper.insert(any(ProductInventory.class)))
-                .thenAnswer(invocation -> invocation.getArgument(0));
 
         // When
         ProductInventory result = merchantService.addInventory(request);
@@ -72,8 +82,36 @@ class MerchantServiceTest {
         // Then
         assertNotNull(result);
         assertEquals(150, result.getQuantity());
-        verify(productInventoryMapper).selectByMerchantIdAndSku(merchantId, sku);
-        verify(productInventoryMapper).updateById(any(ProductInventory.class));
+        verify(productInventoryMapper).increaseQuantity(merchantId, sku, 50, null);
+        verify(productInventoryMapper, never()).updateById(any(ProductInventory.class));
+        verify(redisInventoryService).increaseInventory(merchantId, sku, 50);
+        verify(redisCounterVersionService).advance(Collections.singletonList("inventory:2001:PROD001"));
+    }
+
+    @Test
+    void testAddInventory_RedisUpdatedAfterCommit() {
+        // Given：补货在事务中执行
+        ProductInventoryAddRequest request = ProductInventoryAddRequest.builder()
+                .merchantId(merchantId)
+                .sku(sku)
+                .quantity(50)
+                .build();
+        when(productInventoryMapper.increaseQuantity(merchantId, sku, 50, null)).thenReturn(1);
+        when(redisInventoryService.getInventoryKey(merchantId, sku)).thenReturn("inventory:2001:PROD001");
+        when(productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku)).thenReturn(inventory);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // When
+            merchantService.addInventory(request);
+
+            // Then：提交前不修改Redis，提交后增加库存并推进版本
+            verifyNoInteractions(redisInventoryService, redisCounterVersionService);
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(redisInventoryService).increaseInventory(merchantId, sku, 50);
+            verify(redisCounterVersionService).advance(Collections.singletonList("inventory:2001:PROD001"));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
 
     @Test
@@ -85,13 +123,12 @@ class MerchantServiceTest {
                 .quantity(50)
                 .build();
 
-        when(productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku))
-                .thenReturn(null);
+        when(productInventoryMapper.increaseQuantity(merchantId, sku, 50, null)).thenReturn(0);
 
         // When & Then
         assertThrows(IllegalArgumentException.class, () -> merchantService.addInventory(request));
-        verify(productInventoryMapper).selectByMerchantIdAndSku(merchantId, sku);
-        verify(productInventoryMapper, never()).updateById(any(ProductInventory.class));
+        verify(productInventoryMapper).increaseQuantity(merchantId, sku, 50, null);
+        verifyNoInteractions(redisInventoryService);
     }
 
     @Test
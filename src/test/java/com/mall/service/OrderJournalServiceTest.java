@@ -0,0 +1,224 @@
+package com.mall.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mall.domain.transaction.Order;
+import com.mall.mapper.OrderMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 订单日志服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class OrderJournalServiceTest {
+
+    private static final String STREAM_KEY = "order:journal";
+    private static final String GROUP = "order-persisters";
+    private static final String DEAD_LETTER_KEY = "order:journal:dead";
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private StreamOperations<String, Object, Object> streamOperations;
+
+    @Mock
+    private OrderMapper orderMapper;
+
+    @Mock
+    private OrderPersistenceService orderPersistenceService;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    private OrderJournalService orderJournalService;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        orderJournalService = new OrderJournalService(stringRedisTemplate, objectMapper, orderMapper,
+                orderPersistenceService, transactionTemplate, redisScriptRegistry);
+        ReflectionTestUtils.setField(orderJournalService, "enabled", true);
+        ReflectionTestUtils.setField(orderJournalService, "streamKey", STREAM_KEY);
+        ReflectionTestUtils.setField(orderJournalService, "consumerGroup", GROUP);
+        ReflectionTestUtils.setField(orderJournalService, "batchSize", 100);
+        ReflectionTestUtils.setField(orderJournalService, "pollIntervalMillis", 50L);
+        ReflectionTestUtils.setField(orderJournalService, "claimIdleMillis", 30000L);
+        ReflectionTestUtils.setField(orderJournalService, "maxDeliveries", 3);
+        ReflectionTestUtils.setField(orderJournalService, "deadLetterStreamKey", DEAD_LETTER_KEY);
+        lenient().when(stringRedisTemplate.opsForStream()).thenReturn(streamOperations);
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+    }
+
+    @Test
+    void testPersistBatch_SkipsDuplicatesAndAcknowledges() {
+        // Given：ORD001已由其他线程写入数据库，ORD002在同一批次中重复投递
+        skipReclaim();
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenReturn(Arrays.asList(record("1-0", order("ORD001")), record("2-0", order("ORD002")),
+                        record("3-0", order("ORD002"))));
+        when(orderMapper.selectExistingOrderNos(Arrays.asList("ORD001", "ORD002")))
+                .thenReturn(Collections.singletonList("ORD001"));
+
+        // When
+        int count = orderJournalService.persistBatch("node-0-0");
+
+        // Then
+        assertEquals(3, count);
+        verify(orderPersistenceService).insertOrders(argThat(orders -> orders.size() == 1
+                && "ORD002".equals(orders.get(0).getOrderNo())
+                && new BigDecimal("199.98").compareTo(orders.get(0).getTotalAmount()) == 0));
+        verify(streamOperations).acknowledge(eq(STREAM_KEY), eq(GROUP), eq("3-0"), eq("1-0"), eq("2-0"));
+        verify(streamOperations).delete(eq(STREAM_KEY), eq("3-0"), eq("1-0"), eq("2-0"));
+    }
+
+    @Test
+    void testPersistBatch_FailedOrderStaysPending() {
+        // Given：批量写入失败，逐个写入时ORD002失败
+        skipReclaim();
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenReturn(Arrays.asList(record("1-0", order("ORD001")), record("2-0", order("ORD002"))));
+        when(orderMapper.selectExistingOrderNos(anyList())).thenReturn(Collections.emptyList());
+        doAnswer(invocation -> {
+            List<Order> orders = invocation.getArgument(0);
+            if (orders.stream().anyMatch(order -> "ORD002".equals(order.getOrderNo()))) {
+                throw new IllegalStateException("数据库写入失败");
+            }
+            return null;
+        }).when(orderPersistenceService).insertOrders(anyList());
+
+        // When
+        orderJournalService.persistBatch("node-0-0");
+
+        // Then
+        verify(streamOperations).acknowledge(eq(STREAM_KEY), eq(GROUP), eq("1-0"));
+        verify(streamOperations).delete(eq(STREAM_KEY), eq("1-0"));
+    }
+
+    @Test
+    void testPersistBatch_ReclaimsIdleEntries() throws Exception {
+        // Given：其他节点读取后未确认的条目空闲超时
+        String payload = new ObjectMapper().findAndRegisterModules().writeValueAsString(order("ORD003"));
+        List<Object> claimed = Collections.singletonList(
+                Arrays.asList("5-0", Arrays.asList("order", payload), 1L));
+        doReturn(claimed).when(redisScriptRegistry).execute(any(), anyList(), any(), any(), any(), any());
+        when(orderMapper.selectExistingOrderNos(anyList())).thenReturn(Collections.emptyList());
+
+        // When
+        int count = orderJournalService.persistBatch("node-0-1");
+
+        // Then
+        assertEquals(1, count);
+        verify(orderPersistenceService).insertOrders(argThat(orders -> "ORD003".equals(orders.get(0).getOrderNo())));
+        verify(streamOperations).acknowledge(eq(STREAM_KEY), eq(GROUP), eq("5-0"));
+        verify(streamOperations, never()).read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class));
+    }
+
+    @Test
+    void testPersistBatch_UnparseableEntryMovedToDeadLetter() {
+        // Given：条目内容无法解析为订单
+        skipReclaim();
+        MapRecord<String, Object, Object> corrupt = StreamRecords.<String, Object, Object>mapBacked(
+                Collections.singletonMap("order", "{not-json"))
+                .withStreamKey(STREAM_KEY)
+                .withId(RecordId.of("7-0"));
+        when(streamOperations.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset.class)))
+                .thenReturn(Collections.singletonList(corrupt));
+
+        // When
+        orderJournalService.persistBatch("node-0-0");
+
+        // Then：原始内容写入死信Stream后才确认删除
+        InOrder inOrder = inOrder(streamOperations);
+        inOrder.verify(streamOperations).add(eq(DEAD_LETTER_KEY), argThat((Map<String, String> fields) ->
+                "7-0".equals(fields.get("entryId")) && "{not-json".equals(fields.get("order"))));
+        inOrder.verify(streamOperations).acknowledge(eq(STREAM_KEY), eq(GROUP), eq("7-0"));
+        inOrder.verify(streamOperations).delete(eq(STREAM_KEY), eq("7-0"));
+        verifyNoInteractions(orderPersistenceService);
+    }
+
+    @Test
+    void testPersistBatch_ExhaustedDeliveriesMovedToDeadLetter() throws Exception {
+        // Given：ORD004已投递3次，ORD005投递1次，持久化都失败
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        List<Object> claimed = Arrays.asList(
+                Arrays.asList("8-0", Arrays.asList("order", objectMapper.writeValueAsString(order("ORD004"))), 3L),
+                Arrays.asList("9-0", Arrays.asList("order", objectMapper.writeValueAsString(order("ORD005"))), 1L));
+        doReturn(claimed).when(redisScriptRegistry).execute(any(), anyList(), any(), any(), any(), any());
+        when(orderMapper.selectExistingOrderNos(anyList())).thenReturn(Collections.emptyList());
+        doThrow(new IllegalStateException("数据库写入失败")).when(orderPersistenceService).insertOrders(anyList());
+
+        // When
+        orderJournalService.persistBatch("node-0-1");
+
+        // Then：达到最大投递次数的条目移入死信，其余条目保持未确认等待重新投递
+        verify(streamOperations).add(eq(DEAD_LETTER_KEY), argThat((Map<String, String> fields) ->
+                "8-0".equals(fields.get("entryId")) && fields.get("order").contains("ORD004")));
+        verify(streamOperations, times(1)).add(any(), anyMap());
+        verify(streamOperations).acknowledge(eq(STREAM_KEY), eq(GROUP), eq("8-0"));
+    }
+
+    @Test
+    void testGetBacklog_IncludesDeadLetters() {
+        // Given
+        when(streamOperations.size(STREAM_KEY)).thenReturn(2L);
+        when(streamOperations.size(DEAD_LETTER_KEY)).thenReturn(1L);
+
+        // When & Then：死信中的订单同样没有写入数据库
+        assertEquals(3L, orderJournalService.getBacklog());
+    }
+
+    private void skipReclaim() {
+        ReflectionTestUtils.setField(orderJournalService, "nextReclaimMillis", Long.MAX_VALUE);
+    }
+
+    private MapRecord<String, Object, Object> record(String id, Order order) {
+        return StreamRecords.<String, Object, Object>mapBacked(
+                Collections.singletonMap("order", orderJournalService.serialize(order)))
+                .withStreamKey(STREAM_KEY)
+                .withId(RecordId.of(id));
+    }
+
+    private Order order(String orderNo) {
+        return Order.builder()
+                .orderNo(orderNo)
+                .userId(1001L)
+                .merchantId(2001L)
+                .sku("PROD001")
+                .quantity(2)
+                .totalAmount(new BigDecimal("199.98"))
+                .status(Order.OrderStatus.PAID)
+                .build();
+    }
+}
@@ -0,0 +1,187 @@
+package com.mall.service;
+
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.UserAccountMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 订单发件箱中继测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class OrderOutboxRelayTest {
+
+    @Mock
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Mock
+    private ProductInventoryMapper productInventoryMapper;
+
+    @Mock
+    private UserAccountMapper userAccountMapper;
+
+    @Mock
+    private MerchantAccountMapper merchantAccountMapper;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private RedisInventoryService redisInventoryService;
+
+    @Mock
+    private RedisCounterVersionService redisCounterVersionService;
+
+    @Mock
+    private MerchantDailySalesService merchantDailySalesService;
+
+    @InjectMocks
+    private OrderOutboxRelay orderOutboxRelay;
+
+    private OrderOutboxEvent inventoryEvent;
+    private OrderOutboxEvent transferEvent;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(orderOutboxRelay, "batchSize", 100);
+        ReflectionTestUtils.setField(orderOutboxRelay, "maxRetries", 3);
+        ReflectionTestUtils.setField(orderOutboxRelay, "doneRetentionHours", 72L);
+        ReflectionTestUtils.setField(orderOutboxRelay, "purgeBatchSize", 2);
+        inventoryEvent = OrderOutboxEvent.inventoryDecrease("ORD001", 2001L, "PROD001", 2);
+        inventoryEvent.setId(1L);
+        transferEvent = OrderOutboxEvent.accountTransfer("ORD001", 1001L, 2001L, new BigDecimal("199.98"));
+        transferEvent.setId(2L);
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        lenient().when(redisInventoryService.getInventoryKey(2001L, "PROD001")).thenReturn("inventory:2001:PROD001");
+    }
+
+    @Test
+    void testRelayBatch_AppliesDeltas() {
+        // Given
+        when(orderOutboxMapper.selectPending(100)).thenReturn(Arrays.asList(inventoryEvent, transferEvent));
+        when(orderOutboxMapper.markDoneBatch(Arrays.asList(1L, 2L))).thenReturn(2);
+        when(productInventoryMapper.decreaseQuantity(2001L, "PROD001", 2, null)).thenReturn(1);
+        when(userAccountMapper.addBalance(1001L, new BigDecimal("-199.98"), null)).thenReturn(1);
+        when(merchantAccountMapper.addBalance(2001L, new BigDecimal("199.98"), null)).thenReturn(1);
+
+        // When
+        int applied = orderOutboxRelay.relayBatch();
+
+        // Then
+        assertEquals(2, applied);
+        verify(orderOutboxMapper, never()).markDone(anyLong());
+    }
+
+    @Test
+    void testRelayBatch_CoalescesDeltasPerKey() {
+        // Given
+        OrderOutboxEvent inventoryEvent2 = OrderOutboxEvent.inventoryDecrease("ORD002", 2001L, "PROD001", 3);
+        inventoryEvent2.setId(3L);
+        OrderOutboxEvent transferEvent2 = OrderOutboxEvent.accountTransfer("ORD002", 1001L, 2001L, new BigDecimal("299.97"));
+        transferEvent2.setId(4L);
+        when(orderOutboxMapper.selectPending(100))
+                .thenReturn(Arrays.asList(inventoryEvent, transferEvent, inventoryEvent2, transferEvent2));
+        when(orderOutboxMapper.markDoneBatch(Arrays.asList(1L, 2L, 3L, 4L))).thenReturn(4);
+        when(productInventoryMapper.decreaseQuantity(2001L, "PROD001", 5, null)).thenReturn(1);
+        when(userAccountMapper.addBalance(1001L, new BigDecimal("-499.95"), null)).thenReturn(1);
+        when(merchantAccountMapper.addBalance(2001L, new BigDecimal("499.95"), null)).thenReturn(1);
+
+        // When
+        int applied = orderOutboxRelay.relayBatch();
+
+        // Then
+        assertEquals(4, applied);
+        verify(productInventoryMapper, times(1)).decreaseQuantity(any(), any(), any(), any());
+        verify(userAccountMapper, times(1)).addBalance(any(), any(), any());
+        verify(merchantAccountMapper, times(1)).addBalance(any(), any(), any());
+        assertEquals(2, inventoryEvent.getQuantity());
+        // 每个key只执行一条UPDATE，提交后Redis版本各+1
+        verify(redisCounterVersionService).advance(new LinkedHashSet<>(Arrays.asList(
+                "inventory:2001:PROD001", "account:cents:user:1001", "account:cents:merchant:2001")));
+        // 同一事务中整批累加销售汇总
+        verify(merchantDailySalesService).recordOutboxEvents(
+                Arrays.asList(inventoryEvent, transferEvent, inventoryEvent2, transferEvent2));
+    }
+
+    @Test
+    void testRelayBatch_SkipsEventAppliedByOtherNode() {
+        // Given
+        when(orderOutboxMapper.selectPending(100)).thenReturn(Arrays.asList(inventoryEvent));
+        when(orderOutboxMapper.markDoneBatch(Arrays.asList(1L))).thenReturn(0);
+        when(orderOutboxMapper.markDone(1L)).thenReturn(0);
+
+        // When
+        int applied = orderOutboxRelay.relayBatch();
+
+        // Then
+        assertEquals(1, applied);
+        verifyNoInteractions(productInventoryMapper);
+        verifyNoInteractions(redisCounterVersionService);
+    }
+
+    @Test
+    void testRelayBatch_FailureStopsBatchAndRecordsRetry() {
+        // Given
+        when(orderOutboxMapper.selectPending(100)).thenReturn(Arrays.asList(inventoryEvent, transferEvent));
+        when(orderOutboxMapper.markDoneBatch(Arrays.asList(1L, 2L))).thenReturn(2);
+        when(orderOutboxMapper.markDone(1L)).thenReturn(1);
+        when(productInventoryMapper.decreaseQuantity(2001L, "PROD001", 2, null)).thenReturn(0);
+
+        // When
+        int applied = orderOutboxRelay.relayBatch();
+
+        // Then
+        assertEquals(0, applied);
+        verify(orderOutboxMapper).markRetry(eq(1L), contains("商品库存不存在或库存不足"), eq(3));
+        verify(orderOutboxMapper, never()).markDone(2L);
+        verifyNoInteractions(redisCounterVersionService);
+    }
+
+    @Test
+    void testPurgeDone_DeletesInBatchesUntilPartialBatch() {
+        // Given：每批最多删除2条
+        when(orderOutboxMapper.deleteDoneBefore(any(LocalDateTime.class), eq(2))).thenReturn(2, 2, 1);
+
+        // When
+        long purged = orderOutboxRelay.purgeDone();
+
+        // Then：只删除保留时间之前的已应用事件
+        assertEquals(5L, purged);
+        verify(orderOutboxMapper, times(3)).deleteDoneBefore(
+                argThat(before -> before.isBefore(LocalDateTime.now().minusHours(71))), eq(2));
+    }
+
+    @Test
+    void testRetryFailed_ResetsToPending() {
+        // Given
+        when(orderOutboxMapper.resetFailed(Arrays.asList(1L, 2L))).thenReturn(1);
+
+        // When & Then：已被重置的事件不重复计数
+        assertEquals(1, orderOutboxRelay.retryFailed(Arrays.asList(1L, 2L)));
+        assertEquals(0, orderOutboxRelay.retryFailed(Collections.emptyList()));
+        verify(orderOutboxMapper, times(1)).resetFailed(anyList());
+    }
+}
@@ -0,0 +1,216 @@
+package com.mall.service;
+
+import com.mall.domain.transaction.Order;
+import com.mall.domain.transaction.OrderItem;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.mapper.OrderItemMapper;
+import com.mall.mapper.OrderMapper;
+import com.mall.mapper.OrderOutboxMapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 订单持久化服务（组提交）测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class OrderPersistenceServiceTest {
+
+    @Mock
+    private OrderMapper orderMapper;
+
+    @Mock
+    private OrderItemMapper orderItemMapper;
+
+    @Mock
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private OrderPersistenceService orderPersistenceService;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final CountDownLatch firstCommitStarted = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(orderPersistenceService, "groupCommitEnabled", true);
+        ReflectionTestUtils.setField(orderPersistenceService, "maxBatchSize", 100);
+        ReflectionTestUtils.setField(orderPersistenceService, "queueCapacity", 100);
+        ReflectionTestUtils.setField(orderPersistenceService, "timeoutMillis", 5000L);
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        lenient().when(orderMapper.batchInsert(anyList())).thenAnswer(invocation -> {
+            List<Order> orders = invocation.getArgument(0);
+            synchronized (batchSizes) {
+                batchSizes.add(orders.size());
+            }
+            orders.forEach(order -> order.setId(nextId.getAndIncrement()));
+            return orders.size();
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        orderPersistenceService.stop();
+    }
+
+    @Test
+    void testSave_FillsGeneratedIdAndWritesOutbox() {
+        // Given
+        orderPersistenceService.start();
+        Order order = order("ORD001");
+
+        // When
+        Order saved = orderPersistenceService.save(order);
+
+        // Then
+        assertEquals(1L, saved.getId());
+        verify(orderOutboxMapper).batchInsert(argThat(events -> events.size() == 2
+                && events.get(0).getEventType() == OrderOutboxEvent.EventType.INVENTORY_DECREASE
+                && events.get(1).getEventType() == OrderOutboxEvent.EventType.ACCOUNT_TRANSFER));
+        verifyNoInteractions(orderItemMapper);
+    }
+
+    @Test
+    void testSave_ConcurrentOrdersShareOneCommit() throws Exception {
+        // Given：第一个批次提交期间到达的订单进入同一个后续批次
+        CountDownLatch releaseFirstCommit = blockFirstCommit();
+        orderPersistenceService.start();
+        CompletableFuture<Order> first = CompletableFuture.supplyAsync(() -> orderPersistenceService.save(order("ORD000")));
+        assertTrue(firstCommitStarted.await(5, TimeUnit.SECONDS));
+
+        // When
+        List<CompletableFuture<Order>> waiting = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            String orderNo = "ORD" + i;
+            waiting.add(CompletableFuture.supplyAsync(() -> orderPersistenceService.save(order(orderNo))));
+        }
+        awaitQueueSize(10);
+        releaseFirstCommit.countDown();
+
+        // Then
+        assertNotNull(first.get(5, TimeUnit.SECONDS).getId());
+        for (CompletableFuture<Order> future : waiting) {
+            assertNotNull(future.get(5, TimeUnit.SECONDS).getId());
+        }
+        assertEquals(Arrays.asList(1, 10), batchSizes);
+    }
+
+    @Test
+    void testSave_BatchFailureRetriesOrdersIndividually() throws Exception {
+        // Given：ORD001和ORD002在同一批次，整批提交失败后逐个提交，只有ORD002失败
+        doAnswer(invocation -> {
+            List<Order> orders = invocation.getArgument(0);
+            synchronized (batchSizes) {
+                batchSizes.add(orders.size());
+            }
+            if (orders.stream().anyMatch(order -> "ORD002".equals(order.getOrderNo()))) {
+                throw new IllegalStateException("Duplicate entry 'ORD002'");
+            }
+            orders.forEach(order -> order.setId(nextId.getAndIncrement()));
+            return orders.size();
+        }).when(orderMapper).batchInsert(anyList());
+        CountDownLatch releaseFirstCommit = blockFirstCommit();
+        orderPersistenceService.start();
+        CompletableFuture<Order> first = CompletableFuture.supplyAsync(() -> orderPersistenceService.save(order("ORD000")));
+        assertTrue(firstCommitStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Order> good = CompletableFuture.supplyAsync(() -> orderPersistenceService.save(order("ORD001")));
+        CompletableFuture<Order> bad = CompletableFuture.supplyAsync(() -> orderPersistenceService.save(order("ORD002")));
+
+        // When
+        awaitQueueSize(2);
+        releaseFirstCommit.countDown();
+
+        // Then
+        assertNotNull(first.get(5, TimeUnit.SECONDS).getId());
+        assertNotNull(good.get(5, TimeUnit.SECONDS).getId());
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> bad.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause().getMessage().contains("ORD002"));
+        assertEquals(Arrays.asList(1, 2, 1, 1), batchSizes);
+    }
+
+    @Test
+    void testInsertOrders_CartOrderWritesItems() {
+        // Given
+        Order order = order("ORD001");
+        order.setCreateTime(LocalDateTime.of(2024, 1, 15, 23, 59, 59));
+        OrderItem item1 = OrderItem.builder().merchantId(2001L).sku("PROD001").quantity(1).build();
+        OrderItem item2 = OrderItem.builder().merchantId(2001L).sku("PROD002").quantity(3).build();
+        order.setItems(Arrays.asList(item1, item2));
+
+        // When
+        orderPersistenceService.insertOrders(Arrays.asList(order));
+
+        // Then
+        assertEquals(order.getId(), item1.getOrderId());
+        assertEquals("ORD001", item2.getOrderNo());
+        verify(orderItemMapper).batchInsert(Arrays.asList(item1, item2));
+        // 事件创建时间取订单创建时间，中继按订单日期累加销售汇总
+        verify(orderOutboxMapper).batchInsert(argThat(events -> events.size() == 3 && events.stream()
+                .allMatch(event -> order.getCreateTime().equals(event.getCreateTime()))));
+    }
+
+    /**
+     * 第一次提交阻塞到返回的latch释放，期间到达的订单在队列中积累
+     */
+    private CountDownLatch blockFirstCommit() {
+        CountDownLatch releaseFirstCommit = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            firstCommitStarted.countDown();
+            releaseFirstCommit.await(5, TimeUnit.SECONDS);
+            return ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null);
+        }).doAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null))
+                .when(transactionTemplate).execute(any());
+        return releaseFirstCommit;
+    }
+
+    private void awaitQueueSize(int size) throws InterruptedException {
+        Collection<?> queue = (Collection<?>) ReflectionTestUtils.getField(orderPersistenceService, "queue");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queue.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, queue.size());
+    }
+
+    private Order order(String orderNo) {
+        return Order.builder()
+                .orderNo(orderNo)
+                .userId(1001L)
+                .merchantId(2001L)
+                .sku("PROD001")
+                .quantity(2)
+                .totalAmount(new BigDecimal("199.98"))
+                .build();
+    }
+}
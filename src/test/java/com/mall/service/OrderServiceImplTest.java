@@ -0,0 +1,296 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.ProductCatalog;
+import com.mall.domain.transaction.Order;
+import com.mall.dto.CartOrderCreateRequest;
+import com.mall.dto.OrderBatchCreateResult;
+import com.mall.dto.OrderCreateRequest;
+import com.mall.mapper.OrderItemMapper;
+import com.mall.mapper.OrderMapper;
+import com.mall.service.impl.OrderServiceImpl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.interceptor.DefaultTransactionAttribute;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 订单服务实现测试（合并下单脚本、批量下单、购物车下单路径）
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class OrderServiceImplTest {
+
+    @Mock
+    private OrderMapper orderMapper;
+
+    @Mock
+    private OrderItemMapper orderItemMapper;
+
+    @Mock
+    private RedisAccountService redisAccountService;
+
+    @Mock
+    private OrderPersistenceService orderPersistenceService;
+
+    @Mock
+    private OrderJournalService orderJournalService;
+
+    @Mock
+    private RedisCheckoutService redisCheckoutService;
+
+    @Mock
+    private ProductCatalogCache productCatalogCache;
+
+    @Mock
+    private AccountHydrationService accountHydrationService;
+
+    @Mock
+    private InventoryLeaseService inventoryLeaseService;
+
+    @Mock
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @InjectMocks
+    private OrderServiceImpl orderService;
+
+    private OrderCreateRequest request;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(orderService, "fusedScriptEnabled", true);
+        request = OrderCreateRequest.builder().userId(1001L).merchantId(2001L).sku("PROD001").quantity(2).build();
+        lenient().when(productCatalogCache.get(2001L, "PROD001")).thenReturn(catalog("PROD001", "99.99"));
+        lenient().when(snowflakeIdGenerator.nextOrderNo()).thenReturn("ORD1", "ORD2", "ORD3");
+        lenient().when(orderPersistenceService.save(any(Order.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void testCreateOrder_FusedScriptSavesPaidOrder() {
+        // Given
+        when(redisCheckoutService.checkout(any())).thenReturn(RedisCheckoutService.CheckoutResult.SUCCESS);
+
+        // When
+        Order order = orderService.createOrder(request);
+
+        // Then：一次脚本完成扣减和转账，订单号来自注入的ID生成器
+        assertEquals("ORD1", order.getOrderNo());
+        assertEquals(Order.OrderStatus.PAID, order.getStatus());
+        assertEquals(new BigDecimal("199.98"), order.getTotalAmount());
+        ArgumentCaptor<RedisCheckoutService.CheckoutCommand> captor =
+                ArgumentCaptor.forClass(RedisCheckoutService.CheckoutCommand.class);
+        verify(redisCheckoutService).checkout(captor.capture());
+        assertEquals(2, captor.getValue().getQuantity());
+        assertEquals(new BigDecimal("199.98"), captor.getValue().getAmount());
+        verify(orderPersistenceService).save(order);
+        verifyNoInteractions(accountHydrationService, redisAccountService);
+    }
+
+    @Test
+    void testCreateOrder_HydratesMissingAccountsAndRetries() {
+        // Given：用户账户和商家账户都未加载到Redis
+        when(redisCheckoutService.checkout(any())).thenReturn(
+                RedisCheckoutService.CheckoutResult.USER_ACCOUNT_NOT_FOUND,
+                RedisCheckoutService.CheckoutResult.MERCHANT_ACCOUNT_NOT_FOUND,
+                RedisCheckoutService.CheckoutResult.SUCCESS);
+
+        // When
+        Order order = orderService.createOrder(request);
+
+        // Then
+        assertEquals(Order.OrderStatus.PAID, order.getStatus());
+        verify(accountHydrationService).hydrateUserAccount(1001L);
+        verify(accountHydrationService).hydrateMerchantAccount(2001L);
+        verify(redisCheckoutService, times(3)).checkout(any());
+    }
+
+    @Test
+    void testCreateOrder_ScriptFailureRejectedWithoutSaving() {
+        // Given
+        when(redisCheckoutService.checkout(any())).thenReturn(RedisCheckoutService.CheckoutResult.INSUFFICIENT_INVENTORY);
+
+        // When & Then
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> orderService.createOrder(request));
+        assertTrue(e.getMessage().contains("库存不足"));
+        verifyNoInteractions(orderPersistenceService);
+        verify(redisCheckoutService, never()).rollbackCheckout(any());
+    }
+
+    @Test
+    void testCreateOrder_PersistenceFailureRollsBackRedis() {
+        // Given：Redis下单成功，订单组提交超时
+        when(redisCheckoutService.checkout(any())).thenReturn(RedisCheckoutService.CheckoutResult.SUCCESS);
+        when(orderPersistenceService.save(any(Order.class))).thenThrow(new IllegalStateException("订单保存超时"));
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> orderService.createOrder(request));
+
+        // Then：用下单时的同一条指令回滚，库存归还到扣减的key
+        ArgumentCaptor<RedisCheckoutService.CheckoutCommand> checkout =
+                ArgumentCaptor.forClass(RedisCheckoutService.CheckoutCommand.class);
+        verify(redisCheckoutService).checkout(checkout.capture());
+        verify(redisCheckoutService).rollbackCheckout(same(checkout.getValue()));
+    }
+
+    @Test
+    void testCreateOrders_ReportsPerItemResults() {
+        // Given：第2笔商品不存在，第3笔余额不足
+        List<OrderCreateRequest> requests = Arrays.asList(request,
+                OrderCreateRequest.builder().userId(1001L).merchantId(2001L).sku("MISSING").quantity(1).build(),
+                OrderCreateRequest.builder().userId(1002L).merchantId(2001L).sku("PROD001").quantity(1).build());
+        when(redisCheckoutService.checkoutBatch(anyList())).thenReturn(Arrays.asList(
+                RedisCheckoutService.CheckoutResult.SUCCESS, RedisCheckoutService.CheckoutResult.INSUFFICIENT_BALANCE));
+
+        // When
+        OrderBatchCreateResult result = orderService.createOrders(requests);
+
+        // Then：只有成功的订单一次写入，失败项按请求顺序返回原因
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(2, result.getFailureCount());
+        assertTrue(result.getItems().get(0).getSuccess());
+        assertEquals("ORD1", result.getItems().get(0).getOrder().getOrderNo());
+        assertTrue(result.getItems().get(1).getMessage().contains("商品不存在"));
+        assertTrue(result.getItems().get(2).getMessage().contains("余额不足"));
+        verify(orderPersistenceService).insertOrders(argThat(orders -> orders.size() == 1));
+        verify(redisCheckoutService, never()).rollbackCheckoutBatch(anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCreateOrders_PersistenceFailureMarksRollbackOnlyAndRollsBackRedis() {
+        // Given：两笔订单Redis下单成功，批量写入数据库失败
+        List<OrderCreateRequest> requests = Arrays.asList(request,
+                OrderCreateRequest.builder().userId(1002L).merchantId(2001L).sku("PROD001").quantity(1).build());
+        when(redisCheckoutService.checkoutBatch(anyList())).thenReturn(Arrays.asList(
+                RedisCheckoutService.CheckoutResult.SUCCESS, RedisCheckoutService.CheckoutResult.SUCCESS));
+        doThrow(new IllegalStateException("Deadlock found")).when(orderPersistenceService).insertOrders(anyList());
+        SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+        // When
+        OrderBatchCreateResult[] result = new OrderBatchCreateResult[1];
+        new BoundTransaction().run(status, () -> result[0] = orderService.createOrders(requests));
+
+        // Then：事务标记回滚，已预留的下单指令整批回滚Redis，全部订单报告失败
+        assertTrue(status.isRollbackOnly());
+        ArgumentCaptor<List<RedisCheckoutService.CheckoutCommand>> checkout = ArgumentCaptor.forClass(List.class);
+        verify(redisCheckoutService).checkoutBatch(checkout.capture());
+        verify(redisCheckoutService).rollbackCheckoutBatch(checkout.getValue());
+        assertEquals(0, result[0].getSuccessCount());
+        assertTrue(result[0].getItems().get(1).getMessage().contains("Deadlock found"));
+    }
+
+    @Test
+    void testCreateCartOrder_MergesDuplicateSkusInRequestOrder() {
+        // Given：PROD001在购物车中出现两次
+        when(productCatalogCache.get(2001L, "PROD002")).thenReturn(catalog("PROD002", "5.00"));
+        when(redisCheckoutService.checkoutCart(eq(1001L), eq(2001L), anyMap(), any())).thenReturn(
+                new RedisCheckoutService.CartCheckoutResult(RedisCheckoutService.CheckoutResult.SUCCESS, -1,
+                        Arrays.asList("inventory:2001:PROD001:0", "inventory:2001:PROD002")));
+
+        // When
+        Order order = orderService.createCartOrder(cartRequest(
+                cartItem("PROD001", 1), cartItem("PROD002", 2), cartItem("PROD001", 2)));
+
+        // Then：同一SKU合并为一条明细，保持首次出现的顺序
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("PROD001", 3);
+        expected.put("PROD002", 2);
+        verify(redisCheckoutService).checkoutCart(1001L, 2001L, expected, new BigDecimal("309.97"));
+        assertEquals(Arrays.asList("PROD001", "PROD002"), Arrays.asList(
+                order.getItems().get(0).getSku(), order.getItems().get(1).getSku()));
+        assertEquals(Arrays.asList(3, 2), Arrays.asList(
+                order.getItems().get(0).getQuantity(), order.getItems().get(1).getQuantity()));
+        assertEquals(new BigDecimal("309.97"), order.getTotalAmount());
+        assertEquals(Order.OrderStatus.PAID, order.getStatus());
+        verify(orderPersistenceService).save(order);
+    }
+
+    @Test
+    void testCreateCartOrder_PersistenceFailureRollsBackDeductedKeys() {
+        // Given：Redis下单成功，订单保存失败
+        RedisCheckoutService.CartCheckoutResult checkout = new RedisCheckoutService.CartCheckoutResult(
+                RedisCheckoutService.CheckoutResult.SUCCESS, -1, Collections.singletonList("inventory:2001:PROD001:0"));
+        when(redisCheckoutService.checkoutCart(eq(1001L), eq(2001L), anyMap(), any())).thenReturn(checkout);
+        when(orderPersistenceService.save(any(Order.class))).thenThrow(new IllegalStateException("Deadlock found"));
+
+        // When & Then：按下单结果记录的库存key回滚
+        assertThrows(IllegalStateException.class,
+                () -> orderService.createCartOrder(cartRequest(cartItem("PROD001", 2))));
+        verify(redisCheckoutService).rollbackCartCheckout(1001L, 2001L,
+                Collections.singletonMap("PROD001", 2), new BigDecimal("199.98"), checkout);
+    }
+
+    @Test
+    void testCreateCartOrder_InsufficientInventoryNamesFailedSku() {
+        // Given：第2个商品库存不足
+        when(productCatalogCache.get(2001L, "PROD002")).thenReturn(catalog("PROD002", "5.00"));
+        when(redisCheckoutService.checkoutCart(eq(1001L), eq(2001L), anyMap(), any())).thenReturn(
+                new RedisCheckoutService.CartCheckoutResult(
+                        RedisCheckoutService.CheckoutResult.INSUFFICIENT_INVENTORY, 1, null));
+
+        // When & Then
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> orderService.createCartOrder(cartRequest(cartItem("PROD001", 1), cartItem("PROD002", 4))));
+        assertTrue(e.getMessage().contains("sku=PROD002, quantity=4"));
+        verify(orderPersistenceService, never()).save(any(Order.class));
+        verify(redisCheckoutService, never()).rollbackCartCheckout(any(), any(), anyMap(), any(), any());
+    }
+
+    private CartOrderCreateRequest cartRequest(CartOrderCreateRequest.Item... items) {
+        return CartOrderCreateRequest.builder().userId(1001L).merchantId(2001L).items(Arrays.asList(items)).build();
+    }
+
+    private CartOrderCreateRequest.Item cartItem(String sku, int quantity) {
+        return CartOrderCreateRequest.Item.builder().sku(sku).quantity(quantity).build();
+    }
+
+    private ProductCatalog catalog(String sku, String price) {
+        return ProductCatalog.builder()
+                .merchantId(2001L)
+                .sku(sku)
+                .productName("测试商品" + sku)
+                .price(new BigDecimal(price))
+                .currency("CNY")
+                .build();
+    }
+
+    /**
+     * 在测试线程上绑定事务，使被测代码可以通过 TransactionAspectSupport 标记回滚
+     */
+    private static class BoundTransaction extends TransactionAspectSupport {
+
+        void run(TransactionStatus status, Runnable action) {
+            TransactionInfo info = prepareTransactionInfo(null, new DefaultTransactionAttribute(),
+                    "createOrders", status);
+            TransactionSynchronizationManager.setActualTransactionActive(true);
+            try {
+                action.run();
+            } finally {
+                TransactionSynchronizationManager.setActualTransactionActive(false);
+                cleanupTransactionInfo(info);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.ProductCatalog;
+import com.mall.domain.merchant.ProductInventory;
+import com.mall.mapper.ProductInventoryMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商品目录本地缓存测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class ProductCatalogCacheTest {
+
+    @Mock
+    private ProductInventoryMapper productInventoryMapper;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @InjectMocks
+    private ProductCatalogCache productCatalogCache;
+
+    private Long merchantId;
+    private String sku;
+    private ProductInventory inventory;
+
+    @BeforeEach
+    void setUp() {
+        merchantId = 2001L;
+        sku = "PROD001";
+        inventory = ProductInventory.builder()
+                .id(1L)
+                .merchantId(merchantId)
+                .sku(sku)
+                .productName("测试商品")
+                .price(new BigDecimal("99.99"))
+                .quantity(100)
+                .currency("CNY")
+                .build();
+
+        ReflectionTestUtils.setField(productCatalogCache, "maxSize", 100L);
+        ReflectionTestUtils.setField(productCatalogCache, "expireAfterWriteSeconds", 60L);
+        productCatalogCache.init();
+    }
+
+    @Test
+    void testGet_LoadsOnceThenHitsCache() {
+        // Given
+        when(productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku)).thenReturn(inventory);
+
+        // When
+        ProductCatalog first = productCatalogCache.get(merchantId, sku);
+        ProductCatalog second = productCatalogCache.get(merchantId, sku);
+
+        // Then
+        assertEquals("测试商品", first.getProductName());
+        assertEquals(new BigDecimal("199.98"), second.calculateTotalPrice(2));
+        verify(productInventoryMapper, times(1)).selectByMerchantIdAndSku(merchantId, sku);
+    }
+
+    @Test
+    void testGet_ProductNotFound() {
+        // Given
+        when(productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku)).thenReturn(null);
+
+        // When & Then
+        assertNull(productCatalogCache.get(merchantId, sku));
+    }
+
+    @Test
+    void testOnMessage_InvalidatesEntry() {
+        // Given
+        when(productInventoryMapper.selectByMerchantIdAndSku(merchantId, sku)).thenReturn(inventory);
+        productCatalogCache.get(merchantId, sku);
+
+        // When
+        byte[] body = (merchantId + ":" + sku).getBytes(StandardCharsets.UTF_8);
+        productCatalogCache.onMessage(new DefaultMessage(new byte[0], body), null);
+        productCatalogCache.get(merchantId, sku);
+
+        // Then
+        verify(productInventoryMapper, times(2)).selectByMerchantIdAndSku(merchantId, sku);
+    }
+
+    @Test
+    void testPublishInvalidation_NotifiesCluster() {
+        // When
+        productCatalogCache.publishInvalidation(merchantId, sku);
+
+        // Then
+        verify(stringRedisTemplate).convertAndSend(ProductCatalogCache.INVALIDATION_CHANNEL, merchantId + ":" + sku);
+    }
+}
@@ -0,0 +1,214 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.MerchantAccount;
+import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.domain.user.UserAccount;
+import com.mall.dto.ReconciliationReport;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.UserAccountMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis与数据库对账服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class ReconciliationServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private ProductInventoryMapper productInventoryMapper;
+
+    @Mock
+    private UserAccountMapper userAccountMapper;
+
+    @Mock
+    private MerchantAccountMapper merchantAccountMapper;
+
+    @Mock
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Mock
+    private RedisInventoryService redisInventoryService;
+
+    @Mock
+    private InventoryLeaseService inventoryLeaseService;
+
+    @Mock
+    private OrderJournalService orderJournalService;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @InjectMocks
+    private ReconciliationService reconciliationService;
+
+    private final Map<String, String> redisValues = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(reconciliationService, "batchSize", 500);
+        ReflectionTestUtils.setField(reconciliationService, "scanCount", 1000);
+        ReflectionTestUtils.setField(reconciliationService, "maxKeysPerSecond", 0);
+        ReflectionTestUtils.setField(reconciliationService, "confirmDelayMillis", 1L);
+        ReflectionTestUtils.setField(reconciliationService, "persistenceTimeoutMillis", 0L);
+        reconciliationService.init();
+        lenient().when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(valueOperations.multiGet(anyCollection())).thenAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(0);
+            return keys.stream().map(redisValues::get).collect(Collectors.toList());
+        });
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        lenient().when(redisInventoryService.getShardCount(anyLong(), anyString())).thenReturn(1);
+    }
+
+    @Test
+    void testReconcileIncremental_RepairsConfirmedDrift() {
+        // Given：用户余额扣除未应用的转账后一致，商家余额比应有的值多10
+        ReflectionTestUtils.setField(reconciliationService, "autoRepair", true);
+        when(valueOperations.get(ReconciliationService.CHECKPOINT_KEY)).thenReturn("10");
+        when(orderOutboxMapper.selectAfterId(10L, 500)).thenReturn(Collections.singletonList(transfer(11L)));
+        redisValues.put("account:cents:user:1001", "9000");
+        redisValues.put("account:cents:merchant:2001", "6000");
+        when(userAccountMapper.selectByUserIds(anyList())).thenReturn(Collections.singletonList(
+                UserAccount.builder().userId(1001L).balance(new BigDecimal("100.00")).build()));
+        when(orderOutboxMapper.sumUnappliedUserAmounts(anyList())).thenReturn(Collections.singletonList(
+                OrderOutboxEvent.builder().userId(1001L).amount(new BigDecimal("10.00")).build()));
+        when(merchantAccountMapper.selectByMerchantIds(anyList())).thenReturn(Collections.singletonList(
+                MerchantAccount.builder().merchantId(2001L).balance(new BigDecimal("40.00")).build()));
+        when(orderOutboxMapper.sumUnappliedMerchantAmounts(anyList())).thenReturn(Collections.singletonList(
+                OrderOutboxEvent.builder().merchantId(2001L).amount(new BigDecimal("10.00")).build()));
+        when(redisScriptRegistry.execute(any(), anyList(), any(), any())).thenReturn(1L);
+
+        // When
+        ReconciliationReport report = reconciliationService.reconcileIncremental();
+
+        // Then
+        assertEquals(2, report.getChecked());
+        assertEquals(1, report.getDrifted());
+        assertEquals(1, report.getRepaired());
+        verify(redisScriptRegistry).execute(any(),
+                eq(Collections.singletonList("account:cents:merchant:2001")), eq("6000"), eq("5000"));
+        verify(valueOperations).set(ReconciliationService.CHECKPOINT_KEY, "11");
+    }
+
+    @Test
+    void testReconcileIncremental_ChangingDiffIsNotDrift() {
+        // Given：两次检查之间在途订单写入发件箱，差异发生变化
+        ReflectionTestUtils.setField(reconciliationService, "autoRepair", true);
+        OrderOutboxEvent event = OrderOutboxEvent.inventoryDecrease("ORD001", 2001L, "PROD001", 2);
+        event.setId(1L);
+        when(orderOutboxMapper.selectAfterId(0L, 500)).thenReturn(Collections.singletonList(event));
+        redisValues.put("inventory:2001:PROD001", "7");
+        when(productInventoryMapper.selectByKeys(anyList())).thenReturn(Collections.singletonList(
+                ProductInventory.builder().merchantId(2001L).sku("PROD001").quantity(10).build()));
+        when(orderOutboxMapper.sumUnappliedInventory(anyList()))
+                .thenReturn(Collections.singletonList(inventorySum(2)))
+                .thenReturn(Collections.singletonList(inventorySum(4)));
+
+        // When
+        ReconciliationReport report = reconciliationService.reconcileIncremental();
+
+        // Then
+        assertEquals(1, report.getChecked());
+        assertEquals(0, report.getDrifted());
+        assertEquals(1, report.getUnstable());
+        verify(redisScriptRegistry, never()).execute(any(), anyList(), any(), any());
+    }
+
+    @Test
+    void testInit_RejectsConfirmDelayNotLongerThanPersistenceTimeout() {
+        // Given：确认间隔小于组提交等待时间
+        ReflectionTestUtils.setField(reconciliationService, "confirmDelayMillis", 1000L);
+        ReflectionTestUtils.setField(reconciliationService, "persistenceTimeoutMillis", 5000L);
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> reconciliationService.init());
+    }
+
+    @Test
+    void testReconcileAll_ReportsDriftAndSkipsLeasedSku() {
+        // Given：PROD001比应有的值少1，PROD002有节点持有未过期的租约
+        Cursor<byte[]> inventoryCursor = cursor("inventory:2001:PROD001", "inventory:2001:PROD002");
+        Cursor<byte[]> emptyCursor = cursor();
+        when(stringRedisTemplate.executeWithStickyConnection(any()))
+                .thenReturn(inventoryCursor, emptyCursor, emptyCursor);
+        when(inventoryLeaseService.hasActiveLease(2001L, "PROD001")).thenReturn(false);
+        when(inventoryLeaseService.hasActiveLease(2001L, "PROD002")).thenReturn(true);
+        redisValues.put("inventory:2001:PROD001", "8");
+        when(productInventoryMapper.selectByKeys(anyList())).thenReturn(Collections.singletonList(
+                ProductInventory.builder().merchantId(2001L).sku("PROD001").quantity(10).build()));
+        when(orderOutboxMapper.sumUnappliedInventory(anyList()))
+                .thenReturn(Collections.singletonList(inventorySum(1)));
+
+        // When
+        ReconciliationReport report = reconciliationService.reconcileAll();
+
+        // Then：未开启自动修复时只报告
+        assertEquals(1, report.getChecked());
+        assertEquals(1, report.getDrifted());
+        assertEquals(0, report.getRepaired());
+        assertEquals(1, report.getSkipped());
+        verify(redisScriptRegistry, never()).execute(any(), anyList(), any(), any());
+    }
+
+    private OrderOutboxEvent transfer(Long id) {
+        OrderOutboxEvent event = OrderOutboxEvent.accountTransfer("ORD001", 1001L, 2001L, new BigDecimal("10.00"));
+        event.setId(id);
+        return event;
+    }
+
+    private OrderOutboxEvent inventorySum(int quantity) {
+        return OrderOutboxEvent.builder().merchantId(2001L).sku("PROD001").quantity(quantity).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cursor<byte[]> cursor(String... keys) {
+        Cursor<byte[]> cursor = mock(Cursor.class);
+        List<byte[]> values = Arrays.stream(keys)
+                .map(key -> key.getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        Iterator<byte[]> iterator = values.iterator();
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        lenient().when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        return cursor;
+    }
+}
@@ -0,0 +1,116 @@
+package com.mall.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis账户服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisAccountServiceTest {
+
+    @Mock
+    private RedisTemplate<String, Long> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, Long> valueOperations;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @InjectMocks
+    private RedisAccountService redisAccountService;
+
+    @BeforeEach
+    void setUp() {
+        redisAccountService.init();
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    @Test
+    void testToCents_ExactConversion() {
+        // Then
+        assertEquals(10050L, RedisAccountService.toCents(new BigDecimal("100.50")));
+        assertEquals(7L, RedisAccountService.toCents(new BigDecimal("0.07")));
+        assertEquals(new BigDecimal("100.50"), RedisAccountService.fromCents(10050L));
+        assertThrows(IllegalArgumentException.class, () -> RedisAccountService.toCents(new BigDecimal("1.005")));
+    }
+
+    @Test
+    void testInitUserAccount_StoresIntegerCents() {
+        // Given
+        when(valueOperations.get("account:cents:user:1001")).thenReturn(99999L);
+
+        // When
+        redisAccountService.initUserAccount(1001L, new BigDecimal("999.99"));
+        BigDecimal balance = redisAccountService.getUserBalance(1001L);
+
+        // Then
+        verify(valueOperations).set("account:cents:user:1001", 99999L);
+        assertEquals(new BigDecimal("999.99"), balance);
+    }
+
+    @Test
+    void testTryTransferAmount_PassesCents() {
+        // Given
+        when(redisScriptRegistry.execute(any(), anyList(), any())).thenReturn(1L);
+
+        // When
+        Long result = redisAccountService.tryTransferAmount(1001L, 2001L, new BigDecimal("199.98"));
+
+        // Then
+        assertEquals(1L, result);
+        verify(redisScriptRegistry).execute(any(),
+                eq(Arrays.asList("account:cents:user:1001", "account:cents:merchant:2001")), eq(19998L));
+    }
+
+    @Test
+    void testConvertLegacyUserAccount() {
+        // Given：旧key不存在时脚本返回-1，旧余额不是数字时返回-2
+        when(redisScriptRegistry.execute(any(), eq(Arrays.asList("account:user:1001", "account:cents:user:1001"))))
+                .thenReturn(1L, -1L, -2L);
+
+        // When & Then：无法转换时由账户加载从数据库读取余额
+        assertTrue(redisAccountService.convertLegacyUserAccount(1001L));
+        assertFalse(redisAccountService.convertLegacyUserAccount(1001L));
+        assertFalse(redisAccountService.convertLegacyUserAccount(1001L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testConvertLegacyAccounts_SkipsNonNumericBalance() {
+        // Given：account:user:1001的旧余额不是数字
+        Cursor<byte[]> users = mock(Cursor.class);
+        when(users.hasNext()).thenReturn(true, true, false);
+        when(users.next()).thenReturn("account:user:1001".getBytes(StandardCharsets.UTF_8),
+                "account:user:1002".getBytes(StandardCharsets.UTF_8));
+        Cursor<byte[]> merchants = mock(Cursor.class);
+        when(redisTemplate.executeWithStickyConnection(any())).thenReturn(users, merchants);
+        when(redisScriptRegistry.execute(any(), eq(Arrays.asList("account:user:1001", "account:cents:user:1001"))))
+                .thenReturn(-2L);
+        when(redisScriptRegistry.execute(any(), eq(Arrays.asList("account:user:1002", "account:cents:user:1002"))))
+                .thenReturn(1L);
+
+        // When
+        int converted = redisAccountService.convertLegacyAccounts();
+
+        // Then：跳过无法转换的key，继续转换其余账户
+        assertEquals(1, converted);
+    }
+}
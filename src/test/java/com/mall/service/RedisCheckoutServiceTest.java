@@ -0,0 +1,234 @@
+package com.mall.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis下单服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisCheckoutServiceTest {
+
+    private static final String USER_KEY = "account:cents:user:1001";
+    private static final String MERCHANT_KEY = "account:cents:merchant:2001";
+    private static final String SHARD_3 = "inventory:2001:PROD001:3";
+    private static final String SHARD_0 = "inventory:2001:PROD001:0";
+
+    @Mock
+    private RedisTemplate<String, Long> redisTemplate;
+
+    @Mock
+    private RedisInventoryService redisInventoryService;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Mock
+    private RedisConnection connection;
+
+    @InjectMocks
+    private RedisCheckoutService redisCheckoutService;
+
+    private final Map<String, RedisScriptRegistry.RegisteredScript<?>> scripts = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(redisScriptRegistry.register(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            RedisScriptRegistry.RegisteredScript<?> script = mock(RedisScriptRegistry.RegisteredScript.class);
+            scripts.put(invocation.getArgument(0), script);
+            return script;
+        });
+        redisCheckoutService.init();
+        lenient().when(redisInventoryService.getInventoryKeys(2001L, "PROD001"))
+                .thenReturn(Arrays.asList(SHARD_3, SHARD_0));
+    }
+
+    @Test
+    void testCheckout_AccountFailureDoesNotProbeOtherShards() {
+        // Given：起始子key有库存，用户余额不足
+        when(redisScriptRegistry.execute(script("checkout.single"),
+                Arrays.asList(SHARD_3, USER_KEY, MERCHANT_KEY), "2", "1000")).thenReturn(-4L);
+        RedisCheckoutService.CheckoutCommand command = command();
+
+        // When
+        RedisCheckoutService.CheckoutResult result = redisCheckoutService.checkout(command);
+
+        // Then：只有库存失败才换用其他子key，失败时不记录库存key
+        assertEquals(RedisCheckoutService.CheckoutResult.INSUFFICIENT_BALANCE, result);
+        assertNull(command.getInventoryKey());
+        verify(redisScriptRegistry, times(1)).execute(any(), anyList(), any(), any());
+    }
+
+    @Test
+    void testCheckoutAndJournal_AppendsStreamKeyAndJournal() {
+        // Given
+        when(redisScriptRegistry.execute(script("checkout.single"),
+                Arrays.asList(SHARD_3, USER_KEY, MERCHANT_KEY, "order:journal"), "2", "1000", "{\"orderNo\":\"ORD001\"}"))
+                .thenReturn(1L);
+        RedisCheckoutService.CheckoutCommand command = command();
+
+        // When
+        RedisCheckoutService.CheckoutResult result = redisCheckoutService.checkoutAndJournal(
+                command, "order:journal", "{\"orderNo\":\"ORD001\"}");
+
+        // Then
+        assertEquals(RedisCheckoutService.CheckoutResult.SUCCESS, result);
+        assertEquals(SHARD_3, command.getInventoryKey());
+    }
+
+    @Test
+    void testRollbackCheckout_CreditsShardThatWasDeducted() {
+        // Given：起始子key库存不足，换用下一个子key扣减成功
+        when(redisScriptRegistry.execute(script("checkout.single"),
+                Arrays.asList(SHARD_3, USER_KEY, MERCHANT_KEY), "2", "1000")).thenReturn(-1L);
+        when(redisScriptRegistry.execute(script("checkout.single"),
+                Arrays.asList(SHARD_0, USER_KEY, MERCHANT_KEY), "2", "1000")).thenReturn(1L);
+        RedisCheckoutService.CheckoutCommand command = command();
+
+        // When
+        RedisCheckoutService.CheckoutResult result = redisCheckoutService.checkout(command);
+        redisCheckoutService.rollbackCheckout(command);
+
+        // Then：库存归还到扣减成功的子key，而不是起始子key
+        assertEquals(RedisCheckoutService.CheckoutResult.SUCCESS, result);
+        assertEquals(SHARD_0, command.getInventoryKey());
+        verify(redisScriptRegistry).execute(script("checkout.rollback"),
+                Arrays.asList(SHARD_0, USER_KEY, MERCHANT_KEY), "2", "1000");
+    }
+
+    @Test
+    void testRollbackCartCheckout_CreditsProbedShards() {
+        // Given：PROD001起始子key库存不足，换用下一个子key后整单成功
+        when(redisInventoryService.getInventoryKeys(2001L, "PROD002"))
+                .thenReturn(Collections.singletonList("inventory:2001:PROD002"));
+        when(redisScriptRegistry.execute(eq(script("checkout.cart")),
+                eq(Arrays.asList(USER_KEY, MERCHANT_KEY, SHARD_3, "inventory:2001:PROD002")), any(), any(), any()))
+                .thenReturn(Arrays.asList(-1L, 1L));
+        when(redisScriptRegistry.execute(eq(script("checkout.cart")),
+                eq(Arrays.asList(USER_KEY, MERCHANT_KEY, SHARD_0, "inventory:2001:PROD002")), any(), any(), any()))
+                .thenReturn(Arrays.asList(1L, 0L));
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        quantities.put("PROD001", 2);
+        quantities.put("PROD002", 1);
+
+        // When
+        RedisCheckoutService.CartCheckoutResult result =
+                redisCheckoutService.checkoutCart(1001L, 2001L, quantities, new BigDecimal("15.00"));
+        redisCheckoutService.rollbackCartCheckout(1001L, 2001L, quantities, new BigDecimal("15.00"), result);
+
+        // Then
+        assertEquals(RedisCheckoutService.CheckoutResult.SUCCESS, result.getResult());
+        verify(redisScriptRegistry).execute(script("checkout.rollback-cart"),
+                Arrays.asList(USER_KEY, MERCHANT_KEY, SHARD_0, "inventory:2001:PROD002"), "1500", "2", "1");
+    }
+
+    @Test
+    void testCheckoutCart_UnshardedLineFailureReportedWithoutRetry() {
+        // Given：PROD002未分片且库存不足
+        when(redisInventoryService.getInventoryKeys(2001L, "PROD002"))
+                .thenReturn(Collections.singletonList("inventory:2001:PROD002"));
+        when(redisScriptRegistry.execute(eq(script("checkout.cart")),
+                eq(Arrays.asList(USER_KEY, MERCHANT_KEY, SHARD_3, "inventory:2001:PROD002")), any(), any(), any()))
+                .thenReturn(Arrays.asList(-1L, 2L));
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        quantities.put("PROD001", 2);
+        quantities.put("PROD002", 1);
+
+        // When
+        RedisCheckoutService.CartCheckoutResult result =
+                redisCheckoutService.checkoutCart(1001L, 2001L, quantities, new BigDecimal("15.00"));
+
+        // Then：返回失败商品序号（从0开始），没有其他子key可换时不再重试
+        assertEquals(RedisCheckoutService.CheckoutResult.INSUFFICIENT_INVENTORY, result.getResult());
+        assertEquals(1, result.getFailedIndex());
+        assertNull(result.getInventoryKeys());
+        verify(redisScriptRegistry, times(1)).execute(any(), anyList(), any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCheckoutBatch_SkipsScriptLoadReplyAndRetriesShardedSku() {
+        // Given：管道首条回复为 SCRIPT LOAD；PROD002成功，分片商品PROD001起始子key库存不足
+        RedisCheckoutService.CheckoutCommand unsharded = new RedisCheckoutService.CheckoutCommand(
+                1001L, 2001L, "PROD002", 1, new BigDecimal("5.00"));
+        RedisCheckoutService.CheckoutCommand sharded = command();
+        when(redisInventoryService.getInventoryKeys(2001L, "PROD002"))
+                .thenReturn(Collections.singletonList("inventory:2001:PROD002"));
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenReturn(Arrays.asList("sha1", 1L, -1L));
+        when(redisInventoryService.getShardCount(2001L, "PROD001")).thenReturn(2);
+        when(redisScriptRegistry.execute(script("checkout.single"),
+                Arrays.asList(SHARD_3, USER_KEY, MERCHANT_KEY), "2", "1000")).thenReturn(-1L);
+        when(redisScriptRegistry.execute(script("checkout.single"),
+                Arrays.asList(SHARD_0, USER_KEY, MERCHANT_KEY), "2", "1000")).thenReturn(1L);
+
+        // When
+        List<RedisCheckoutService.CheckoutResult> results =
+                redisCheckoutService.checkoutBatch(Arrays.asList(unsharded, sharded));
+
+        // Then：分片商品单独重试其他子key，各指令记录扣减的库存key
+        assertEquals(Arrays.asList(RedisCheckoutService.CheckoutResult.SUCCESS,
+                RedisCheckoutService.CheckoutResult.SUCCESS), results);
+        assertEquals("inventory:2001:PROD002", unsharded.getInventoryKey());
+        assertEquals(SHARD_0, sharded.getInventoryKey());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRollbackCheckoutBatch_PipelinesRecordedKeys() {
+        // Given：两条指令分别从不同的子key扣减
+        RedisCheckoutService.CheckoutCommand first = command();
+        first.setInventoryKey(SHARD_0);
+        RedisCheckoutService.CheckoutCommand second = command();
+        second.setInventoryKey(SHARD_3);
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenAnswer(invocation -> {
+                    ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+                    return Arrays.asList("sha1", 1L, 1L);
+                });
+        List<String> inventoryKeys = new ArrayList<>();
+        doAnswer(invocation -> inventoryKeys.add(new String((byte[]) invocation.getArgument(3), StandardCharsets.UTF_8)))
+                .when(redisScriptRegistry).evalShaInPipeline(any(), any(), anyInt(), any());
+
+        // When
+        redisCheckoutService.rollbackCheckoutBatch(Arrays.asList(first, second));
+
+        // Then：先加载脚本，再按记录的库存key回滚
+        verify(connection).scriptLoad(any());
+        verify(redisScriptRegistry, times(2)).evalShaInPipeline(eq(connection), eq(script("checkout.rollback")),
+                eq(3), any());
+        assertEquals(Arrays.asList(SHARD_0, SHARD_3), inventoryKeys);
+    }
+
+    private RedisCheckoutService.CheckoutCommand command() {
+        return new RedisCheckoutService.CheckoutCommand(1001L, 2001L, "PROD001", 2, new BigDecimal("10.00"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> RedisScriptRegistry.RegisteredScript<T> script(String name) {
+        return (RedisScriptRegistry.RegisteredScript<T>) scripts.get(name);
+    }
+}
@@ -0,0 +1,122 @@
+package com.mall.service;
+
+import com.mall.service.RedisCounterVersionService.CounterSnapshot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis计数器版本服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisCounterVersionServiceTest {
+
+    @Mock
+    private RedisTemplate<String, Long> redisTemplate;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Mock
+    private ValueOperations<String, Long> valueOperations;
+
+    @Mock
+    private RedisConnection connection;
+
+    @InjectMocks
+    private RedisCounterVersionService redisCounterVersionService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        lenient().when(redisScriptRegistry.register(anyString(), anyString(), eq(Long.class)))
+                .thenAnswer(invocation -> mock(RedisScriptRegistry.RegisteredScript.class));
+        redisCounterVersionService.init();
+    }
+
+    @Test
+    void testIsCurrent_RequiresVersionAndValue() {
+        // Given：1001版本已是最新；1002版本落后；1003值已被清除
+        List<CounterSnapshot> snapshots = Arrays.asList(
+                user(1001L, 5L), user(1002L, 5L), user(1003L, 5L));
+        when(valueOperations.multiGet(Arrays.asList(
+                "counter-version:account:cents:user:1001", "account:cents:user:1001",
+                "counter-version:account:cents:user:1002", "account:cents:user:1002",
+                "counter-version:account:cents:user:1003", "account:cents:user:1003")))
+                .thenReturn(Arrays.asList(6L, 100L, 4L, 100L, 5L, null));
+
+        // When
+        List<Boolean> current = redisCounterVersionService.isCurrent(snapshots);
+
+        // Then
+        assertEquals(Arrays.asList(true, false, false), current);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testMerge_PassesKeysAndArgsAndSkipsScriptLoadReply() {
+        // Given：分片库存重建时删除单key
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("inventory:2001:PROD001:s0", 4L);
+        values.put("inventory:2001:PROD001:s1", 3L);
+        CounterSnapshot snapshot = new CounterSnapshot("inventory:2001:PROD001", 8L, values,
+                Collections.singletonList("inventory:2001:PROD001"));
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenAnswer(invocation -> {
+                    ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+                    return Arrays.asList("sha", RedisCounterVersionService.MERGE_REBUILT);
+                });
+
+        // When
+        List<Long> results = redisCounterVersionService.merge(Collections.singletonList(snapshot));
+
+        // Then
+        assertEquals(Collections.singletonList(RedisCounterVersionService.MERGE_REBUILT), results);
+        verify(redisScriptRegistry).evalShaInPipeline(eq(connection), any(), eq(4),
+                eq(bytes("counter-version:inventory:2001:PROD001")), eq(bytes("inventory:2001:PROD001:s0")),
+                eq(bytes("inventory:2001:PROD001:s1")), eq(bytes("inventory:2001:PROD001")),
+                eq(bytes("8")), eq(bytes("2")), eq(bytes("4")), eq(bytes("3")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testAdvance_FailureIsOnlyLogged() {
+        // Given
+        when(redisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenThrow(new IllegalStateException("Redis不可用"));
+
+        // When & Then：版本落后只会使下次预热重建，不影响数据库事务
+        assertDoesNotThrow(() -> redisCounterVersionService.advance(
+                Collections.singletonList("account:cents:user:1001")));
+    }
+
+    private CounterSnapshot user(Long userId, long version) {
+        String key = RedisAccountService.getUserAccountKey(userId);
+        return new CounterSnapshot(key, version, Collections.singletonMap(key, 0L), Collections.emptyList());
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
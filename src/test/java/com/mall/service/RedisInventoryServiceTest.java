@@ -0,0 +1,119 @@
+package com.mall.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis库存服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisInventoryServiceTest {
+
+    @Mock
+    private RedisTemplate<String, Long> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, Long> valueOperations;
+
+    @Mock
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @InjectMocks
+    private RedisInventoryService redisInventoryService;
+
+    private Long merchantId;
+    private String sku;
+
+    @BeforeEach
+    void setUp() {
+        merchantId = 2001L;
+        sku = "PROD001";
+        ReflectionTestUtils.setField(redisInventoryService, "defaultShards", 1);
+        ReflectionTestUtils.setField(redisInventoryService, "skuShards",
+                Collections.singletonMap("2001:PROD001", 4));
+        redisInventoryService.init();
+    }
+
+    @Test
+    void testGetInventoryKeys_NotSharded() {
+        // When
+        List<String> keys = redisInventoryService.getInventoryKeys(merchantId, "PROD002");
+
+        // Then
+        assertEquals(Collections.singletonList("inventory:2001:PROD002"), keys);
+    }
+
+    @Test
+    void testGetInventoryKeys_CoversAllShards() {
+        // When
+        List<String> keys = redisInventoryService.getInventoryKeys(merchantId, sku);
+
+        // Then
+        assertEquals(4, keys.size());
+        assertTrue(keys.containsAll(Arrays.asList("inventory:2001:PROD001:s0", "inventory:2001:PROD001:s1",
+                "inventory:2001:PROD001:s2", "inventory:2001:PROD001:s3")));
+    }
+
+    @Test
+    void testInitInventory_SplitsAcrossShards() {
+        // Given
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+
+        // When
+        redisInventoryService.initInventory(merchantId, sku, 10);
+
+        // Then
+        verify(valueOperations).set("inventory:2001:PROD001:s0", 3L);
+        verify(valueOperations).set("inventory:2001:PROD001:s1", 3L);
+        verify(valueOperations).set("inventory:2001:PROD001:s2", 2L);
+        verify(valueOperations).set("inventory:2001:PROD001:s3", 2L);
+        verify(redisTemplate).delete("inventory:2001:PROD001");
+    }
+
+    @Test
+    void testGetInventory_SumsShards() {
+        // Given
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.multiGet(anyList())).thenReturn(Arrays.asList(3L, null, 2L, 0L));
+
+        // When
+        Integer inventory = redisInventoryService.getInventory(merchantId, sku);
+
+        // Then
+        assertEquals(5, inventory);
+    }
+
+    @Test
+    void testDecreaseInventory_FallsBackToSiblingShard() {
+        // Given
+        List<String> keys = redisInventoryService.getInventoryKeys(merchantId, sku);
+        when(redisScriptRegistry.execute(any(), eq(Collections.singletonList(keys.get(0))), any()))
+                .thenReturn(-1L);
+        when(redisScriptRegistry.execute(any(), eq(Collections.singletonList(keys.get(1))), any()))
+                .thenReturn(4L);
+
+        // When
+        Long result = redisInventoryService.decreaseInventory(merchantId, sku, 1);
+
+        // Then
+        assertEquals(4L, result);
+        verify(redisScriptRegistry, never()).execute(any(),
+                eq(Collections.singletonList(keys.get(2))), any());
+    }
+}
@@ -0,0 +1,123 @@
+package com.mall.service;
+
+import com.mall.dto.RedisScriptStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Lua脚本注册中心测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisScriptRegistryTest {
+
+    @Mock
+    private RedisTemplate<String, Long> redisTemplate;
+
+    @Mock
+    private RedisConnection connection;
+
+    @InjectMocks
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        lenient().when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+    }
+
+    @Test
+    void testAfterSingletonsInstantiated_LoadsAllScripts() {
+        // Given
+        redisScriptRegistry.register("a", "return 1", Long.class);
+        redisScriptRegistry.register("b", "return 2", Long.class);
+
+        // When
+        redisScriptRegistry.afterSingletonsInstantiated();
+
+        // Then
+        verify(connection, times(2)).scriptLoad(any(byte[].class));
+    }
+
+    @Test
+    void testExecute_ReloadsScriptOnNoScript() {
+        // Given：故障切换后新节点没有脚本缓存
+        RedisScriptRegistry.RegisteredScript<Long> script =
+                redisScriptRegistry.register("inventory.decrease", "return tonumber(ARGV[1])", Long.class);
+        when(connection.evalSha(eq(script.getSha1()), eq(ReturnType.INTEGER), eq(1),
+                any(byte[].class), any(byte[].class)))
+                .thenThrow(new RedisSystemException("Error in execution",
+                        new IllegalStateException("NOSCRIPT No matching script. Please use EVAL.")))
+                .thenReturn(5L);
+
+        // When
+        Long result = redisScriptRegistry.execute(script, Collections.singletonList("inventory:2001:PROD001"), 5);
+
+        // Then
+        assertEquals(5L, result);
+        verify(connection).scriptLoad(script.getBody());
+        RedisScriptStats stats = redisScriptRegistry.getStats().get(0);
+        assertEquals(1, stats.getCalls());
+        assertEquals(1, stats.getReloads());
+        assertEquals(0, stats.getErrors());
+    }
+
+    @Test
+    void testExecute_OtherErrorsAreNotRetried() {
+        // Given
+        RedisScriptRegistry.RegisteredScript<Long> script =
+                redisScriptRegistry.register("account.transfer", "return 1", Long.class);
+        when(connection.evalSha(anyString(), any(ReturnType.class), anyInt(), any(byte[].class)))
+                .thenThrow(new RedisSystemException("ERR wrong number of arguments", null));
+
+        // When & Then
+        assertThrows(RedisSystemException.class,
+                () -> redisScriptRegistry.execute(script, Collections.singletonList("k")));
+        verify(connection, never()).scriptLoad(any(byte[].class));
+        assertEquals(1, redisScriptRegistry.getStats().get(0).getErrors());
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    void testExecute_DecodesNestedReplies() {
+        // Given
+        RedisScriptRegistry.RegisteredScript<List> script =
+                redisScriptRegistry.register("journal.reclaim", "return {}", List.class);
+        when(connection.evalSha(script.getSha1(), ReturnType.MULTI, 0))
+                .thenReturn(Arrays.asList(1L, Collections.singletonList("1-0".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        List result = redisScriptRegistry.execute(script, Collections.emptyList());
+
+        // Then
+        assertEquals(Arrays.asList(1L, Collections.singletonList("1-0")), result);
+    }
+
+    @Test
+    void testRegister_RejectsDifferentScriptWithSameName() {
+        // Given
+        redisScriptRegistry.register("a", "return 1", Long.class);
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> redisScriptRegistry.register("a", "return 2", Long.class));
+    }
+}
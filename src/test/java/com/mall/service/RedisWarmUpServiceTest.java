@@ -0,0 +1,204 @@
+package com.mall.service;
+
+import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.transaction.OrderOutboxEvent;
+import com.mall.domain.user.UserAccount;
+import com.mall.mapper.MerchantAccountMapper;
+import com.mall.mapper.OrderMapper;
+import com.mall.mapper.OrderOutboxMapper;
+import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.UserAccountMapper;
+import com.mall.service.RedisCounterVersionService.CounterSnapshot;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis预热服务测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisWarmUpServiceTest {
+
+    @Mock
+    private ProductInventoryMapper productInventoryMapper;
+
+    @Mock
+    private UserAccountMapper userAccountMapper;
+
+    @Mock
+    private MerchantAccountMapper merchantAccountMapper;
+
+    @Mock
+    private OrderMapper orderMapper;
+
+    @Mock
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Mock
+    private RedisInventoryService redisInventoryService;
+
+    @Mock
+    private RedisAccountService redisAccountService;
+
+    @Mock
+    private RedisCounterVersionService redisCounterVersionService;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private RedisWarmUpService redisWarmUpService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ReflectionTestUtils.setField(redisWarmUpService, "chunkSize", 2);
+        ReflectionTestUtils.setField(redisWarmUpService, "activeHours", 24);
+        ReflectionTestUtils.setField(redisWarmUpService, "maxSkus", 100);
+        ReflectionTestUtils.setField(redisWarmUpService, "maxAccounts", 100);
+        ReflectionTestUtils.setField(redisWarmUpService, "retryIntervalMillis", 0L);
+        ReflectionTestUtils.setField(redisWarmUpService, "progressIntervalRows", 100000L);
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
+        lenient().when(redisCounterVersionService.isCurrent(anyList())).thenAnswer(invocation ->
+                ((List<CounterSnapshot>) invocation.getArgument(0)).stream()
+                        .map(snapshot -> false).collect(Collectors.toList()));
+        lenient().when(redisCounterVersionService.merge(anyList())).thenAnswer(invocation ->
+                ((List<CounterSnapshot>) invocation.getArgument(0)).stream()
+                        .map(snapshot -> RedisCounterVersionService.MERGE_REBUILT).collect(Collectors.toList()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testWarmUpUserAccounts_SkipsCurrentAndMergesUnappliedTransfers() {
+        // Given：每块2行；1001在Redis中已是最新，1002有未应用的转出0.20
+        doAnswer(invocation -> {
+            stream(invocation.getArgument(0),
+                    user(1001L, "100.00", 5L), user(1002L, "0.50", 3L), user(1003L, "7", 0L));
+            return null;
+        }).when(userAccountMapper).streamAll(any());
+        when(redisCounterVersionService.isCurrent(anyList())).thenAnswer(invocation ->
+                ((List<CounterSnapshot>) invocation.getArgument(0)).stream()
+                        .map(snapshot -> "account:cents:user:1001".equals(snapshot.getCounterKey()))
+                        .collect(Collectors.toList()));
+        when(userAccountMapper.selectByUserIds(Collections.singletonList(1002L)))
+                .thenReturn(Collections.singletonList(user(1002L, "0.50", 3L)));
+        when(userAccountMapper.selectByUserIds(Collections.singletonList(1003L)))
+                .thenReturn(Collections.singletonList(user(1003L, "7", 0L)));
+        when(orderOutboxMapper.sumUnappliedUserAmounts(Collections.singletonList(1002L))).thenReturn(
+                Collections.singletonList(OrderOutboxEvent.builder().userId(1002L).amount(new BigDecimal("0.20")).build()));
+
+        // When
+        redisWarmUpService.warmUpUserAccounts();
+
+        // Then：只重新读取并合并不是最新的账户，余额扣除未应用的转出
+        verify(userAccountMapper, never()).selectByUserIds(Collections.singletonList(1001L));
+        ArgumentCaptor<List<CounterSnapshot>> captor = ArgumentCaptor.forClass(List.class);
+        verify(redisCounterVersionService, times(2)).merge(captor.capture());
+        CounterSnapshot user1002 = captor.getAllValues().get(0).get(0);
+        assertEquals("account:cents:user:1002", user1002.getCounterKey());
+        assertEquals(3L, user1002.getVersion());
+        assertEquals(Collections.singletonMap("account:cents:user:1002", 30L), user1002.getValues());
+        CounterSnapshot user1003 = captor.getAllValues().get(1).get(0);
+        assertEquals(Collections.singletonMap("account:cents:user:1003", 700L), user1003.getValues());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testWarmUpInventory_ShardedSkuDeletesSingleKeyOnRebuild() {
+        // Given：数据库库存10，未应用的扣减3，Redis中应为7
+        ProductInventory row = ProductInventory.builder()
+                .merchantId(2001L).sku("PROD001").quantity(10).version(8L).build();
+        Map<String, Long> shardValues = new LinkedHashMap<>();
+        shardValues.put("inventory:2001:PROD001:s0", 4L);
+        shardValues.put("inventory:2001:PROD001:s1", 3L);
+        when(redisInventoryService.getInventoryValues(2001L, "PROD001", 10)).thenReturn(shardValues);
+        when(redisInventoryService.getInventoryValues(2001L, "PROD001", 7)).thenReturn(shardValues);
+        when(redisInventoryService.getInventoryKey(2001L, "PROD001")).thenReturn("inventory:2001:PROD001");
+        when(productInventoryMapper.selectByKeys(anyList())).thenReturn(Collections.singletonList(row));
+        when(orderOutboxMapper.sumUnappliedInventory(anyList())).thenReturn(Collections.singletonList(
+                OrderOutboxEvent.inventoryDecrease(null, 2001L, "PROD001", 3)));
+        doAnswer(invocation -> {
+            stream(invocation.getArgument(0), row);
+            return null;
+        }).when(productInventoryMapper).streamAll(any());
+
+        // When
+        redisWarmUpService.warmUpInventory();
+
+        // Then
+        ArgumentCaptor<List<CounterSnapshot>> captor = ArgumentCaptor.forClass(List.class);
+        verify(redisCounterVersionService).merge(captor.capture());
+        CounterSnapshot snapshot = captor.getValue().get(0);
+        assertEquals("inventory:2001:PROD001", snapshot.getCounterKey());
+        assertEquals(8L, snapshot.getVersion());
+        assertEquals(shardValues, snapshot.getValues());
+        assertEquals(Collections.singletonList("inventory:2001:PROD001"), snapshot.getDeletes());
+    }
+
+    @Test
+    void testWarmUp_ReadyAfterCriticalTierRetried() {
+        // Given：第一次加载关键数据时数据库不可用
+        when(orderMapper.selectHotSkus(any(), eq(100)))
+                .thenThrow(new IllegalStateException("数据库不可用"))
+                .thenReturn(Collections.singletonList(
+                        ProductInventory.builder().merchantId(2001L).sku("PROD001").build()));
+        when(productInventoryMapper.selectByKeys(anyList())).thenReturn(Collections.singletonList(
+                ProductInventory.builder().merchantId(2001L).sku("PROD001").quantity(10).build()));
+        when(redisInventoryService.getInventoryValues(2001L, "PROD001", 10))
+                .thenReturn(Collections.singletonMap("inventory:2001:PROD001", 10L));
+        when(orderMapper.selectActiveUserIds(any(), eq(100))).thenReturn(Collections.singletonList(1001L));
+        when(userAccountMapper.selectByUserIds(Collections.singletonList(1001L)))
+                .thenReturn(Collections.singletonList(user(1001L, "1.00", 1L)));
+        when(orderMapper.selectActiveMerchantIds(any(), eq(100))).thenReturn(Collections.emptyList());
+        assertFalse(redisWarmUpService.isReady());
+
+        // When
+        redisWarmUpService.warmUp();
+
+        // Then：关键数据合并后再加载全量数据，最后转换旧余额
+        assertTrue(redisWarmUpService.isReady());
+        assertEquals(RedisWarmUpService.WarmUpState.COMPLETE, redisWarmUpService.getState());
+        verify(redisCounterVersionService, times(2)).merge(anyList());
+        verify(productInventoryMapper).streamAll(any());
+        verify(userAccountMapper).streamAll(any());
+        verify(merchantAccountMapper).streamAll(any());
+        verify(redisAccountService).convertLegacyAccounts();
+    }
+
+    @SafeVarargs
+    private final <T> void stream(ResultHandler<T> handler, T... rows) {
+        List<T> values = Arrays.asList(rows);
+        DefaultResultContext<T> context = new DefaultResultContext<>();
+        for (T row : values) {
+            context.nextResultObject(row);
+            handler.handleResult(context);
+        }
+    }
+
+    private UserAccount user(Long userId, String balance, Long version) {
+        return UserAccount.builder().userId(userId).balance(new BigDecimal(balance)).version(version).build();
+    }
+}
@@ -1,25 +1,29 @@
 package com.mall.service;
 
 import com.mall.domain.merchant.MerchantAccount;
-import com.mall.domain.merchant.ProductInventory;
+import com.mall.domain.merchant.MerchantDailySales;
+import com.mall.domain.settlement.SettlementCheckpoint;
 import com.mall.mapper.MerchantAccountMapper;
-import com.mall.mapper.OrderMapper;
-import com.mall.mapper.ProductInventoryMapper;
+import com.mall.mapper.SettlementCheckpointMapper;
+import com.mall.mapper.SettlementResultMapper;
 import com.mall.service.impl.SettlementServiceImpl;
-
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -31,12 +35,16 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class SettlementServiceTest {
 
-    @Mock
-    private OrderMapper orderMapper;
     @Mock
     private MerchantAccountMapper merchantAccountMapper;
     @Mock
-    private ProductInventoryMapper productInventoryMapper;
+    private MerchantDailySalesService merchantDailySalesService;
+    @Mock
+    private SettlementResultMapper settlementResultMapper;
+    @Mock
+    private SettlementCheckpointMapper settlementCheckpointMapper;
+    @Mock
+    private TransactionTemplate transactionTemplate;
 
     @InjectMocks
     private SettlementServiceImpl settlementService;
@@ -55,6 +63,11 @@ class SettlementServiceTest {
                 .balance(new BigDecimal("10000.00"))
                 .currency("CNY")
                 .build();
+        ReflectionTestUtils.setField(settlementService, "chunkSize", 2);
+        ReflectionTestUtils.setField(settlementService, "parallelism", 2);
+        ReflectionTestUtils.setField(settlementService, "resultBatchSize", 1);
+        lenient().when(transactionTemplate.execute(any()))
+                .thenAnswer(invocation -> ((TransactionCallback<?>) invocation.getArgument(0)).doInTransaction(null));
     }
 
     @Test
@@ -63,8 +76,8 @@ class SettlementServiceTest {
         BigDecimal totalOrderAmount = new BigDecimal("5000.00");
         merchantAccount.setBalance(totalOrderAmount);
 
-        when(orderMapper.sumPaidOrderAmountByMerchantAndTimeRange(
-                eq(merchantId), any(), any())).thenReturn(totalOrderAmount);
+        when(merchantDailySalesService.getDailySales(merchantId, settlementDate))
+                .thenReturn(sales(merchantId, totalOrderAmount));
         when(merchantAccountMapper.selectByMerchantId(merchantId))
                 .thenReturn(merchantAccount);
 
@@ -89,8 +102,8 @@ class SettlementServiceTest {
 
         merchantAccount.setBalance(accountBalance);
 
-        when(orderMapper.sumPaidOrderAmountByMerchantAndTimeRange(
-                eq(merchantId), any(), any())).thenReturn(totalOrderAmount);
+        when(merchantDailySalesService.getDailySales(merchantId, settlementDate))
+                .thenReturn(sales(merchantId, totalOrderAmount));
         when(merchantAccountMapper.selectByMerchantId(merchantId))
                 .thenReturn(merchantAccount);
 
@@ -108,8 +121,8 @@ class SettlementServiceTest {
     @Test
     void testSettleMerchant_MerchantNotFound() {
         // Given
-        when(orderMapper.sumPaidOrderAmountByMerchantAndTimeRange(
-                eq(merchantId), any(), any())).thenReturn(BigDecimal.ZERO);
+        when(merchantDailySalesService.getDailySales(merchantId, settlementDate))
+                .thenReturn(sales(merchantId, BigDecimal.ZERO));
         when(merchantAccountMapper.selectByMerchantId(merchantId))
                 .thenReturn(null);
 
@@ -119,24 +132,100 @@ class SettlementServiceTest {
     }
 
     @Test
-    void testSettleAllMerchants() {
-        // Given
-        List<ProductInventory> inventories = Arrays.asList(
-                ProductInventory.builder().merchantId(2001L).sku("SKU1").build(),
-                ProductInventory.builder().merchantId(2002L).sku("SKU2").build()
-        );
-
-        when(productInventoryMapper.selectAll()).thenReturn(inventories);
-        when(orderMapper.sumPaidOrderAmountByMerchantAndTimeRange(anyLong(), any(), any()))
-                .thenReturn(BigDecimal.ZERO);
-        when(merchantAccountMapper.selectByMerchantId(anyLong()))
-                .thenReturn(merchantAccount);
+    @SuppressWarnings("unchecked")
+    void testSettleAllMerchants_PlansChunksAndSettlesEachRange() {
+        // Given：每块2个商家；2001匹配，2002没有订单但有余额，2003无订单无余额，3001有订单但没有账户
+        when(merchantAccountMapper.selectMerchantIdsAfter(Long.MIN_VALUE, 2)).thenReturn(Arrays.asList(2001L, 2002L));
+        when(merchantAccountMapper.selectMerchantIdsAfter(2002L, 2)).thenReturn(Collections.singletonList(2003L));
+        when(settlementCheckpointMapper.selectBySettlementDate(settlementDate)).thenReturn(
+                Collections.emptyList(),
+                Arrays.asList(chunk(1L, 0, 2, Long.MIN_VALUE, 2002L), chunk(2L, 1, 2, 2002L, Long.MAX_VALUE)));
+        when(settlementCheckpointMapper.markDone(anyLong())).thenReturn(1);
+        when(merchantAccountMapper.selectByMerchantIdRange(Long.MIN_VALUE, 2002L)).thenReturn(Arrays.asList(
+                merchantAccount, account(2002L, "20.00")));
+        when(merchantAccountMapper.selectByMerchantIdRange(2002L, Long.MAX_VALUE)).thenReturn(
+                Collections.singletonList(account(2003L, "0")));
+        when(merchantDailySalesService.getDailySalesInRange(settlementDate, Long.MIN_VALUE, 2002L)).thenReturn(
+                Collections.singletonList(sales(2001L, new BigDecimal("10000.00"))));
+        when(merchantDailySalesService.getDailySalesInRange(settlementDate, 2002L, Long.MAX_VALUE)).thenReturn(
+                Collections.singletonList(sales(3001L, new BigDecimal("5.00"))));
+
+        // When
+        settlementService.settleAllMerchants(settlementDate);
+
+        // Then：计划覆盖全部商家ID，末块到 Long.MAX_VALUE 结束
+        ArgumentCaptor<List<SettlementCheckpoint>> planCaptor = ArgumentCaptor.forClass(List.class);
+        verify(settlementCheckpointMapper).insertIgnoreBatch(planCaptor.capture());
+        List<SettlementCheckpoint> plan = planCaptor.getValue();
+        assertEquals(2, plan.size());
+        assertEquals(Long.MIN_VALUE, plan.get(0).getStartMerchantId());
+        assertEquals(2002L, plan.get(0).getEndMerchantId());
+        assertEquals(2002L, plan.get(1).getStartMerchantId());
+        assertEquals(Long.MAX_VALUE, plan.get(1).getEndMerchantId());
+
+        // Then：不再逐个商家查询，结果按批次写入，分块统计记录到检查点
+        verify(merchantAccountMapper, never()).selectByMerchantId(anyLong());
+        verify(merchantDailySalesService, never()).getDailySales(anyLong(), any());
+        verify(settlementResultMapper, times(3)).batchUpsert(anyList());
+        verify(settlementCheckpointMapper).updateCounts(1L, 2, 1, 0);
+        verify(settlementCheckpointMapper).updateCounts(2L, 1, 0, 1);
+    }
+
+    @Test
+    void testSettleAllMerchants_ResumesPendingChunksOfFirstPlan() {
+        // Given：分块0已完成；分块2来自另一个节点并发制定的计划，超出首块记录的分块总数
+        SettlementCheckpoint done = chunk(1L, 0, 2, Long.MIN_VALUE, 2002L);
+        done.setStatus(SettlementCheckpoint.Status.DONE);
+        when(settlementCheckpointMapper.selectBySettlementDate(settlementDate)).thenReturn(Arrays.asList(
+                done, chunk(2L, 1, 2, 2002L, Long.MAX_VALUE), chunk(3L, 2, 3, 2003L, Long.MAX_VALUE)));
+        when(settlementCheckpointMapper.markDone(2L)).thenReturn(1);
+        when(merchantAccountMapper.selectByMerchantIdRange(2002L, Long.MAX_VALUE)).thenReturn(
+                Collections.singletonList(account(2003L, "0")));
+
+        // When
+        settlementService.settleAllMerchants(settlementDate);
+
+        // Then：只处理分块1，不重新制定计划
+        verify(merchantAccountMapper, never()).selectMerchantIdsAfter(anyLong(), anyInt());
+        verify(settlementCheckpointMapper, never()).insertIgnoreBatch(anyList());
+        verify(settlementCheckpointMapper, never()).markDone(1L);
+        verify(settlementCheckpointMapper, never()).markDone(3L);
+        verify(settlementCheckpointMapper).updateCounts(2L, 1, 0, 0);
+    }
+
+    @Test
+    void testSettleAllMerchants_ChunkDoneByAnotherNodeIsSkipped() {
+        // Given：另一个节点已提交该分块
+        when(settlementCheckpointMapper.selectBySettlementDate(settlementDate)).thenReturn(
+                Collections.singletonList(chunk(1L, 0, 1, Long.MIN_VALUE, Long.MAX_VALUE)));
+        when(settlementCheckpointMapper.markDone(1L)).thenReturn(0);
 
         // When
         settlementService.settleAllMerchants(settlementDate);
 
         // Then
-        verify(productInventoryMapper).selectAll();
-        verify(orderMapper, times(2)).sumPaidOrderAmountByMerchantAndTimeRange(anyLong(), any(), any());
+        verify(merchantAccountMapper, never()).selectByMerchantIdRange(anyLong(), anyLong());
+        verify(settlementResultMapper, never()).batchUpsert(anyList());
+        verify(settlementCheckpointMapper, never()).updateCounts(anyLong(), anyInt(), anyInt(), anyInt());
+    }
+
+    private SettlementCheckpoint chunk(Long id, int chunkNo, int chunkCount, Long startMerchantId,
+                                       Long endMerchantId) {
+        SettlementCheckpoint chunk = SettlementCheckpoint.pending(settlementDate, chunkNo, chunkCount,
+                startMerchantId, endMerchantId);
+        chunk.setId(id);
+        return chunk;
+    }
+
+    private MerchantAccount account(Long merchantId, String balance) {
+        return MerchantAccount.builder().merchantId(merchantId).balance(new BigDecimal(balance)).build();
+    }
+
+    private MerchantDailySales sales(Long merchantId, BigDecimal paidAmount) {
+        return MerchantDailySales.builder()
+                .merchantId(merchantId)
+                .salesDate(settlementDate)
+                .paidAmount(paidAmount)
+                .build();
     }
 }
@@ -0,0 +1,187 @@
+package com.mall.service;
+
+import com.mall.dto.OrderBatchCreateResult;
+import com.mall.dto.OrderCreateRequest;
+import com.mall.exception.AdmissionRejectedException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 商品下单准入控制测试
+ *
+ * @author mall
+ */
+@ExtendWith(MockitoExtension.class)
+class SkuAdmissionGateTest {
+
+    @Mock
+    private RedisInventoryService redisInventoryService;
+
+    @Mock
+    private InventoryLeaseService inventoryLeaseService;
+
+    @InjectMocks
+    private SkuAdmissionGate skuAdmissionGate;
+
+    private Long merchantId;
+    private String sku;
+
+    @BeforeEach
+    void setUp() {
+        merchantId = 2001L;
+        sku = "PROD001";
+        ReflectionTestUtils.setField(skuAdmissionGate, "enabled", true);
+        ReflectionTestUtils.setField(skuAdmissionGate, "permitsPerSecond", 1L);
+        ReflectionTestUtils.setField(skuAdmissionGate, "maxBurst", 100L);
+        ReflectionTestUtils.setField(skuAdmissionGate, "stockRefreshMillis", 60_000L);
+        ReflectionTestUtils.setField(skuAdmissionGate, "soldOutTtlMillis", 60_000L);
+        skuAdmissionGate.init();
+    }
+
+    @Test
+    void testExecute_BurstSizedFromRemainingStock() {
+        // Given
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(2);
+
+        // When
+        skuAdmissionGate.execute(merchantId, sku, () -> "ok");
+        skuAdmissionGate.execute(merchantId, sku, () -> "ok");
+        AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class,
+                () -> skuAdmissionGate.execute(merchantId, sku, () -> "ok"));
+
+        // Then
+        assertEquals(SkuAdmissionGate.THROTTLED, e.getErrorCode());
+    }
+
+    @Test
+    void testExecute_SoldOutRejectsWithoutCallingService() {
+        // Given
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(5).thenReturn(0);
+
+        // When
+        assertThrows(IllegalArgumentException.class, () -> skuAdmissionGate.execute(merchantId, sku, () -> {
+            throw new IllegalArgumentException("库存不足");
+        }));
+        AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class,
+                () -> skuAdmissionGate.execute(merchantId, sku, () -> fail("售罄后不应进入下单流程")));
+
+        // Then
+        assertEquals(SkuAdmissionGate.SOLD_OUT, e.getErrorCode());
+        verify(redisInventoryService, times(2)).getInventory(merchantId, sku);
+    }
+
+    @Test
+    void testOnMessage_RestockClearsSoldOut() {
+        // Given
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(0).thenReturn(10);
+        assertThrows(AdmissionRejectedException.class,
+                () -> skuAdmissionGate.executeAll(merchantId, Collections.singletonList(sku), () -> "ok"));
+
+        // When
+        byte[] body = (merchantId + ":" + sku).getBytes(StandardCharsets.UTF_8);
+        skuAdmissionGate.onMessage(new DefaultMessage(new byte[0], body), null);
+
+        // Then
+        assertDoesNotThrow(() -> skuAdmissionGate.executeAll(merchantId, Collections.singletonList(sku), () -> "ok"));
+    }
+
+    @Test
+    void testExecuteAll_RejectedSkuReturnsEarlierTokens() {
+        // Given：PROD001只剩1件，令牌桶容量为1；PROD002已售罄
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(1);
+        when(redisInventoryService.getInventory(merchantId, "PROD002")).thenReturn(0);
+
+        // When
+        AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class,
+                () -> skuAdmissionGate.executeAll(merchantId, Arrays.asList(sku, "PROD002"),
+                        () -> fail("售罄后不应进入下单流程")));
+
+        // Then：PROD001的令牌已归还，单独下单不被限流
+        assertEquals(SkuAdmissionGate.SOLD_OUT, e.getErrorCode());
+        assertEquals("ok", skuAdmissionGate.execute(merchantId, sku, () -> "ok"));
+    }
+
+    @Test
+    void testExecuteAll_FailureMarksSoldOut() {
+        // Given
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(5).thenReturn(0);
+
+        // When
+        assertThrows(IllegalArgumentException.class,
+                () -> skuAdmissionGate.executeAll(merchantId, Collections.singletonList(sku), () -> {
+                    throw new IllegalArgumentException("库存不足");
+                }));
+        AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class,
+                () -> skuAdmissionGate.executeAll(merchantId, Collections.singletonList(sku),
+                        () -> fail("售罄后不应进入下单流程")));
+
+        // Then
+        assertEquals(SkuAdmissionGate.SOLD_OUT, e.getErrorCode());
+    }
+
+    @Test
+    void testExecuteBatch_RejectedItemsReportedAtRequestIndex() {
+        // Given：PROD002已售罄
+        when(redisInventoryService.getInventory(merchantId, sku)).thenReturn(100);
+        when(redisInventoryService.getInventory(merchantId, "PROD002")).thenReturn(0);
+        List<OrderCreateRequest> requests = Arrays.asList(request(sku), request("PROD002"), request(sku));
+        List<List<OrderCreateRequest>> calls = new ArrayList<>();
+
+        // When
+        OrderBatchCreateResult result = skuAdmissionGate.executeBatch(requests, admitted -> {
+            calls.add(admitted);
+            return OrderBatchCreateResult.builder()
+                    .successCount(2)
+                    .failureCount(0)
+                    .items(Arrays.asList(
+                            OrderBatchCreateResult.Item.builder().index(0).success(true).build(),
+                            OrderBatchCreateResult.Item.builder().index(1).success(true).build()))
+                    .build();
+        });
+
+        // Then：被拒绝的订单不进入下单流程，结果按请求序号返回
+        assertEquals(1, calls.size());
+        assertEquals(2, calls.get(0).size());
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(1, result.getFailureCount());
+        assertEquals(Arrays.asList(0, 1, 2), Arrays.asList(result.getItems().get(0).getIndex(),
+                result.getItems().get(1).getIndex(), result.getItems().get(2).getIndex()));
+        assertTrue(result.getItems().get(0).getSuccess());
+        assertFalse(result.getItems().get(1).getSuccess());
+        assertTrue(result.getItems().get(1).getMessage().contains("售罄"));
+        assertTrue(result.getItems().get(2).getSuccess());
+    }
+
+    @Test
+    void testExecute_Disabled() {
+        // Given
+        ReflectionTestUtils.setField(skuAdmissionGate, "enabled", false);
+
+        // When
+        String result = skuAdmissionGate.execute(merchantId, sku, () -> "ok");
+
+        // Then
+        assertEquals("ok", result);
+        verifyNoInteractions(redisInventoryService);
+    }
+
+    private OrderCreateRequest request(String sku) {
+        return OrderCreateRequest.builder().userId(1001L).merchantId(merchantId).sku(sku).quantity(1).build();
+    }
+}
@@ -0,0 +1,131 @@
+package com.mall.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 雪花算法ID生成器测试
+ *
+ * @author mall
+ */
+class SnowflakeIdGeneratorTest {
+
+    @Test
+    void testNextId_UniqueAcrossThreads() throws Exception {
+        // Given
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<long[]>> futures = new ArrayList<>();
+
+        // When
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                long[] ids = new long[20_000];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = generator.nextId();
+                }
+                return ids;
+            }));
+        }
+        Set<Long> ids = new HashSet<>();
+        for (Future<long[]> future : futures) {
+            for (long id : future.get()) {
+                ids.add(id);
+            }
+        }
+        executor.shutdown();
+
+        // Then
+        assertEquals(160_000, ids.size());
+    }
+
+    @Test
+    void testNextId_EncodesNodeAndIncreases() {
+        // Given
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5, 1000);
+
+        // When
+        long first = generator.nextId();
+        long second = generator.nextId();
+
+        // Then
+        assertTrue(second > first);
+        assertEquals(5, (first >>> 12) & SnowflakeIdGenerator.MAX_NODE_ID);
+        assertTrue(generator.nextOrderNo().startsWith("ORD"));
+    }
+
+    @Test
+    void testNextId_ToleratesSmallClockRollback() {
+        // Given
+        AtomicLong clock = new AtomicLong(SnowflakeIdGenerator.EPOCH + 10_000);
+        SnowflakeIdGenerator generator = new ManualClockGenerator(clock, 1000);
+        long beforeRollback = generator.nextId();
+
+        // When
+        clock.addAndGet(-500);
+        long afterRollback = generator.nextId();
+
+        // Then
+        assertTrue(afterRollback > beforeRollback);
+    }
+
+    @Test
+    void testNextId_RejectsLargeClockRollback() {
+        // Given
+        AtomicLong clock = new AtomicLong(SnowflakeIdGenerator.EPOCH + 10_000);
+        SnowflakeIdGenerator generator = new ManualClockGenerator(clock, 1000);
+        generator.nextId();
+
+        // When
+        clock.addAndGet(-5000);
+
+        // Then
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+
+    @Test
+    void testNextId_SequenceOverflowBorrowsNextMillisecond() {
+        // Given
+        AtomicLong clock = new AtomicLong(SnowflakeIdGenerator.EPOCH + 10_000);
+        SnowflakeIdGenerator generator = new ManualClockGenerator(clock, 1000);
+        Set<Long> ids = new HashSet<>();
+
+        // When
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(generator.nextId());
+        }
+
+        // Then
+        assertEquals(10_000, ids.size());
+    }
+
+    @Test
+    void testConstructor_InvalidNodeId() {
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(1024, 1000));
+    }
+
+    private static class ManualClockGenerator extends SnowflakeIdGenerator {
+
+        private final AtomicLong clock;
+
+        ManualClockGenerator(AtomicLong clock, long maxBackwardMillis) {
+            super(1, maxBackwardMillis);
+            this.clock = clock;
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return clock.get();
+        }
+    }
+}
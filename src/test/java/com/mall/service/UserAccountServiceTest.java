@@ -10,8 +10,11 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -39,6 +42,9 @@ class UserAccountServiceTest {
     @Mock
     private RedisAccountService redisAccountService;
 
+    @Mock
+    private RedisCounterVersionService redisCounterVersionService;
+
     @BeforeEach
     void setUp() {
         userId = 1001L;
@@ -50,7 +56,8 @@ class UserAccountServiceTest {
                 .build();
         
         // 初始化服务实现类
-        userAccountService = new UserAccountServiceImpl(userAccountRepository, redisAccountService);
+        userAccountService = new UserAccountServiceImpl(userAccountRepository, redisAccountService,
+                redisCounterVersionService);
     }
 
     @Test
@@ -62,8 +69,9 @@ class UserAccountServiceTest {
                 .currency("CNY")
                 .build();
 
+        existingAccount.setBalance(new BigDecimal("150.00"));
+        when(userAccountRepository.addBalance(userId, new BigDecimal("50.00"), null)).thenReturn(1);
         when(userAccountRepository.selectByUserId(userId)).thenReturn(existingAccount);
-        when(userAccountRepository.updateById(any(UserAccount.class))).thenReturn(1);
 
         // When
         UserAccount result = userAccountService.deposit(request);
@@ -71,8 +79,34 @@ class UserAccountServiceTest {
         // Then
         assertNotNull(result);
         assertEquals(new BigDecimal("150.00"), result.getBalance());
-        verify(userAccountRepository).selectByUserId(userId);
-        verify(userAccountRepository).updateById(any(UserAccount.class));
+        verify(userAccountRepository).addBalance(userId, new BigDecimal("50.00"), null);
+        verify(userAccountRepository, never()).updateById(any(UserAccount.class));
+        verify(redisAccountService).increaseUserBalanceIfPresent(userId, new BigDecimal("50.00"));
+        verify(redisCounterVersionService).advance(Collections.singletonList("account:cents:user:1001"));
+    }
+
+    @Test
+    void testDeposit_RedisUpdatedAfterCommit() {
+        // Given：充值在事务中执行
+        UserAccountDepositRequest request = UserAccountDepositRequest.builder()
+                .userId(userId)
+                .amount(new BigDecimal("50.00"))
+                .build();
+        when(userAccountRepository.addBalance(userId, new BigDecimal("50.00"), null)).thenReturn(1);
+        when(userAccountRepository.selectByUserId(userId)).thenReturn(existingAccount);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // When
+            userAccountService.deposit(request);
+
+            // Then：提交前不修改Redis，提交后增加余额并推进版本
+            verifyNoInteractions(redisAccountService, redisCounterVersionService);
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(redisAccountService).increaseUserBalanceIfPresent(userId, new BigDecimal("50.00"));
+            verify(redisCounterVersionService).advance(Collections.singletonList("account:cents:user:1001"));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
 
     @Test
@@ -84,7 +118,7 @@ class UserAccountServiceTest {
                 .currency("CNY")
                 .build();
 
-        when(userAccountRepository.selectByUserId(9999L)).thenReturn(null);
+        when(userAccountRepository.addBalance(9999L, new BigDecimal("100.00"), null)).thenReturn(0);
         when(userAccountRepository.insert(any(UserAccount.class))).thenReturn(1);
 
         // When
@@ -94,8 +128,8 @@ class UserAccountServiceTest {
         assertNotNull(result);
         assertEquals(9999L, result.getUserId());
         assertEquals(new BigDecimal("100.00"), result.getBalance());
-        verify(userAccountRepository).selectByUserId(9999L);
         verify(userAccountRepository).insert(any(UserAccount.class));
+        verify(redisAccountService).initUserAccount(9999L, new BigDecimal("100.00"));
     }
 
     @Test